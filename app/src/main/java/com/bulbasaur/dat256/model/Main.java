@@ -15,6 +15,8 @@ public class Main {
 
     private Map<MeetUp.Categories, Boolean> categoryFilters = new HashMap<>();
 
+    private final SearchIndex searchIndex = new SearchIndex();
+
     public Main() {
         meetUpsWithinMapView = new ArrayList<>();
         friendsWithinMapView = new ArrayList<>();
@@ -29,13 +31,21 @@ public class Main {
     }
 
     public void updateMapMeetUp(MeetUp meetUp) {
-        if (!meetUpsWithinMapView.contains(meetUp)) {
+        int index = meetUpsWithinMapView.indexOf(meetUp);
+
+        if (index < 0) {
             meetUpsWithinMapView.add(meetUp);
 
             System.out.println("MeetUp Added to Map: " + meetUp.getId() + " " + meetUp.getName());
+        } else {
+            meetUpsWithinMapView.set(index, meetUp);
         }
     }
 
+    public void removeMapMeetUp(MeetUp meetUp) {
+        meetUpsWithinMapView.remove(meetUp);
+    }
+
     public void updateMapFriends(User user){
         if(!friendsWithinMapView.contains(user)){
             friendsWithinMapView.add(user);
@@ -96,4 +106,13 @@ public class Main {
     public Map<MeetUp.Categories, Boolean> getCategoryFilters() {
         return categoryFilters;
     }
+
+    /**
+     * returns the index of the meetups and users that have been loaded, for the search bar of the
+     * map. the views add the meetups and users they receive from the database to it
+     * @return the SearchIndex object
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
 }
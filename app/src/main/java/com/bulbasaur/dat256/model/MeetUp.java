@@ -8,8 +8,11 @@ import com.bulbasaur.dat256.R;
 import com.bulbasaur.dat256.viewmodel.utilities.Helpers;
 
 import java.io.Serializable;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
@@ -41,6 +44,22 @@ public class MeetUp implements Serializable {
         FRIENDS, PUBLIC
     }
 
+    /**
+     * orders meetups by name, ignoring case, as in the list of meetups
+     */
+    public static final Comparator<MeetUp> NAME_ORDER = (o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName());
+
+    /**
+     * orders meetups by the month, day and time of their start, as in the list of meetups
+     */
+    public static final Comparator<MeetUp> START_ORDER = (o1, o2) -> {
+        DateFormat format1 = new SimpleDateFormat("MM-dd HH:mm");
+        String strDate1 = format1.format(o1.getStart().getTime());
+        DateFormat format2 = new SimpleDateFormat("MM-dd HH:mm");
+        String strDate2 = format2.format(o2.getStart().getTime());
+        return strDate1.compareToIgnoreCase(strDate2);
+    };
+
     private String id;
 
     private String creatorID; //owner - either person or group?
@@ -64,6 +83,8 @@ public class MeetUp implements Serializable {
 
     private String date;
 
+    private boolean summary;
+
     public MeetUp() {
         this.coords = new Coordinates();
     }
@@ -275,4 +296,17 @@ public class MeetUp implements Serializable {
     public boolean alreadyAttendedBy(String userID) {
         return attendingUsers.contains(userID);
     }
+
+    /**
+     * a summary only has the fields needed to draw the meetup on the map and in the list, the
+     * description is shortened and the lists of users are empty. the full meetup is fetched
+     * from the meetups collection when it is opened
+     */
+    public boolean isSummary() {
+        return summary;
+    }
+
+    public void setSummary(boolean summary) {
+        this.summary = summary;
+    }
 }
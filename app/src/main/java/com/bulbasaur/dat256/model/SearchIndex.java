@@ -0,0 +1,349 @@
+package com.bulbasaur.dat256.model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * in-memory index of the meetups and users that the app has loaded, for the search bar of the
+ * map. the names and descriptions of the meetups and the first and last names of the users are
+ * split into words, and a query matches an entry when each of its words is the start of a word
+ * of the entry, e.g. "pad gbg" matches "Padel in Gbg". a word of the query that is not the start
+ * of any word is matched by its trigrams instead, so "ball" and "fotball" both match "football"
+ *
+ * the hits are ranked by their distance to the current view of the map, the ones within it
+ * first, then by how well they match. at most MAX_ENTRIES entries are kept, the ones that were
+ * added or updated the longest ago are dropped first
+ */
+public class SearchIndex {
+
+    public static final int MAX_ENTRIES = 10_000;
+
+    private static final int NAME = 2;
+    private static final int DESCRIPTION = 1;
+    private static final int TRIGRAM = 0;
+    private static final double MIN_TRIGRAMS = 0.6;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final TreeMap<String, Set<Entry>> names = new TreeMap<>();
+    private final TreeMap<String, Set<Entry>> descriptions = new TreeMap<>();
+    private final Map<String, Set<Entry>> trigrams = new HashMap<>();
+
+    /**
+     * adds the given meetup to the index, or updates it if it is already indexed
+     * @param meetUp the meetup
+     */
+    public synchronized void add(MeetUp meetUp) {
+        if (meetUp == null || meetUp.getId() == null || meetUp.getName() == null) return;
+
+        put(new Entry("meetup:" + meetUp.getId(), meetUp, null, meetUp.getName(), meetUp.getDescription(), meetUp.getCoordinates()));
+    }
+
+    /**
+     * adds the given user to the index, or updates it if it is already indexed
+     * @param user the user
+     */
+    public synchronized void add(User user) {
+        if (user == null || user.getId() == null) return;
+
+        String name = (user.getFirstName() == null ? "" : user.getFirstName()) + " " + (user.getLastName() == null ? "" : user.getLastName());
+        put(new Entry("user:" + user.getId(), null, user, name.trim(), null, user.getCoordinates()));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        names.clear();
+        descriptions.clear();
+        trigrams.clear();
+    }
+
+    /**
+     * searches the index for the given query
+     * @param query the text of the search bar
+     * @param view the current view of the map, may be null
+     * @param limit the max number of hits
+     * @return the hits, the best one first
+     */
+    public synchronized List<Hit> search(String query, MapBounds view, int limit) {
+        List<String> words = new ArrayList<>(words(query));
+        if (words.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // the longest word of the query is matched first, since it matches the fewest entries
+        Collections.sort(words, (a, b) -> b.length() - a.length());
+        Map<Entry, Integer> scores = null;
+
+        for (String word : words) {
+            Map<Entry, Integer> matches = match(word);
+            if (scores == null) {
+                scores = matches;
+                continue;
+            }
+
+            Iterator<Map.Entry<Entry, Integer>> iterator = scores.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Entry, Integer> score = iterator.next();
+                Integer match = matches.get(score.getKey());
+                if (match == null) {
+                    iterator.remove();
+                }
+                else {
+                    score.setValue(score.getValue() + match);
+                }
+            }
+
+            if (scores.isEmpty()) break;
+        }
+
+        List<Hit> hits = new ArrayList<>(scores.size());
+        for (Map.Entry<Entry, Integer> score : scores.entrySet()) {
+            hits.add(new Hit(score.getKey(), score.getValue(), distanceKm(view, score.getKey().coordinates)));
+        }
+
+        Collections.sort(hits, (a, b) -> a.distanceKm != b.distanceKm ? Double.compare(a.distanceKm, b.distanceKm)
+                : a.score != b.score ? b.score - a.score
+                : a.entry.title.compareToIgnoreCase(b.entry.title));
+
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * returns the entries that have a word that starts with the given word, with the best score
+     * of the matching words. if there are none the entries that share most of the trigrams of
+     * the word are returned
+     */
+    private Map<Entry, Integer> match(String word) {
+        Map<Entry, Integer> matches = new HashMap<>();
+
+        for (Set<Entry> postings : descriptions.subMap(word, true, word + Character.MAX_VALUE, true).values()) {
+            for (Entry entry : postings) {
+                matches.put(entry, DESCRIPTION);
+            }
+        }
+        for (Map.Entry<String, Set<Entry>> name : names.subMap(word, true, word + Character.MAX_VALUE, true).entrySet()) {
+            int score = name.getKey().length() == word.length() ? NAME + 1 : NAME;
+            for (Entry entry : name.getValue()) {
+                Integer previous = matches.get(entry);
+                matches.put(entry, previous == null ? score : Math.max(previous, score));
+            }
+        }
+
+        if (matches.isEmpty() && word.length() >= 3) {
+            Set<String> grams = trigrams(word);
+            Map<Entry, Integer> shared = new HashMap<>();
+
+            for (String gram : grams) {
+                Set<Entry> postings = trigrams.get(gram);
+                if (postings == null) continue;
+
+                for (Entry entry : postings) {
+                    Integer count = shared.get(entry);
+                    shared.put(entry, count == null ? 1 : count + 1);
+                }
+            }
+
+            int needed = (int) Math.ceil(grams.size() * MIN_TRIGRAMS);
+            for (Map.Entry<Entry, Integer> count : shared.entrySet()) {
+                if (count.getValue() >= needed) {
+                    matches.put(count.getKey(), TRIGRAM);
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    private void put(Entry entry) {
+        Entry previous = entries.remove(entry.key);
+        if (previous != null) {
+            unindex(previous);
+        }
+
+        entries.put(entry.key, entry);
+        index(names, entry.names, entry);
+        index(descriptions, entry.descriptions, entry);
+        index(trigrams, entry.trigrams, entry);
+
+        if (entries.size() > MAX_ENTRIES) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            Entry dropped = oldest.next();
+            oldest.remove();
+            unindex(dropped);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        unindex(names, entry.names, entry);
+        unindex(descriptions, entry.descriptions, entry);
+        unindex(trigrams, entry.trigrams, entry);
+    }
+
+    private static void index(Map<String, Set<Entry>> index, Set<String> keys, Entry entry) {
+        for (String key : keys) {
+            Set<Entry> postings = index.get(key);
+            if (postings == null) {
+                postings = new HashSet<>();
+                index.put(key, postings);
+            }
+            postings.add(entry);
+        }
+    }
+
+    private static void unindex(Map<String, Set<Entry>> index, Set<String> keys, Entry entry) {
+        for (String key : keys) {
+            Set<Entry> postings = index.get(key);
+            if (postings != null && postings.remove(entry) && postings.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * splits the given text into lower case words without accents, e.g. "Fika på Café" into
+     * "fika", "pa" and "cafe"
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new HashSet<>();
+        if (text == null) {
+            return words;
+        }
+
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+        for (String word : normalized.split("[^\\p{L}\\p{Nd}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        return words;
+    }
+
+    private static Set<String> trigrams(String word) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            grams.add(word.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * returns the distance in km from the given coordinates to the closest point of the given
+     * view, 0 if they are within it
+     */
+    private static double distanceKm(MapBounds view, Coordinates coordinates) {
+        if (coordinates == null || Double.isInfinite(coordinates.lat) || Double.isInfinite(coordinates.lon)) {
+            return Double.MAX_VALUE;
+        }
+        if (view == null) {
+            return 0;
+        }
+
+        double lat = Math.max(view.getBottomLeft().lat, Math.min(view.getTopRight().lat, coordinates.lat));
+        double lon = Math.max(view.getBottomLeft().lon, Math.min(view.getTopRight().lon, coordinates.lon));
+        double x = Math.toRadians(coordinates.lon - lon) * Math.cos(Math.toRadians((coordinates.lat + lat) / 2));
+        double y = Math.toRadians(coordinates.lat - lat);
+
+        return Math.sqrt(x * x + y * y) * 6371;
+    }
+
+    /**
+     * an indexed meetup or user
+     */
+    private static class Entry {
+
+        final String key;
+        final MeetUp meetUp;
+        final User user;
+        final String title;
+        final Coordinates coordinates;
+        final Set<String> names;
+        final Set<String> descriptions;
+        final Set<String> trigrams = new HashSet<>();
+
+        Entry(String key, MeetUp meetUp, User user, String title, String description, Coordinates coordinates) {
+            this.key = key;
+            this.meetUp = meetUp;
+            this.user = user;
+            this.title = title;
+            this.coordinates = coordinates;
+            this.names = words(title);
+            this.descriptions = words(description);
+            this.descriptions.removeAll(names);
+
+            for (String word : names) {
+                trigrams.addAll(SearchIndex.trigrams(word));
+            }
+            for (String word : descriptions) {
+                trigrams.addAll(SearchIndex.trigrams(word));
+            }
+        }
+    }
+
+    /**
+     * a meetup or user that matches a query
+     */
+    public static class Hit {
+
+        private final Entry entry;
+        private final int score;
+        private final double distanceKm;
+
+        private Hit(Entry entry, int score, double distanceKm) {
+            this.entry = entry;
+            this.score = score;
+            this.distanceKm = distanceKm;
+        }
+
+        /**
+         * @return the meetup, or null if the hit is a user
+         */
+        public MeetUp getMeetUp() {
+            return entry.meetUp;
+        }
+
+        /**
+         * @return the user, or null if the hit is a meetup
+         */
+        public User getUser() {
+            return entry.user;
+        }
+
+        /**
+         * @return the name of the meetup or the full name of the user
+         */
+        public String getTitle() {
+            return entry.title;
+        }
+
+        public Coordinates getCoordinates() {
+            return entry.coordinates;
+        }
+
+        /**
+         * @return the distance in km to the view of the search, 0 if the hit is within it and
+         * Double.MAX_VALUE if it has no position
+         */
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+
+        @Override
+        public String toString() {
+            return entry.title;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author ludwighultqvist
+ * package private class that implements ReadPolicy.CACHE_THEN_SERVER on top of the CACHE_ONLY
+ * and SERVER_ONLY reads of a provider, so that every provider reconciles the two results in the
+ * same way
+ */
+final class CacheThenServer {
+
+    /**
+     * a read of a provider with a given read policy
+     * @param <E> the result of the read
+     */
+    interface Read<E> {
+        void run(ReadPolicy policy, RequestListener<E> listener);
+    }
+
+    /**
+     * a test of whether the result of the local read has anything to show
+     * @param <E> the result of the read
+     */
+    interface Found<E> {
+        boolean test(E result);
+    }
+
+    private CacheThenServer() {}
+
+    /**
+     * runs the read first with CACHE_ONLY and then with SERVER_ONLY. a successful local result
+     * that has something to show is delivered to listener.onSuccess, unless the result of the
+     * server has already arrived. every result of the server is delivered
+     * @param read the read to run
+     * @param found the test of the local result
+     * @param listener the listener of the request
+     * @param <E> the result of the read
+     */
+    static <E> void read(@NonNull Read<E> read, @NonNull Found<E> found, @NonNull RequestListener<E> listener) {
+        AtomicBoolean served = new AtomicBoolean();
+
+        read.run(ReadPolicy.CACHE_ONLY, new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                if (!served.get() && found.test(object)) {
+                    listener.onSuccess(object);
+                }
+            }
+        });
+
+        read.run(ReadPolicy.SERVER_ONLY, new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                served.set(true);
+                super.onSuccess(object);
+                listener.onSuccess(object);
+            }
+
+            @Override
+            public void onComplete(E object) {
+                served.set(true);
+                super.onComplete(object);
+                listener.onComplete(object);
+            }
+
+            @Override
+            public void onFailure(E object) {
+                served.set(true);
+                super.onFailure(object);
+                listener.onFailure(object);
+            }
+        });
+    }
+}
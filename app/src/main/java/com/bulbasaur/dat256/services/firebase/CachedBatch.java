@@ -0,0 +1,95 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBBatch interface by wrapping a batch of another provider. the
+ * documents of the batch are removed from the DocumentCache, and the loaded ones are put back
+ * when the batch has been committed
+ */
+class CachedBatch implements DBBatch {
+
+    private final CachingProvider provider;
+    private final DBBatch batch;
+    private final List<CachedDocument> documents = new ArrayList<>();
+
+    /**
+     * package private constructor, batches are only wrapped by the CachingProvider
+     * @param provider the caching provider
+     * @param batch the wrapped batch
+     */
+    CachedBatch(@NonNull CachingProvider provider, @NonNull DBBatch batch) {
+        this.provider = provider;
+        this.batch = batch;
+    }
+
+    @Override
+    public DBBatch save(@NonNull DBDocument document) {
+        batch.save(unwrap(document, true));
+        return this;
+    }
+
+    @Override
+    public DBBatch overwrite(@NonNull DBDocument document) {
+        batch.overwrite(unwrap(document, true));
+        return this;
+    }
+
+    @Override
+    public DBBatch delete(@NonNull DBDocument document) {
+        batch.delete(unwrap(document, false));
+        return this;
+    }
+
+    @Override
+    public void commit(@NonNull RequestListener<DBBatch> listener) {
+        batch.commit(new RequestListener<DBBatch>() {
+            @Override
+            public void onSuccess(DBBatch object) {
+                super.onSuccess(object);
+                for (CachedDocument document : documents) {
+                    if (document.isLoaded()) {
+                        provider.cache().put(document.path(), document.id(), document);
+                    }
+                }
+                listener.onSuccess(CachedBatch.this);
+            }
+
+            @Override
+            public void onComplete(DBBatch object) {
+                super.onComplete(object);
+                listener.onComplete(CachedBatch.this);
+            }
+
+            @Override
+            public void onFailure(DBBatch object) {
+                super.onFailure(object);
+                listener.onFailure(CachedBatch.this);
+            }
+        });
+    }
+
+    /**
+     * removes the given document from the cache and returns the document of the underlying
+     * provider
+     * @param document the document
+     * @param cacheOnCommit true if the document should be put back in the cache after the commit
+     * @return the unwrapped document
+     */
+    private DBDocument unwrap(DBDocument document, boolean cacheOnCommit) {
+        if (!(document instanceof CachedDocument)) {
+            return document;
+        }
+
+        CachedDocument cached = (CachedDocument) document;
+        provider.cache().invalidate(cached.path(), cached.id());
+        if (cacheOnCommit) {
+            documents.add(cached);
+        }
+        return cached.document();
+    }
+}
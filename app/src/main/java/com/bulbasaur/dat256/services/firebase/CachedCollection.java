@@ -0,0 +1,419 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.bulbasaur.dat256.model.MapBounds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBCollection interface by wrapping a collection of another provider.
+ * documents fetched by id are read through the DocumentCache, and the loaded documents of every
+ * search are put in the cache
+ */
+class CachedCollection implements DBCollection {
+
+    private final CachingProvider provider;
+    private final DBCollection collection;
+    private final String path;
+
+    /**
+     * package private constructor, collections are only wrapped by the CachingProvider
+     * @param provider the caching provider of the collection
+     * @param collection the wrapped collection
+     * @param path the path of the collection
+     */
+    CachedCollection(@NonNull CachingProvider provider, @NonNull DBCollection collection, @NonNull String path) {
+        this.provider = provider;
+        this.collection = collection;
+        this.path = path;
+    }
+
+    DBCollection collection() {
+        return collection;
+    }
+
+    String path() {
+        return path;
+    }
+
+    @Override
+    public DBDocument create(String id) {
+        return wrap(collection.create(id));
+    }
+
+    @Override
+    public DBDocument create() {
+        return wrap(collection.create());
+    }
+
+    /**
+     * fetches a document with the given id from the cache, or from the database if it is not
+     * cached
+     * @param id the given id string
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    @Override
+    public DBDocument get(String id, @NonNull RequestListener<DBDocument> listener) {
+        return get(id, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches a document with the given id. unless the read is SERVER_ONLY, a document that is
+     * fresh in the cache is delivered on the executor of the provider, like the result of a
+     * request. every caller gets its own copy of the cached document. documents read from the
+     * offline cache of the underlying provider are not put in the cache, since they may be old.
+     * a get of a document that is already being fetched with the same read policy waits for
+     * that request
+     * @param id the given id string
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    @Override
+    public DBDocument get(String id, @NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> get(id, from, read), document -> true, listener);
+            return listener.getObject();
+        }
+
+        listener = provider.metrics().record(path, "get", listener);
+
+        if (policy != ReadPolicy.SERVER_ONLY) {
+            DBDocument cached = cached(id);
+            if (cached != null) {
+                RequestListener<DBDocument> hit = provider.guard(listener);
+                provider.executor().execute(() -> hit.onSuccess(cached));
+                return cached;
+            }
+        }
+
+        provider.gets().run(provider.key(policy + ":" + path + "/" + id), provider.guard(listener), read -> provider.schedule(policy, read, (from, scheduled) -> collection.get(id, from, new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                super.onSuccess(object);
+                scheduled.onSuccess(from != ReadPolicy.CACHE_ONLY ? cache(object) : wrap(object));
+            }
+
+            @Override
+            public void onComplete(DBDocument object) {
+                super.onComplete(object);
+                scheduled.onComplete(wrap(object));
+            }
+
+            @Override
+            public void onFailure(DBDocument object) {
+                super.onFailure(object);
+                scheduled.onFailure(wrap(object));
+            }
+        })));
+
+        return listener.getObject();
+    }
+
+    /**
+     * fetches the documents with the given ids, the cached ones from the cache and the rest from
+     * the database in one call. if all documents are cached no request is made
+     * @param ids the list of id strings
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return getAll(ids, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches the documents with the given ids. unless the read is SERVER_ONLY, the documents that
+     * are fresh in the cache are taken from it and only the rest are read with the read policy
+     * @param ids the list of id strings
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> getAll(ids, from, read), Collection::anyLoaded, listener);
+            return listener.getObject();
+        }
+
+        listener = provider.metrics().record(path, "getAll", listener);
+
+        List<DBDocument> result = new ArrayList<>(ids.size());
+        List<String> missing = new ArrayList<>();
+
+        for (String id : ids) {
+            DBDocument cached = policy == ReadPolicy.SERVER_ONLY ? null : cached(id);
+            result.add(cached);
+            if (cached == null) {
+                missing.add(id);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            RequestListener<List<? extends DBDocument>> hit = provider.guard(listener);
+            provider.executor().execute(() -> hit.onSuccess(result));
+            return result;
+        }
+
+        provider.schedule(policy, provider.guard(listener), (from, scheduled) -> collection.getAll(missing, from, new RequestListener<List<? extends DBDocument>>() {
+            @Override
+            public void onSuccess(List<? extends DBDocument> object) {
+                super.onSuccess(object);
+
+                int next = 0;
+                for (int i = 0; i < result.size(); i++) {
+                    if (result.get(i) == null) {
+                        DBDocument document = object.get(next++);
+                        result.set(i, from != ReadPolicy.CACHE_ONLY ? cache(document) : wrap(document));
+                    }
+                }
+
+                scheduled.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(List<? extends DBDocument> object) {
+                super.onFailure(object);
+                scheduled.onFailure(result);
+            }
+        }));
+
+        return listener.getObject();
+    }
+
+    @Override
+    public List<? extends DBDocument> all(@NonNull RequestListener<List<? extends DBDocument>> listener) {
+        listener = provider.metrics().record(path, "all", listener);
+        provider.schedule(provider.guard(listener), scheduled -> collection.all(caching(scheduled)));
+        return listener.getObject();
+    }
+
+    @Override
+    public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return search(queryFilter, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * searches the underlying collection with the given read policy. the documents are put in the
+     * cache, except the ones read from the offline cache of the underlying provider. an identical
+     * search that is already in flight is not made again
+     * @param queryFilter the filter object
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> search(queryFilter, from, read), documents -> !documents.isEmpty(), listener);
+            return listener.getObject();
+        }
+
+        listener = provider.metrics().record(path, "search", listener);
+
+        String key = provider.key(policy + ":" + path + "?" + queryFilter.key());
+        provider.searches().run(key, provider.guard(listener), read -> provider.schedule(policy, read,
+                (from, scheduled) -> collection.search(queryFilter, from, caching(scheduled, from != ReadPolicy.CACHE_ONLY))));
+        return listener.getObject();
+    }
+
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return searchWithin(bounds, null, listener);
+    }
+
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        listener = provider.metrics().record(path, "searchWithin", listener);
+        provider.schedule(provider.guard(listener), scheduled -> collection.searchWithin(bounds, queryFilter, caching(scheduled)));
+        return listener.getObject();
+    }
+
+    @Override
+    public DBPage page(QueryFilter queryFilter, int pageSize, String token, @NonNull RequestListener<DBPage> listener) {
+        listener = provider.metrics().record(path, "page", listener);
+        provider.schedule(provider.guard(listener), scheduled -> collection.page(queryFilter, pageSize, token, cachingPage(scheduled)));
+        return listener.getObject();
+    }
+
+    /**
+     * streams the pages of the underlying collection. a stream is not started by the scheduler,
+     * since it would hold its place until the last page
+     */
+    @Override
+    public void stream(QueryFilter queryFilter, int pageSize, @NonNull RequestListener<DBPage> listener) {
+        collection.stream(queryFilter, pageSize, cachingPage(listener));
+    }
+
+    /**
+     * starts a live query of the underlying collection. the documents it delivers are kept in the
+     * cache, and a removed document is removed from the cache
+     * @param queryFilter the filter object, may be null to listen to all documents
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    @Override
+    public DBSubscription listen(QueryFilter queryFilter, @NonNull DBListener listener) {
+        return collection.listen(queryFilter, caching(listener));
+    }
+
+    @Override
+    public DBSubscription listenWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull DBListener listener) {
+        return collection.listenWithin(bounds, queryFilter, caching(listener));
+    }
+
+    @Override
+    public Runnable tester() {
+        return collection.tester();
+    }
+
+    /**
+     * wraps the given document of the underlying provider
+     */
+    DBDocument wrap(DBDocument document) {
+        return document == null ? null : new CachedDocument(provider, document, path);
+    }
+
+    /**
+     * returns a new document with the fields of the cached document with the given id, or null
+     * if it is not cached. the underlying collection must be able to restore its documents
+     */
+    private DBDocument cached(String id) {
+        if (!(collection instanceof Restorable)) {
+            return null;
+        }
+
+        Map<String, Object> fields = provider.cache().get(path, id);
+        return fields != null ? wrap(((Restorable) collection).restore(id, fields)) : null;
+    }
+
+    /**
+     * wraps the given document of the underlying provider and puts a copy of its fields in the
+     * cache if it is loaded
+     */
+    private DBDocument cache(DBDocument document) {
+        DBDocument wrapped = wrap(document);
+
+        if (wrapped != null && wrapped.isLoaded()) {
+            provider.cache().put(path, wrapped.id(), wrapped);
+        }
+
+        return wrapped;
+    }
+
+    private List<DBDocument> cacheAll(List<? extends DBDocument> documents) {
+        return cacheAll(documents, true);
+    }
+
+    private List<DBDocument> cacheAll(List<? extends DBDocument> documents, boolean fresh) {
+        if (documents == null) {
+            return null;
+        }
+
+        List<DBDocument> wrapped = new ArrayList<>(documents.size());
+        for (DBDocument document : documents) {
+            wrapped.add(fresh ? cache(document) : wrap(document));
+        }
+        return wrapped;
+    }
+
+    /**
+     * creates a listener that puts the documents of a search in the cache before they are passed
+     * on to the given listener
+     */
+    private RequestListener<List<? extends DBDocument>> caching(RequestListener<List<? extends DBDocument>> listener) {
+        return caching(listener, true);
+    }
+
+    /**
+     * creates a listener that wraps the documents of a search, and puts them in the cache if they
+     * are fresh, before they are passed on to the given listener
+     */
+    private RequestListener<List<? extends DBDocument>> caching(RequestListener<List<? extends DBDocument>> listener, boolean fresh) {
+        return new RequestListener<List<? extends DBDocument>>() {
+            @Override
+            public void onSuccess(List<? extends DBDocument> object) {
+                super.onSuccess(object);
+                listener.onSuccess(cacheAll(object, fresh));
+            }
+
+            @Override
+            public void onComplete(List<? extends DBDocument> object) {
+                super.onComplete(object);
+                listener.onComplete(cacheAll(object, fresh));
+            }
+
+            @Override
+            public void onFailure(List<? extends DBDocument> object) {
+                super.onFailure(object);
+                listener.onFailure(cacheAll(object, fresh));
+            }
+        };
+    }
+
+    /**
+     * creates a listener that puts the documents of a page in the cache before the page is passed
+     * on to the given listener
+     */
+    private RequestListener<DBPage> cachingPage(RequestListener<DBPage> listener) {
+        return new RequestListener<DBPage>() {
+            @Override
+            public void onSuccess(DBPage object) {
+                super.onSuccess(object);
+                listener.onSuccess(new DBPage(cacheAll(object.documents()), object.token()));
+            }
+
+            @Override
+            public void onFailure(DBPage object) {
+                super.onFailure(object);
+                listener.onFailure(object);
+            }
+        };
+    }
+
+    /**
+     * creates a live query listener that keeps the cache up to date with the changes before they
+     * are passed on to the given listener
+     */
+    private DBListener caching(DBListener listener) {
+        return new DBListener() {
+            @Override
+            public void onAdded(DBDocument document) {
+                listener.onAdded(cache(document));
+            }
+
+            @Override
+            public void onModified(DBDocument document) {
+                listener.onModified(cache(document));
+            }
+
+            @Override
+            public void onRemoved(DBDocument document) {
+                provider.cache().invalidate(path, document.id());
+                listener.onRemoved(wrap(document));
+            }
+
+            @Override
+            public void update() {
+                listener.update();
+            }
+
+            @Override
+            public void onFailure() {
+                listener.onFailure();
+            }
+        };
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CachedCollection: [" + "path: " + path + ", " + "collection: " + collection + "]";
+    }
+}
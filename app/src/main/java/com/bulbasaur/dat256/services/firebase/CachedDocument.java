@@ -0,0 +1,277 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.function.BiConsumer;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBDocument interface by wrapping a document of another provider,
+ * so that the DocumentCache is kept up to date when the document is changed, saved or deleted
+ */
+class CachedDocument implements DBDocument {
+
+    private final CachingProvider provider;
+    private final DBDocument document;
+    private final String path;
+
+    /**
+     * package private constructor, documents are only wrapped by the CachedCollection
+     * @param provider the caching provider of the document
+     * @param document the wrapped document
+     * @param path the path of the collection of the document
+     */
+    CachedDocument(@NonNull CachingProvider provider, @NonNull DBDocument document, @NonNull String path) {
+        this.provider = provider;
+        this.document = document;
+        this.path = path;
+    }
+
+    DBDocument document() {
+        return document;
+    }
+
+    String path() {
+        return path;
+    }
+
+    /**
+     * initializes the document by fetching a fresh copy of its content from the database, the
+     * fresh copy replaces the cached one
+     * @param listener the listener of the request
+     */
+    @Override
+    public void init(@NonNull RequestListener<DBDocument> listener) {
+        init(ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * initializes the document with the given read policy. the content is put in the cache unless
+     * it was read from the offline cache of the underlying provider. the read is started by the
+     * scheduler of the provider
+     * @param policy the read policy
+     * @param listener the listener of the request
+     */
+    @Override
+    public void init(@NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read(this::init, object -> true, listener);
+            return;
+        }
+
+        listener = provider.metrics().record(path, "init", listener);
+
+        provider.schedule(policy, provider.guard(listener), (from, scheduled) -> document.init(from, new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                super.onSuccess(object);
+                if (from != ReadPolicy.CACHE_ONLY) {
+                    provider.cache().put(path, id(), CachedDocument.this);
+                }
+                scheduled.onSuccess(CachedDocument.this);
+            }
+
+            @Override
+            public void onComplete(DBDocument object) {
+                super.onComplete(object);
+                if (from != ReadPolicy.CACHE_ONLY) {
+                    provider.cache().invalidate(path, id());
+                }
+                scheduled.onComplete(CachedDocument.this);
+            }
+
+            @Override
+            public void onFailure(DBDocument object) {
+                super.onFailure(object);
+                scheduled.onFailure(CachedDocument.this);
+            }
+        }));
+    }
+
+    @Override
+    public String id() {
+        return document.id();
+    }
+
+    @Override
+    public Object get(String field) {
+        return document.get(field);
+    }
+
+    @Override
+    public void forEach(@NonNull BiConsumer<String, Object> action) {
+        document.forEach(action);
+    }
+
+    /**
+     * sets the local object of the given field. the document is removed from the cache until it
+     * is saved, since the stored document is about to change
+     * @param field the field string
+     * @param object the object to be saved on the field
+     */
+    @Override
+    public void set(String field, Object object) {
+        provider.cache().invalidate(path, id());
+        document.set(field, object);
+    }
+
+    /**
+     * marks the document as changed. the document is removed from the cache until it is saved,
+     * since the derived fields of the stored document are about to change
+     */
+    @Override
+    public void touch() {
+        provider.cache().invalidate(path, id());
+        document.touch();
+    }
+
+    /**
+     * removes the local object of the given field. the document is removed from the cache until
+     * it is saved
+     * @param field the field string
+     */
+    @Override
+    public void remove(String field) {
+        provider.cache().invalidate(path, id());
+        document.remove(field);
+    }
+
+    @Override
+    public void arrayUnion(String field, Object... values) {
+        provider.cache().invalidate(path, id());
+        document.arrayUnion(field, values);
+    }
+
+    @Override
+    public void arrayRemove(String field, Object... values) {
+        provider.cache().invalidate(path, id());
+        document.arrayRemove(field, values);
+    }
+
+    @Override
+    public void increment(String field, long amount) {
+        provider.cache().invalidate(path, id());
+        document.increment(field, amount);
+    }
+
+    /**
+     * saves the changed fields of the document in the database, and puts it in the cache when
+     * the save succeeded
+     * @param listener the listener of the request
+     */
+    @Override
+    public void save(@NonNull RequestListener<DBDocument> listener) {
+        provider.cache().invalidate(path, id());
+        document.save(caching(provider.metrics().record(path, "save", listener)));
+    }
+
+    /**
+     * saves all local fields of the document in the database, and puts it in the cache when the
+     * save succeeded
+     * @param listener the listener of the request
+     */
+    @Override
+    public void overwrite(@NonNull RequestListener<DBDocument> listener) {
+        provider.cache().invalidate(path, id());
+        document.overwrite(caching(provider.metrics().record(path, "overwrite", listener)));
+    }
+
+    /**
+     * creates a listener that puts the document in the cache when a write succeeded. a document
+     * that is not loaded only knows the fields it changed, so it is not cached
+     */
+    private RequestListener<DBDocument> caching(RequestListener<DBDocument> listener) {
+        return new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                super.onSuccess(object);
+                if (isLoaded()) {
+                    provider.cache().put(path, id(), CachedDocument.this);
+                }
+                listener.onSuccess(CachedDocument.this);
+            }
+
+            @Override
+            public void onComplete(DBDocument object) {
+                super.onComplete(object);
+                listener.onComplete(CachedDocument.this);
+            }
+
+            @Override
+            public void onFailure(DBDocument object) {
+                super.onFailure(object);
+                listener.onFailure(CachedDocument.this);
+            }
+        };
+    }
+
+    /**
+     * deletes the document from the database and the cache
+     * @param listener the listener of the request
+     */
+    @Override
+    public void delete(@NonNull RequestListener<DBDocument> listener) {
+        provider.cache().invalidate(path, id());
+        RequestListener<DBDocument> recording = provider.metrics().record(path, "delete", listener);
+
+        document.delete(new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                super.onSuccess(object);
+                recording.onSuccess(CachedDocument.this);
+            }
+
+            @Override
+            public void onComplete(DBDocument object) {
+                super.onComplete(object);
+                recording.onComplete(CachedDocument.this);
+            }
+
+            @Override
+            public void onFailure(DBDocument object) {
+                super.onFailure(object);
+                recording.onFailure(CachedDocument.this);
+            }
+        });
+    }
+
+    @Override
+    public DBCollection subCollection(String name) {
+        return new CachedCollection(provider, document.subCollection(name), path + "/" + id() + "/" + name);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return document.isEmpty();
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return document.isLoaded();
+    }
+
+    @Override
+    public Runnable tester() {
+        return document.tester();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CachedDocument)) {
+            return false;
+        }
+
+        return document.equals(((CachedDocument) obj).document);
+    }
+
+    @Override
+    public int hashCode() {
+        return document.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return document.toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBTransaction interface by wrapping a transaction of another
+ * provider. documents are always read from the database in a transaction, and the documents that
+ * are written are removed from the DocumentCache
+ */
+class CachedTransaction implements DBTransaction {
+
+    private final CachingProvider provider;
+    private final DBTransaction transaction;
+
+    /**
+     * package private constructor, transactions are only wrapped by the CachingProvider
+     * @param provider the caching provider
+     * @param transaction the wrapped transaction
+     */
+    CachedTransaction(@NonNull CachingProvider provider, @NonNull DBTransaction transaction) {
+        this.provider = provider;
+        this.transaction = transaction;
+    }
+
+    @Override
+    public DBDocument get(@NonNull DBCollection collection, @NonNull String id) {
+        if (!(collection instanceof CachedCollection)) {
+            return transaction.get(collection, id);
+        }
+
+        CachedCollection cached = (CachedCollection) collection;
+        return cached.wrap(transaction.get(cached.collection(), id));
+    }
+
+    @Override
+    public void save(@NonNull DBDocument document) {
+        transaction.save(unwrap(document));
+    }
+
+    @Override
+    public void overwrite(@NonNull DBDocument document) {
+        transaction.overwrite(unwrap(document));
+    }
+
+    @Override
+    public void delete(@NonNull DBDocument document) {
+        transaction.delete(unwrap(document));
+    }
+
+    private DBDocument unwrap(DBDocument document) {
+        if (!(document instanceof CachedDocument)) {
+            return document;
+        }
+
+        CachedDocument cached = (CachedDocument) document;
+        provider.cache().invalidate(cached.path(), cached.id());
+        return cached.document();
+    }
+}
@@ -0,0 +1,327 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBProvider interface by putting a read-through DocumentCache in
+ * front of another provider, e.g.
+ * new CachingProvider(new FirestoreProvider())
+ *
+ * documents fetched by id are served from the cache while they are fresh, documents returned by
+ * searches are put in the cache, and a document is removed from the cache when it is changed,
+ * saved or deleted locally. identical gets and searches that are made while one of them is in
+ * flight share its request
+ *
+ * the reads that are not served by the cache are started by a RequestScheduler, with the
+ * priority of the provider. withPriority returns a provider with another priority that shares
+ * the cache and the scheduler, e.g.
+ * provider.withPriority(RequestScheduler.Priority.PREFETCH).collection("meetups")
+ *
+ * a read that fails is retried with the RetryPolicy of the provider, and while its
+ * CircuitBreaker is open the reads are not sent to the underlying provider but served from its
+ * offline cache where they can be, see ScheduledRead
+ *
+ * withCancellation returns a provider whose reads are dropped when the given CancellationToken
+ * is cancelled: a read that has not been started by the scheduler is never started, and the
+ * results of a read in flight are put in the cache but not delivered to its listener
+ */
+public class CachingProvider implements DBProvider {
+
+    private final DBProvider provider;
+    private final DocumentCache cache;
+    private final InFlight<DBDocument> gets;
+    private final InFlight<List<? extends DBDocument>> searches;
+    private final RequestScheduler scheduler;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final Metrics metrics;
+    private final RequestScheduler.Priority priority;
+    private final CancellationToken token;
+
+    /**
+     * creates a caching provider with a cache of the default size and time to live
+     * @param provider the provider that the documents are fetched from
+     */
+    public CachingProvider(@NonNull DBProvider provider) {
+        this(provider, new DocumentCache());
+    }
+
+    /**
+     * creates a caching provider with the given cache
+     * @param provider the provider that the documents are fetched from
+     * @param cache the cache of the documents
+     */
+    public CachingProvider(@NonNull DBProvider provider, @NonNull DocumentCache cache) {
+        this(provider, cache, new RequestScheduler());
+    }
+
+    /**
+     * creates a caching provider with the given cache and scheduler, its reads have the
+     * DETAIL priority
+     * @param provider the provider that the documents are fetched from
+     * @param cache the cache of the documents
+     * @param scheduler the scheduler of the reads that are not served by the cache
+     */
+    public CachingProvider(@NonNull DBProvider provider, @NonNull DocumentCache cache, @NonNull RequestScheduler scheduler) {
+        this(provider, cache, scheduler, new RetryPolicy(), new CircuitBreaker());
+    }
+
+    /**
+     * creates a caching provider with the given cache, scheduler, retry policy and circuit
+     * breaker, its reads have the DETAIL priority
+     * @param provider the provider that the documents are fetched from
+     * @param cache the cache of the documents
+     * @param scheduler the scheduler of the reads that are not served by the cache
+     * @param retryPolicy the retry policy of the reads that fail
+     * @param circuitBreaker the circuit breaker of the underlying provider
+     */
+    public CachingProvider(@NonNull DBProvider provider, @NonNull DocumentCache cache, @NonNull RequestScheduler scheduler,
+                           @NonNull RetryPolicy retryPolicy, @NonNull CircuitBreaker circuitBreaker) {
+        this.provider = provider;
+        this.cache = cache;
+        this.gets = new InFlight<>();
+        this.searches = new InFlight<>();
+        this.scheduler = scheduler;
+        this.retryPolicy = retryPolicy;
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = new Metrics();
+        this.priority = RequestScheduler.Priority.DETAIL;
+        this.token = null;
+
+        metrics.gauge("cache.hits", cache::hits);
+        metrics.gauge("cache.misses", cache::misses);
+        metrics.gauge("cache.evictions", cache::evictions);
+        metrics.gauge("deduplicated", this::deduplicated);
+        metrics.gauge("scheduler.inFlight", scheduler::inFlight);
+        for (RequestScheduler.Priority queue : RequestScheduler.Priority.values()) {
+            metrics.gauge("scheduler." + queue, () -> scheduler.stats(queue));
+        }
+        metrics.gauge("retry.retries", retryPolicy::retries);
+        metrics.gauge("retry.timeouts", retryPolicy::timeouts);
+        metrics.gauge("circuitBreaker.state", circuitBreaker::state);
+        metrics.gauge("circuitBreaker.opened", circuitBreaker::opened);
+        metrics.gauge("circuitBreaker.rejected", circuitBreaker::rejected);
+        metrics.gauge("circuitBreaker.fallbacks", circuitBreaker::fallbacks);
+    }
+
+    /**
+     * private constructor of a provider that shares everything with the given one except the
+     * priority and the cancellation token
+     */
+    private CachingProvider(CachingProvider other, RequestScheduler.Priority priority, CancellationToken token) {
+        this.provider = other.provider;
+        this.cache = other.cache;
+        this.gets = other.gets;
+        this.searches = other.searches;
+        this.scheduler = other.scheduler;
+        this.retryPolicy = other.retryPolicy;
+        this.circuitBreaker = other.circuitBreaker;
+        this.metrics = other.metrics;
+        this.priority = priority;
+        this.token = token;
+    }
+
+    /**
+     * returns a provider that reads with the given priority. it shares the underlying provider,
+     * the cache, the requests in flight and the scheduler with this one
+     * @param priority the priority of the reads
+     * @return the CachingProvider object
+     */
+    public CachingProvider withPriority(@NonNull RequestScheduler.Priority priority) {
+        return priority == this.priority ? this : new CachingProvider(this, priority, token);
+    }
+
+    /**
+     * returns a provider whose reads are dropped when the given token is cancelled. it shares the
+     * underlying provider, the cache, the requests in flight and the scheduler with this one
+     * @param token the cancellation token
+     * @return the CachingProvider object
+     */
+    public CachingProvider withCancellation(@NonNull CancellationToken token) {
+        return token == this.token ? this : new CachingProvider(this, priority, token);
+    }
+
+    /**
+     * returns the collection with the given name (or path) of the underlying provider, wrapped so
+     * that its documents are cached
+     * @param name the name string
+     * @return the DBCollection object
+     */
+    @Override
+    public DBCollection collection(String name) {
+        return new CachedCollection(this, provider.collection(name), name);
+    }
+
+    /**
+     * creates a new empty batch of the underlying provider, wrapped so that the cache is kept up
+     * to date when it is committed
+     * @return the DBBatch object
+     */
+    @Override
+    public DBBatch batch() {
+        return new CachedBatch(this, provider.batch());
+    }
+
+    /**
+     * runs the given function in a transaction of the underlying provider. documents are always
+     * read from the database in a transaction
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    @Override
+    public void runTransaction(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener) {
+        provider.runTransaction(transaction -> function.run(new CachedTransaction(this, transaction)), listener);
+    }
+
+    /**
+     * returns the executor of the underlying provider, which the hits of the cache are also
+     * delivered on
+     * @return the Executor object
+     */
+    @Override
+    public Executor executor() {
+        return provider.executor();
+    }
+
+    /**
+     * returns the cache of the provider, e.g. to set the time to live of a collection or to read
+     * the hit and miss counters
+     * @return the DocumentCache object
+     */
+    public DocumentCache cache() {
+        return cache;
+    }
+
+    /**
+     * returns the scheduler of the reads, e.g. to read its queue depths and wait times
+     * @return the RequestScheduler object
+     */
+    public RequestScheduler scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * returns the retry policy of the reads, e.g. to read its retry and timeout counters
+     * @return the RetryPolicy object
+     */
+    public RetryPolicy retryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * returns the circuit breaker of the underlying provider, e.g. to read its state
+     * @return the CircuitBreaker object
+     */
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * returns the metrics of the requests made through the provider, with the counters of the
+     * cache, the scheduler, the retry policy and the circuit breaker as gauges
+     * @return the Metrics object
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * returns the priority of the reads of the provider
+     * @return the priority
+     */
+    public RequestScheduler.Priority priority() {
+        return priority;
+    }
+
+    /**
+     * returns the cancellation token of the reads of the provider
+     * @return the token, or null if the reads can not be cancelled
+     */
+    public CancellationToken token() {
+        return token;
+    }
+
+    /**
+     * returns the number of gets and searches that did not make a request of their own, since an
+     * identical one was already in flight
+     * @return the number of deduplicated requests
+     */
+    public long deduplicated() {
+        return gets.deduplicated() + searches.deduplicated();
+    }
+
+    /**
+     * resets the counter of deduplicated requests
+     */
+    public void resetDeduplicated() {
+        gets.resetCounter();
+        searches.resetCounter();
+    }
+
+    /**
+     * runs the given read of the underlying provider when the scheduler has room for it, see
+     * ScheduledRead. reads of the offline cache only (ReadPolicy.CACHE_ONLY) are run directly,
+     * since they do not contact the server. the read is made with CACHE_ONLY instead of the
+     * given policy when the circuit breaker is open. if the token of the provider is cancelled
+     * before the read is started, the read is skipped and the listener fails, which lets the
+     * requests in flight finish; the listeners of the callers are guarded (see guard) so the
+     * failure is not delivered to them
+     * @param policy the read policy of the read
+     * @param listener the listener of the read
+     * @param read the read, with the policy it should be made with
+     * @param <E> the result of the read
+     */
+    <E> void schedule(@NonNull ReadPolicy policy, @NonNull RequestListener<E> listener, @NonNull CacheThenServer.Read<E> read) {
+        if (policy == ReadPolicy.CACHE_ONLY) {
+            read.run(policy, listener);
+            return;
+        }
+
+        new ScheduledRead<>(this, policy, listener, read, true).start();
+    }
+
+    /**
+     * runs the given read of the underlying provider, which has no read policy and can not be
+     * served by the offline cache, when the scheduler has room for it. it fails directly while
+     * the circuit breaker is open
+     * @param listener the listener of the read
+     * @param read the read
+     * @param <E> the result of the read
+     */
+    <E> void schedule(@NonNull RequestListener<E> listener, @NonNull InFlight.Request<E> read) {
+        new ScheduledRead<>(this, ReadPolicy.DEFAULT, listener, (policy, scheduled) -> read.run(scheduled), false).start();
+    }
+
+    /**
+     * returns a listener that drops the results of a read once the token of the provider is
+     * cancelled, or the given listener if the provider has no token
+     * @param listener the listener of the caller
+     * @param <E> the result of the read
+     * @return the guarded listener
+     */
+    <E> RequestListener<E> guard(@NonNull RequestListener<E> listener) {
+        return token == null ? listener : token.guard(listener);
+    }
+
+    /**
+     * returns the key of a read that is shared while it is in flight. reads with different
+     * tokens are kept apart, so a read is only skipped when all of its callers are cancelled
+     * @param key the key of the read
+     * @return the key of the read for this provider
+     */
+    String key(@NonNull String key) {
+        return token == null ? key : key + "#" + token.id();
+    }
+
+    InFlight<DBDocument> gets() {
+        return gets;
+    }
+
+    InFlight<List<? extends DBDocument>> searches() {
+        return searches;
+    }
+}
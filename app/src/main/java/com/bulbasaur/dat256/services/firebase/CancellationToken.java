@@ -0,0 +1,112 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ludwighultqvist
+ * class that cancels the reads that are made through a provider or collection that has the
+ * token, see CachingProvider.withCancellation and Database.users(priority, token). when the
+ * token is cancelled, the reads that have not been started are never started, and the
+ * listeners of the reads that are in flight are not called. e.g. a view that is refreshed
+ * cancels the token of the previous refresh, so its late results are dropped
+ */
+public class CancellationToken {
+
+    private static final AtomicLong ids = new AtomicLong();
+
+    private final long id = ids.incrementAndGet();
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private boolean cancelled;
+
+    /**
+     * cancels the token and runs its callbacks. cancelling a token more than once has no effect
+     */
+    public void cancel() {
+        List<Runnable> run;
+
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+
+            cancelled = true;
+            run = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+
+        for (Runnable callback : run) {
+            callback.run();
+        }
+    }
+
+    /**
+     * returns true if the token has been cancelled
+     * @return true if cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * adds a callback that is run when the token is cancelled, or directly if it already is
+     * @param callback the callback
+     */
+    public void onCancel(@NonNull Runnable callback) {
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+
+        callback.run();
+    }
+
+    /**
+     * returns a number that is unique to the token, e.g. to keep the reads of different tokens
+     * apart when identical reads are coalesced
+     * @return the id of the token
+     */
+    long id() {
+        return id;
+    }
+
+    /**
+     * creates a listener that passes the results on to the given listener, unless the token has
+     * been cancelled
+     * @param listener the listener
+     * @param <E> the result of the request
+     * @return the guarded listener
+     */
+    <E> RequestListener<E> guard(@NonNull RequestListener<E> listener) {
+        return new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                if (!isCancelled()) {
+                    listener.onSuccess(object);
+                }
+            }
+
+            @Override
+            public void onComplete(E object) {
+                super.onComplete(object);
+                if (!isCancelled()) {
+                    listener.onComplete(object);
+                }
+            }
+
+            @Override
+            public void onFailure(E object) {
+                super.onFailure(object);
+                if (!isCancelled()) {
+                    listener.onFailure(object);
+                }
+            }
+        };
+    }
+}
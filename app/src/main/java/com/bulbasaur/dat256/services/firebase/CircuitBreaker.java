@@ -0,0 +1,149 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author ludwighultqvist
+ * class that stops the reads of a CachingProvider from being sent to a backend that keeps
+ * failing. after a number of failures in a row the breaker opens, and the reads fail fast or
+ * are served from the offline cache instead of waiting for their timeouts. when the breaker has
+ * been open for a while, one read is let through (HALF_OPEN): if it succeeds the breaker closes,
+ * otherwise it opens again
+ *
+ * the state of the breaker and its counters can be read, e.g. to show them in the metrics
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 15_000;
+
+    /**
+     * the states of the breaker
+     */
+    public enum State {
+
+        /**
+         * the reads are sent to the backend
+         */
+        CLOSED,
+
+        /**
+         * the reads are not sent to the backend
+         */
+        OPEN,
+
+        /**
+         * one read is sent to the backend to test if it has recovered
+         */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private long opened;
+    private long rejected;
+    private long fallbacks;
+
+    /**
+     * creates a breaker with the default failure threshold and open time
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * creates a breaker
+     * @param failureThreshold the number of failures in a row that opens the breaker
+     * @param openMillis the time the breaker stays open before a read is let through
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("the failure threshold must be at least 1");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * returns the state of the breaker
+     * @return the state
+     */
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * returns the number of times the breaker has opened
+     * @return the number of times
+     */
+    public synchronized long opened() {
+        return opened;
+    }
+
+    /**
+     * returns the number of reads that were not sent to the backend since the breaker was open
+     * @return the number of reads
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+
+    /**
+     * returns the number of rejected reads that were served from the offline cache
+     * @return the number of reads
+     */
+    public synchronized long fallbacks() {
+        return fallbacks;
+    }
+
+    /**
+     * resets the counters, but not the state
+     */
+    public synchronized void resetCounters() {
+        opened = 0;
+        rejected = 0;
+        fallbacks = 0;
+    }
+
+    /**
+     * returns true if a read may be sent to the backend. an open breaker that has been open for
+     * long enough lets one read through
+     * @return true if the read is allowed
+     */
+    synchronized boolean allow() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        rejected++;
+        return false;
+    }
+
+    synchronized void success() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            opened++;
+        }
+    }
+
+    synchronized void fellBack() {
+        fallbacks++;
+    }
+}
@@ -2,22 +2,35 @@ package com.bulbasaur.dat256.services.firebase;
 
 import android.support.annotation.NonNull;
 
+import com.bulbasaur.dat256.model.MapBounds;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 
 /**
  * @author ludwighultqvist
  * a class that implements the Collection interface
  */
-class Collection implements DBCollection {
+class Collection implements DBCollection, Restorable {
+
+    static final int MAX_CONCURRENT_GETS = 10;
 
     private CollectionReference collection;
 
@@ -41,6 +54,14 @@ class Collection implements DBCollection {
         this.collection = collection;
     }
 
+    /**
+     * returns the reference to the firebase-collection, e.g. to read a document in a transaction
+     * @return the CollectionReference object
+     */
+    CollectionReference reference() {
+        return collection;
+    }
+
     /**
      * creates a new document in the collection with a given id (should be generated)
      * @param id the given id string
@@ -63,8 +84,20 @@ class Collection implements DBCollection {
         //return create(null, listener);
     }
 
+    /**
+     * creates a loaded document with the given id and fields, e.g. a copy of a cached document
+     * @param id the id string
+     * @param fields the fields of the document, which are copied
+     * @return a new DBDocument object
+     */
+    @Override
+    public DBDocument restore(@NonNull String id, @NonNull Map<String, Object> fields) {
+        return new Document(collection.document(id), fields);
+    }
+
     /**
      * fetches a document with the given id from the collection in the database.
+     * the document is loaded from the fetched snapshot, so it does not need to be initialized.
      * if no document is found, null is returned
      * @param id the given id string
      * @param listener the listener of the request
@@ -72,30 +105,141 @@ class Collection implements DBCollection {
      */
     @Override
     public DBDocument get(String id, @NonNull RequestListener<DBDocument> listener) {
+        return get(id, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches a document with the given id from the Firestore source of the given read policy.
+     * a document that is not in the offline cache is not found by a CACHE_ONLY read
+     * @param id the given id string
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    @Override
+    public DBDocument get(String id, @NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> get(id, from, read), document -> true, listener);
+            return listener.getObject();
+        }
+
         Document document = new Document();
 
-        collection.document(id).get()
+        collection.document(id).get(source(policy))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         DocumentSnapshot snapshot = task.getResult();
                         if (snapshot != null && snapshot.exists()) {
-                            document.init(snapshot.getReference(), listener);
+                            listener.onSuccess(new Document(snapshot));
                         }
                         else {
                             listener.onComplete(document);
                         }
                     }
-                    else {
+                    else if (policy == ReadPolicy.CACHE_ONLY) {
+                        // a document that is not in the offline cache is not found
                         listener.onComplete(document);
                     }
-                })
-                .addOnFailureListener(e -> listener.onFailure(document));
+                    else {
+                        listener.onFailure(document);
+                    }
+                });
 
         return listener.getObject();
     }
 
     /**
-     * fetches all documents from the collection in the database
+     * fetches the documents with the given ids from the collection in the database. this version
+     * of Firestore can not query documents by a list of ids, so every id is a get of its own,
+     * i.e. one request and one read per id. at most MAX_CONCURRENT_GETS of them are in flight at
+     * the same time, so that a long list of ids does not flood the connection, and the next one
+     * is started as soon as one finishes. the documents are delivered in one list in the same
+     * order as the ids. documents that were not found are still in the list, but are not loaded
+     * @param ids the list of id strings
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return getAll(ids, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches the documents with the given ids from the Firestore source of the given read policy,
+     * with at most MAX_CONCURRENT_GETS gets in flight like getAll. a document that is not in the
+     * offline cache is not loaded after a CACHE_ONLY read
+     * @param ids the list of id strings
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> getAll(ids, from, read), Collection::anyLoaded, listener);
+            return listener.getObject();
+        }
+
+        List<Document> documents = new ArrayList<>(ids.size());
+        Map<String, Document> found = new HashMap<>();
+        Queue<String> queue = new LinkedList<>(new LinkedHashSet<>(ids));
+        Source source = source(policy);
+
+        if (queue.isEmpty()) {
+            listener.onSuccess(documents);
+            return documents;
+        }
+
+        int[] remaining = {queue.size()};
+        boolean[] failed = {false};
+
+        Runnable[] next = new Runnable[1];
+        next[0] = () -> {
+            String id = queue.poll();
+            if (id == null) {
+                return;
+            }
+
+            collection.document(id).get(source)
+                    .addOnCompleteListener(task -> {
+                        if (failed[0]) {
+                            return;
+                        }
+
+                        if (!task.isSuccessful() && source != Source.CACHE) {
+                            failed[0] = true;
+                            listener.onFailure(documents);
+                            return;
+                        }
+
+                        DocumentSnapshot snapshot = task.isSuccessful() ? task.getResult() : null;
+                        if (snapshot != null && snapshot.exists()) {
+                            found.put(id, new Document(snapshot));
+                        }
+
+                        if (--remaining[0] == 0) {
+                            for (String documentId : ids) {
+                                Document document = found.get(documentId);
+                                documents.add(document != null ? document : new Document(collection.document(documentId)));
+                            }
+                            listener.onSuccess(documents);
+                        }
+                        else {
+                            next[0].run();
+                        }
+                    });
+        };
+
+        for (int i = 0; i < MAX_CONCURRENT_GETS; i++) {
+            next[0].run();
+        }
+
+        return documents;
+    }
+
+    /**
+     * fetches all documents from the collection in the database. the documents are already
+     * loaded with the content of the query. for large collections, stream should be used instead
      * @param listener the listener of the request
      * @return the list of documents
      */
@@ -109,7 +253,7 @@ class Collection implements DBCollection {
                         QuerySnapshot snapshot = task.getResult();
                         if (snapshot != null) {
                             for (DocumentSnapshot document : snapshot.getDocuments()) {
-                                documents.add(new Document(document.getReference()));
+                                documents.add(new Document(document));
                             }
                             listener.onSuccess(documents);
                         }
@@ -118,10 +262,9 @@ class Collection implements DBCollection {
                         }
                     }
                     else {
-                        listener.onComplete(documents);
+                        listener.onFailure(documents);
                     }
-                })
-                .addOnFailureListener(e -> listener.onFailure(documents));
+                });
 
         return listener.getObject();
     }
@@ -129,60 +272,465 @@ class Collection implements DBCollection {
 
     /**
      * searches the documents of the collection according to given filter and returns the documents
-     * that matches
+     * that matches. the documents are already loaded with the content of the query
      * @param queryFilter the filter object
      * @param listener the listener of the request
      * @return the list of documents
      */
     @Override
     public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
-        Query query = collection;
+        return search(queryFilter, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * searches the documents of the collection according to given filter in the Firestore source
+     * of the given read policy. a CACHE_ONLY search only finds the documents in the offline cache
+     * @param queryFilter the filter object
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> search(queryFilter, from, read), documents -> !documents.isEmpty(), listener);
+            return listener.getObject();
+        }
+
         List<Document> documents = new ArrayList<>();
 
-        Map<String, Object> filters = queryFilter.getFilters();
-        for (String comparision : filters.keySet()) {
-            Object value = filters.get(comparision);
-            if (value == null) {
-                continue;
+        runQueries(compile(collection, queryFilter), source(policy), queryFilter.getOrders(), queryFilter.getLimit(), null, documents, listener);
+
+        return documents;
+    }
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds.
+     * @param bounds the bounds of the rectangle
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return searchWithin(bounds, null, listener);
+    }
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds and
+     * that matches the given filter.
+     * the bounds are covered by a small set of geohash cells and each cell is fetched with a
+     * prefix-range query on the geohash field, combined with the conditions of the filter.
+     * documents that lie within a cell but outside of the bounds are filtered out before the
+     * listener is called
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        List<Document> documents = new ArrayList<>();
+
+        double minLat = bounds.getBottomLeft().lat, minLon = bounds.getBottomLeft().lon;
+        double maxLat = bounds.getTopRight().lat, maxLon = bounds.getTopRight().lon;
+
+        List<Query> queries = new ArrayList<>();
+        for (String prefix : GeoHash.cover(minLat, minLon, maxLat, maxLon)) {
+            Query cell = collection.orderBy(GeoHash.FIELD).startAt(prefix).endAt(prefix + "\uf8ff");
+            queries.addAll(queryFilter == null ? Collections.singletonList(cell) : compile(cell, queryFilter));
+        }
+
+        List<QueryFilter.Order> orders = queryFilter == null ? Collections.emptyList() : queryFilter.getOrders();
+        runQueries(queries, Source.DEFAULT, orders, -1, snapshot -> {
+            Double lat = snapshot.getDouble("coord_lat");
+            Double lon = snapshot.getDouble("coord_lon");
+            return lat != null && lon != null && GeoHash.contains(minLat, minLon, maxLat, maxLon, lat, lon);
+        }, documents, listener);
+
+        return documents;
+    }
+
+    /**
+     * fetches one page of the documents of the collection that matches the given filter.
+     * the documents are ordered by the orderings of the filter and then by their id, and the
+     * token encodes the ordered values and the id of the last document of the page, see
+     * PageToken. one document more than the page size is fetched to know if there is a next page
+     * @param queryFilter the filter object, may be null to page through all documents
+     * @param pageSize the max number of documents of the page
+     * @param token the token of the previous page, or null for the first page
+     * @param listener the listener of the request
+     * @return the page
+     */
+    @Override
+    public DBPage page(QueryFilter queryFilter, int pageSize, String token, @NonNull RequestListener<DBPage> listener) {
+        List<QueryFilter.Order> orders = checkPaged(queryFilter, pageSize);
+        PageToken previous = token == null ? null : PageToken.decode(token, orders);
+
+        Query query = queryFilter == null ? collection : compile(collection, queryFilter).get(0);
+
+        boolean descending = !orders.isEmpty() && orders.get(orders.size() - 1).descending;
+        query = query.orderBy(FieldPath.documentId(), descending ? Query.Direction.DESCENDING : Query.Direction.ASCENDING);
+        if (previous != null) {
+            query = query.startAfter(previous.cursor());
+        }
+
+        query.limit(pageSize + 1).get()
+                .addOnCompleteListener(task -> {
+                    if (!task.isSuccessful()) {
+                        listener.onFailure(new DBPage(new ArrayList<>(), token));
+                        return;
+                    }
+
+                    List<Document> documents = new ArrayList<>(pageSize);
+                    QuerySnapshot snapshot = task.getResult();
+                    int size = snapshot == null ? 0 : snapshot.getDocuments().size();
+
+                    for (int i = 0; i < Math.min(size, pageSize); i++) {
+                        documents.add(new Document(snapshot.getDocuments().get(i)));
+                    }
+
+                    String next;
+                    try {
+                        next = size > pageSize ? PageToken.encode(documents.get(pageSize - 1), orders) : null;
+                    } catch (IllegalArgumentException e) {
+                        // an ordered value of a type that the token can not hold
+                        listener.onFailure(new DBPage(new ArrayList<>(), token));
+                        return;
+                    }
+                    listener.onSuccess(new DBPage(documents, next));
+                });
+
+        return listener.getObject();
+    }
+
+    /**
+     * checks that the given filter and page size can be used for a paginated read, the next
+     * page is found by the token so the filter can not have a cursor or a limit
+     * @return the orderings of the filter
+     */
+    static List<QueryFilter.Order> checkPaged(QueryFilter queryFilter, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("the page size must be positive");
+        }
+
+        if (queryFilter == null) {
+            return Collections.emptyList();
+        }
+
+        if (queryFilter.getStartAfter() != null || queryFilter.getLimit() >= 0) {
+            throw new IllegalArgumentException("a paginated read is continued by its token and can not have a cursor or a limit");
+        }
+
+        for (QueryFilter.Condition condition : queryFilter.getConditions()) {
+            if (QueryFilter.IN.equals(condition.comparison)) {
+                throw new IllegalArgumentException("a paginated read can not have an 'in' condition");
+            }
+        }
+
+        return queryFilter.getOrders();
+    }
+
+    /**
+     * fetches all documents of the collection that matches the given filter, one page at a time.
+     * the next page is requested when the previous one has been delivered to the listener
+     * @param queryFilter the filter object, may be null to read all documents
+     * @param pageSize the max number of documents of each page
+     * @param listener the listener of the request
+     */
+    @Override
+    public void stream(QueryFilter queryFilter, int pageSize, @NonNull RequestListener<DBPage> listener) {
+        page(queryFilter, pageSize, null, new RequestListener<DBPage>() {
+            @Override
+            public void onSuccess(DBPage page) {
+                super.onSuccess(page);
+                listener.onSuccess(page);
+
+                if (!page.isLast()) {
+                    page(queryFilter, pageSize, page.token(), this);
+                }
+            }
+
+            @Override
+            public void onFailure(DBPage page) {
+                super.onFailure(page);
+                listener.onFailure(page);
+            }
+        });
+    }
+
+    /**
+     * starts a live query of the documents of the collection that matches the given filter.
+     * a filter with an "in" condition is one snapshot listener per value
+     * @param queryFilter the filter object, may be null to listen to all documents
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    @Override
+    public DBSubscription listen(QueryFilter queryFilter, @NonNull DBListener listener) {
+        Subscription.check(queryFilter);
+
+        List<Query> queries = queryFilter == null ? Collections.singletonList(collection) : compile(collection, queryFilter);
+        return listen(queries, null, listener);
+    }
+
+    /**
+     * starts a live query of the documents of the collection whose coordinates lie within the
+     * given bounds and that matches the given filter. there is one snapshot listener per geohash
+     * cell (and value of an "in" condition), and documents that lie within a cell but outside of
+     * the bounds are treated as not matching
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    @Override
+    public DBSubscription listenWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull DBListener listener) {
+        Subscription.check(queryFilter);
+
+        double minLat = bounds.getBottomLeft().lat, minLon = bounds.getBottomLeft().lon;
+        double maxLat = bounds.getTopRight().lat, maxLon = bounds.getTopRight().lon;
+
+        List<Query> queries = new ArrayList<>();
+        for (String prefix : GeoHash.cover(minLat, minLon, maxLat, maxLon)) {
+            Query cell = collection.orderBy(GeoHash.FIELD).startAt(prefix).endAt(prefix + "\uf8ff");
+            queries.addAll(queryFilter == null ? Collections.singletonList(cell) : compile(cell, queryFilter));
+        }
+
+        return listen(queries, snapshot -> {
+            Double lat = snapshot.getDouble("coord_lat");
+            Double lon = snapshot.getDouble("coord_lon");
+            return lat != null && lon != null && GeoHash.contains(minLat, minLon, maxLat, maxLon, lat, lon);
+        }, listener);
+    }
+
+    /**
+     * adds a snapshot listener to each of the given queries. the first snapshot of a query has
+     * all of its documents as added, the following ones only the documents that changed, which
+     * are the only documents that are read
+     * @param queries the queries to listen to
+     * @param accept a test of which documents match, or null if all documents of the queries match
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    private DBSubscription listen(List<Query> queries, SnapshotFilter accept, @NonNull DBListener listener) {
+        Subscription subscription = new Subscription(listener);
+
+        for (int i = 0; i < queries.size(); i++) {
+            int source = i;
+            subscription.add(queries.get(i).addSnapshotListener((snapshot, e) -> {
+                if (e != null || snapshot == null) {
+                    subscription.fail();
+                    return;
+                }
+
+                for (DocumentChange change : snapshot.getDocumentChanges()) {
+                    DocumentSnapshot document = change.getDocument();
+                    boolean matches = change.getType() != DocumentChange.Type.REMOVED
+                            && (accept == null || accept.test(document));
+                    subscription.changed(source, new Document(document), matches);
+                }
+
+                subscription.update();
+            })::remove);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * returns the Firestore source of the given read policy
+     * @param policy the read policy, not CACHE_THEN_SERVER since it is two reads
+     * @return the source
+     */
+    static Source source(ReadPolicy policy) {
+        switch (policy) {
+            case CACHE_ONLY:
+                return Source.CACHE;
+            case SERVER_ONLY:
+                return Source.SERVER;
+            default:
+                return Source.DEFAULT;
+        }
+    }
+
+    /**
+     * returns true if any of the given documents is loaded, i.e. was found
+     */
+    static boolean anyLoaded(List<? extends DBDocument> documents) {
+        for (DBDocument document : documents) {
+            if (document.isLoaded()) {
+                return true;
             }
+        }
+        return false;
+    }
+
+    /**
+     * compiles the given filter into queries on top of the given base query. it is one query,
+     * except when the filter has an "in" condition, which is compiled into one query per value
+     * since this version of Firestore does not support "in" queries
+     * @param base the base query
+     * @param queryFilter the filter object
+     * @return the list of queries
+     */
+    static List<Query> compile(Query base, QueryFilter queryFilter) {
+        Query query = base;
+        QueryFilter.Condition in = null;
+
+        for (QueryFilter.Condition condition : queryFilter.getConditions()) {
+            String field = condition.field.toLowerCase();
+            Object value = condition.value;
 
-            switch (comparision) {
-                case "=":
-                    query = query.whereEqualTo(queryFilter.getField(), value);
+            switch (condition.comparison) {
+                case QueryFilter.EQUAL:
+                    query = query.whereEqualTo(field, value);
                     break;
-                case "<":
-                    query = query.whereLessThan(queryFilter.getField(), value);
+                case QueryFilter.LESS:
+                    query = query.whereLessThan(field, value);
                     break;
-                case ">":
-                    query = query.whereGreaterThan(queryFilter.getField(), value);
+                case QueryFilter.LESS_OR_EQUAL:
+                    query = query.whereLessThanOrEqualTo(field, value);
+                    break;
+                case QueryFilter.GREATER:
+                    query = query.whereGreaterThan(field, value);
+                    break;
+                case QueryFilter.GREATER_OR_EQUAL:
+                    query = query.whereGreaterThanOrEqualTo(field, value);
+                    break;
+                case QueryFilter.ARRAY_CONTAINS:
+                    query = query.whereArrayContains(field, value);
+                    break;
+                case QueryFilter.IN:
+                    if (in != null) {
+                        throw new IllegalArgumentException("a filter can only have one 'in' condition");
+                    }
+                    in = condition;
                     break;
                 default:
+                    throw new IllegalArgumentException("unknown comparison: " + condition.comparison);
             }
         }
 
-        query.get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        QuerySnapshot snapshot = task.getResult();
+        for (QueryFilter.Order order : queryFilter.getOrders()) {
+            query = query.orderBy(order.field.toLowerCase(), order.descending ? Query.Direction.DESCENDING : Query.Direction.ASCENDING);
+        }
+
+        if (queryFilter.getStartAfter() != null) {
+            query = query.startAfter(queryFilter.getStartAfter().toArray());
+        }
+
+        if (queryFilter.getLimit() >= 0) {
+            query = query.limit(queryFilter.getLimit());
+        }
+
+        if (in == null) {
+            return Collections.singletonList(query);
+        }
+
+        List<Query> queries = new ArrayList<>();
+        for (Object value : new LinkedHashSet<>((List<?>) in.value)) {
+            queries.add(query.whereEqualTo(in.field.toLowerCase(), value));
+        }
 
+        return queries;
+    }
+
+    /**
+     * runs the given queries in parallel and delivers the merged documents to the listener when
+     * all of them have finished. each query is ordered on its own, so when there are several the
+     * documents are merged by the given orders, and by id like Firestore when they are equal,
+     * before the limit is applied. each document is only added once
+     * @param queries the queries to run
+     * @param source the Firestore source of the documents
+     * @param orders the orders of the documents
+     * @param limit the max number of documents in the merged result, or -1
+     * @param accept a test of which documents to keep, or null to keep all
+     * @param documents the list to add the documents to
+     * @param listener the listener of the request
+     */
+    private void runQueries(List<Query> queries, Source source, List<QueryFilter.Order> orders, long limit, SnapshotFilter accept,
+                            List<Document> documents, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (queries.isEmpty()) {
+            listener.onSuccess(documents);
+            return;
+        }
+
+        List<List<Document>> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+        int[] remaining = {queries.size()};
+        boolean[] failed = {false};
+
+        for (int i = 0; i < queries.size(); i++) {
+            int index = i;
+            queries.get(i).get(source)
+                    .addOnCompleteListener(task -> {
+                        if (failed[0]) {
+                            return;
+                        }
+
+                        if (!task.isSuccessful()) {
+                            failed[0] = true;
+                            listener.onFailure(documents);
+                            return;
+                        }
+
+                        List<Document> result = new ArrayList<>();
+                        QuerySnapshot snapshot = task.getResult();
                         if (snapshot != null) {
                             for (DocumentSnapshot document : snapshot.getDocuments()) {
-                                documents.add(new Document(document.getReference()));
+                                if (accept == null || accept.test(document)) {
+                                    result.add(new Document(document));
+                                }
                             }
-                            listener.onSuccess(documents);
                         }
-                        else {
-                            listener.onComplete(documents);
+                        results.set(index, result);
+
+                        if (--remaining[0] == 0) {
+                            documents.addAll(merge(results, orders, limit));
+                            listener.onSuccess(documents);
                         }
+                    });
+        }
+    }
+
+    /**
+     * merges the results of several queries into one list ordered by the given orders and then
+     * by id, without duplicates, and cuts it at the given limit. a single result is already
+     * ordered by Firestore and is only cut
+     * @param results the results of the queries
+     * @param orders the orders of the documents
+     * @param limit the max number of documents, or -1
+     * @return the merged documents
+     */
+    static List<Document> merge(List<List<Document>> results, List<QueryFilter.Order> orders, long limit) {
+        List<Document> merged = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
+        for (List<Document> part : results) {
+            for (Document document : part) {
+                if (ids.add(document.id())) {
+                    merged.add(document);
+                }
+            }
+        }
+
+        if (results.size() > 1) {
+            boolean descending = !orders.isEmpty() && orders.get(orders.size() - 1).descending;
+            Collections.sort(merged, (a, b) -> {
+                for (QueryFilter.Order order : orders) {
+                    int c = MemoryValues.compare(a.get(order.field), b.get(order.field));
+                    if (c != 0) {
+                        return order.descending ? -c : c;
                     }
-                    else {
-                        listener.onComplete(documents);
-                    }
-                })
-                .addOnFailureListener(e -> listener.onFailure(documents));
+                }
+                int c = a.id().compareTo(b.id());
+                return descending ? -c : c;
+            });
+        }
 
+        return limit >= 0 && merged.size() > limit ? new ArrayList<>(merged.subList(0, (int) limit)) : merged;
+    }
 
-        return documents;
+    private interface SnapshotFilter {
+        boolean test(DocumentSnapshot snapshot);
     }
 
     /**
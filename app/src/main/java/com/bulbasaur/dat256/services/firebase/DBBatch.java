@@ -0,0 +1,43 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author ludwighultqvist
+ * interface that acts as a batch of writes to several documents, which are committed atomically
+ * in one request: either all of the writes are made or none of them, e.g.
+ * Database.getInstance().batch().save(user).save(friend).commit(listener);
+ *
+ * the changes of a document are taken when it is added to the batch, and are put back on the
+ * document if the commit fails
+ */
+public interface DBBatch {
+
+    /**
+     * adds the changed fields of the document to the batch, like DBDocument.save
+     * @param document the document
+     * @return the batch itself
+     */
+    DBBatch save(@NonNull DBDocument document);
+
+    /**
+     * adds all local fields of the document to the batch, replacing the stored document like
+     * DBDocument.overwrite
+     * @param document the document
+     * @return the batch itself
+     */
+    DBBatch overwrite(@NonNull DBDocument document);
+
+    /**
+     * adds a delete of the document to the batch
+     * @param document the document
+     * @return the batch itself
+     */
+    DBBatch delete(@NonNull DBDocument document);
+
+    /**
+     * commits all writes of the batch in one request. a batch can only be committed once
+     * @param listener the listener of the request
+     */
+    void commit(@NonNull RequestListener<DBBatch> listener);
+}
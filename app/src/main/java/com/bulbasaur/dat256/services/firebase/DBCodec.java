@@ -0,0 +1,26 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author ludwighultqvist
+ * interface of a class that converts objects of the model to and from documents of the
+ * database, so that the names and types of the fields are only written in one place
+ * @param <T> the class of the objects
+ */
+public interface DBCodec<T> {
+
+    /**
+     * creates an object from the content of the given document
+     * @param document the loaded document
+     * @return the object, or null if the document is missing a required field
+     */
+    T decode(@NonNull DBDocument document);
+
+    /**
+     * sets the fields of the given document from the given object. the document is not saved
+     * @param object the object
+     * @param document the document
+     */
+    void encode(@NonNull T object, @NonNull DBDocument document);
+}
@@ -2,6 +2,8 @@ package com.bulbasaur.dat256.services.firebase;
 
 import android.support.annotation.NonNull;
 
+import com.bulbasaur.dat256.model.MapBounds;
+
 import java.util.List;
 
 /**
@@ -26,6 +28,7 @@ public interface DBCollection {
 
     /**
      * fetches a document with the given id from the collection in the database.
+     * the document is already loaded with its content.
      * if no document is found, null is returned
      * @param id the given id string
      * @param listener the listener of the request
@@ -34,7 +37,38 @@ public interface DBCollection {
     DBDocument get(String id, @NonNull RequestListener<DBDocument> listener);
 
     /**
-     * fetches all documents from the collection in the database
+     * fetches a document with the given id from the collection, from where the given read policy
+     * says. with ReadPolicy.CACHE_THEN_SERVER listener.onSuccess may be called twice
+     * @param id the given id string
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    DBDocument get(String id, @NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener);
+
+    /**
+     * fetches the documents with the given ids from the collection in the database, with a
+     * bounded number of gets in flight at the same time. the documents are delivered in one list in the same order as the ids. documents that were
+     * not found are still in the list, but are not loaded (see DBDocument.isLoaded)
+     * @param ids the list of id strings
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    List<? extends DBDocument> getAll(List<String> ids, @NonNull RequestListener<List<? extends DBDocument>> listener);
+
+    /**
+     * fetches the documents with the given ids from the collection, from where the given read
+     * policy says. with ReadPolicy.CACHE_THEN_SERVER listener.onSuccess may be called twice
+     * @param ids the list of id strings
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    List<? extends DBDocument> getAll(List<String> ids, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener);
+
+    /**
+     * fetches all documents from the collection in the database. the documents are already
+     * loaded with their content. for large collections, stream should be used instead
      * @param listener the listener of the request
      * @return the list of documents
      */
@@ -43,13 +77,90 @@ public interface DBCollection {
 
     /**
      * searches the documents of the collection according to given filter and returns the documents
-     * that matches
+     * that matches. the documents are already loaded with their content
      * @param queryFilter the filter object
      * @param listener the listener of the request
      * @return the list of documents
      */
     List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener);
 
+    /**
+     * searches the documents of the collection according to given filter, from where the given
+     * read policy says. with ReadPolicy.CACHE_THEN_SERVER listener.onSuccess may be called twice
+     * @param queryFilter the filter object
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener);
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds.
+     * the search uses the geohash field of the documents, which is kept up to date when a document
+     * with coordinates is saved
+     * @param bounds the bounds of the rectangle
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    List<? extends DBDocument> searchWithin(MapBounds bounds, @NonNull RequestListener<List<? extends DBDocument>> listener);
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds and
+     * that matches the given filter. the filter should not have conditions on the coordinates or
+     * an ordering, since the search already orders by the geohash field
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    List<? extends DBDocument> searchWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener);
+
+    /**
+     * fetches one page of the documents of the collection that matches the given filter.
+     * the documents are ordered by the orderings of the filter and then by their id. the filter
+     * can not have an "in" condition, a cursor or a limit, and a range condition needs an
+     * ordering on the same field first, like on Firestore
+     * @param queryFilter the filter object, may be null to page through all documents
+     * @param pageSize the max number of documents of the page
+     * @param token the token of the previous page, or null for the first page
+     * @param listener the listener of the request
+     * @return the page
+     */
+    DBPage page(QueryFilter queryFilter, int pageSize, String token, @NonNull RequestListener<DBPage> listener);
+
+    /**
+     * fetches all documents of the collection that matches the given filter, one page at a time.
+     * listener.onSuccess is called once for every page as soon as it has arrived, so the first
+     * page can be shown while the rest are still loading. the last page is marked by isLast, and
+     * a page that fails is delivered to listener.onFailure and ends the stream
+     * @param queryFilter the filter object, may be null to read all documents
+     * @param pageSize the max number of documents of each page
+     * @param listener the listener of the request
+     */
+    void stream(QueryFilter queryFilter, int pageSize, @NonNull RequestListener<DBPage> listener);
+
+    /**
+     * starts a live query of the documents of the collection that matches the given filter.
+     * the listener is first told about every matching document, and after that only about the
+     * documents that are added, modified or removed, so a live query only reads the documents
+     * that changed. the filter should not have a limit or a cursor
+     * @param queryFilter the filter object, may be null to listen to all documents
+     * @param listener the listener of the live query
+     * @return the subscription, which must be removed when the changes are no longer needed
+     */
+    DBSubscription listen(QueryFilter queryFilter, @NonNull DBListener listener);
+
+    /**
+     * starts a live query of the documents of the collection whose coordinates lie within the
+     * given bounds and that matches the given filter, like searchWithin. a document that is moved
+     * into or out of the bounds is added or removed
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the live query
+     * @return the subscription, which must be removed when the changes are no longer needed
+     */
+    DBSubscription listenWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull DBListener listener);
+
     /**
      * creates and returns a runnable tester of the document.
      * @return the runnable object
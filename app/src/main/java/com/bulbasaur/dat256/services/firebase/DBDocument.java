@@ -2,6 +2,8 @@ package com.bulbasaur.dat256.services.firebase;
 
 import android.support.annotation.NonNull;
 
+import java.util.function.BiConsumer;
+
 /**
  * @author ludwighultqvist
  * interface that acts as a document in the Firestore database
@@ -15,11 +17,21 @@ public interface DBDocument {
     String id();
 
     /**
-     * initializes the document by fetching its content from the database using the saved reference
+     * initializes the document by fetching its content from the database using the saved reference.
+     * documents returned by searches are already loaded, so this only needs to be called when a
+     * fresh copy of the document is needed
      * @param listener the listener of the request
      */
     void init(@NonNull RequestListener<DBDocument> listener);
 
+    /**
+     * initializes the document by fetching its content from where the given read policy says.
+     * with ReadPolicy.CACHE_THEN_SERVER listener.onSuccess may be called twice
+     * @param policy the read policy
+     * @param listener the listener of the request
+     */
+    void init(@NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener);
+
     /**
      * gets the local object of the given field. if that field or object does not exist, null
      * is returned
@@ -28,6 +40,13 @@ public interface DBDocument {
      */
     Object get(String field);
 
+    /**
+     * calls the given action once for every local field of the document with its object, e.g. to
+     * decode a document in one pass instead of one get per field. the field names are lowercase
+     * @param action the action
+     */
+    void forEach(@NonNull BiConsumer<String, Object> action);
+
     /**
      * gets the local object of the given field.
      * @param field the field string
@@ -35,6 +54,13 @@ public interface DBDocument {
      */
     void set(String field, Object object);
 
+    /**
+     * marks the document as changed without changing a field, so that the next save writes the
+     * fields that are derived on save (the geohash and the time of the save), e.g. to migrate
+     * documents that were saved before a derived field existed
+     */
+    void touch();
+
     /**
      * removes the local object of the given field
      * @param field the field string
@@ -42,11 +68,46 @@ public interface DBDocument {
     void remove(String field);
 
     /**
-     * saves the stored objects of the fields in the Firestore database
+     * adds the given values to the array of the given field, unless they are already in it.
+     * when the document is saved the values are added to the stored array, so concurrent
+     * additions from other clients are not lost
+     * @param field the field string
+     * @param values the values to add
+     */
+    void arrayUnion(String field, Object... values);
+
+    /**
+     * removes all instances of the given values from the array of the given field, the values
+     * are removed from the stored array when the document is saved
+     * @param field the field string
+     * @param values the values to remove
+     */
+    void arrayRemove(String field, Object... values);
+
+    /**
+     * increments the number of the given field by the given amount, the stored number is
+     * incremented when the document is saved
+     * @param field the field string
+     * @param amount the amount, may be negative
+     */
+    void increment(String field, long amount);
+
+    /**
+     * saves the fields that have been changed since the document was loaded or last saved.
+     * only the changed fields are written, the other stored fields are kept as they are.
+     * a document that only has array or counter changes must already exist in the database,
+     * e.g. a document created by DBCollection.create(id) to join a meetup without reading it
      * @param listener the listener of the request
      */
     void save(@NonNull RequestListener<DBDocument> listener);
 
+    /**
+     * saves all local fields of the document, replacing the stored document. fields that are
+     * stored but not known locally are removed
+     * @param listener the listener of the request
+     */
+    void overwrite(@NonNull RequestListener<DBDocument> listener);
+
     /**
      * deletes the document from the database
      * @param listener the listener of the request
@@ -62,6 +123,13 @@ public interface DBDocument {
 
     boolean isEmpty();
 
+    /**
+     * returns true if the content of the document has been fetched from the database, either by
+     * the search that returned it or by a call to init
+     * @return true if loaded
+     */
+    boolean isLoaded();
+
     /**
      * creates and returns a runnable tester of the document.
      * @return the runnable object
@@ -0,0 +1,159 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author ludwighultqvist
+ * class with static methods that turn the requests of the database into CompletableFutures, as
+ * an alternative to nesting RequestListeners. independent requests can then be started at the
+ * same time and combined, e.g.
+ * CompletableFuture<DBDocument> user = DBFuture.of(listener -> users.get(id, listener));
+ * CompletableFuture<List<? extends DBDocument>> near = DBFuture.of(listener -> users.searchWithin(bounds, listener));
+ * user.thenCombineAsync(near, (u, n) -> ..., activity::runOnUiThread);
+ *
+ * a request that calls onSuccess or onComplete (e.g. a document that was not found) completes the
+ * future with its object, a request that calls onFailure completes it with a FailureException
+ */
+public final class DBFuture {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DBFuture-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private DBFuture() {}
+
+    /**
+     * a request of the database that delivers its result to the given listener
+     * @param <E> the result of the request
+     */
+    public interface Request<E> {
+        void run(RequestListener<E> listener);
+    }
+
+    /**
+     * starts the given request and returns a future of its result. the future is completed on the
+     * thread that calls the listener
+     * @param request the request
+     * @param <E> the result of the request
+     * @return the future
+     */
+    public static <E> CompletableFuture<E> of(@NonNull Request<E> request) {
+        CompletableFuture<E> future = new CompletableFuture<>();
+
+        try {
+            request.run(new RequestListener<E>() {
+                @Override
+                public void onSuccess(E object) {
+                    super.onSuccess(object);
+                    future.complete(object);
+                }
+
+                @Override
+                public void onComplete(E object) {
+                    super.onComplete(object);
+                    future.complete(object);
+                }
+
+                @Override
+                public void onFailure(E object) {
+                    super.onFailure(object);
+                    future.completeExceptionally(new FailureException(object));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * starts the given request on the given executor and returns a future of its result
+     * @param request the request
+     * @param executor the executor that starts the request
+     * @param <E> the result of the request
+     * @return the future
+     */
+    public static <E> CompletableFuture<E> of(@NonNull Request<E> request, @NonNull Executor executor) {
+        return CompletableFuture.supplyAsync(() -> of(request), executor).thenCompose(future -> future);
+    }
+
+    /**
+     * returns a future of the results of all the given futures, in the same order. it fails as
+     * soon as one of them fails
+     * @param futures the futures
+     * @param <E> the result of the futures
+     * @return the future of the list of results
+     */
+    public static <E> CompletableFuture<List<E>> all(@NonNull List<CompletableFuture<E>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<E> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<E> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * returns a future that completes like the given future, or fails with a TimeoutException if
+     * the given future has not completed within the timeout
+     * @param future the future
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     * @param <E> the result of the future
+     * @return the future with a timeout
+     */
+    public static <E> CompletableFuture<E> timeout(@NonNull CompletableFuture<E> future, long timeout, @NonNull TimeUnit unit) {
+        CompletableFuture<E> result = new CompletableFuture<>();
+
+        ScheduledFuture<?> timeoutTask = timer.schedule(
+                () -> result.completeExceptionally(new TimeoutException("the request did not finish within " + unit.toMillis(timeout) + " ms")),
+                timeout, unit);
+
+        future.whenComplete((object, error) -> {
+            timeoutTask.cancel(false);
+            if (error != null) {
+                result.completeExceptionally(error);
+            }
+            else {
+                result.complete(object);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * exception that a future is completed with when its request called onFailure
+     */
+    public static class FailureException extends RuntimeException {
+
+        private final transient Object object;
+
+        FailureException(Object object) {
+            super("the request failed for object: " + object);
+            this.object = object;
+        }
+
+        /**
+         * returns the object that the request called onFailure with
+         * @return the object
+         */
+        public Object getObject() {
+            return object;
+        }
+    }
+}
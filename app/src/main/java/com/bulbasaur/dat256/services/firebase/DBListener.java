@@ -1,6 +1,43 @@
 package com.bulbasaur.dat256.services.firebase;
 
+/**
+ * @author ludwighultqvist
+ * class that listens to a live query of a collection, see DBCollection.listen. the listener is
+ * first told about every document that matches the query, and after that only about the
+ * documents that are added to, modified in or removed from the result. the documents are
+ * already loaded with their content
+ */
 public abstract class DBListener {
 
+    /**
+     * called when a document starts to match the query, e.g. when it is created or moved into
+     * the bounds of the query
+     * @param document the document
+     */
+    public void onAdded(DBDocument document) {}
+
+    /**
+     * called when a document that matches the query is changed and still matches it
+     * @param document the document with its new content
+     */
+    public void onModified(DBDocument document) {}
+
+    /**
+     * called when a document no longer matches the query, e.g. when it is deleted or moved out of
+     * the bounds of the query
+     * @param document the document with its last known content
+     */
+    public void onRemoved(DBDocument document) {}
+
+    /**
+     * called after each set of changes has been delivered, e.g. to redraw a view once instead of
+     * once per document
+     */
     public abstract void update();
+
+    /**
+     * called if the live query failed. no more changes are delivered after a failure, but the
+     * subscription should still be removed
+     */
+    public void onFailure() {}
 }
@@ -0,0 +1,56 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * @author ludwighultqvist
+ * class that acts as one page of documents of a paginated read of a collection.
+ * the token of the page is passed to DBCollection.page to fetch the next page
+ */
+public class DBPage {
+
+    private final List<? extends DBDocument> documents;
+    private final String token;
+
+    /**
+     * package private constructor, pages are only created by the collections
+     * @param documents the documents of the page
+     * @param token the continuation token, null if this is the last page
+     */
+    DBPage(@NonNull List<? extends DBDocument> documents, String token) {
+        this.documents = documents;
+        this.token = token;
+    }
+
+    /**
+     * returns the documents of the page, they are already loaded with their content
+     * @return the list of documents
+     */
+    public List<? extends DBDocument> documents() {
+        return documents;
+    }
+
+    /**
+     * returns the opaque continuation token that fetches the page after this one
+     * @return the token string, or null if this is the last page
+     */
+    public String token() {
+        return token;
+    }
+
+    /**
+     * returns true if there are no more pages after this one
+     * @return true if this is the last page
+     */
+    public boolean isLast() {
+        return token == null;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DBPage: [" + "size: " + documents.size() + ", " + "token: " + token + "]";
+    }
+}
@@ -0,0 +1,41 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * @author ludwighultqvist
+ * interface that acts as the storage backend of the database, e.g. Firestore or an in-memory
+ * database used for tests and benchmarks. the Database object fetches its collections from the
+ * active provider
+ */
+public interface DBProvider {
+
+    /**
+     * returns the collection with the given name (or path) in the storage backend
+     * @param name the name string
+     * @return the DBCollection object
+     */
+    DBCollection collection(String name);
+
+    /**
+     * creates a new empty batch of writes, which are committed atomically
+     * @return the DBBatch object
+     */
+    DBBatch batch();
+
+    /**
+     * runs the given function in a transaction and commits its writes atomically
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    void runTransaction(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener);
+
+    /**
+     * returns the executor that the listeners of the requests are called on, so that a result
+     * that needs no request, e.g. from a cache, is delivered in the same way as the others
+     * @return the Executor object
+     */
+    Executor executor();
+}
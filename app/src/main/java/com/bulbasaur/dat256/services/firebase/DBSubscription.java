@@ -0,0 +1,15 @@
+package com.bulbasaur.dat256.services.firebase;
+
+/**
+ * @author ludwighultqvist
+ * interface that acts as the handle of a live query, see DBCollection.listen. the query keeps
+ * its connection to the database until it is removed
+ */
+public interface DBSubscription {
+
+    /**
+     * stops the live query, the listener is not called after this. removing a subscription more
+     * than once has no effect
+     */
+    void remove();
+}
@@ -0,0 +1,55 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+/**
+ * @author ludwighultqvist
+ * interface that acts as a transaction, where documents are read and then written atomically.
+ * if a document that was read is changed by someone else before the transaction is committed,
+ * the function of the transaction is run again with fresh documents, e.g.
+ * Database.getInstance().runTransaction(transaction -> {
+ *     DBDocument meetup = transaction.get(Database.getInstance().meetups(), id);
+ *     meetup.increment("attendees", 1);
+ *     transaction.save(meetup);
+ * }, listener);
+ *
+ * all reads must be made before the first write. the function is run on a background thread and
+ * may be run more than once, so it should not have other side effects
+ */
+public interface DBTransaction {
+
+    /**
+     * reads the document with the given id in the transaction. if the document does not exist,
+     * a document that is not loaded is returned
+     * @param collection the collection of the document
+     * @param id the id string
+     * @return the DBDocument object
+     */
+    DBDocument get(@NonNull DBCollection collection, @NonNull String id);
+
+    /**
+     * saves the changed fields of the document when the transaction is committed
+     * @param document the document
+     */
+    void save(@NonNull DBDocument document);
+
+    /**
+     * saves all local fields of the document when the transaction is committed, replacing the
+     * stored document
+     * @param document the document
+     */
+    void overwrite(@NonNull DBDocument document);
+
+    /**
+     * deletes the document when the transaction is committed
+     * @param document the document
+     */
+    void delete(@NonNull DBDocument document);
+
+    /**
+     * interface of the function that is run in a transaction
+     */
+    interface Function {
+        void run(@NonNull DBTransaction transaction) throws Exception;
+    }
+}
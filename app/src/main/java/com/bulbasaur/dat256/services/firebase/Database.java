@@ -2,9 +2,13 @@ package com.bulbasaur.dat256.services.firebase;
 
 import android.support.annotation.NonNull;
 
+import com.bulbasaur.dat256.model.MeetUp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author ludwighultqvist
  * class that acts as as the main entry point for fetching and updating the Firestore database.
@@ -14,10 +18,15 @@ public class Database {
 
     private static final String USERS = "users";
     private static final String MEETUPS = "meetups";
+    private static final String MEETUP_SUMMARIES = "meetup-summaries";
     private static final String GROUPS = "groups";
+    private static final long USERS_TTL = 60_000;
+    private static final long MEETUPS_TTL = 30_000;
+    private static final int BATCH_SIZE = 400;
     private static Database instance;
 
     private Authenticator authenticator;
+    private DBProvider provider = cached(new FirestoreProvider());
 
     /**
      * initializes, if necessary, the singleton Database object and returns it
@@ -36,6 +45,20 @@ public class Database {
      */
     private Database() {}
 
+    /**
+     * puts a read-through cache in front of the given provider, with the time to live of the
+     * collections of the app
+     * @param provider the DBProvider object
+     * @return the CachingProvider object
+     */
+    public static CachingProvider cached(@NonNull DBProvider provider) {
+        CachingProvider caching = new CachingProvider(provider);
+        caching.cache().setTtl(USERS, USERS_TTL);
+        caching.cache().setTtl(MEETUPS, MEETUPS_TTL);
+        caching.cache().setTtl(MEETUP_SUMMARIES, MEETUPS_TTL);
+        return caching;
+    }
+
     /**
      * creates a new PhoneAuthenticator object, stores in the Database object and returns it
      * @return the PhoneAuthenticator object
@@ -53,12 +76,98 @@ public class Database {
         return authenticator;
     }
 
+    /**
+     * sets the storage backend that the collections are fetched from, e.g. a MemoryProvider
+     * when running tests or benchmarks. the default provider is Firestore with a cache in front
+     * @param provider the DBProvider object
+     */
+    public void setProvider(@NonNull DBProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * returns the active storage backend
+     * @return the DBProvider object
+     */
+    public DBProvider provider() {
+        return provider;
+    }
+
+    /**
+     * returns the active storage backend with the given priority of its reads. the reads of the
+     * other methods have the DETAIL priority. a provider that is not a CachingProvider has no
+     * scheduler and is returned as it is
+     * @param priority the priority of the reads
+     * @return the DBProvider object
+     */
+    public DBProvider provider(@NonNull RequestScheduler.Priority priority) {
+        return provider instanceof CachingProvider ? ((CachingProvider) provider).withPriority(priority) : provider;
+    }
+
+    /**
+     * returns the active storage backend with the given priority of its reads, whose reads are
+     * dropped when the given token is cancelled. a provider that is not a CachingProvider can
+     * not cancel its reads and is returned as it is
+     * @param priority the priority of the reads
+     * @param token the cancellation token of the reads
+     * @return the DBProvider object
+     */
+    public DBProvider provider(@NonNull RequestScheduler.Priority priority, @NonNull CancellationToken token) {
+        return provider instanceof CachingProvider ? ((CachingProvider) provider).withPriority(priority).withCancellation(token) : provider;
+    }
+
+    /**
+     * returns the metrics of the requests made to the active storage backend, see Metrics
+     * @return the Metrics object, or null if the provider is not a CachingProvider
+     */
+    public Metrics metrics() {
+        return provider instanceof CachingProvider ? ((CachingProvider) provider).metrics() : null;
+    }
+
+    /**
+     * creates a new empty batch of writes, which are committed atomically in one request
+     * @return the DBBatch object
+     */
+    public DBBatch batch() {
+        return provider.batch();
+    }
+
+    /**
+     * runs the given function in a transaction, see DBTransaction
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    public void runTransaction(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener) {
+        provider.runTransaction(function, listener);
+    }
+
     /**
      * creates and returns a reference to the databases collection of users
      * @return the DBCollection object
      */
     public DBCollection users() {
-        return new Collection(USERS);
+        return provider.collection(USERS);
+    }
+
+    /**
+     * creates and returns a reference to the databases collection of users, read with the given
+     * priority
+     * @param priority the priority of the reads
+     * @return the DBCollection object
+     */
+    public DBCollection users(@NonNull RequestScheduler.Priority priority) {
+        return provider(priority).collection(USERS);
+    }
+
+    /**
+     * creates and returns a reference to the databases collection of users, read with the given
+     * priority and dropped when the given token is cancelled
+     * @param priority the priority of the reads
+     * @param token the cancellation token of the reads
+     * @return the DBCollection object
+     */
+    public DBCollection users(@NonNull RequestScheduler.Priority priority, @NonNull CancellationToken token) {
+        return provider(priority, token).collection(USERS);
     }
 
     /**
@@ -66,16 +175,178 @@ public class Database {
      * @return the DBCollection object
      */
     public DBCollection meetups() {
-        return new Collection(MEETUPS);
+        return provider.collection(MEETUPS);
+    }
+
+    /**
+     * creates and returns a reference to the databases collection of meetups, read with the given
+     * priority
+     * @param priority the priority of the reads
+     * @return the DBCollection object
+     */
+    public DBCollection meetups(@NonNull RequestScheduler.Priority priority) {
+        return provider(priority).collection(MEETUPS);
     }
 
 
+    /**
+     * creates and returns a reference to the databases collection of meetup summaries, which has
+     * one small document per meetup with the fields that the map needs, see MeetUpSummaryCodec.
+     * the summaries are written together with their meetups by saveMeetUp
+     * @return the DBCollection object
+     */
+    public DBCollection meetupSummaries() {
+        return provider.collection(MEETUP_SUMMARIES);
+    }
+
+    /**
+     * creates and returns a reference to the databases collection of meetup summaries, read with
+     * the given priority
+     * @param priority the priority of the reads
+     * @return the DBCollection object
+     */
+    public DBCollection meetupSummaries(@NonNull RequestScheduler.Priority priority) {
+        return provider(priority).collection(MEETUP_SUMMARIES);
+    }
+
+    /**
+     * sets the fields of the given meetup document and of its summary from the given meetup and
+     * adds both to the given batch, so that the summary is saved with its meetup or not at all
+     * @param meetUp the meetup
+     * @param document the document of the meetup in the meetups collection
+     * @param batch the batch
+     * @return the batch
+     */
+    public DBBatch saveMeetUp(@NonNull MeetUp meetUp, @NonNull DBDocument document, @NonNull DBBatch batch) {
+        DBDocument summary = meetupSummaries().create(document.id());
+        MeetUpCodec.getInstance().encode(meetUp, document);
+        MeetUpSummaryCodec.getInstance().encode(meetUp, summary);
+        return batch.save(document).save(summary);
+    }
+
+    /**
+     * writes the summaries of all meetups, for the meetups that were created before the
+     * summaries existed. it reads the whole meetups collection, so it is only meant to be run
+     * once, e.g. from a debug build. the summaries are written in batches, one at a time, see
+     * saveInBatches
+     * @param listener the listener of the request, called with the number of written summaries
+     */
+    public void writeMeetUpSummaries(@NonNull RequestListener<Integer> listener) {
+        meetups().all(new RequestListener<List<? extends DBDocument>>() {
+            @Override
+            public void onSuccess(List<? extends DBDocument> documents) {
+                super.onSuccess(documents);
+
+                List<DBDocument> summaries = new ArrayList<>(documents.size());
+                for (DBDocument document : documents) {
+                    MeetUp meetUp = MeetUpCodec.getInstance().decode(document);
+                    if (meetUp == null) continue;
+
+                    DBDocument summary = meetupSummaries().create(document.id());
+                    MeetUpSummaryCodec.getInstance().encode(meetUp, summary);
+                    summaries.add(summary);
+                }
+
+                saveInBatches(summaries, 0, listener);
+            }
+
+            @Override
+            public void onComplete(List<? extends DBDocument> documents) {
+                super.onComplete(documents);
+                listener.onComplete(0);
+            }
+
+            @Override
+            public void onFailure(List<? extends DBDocument> documents) {
+                super.onFailure(documents);
+                listener.onFailure(0);
+            }
+        });
+    }
+
+    /**
+     * writes the geohash of the users that were saved before the geohash field existed, so that
+     * they are found by searchWithin. a user document gets its geohash the next time it is saved,
+     * so the users with coordinates but without a geohash are touched and saved again. it reads
+     * the whole users collection, so like writeMeetUpSummaries it is only meant to be run once
+     * @param listener the listener of the request, called with the number of updated users
+     */
+    public void writeUserGeoHashes(@NonNull RequestListener<Integer> listener) {
+        users().all(new RequestListener<List<? extends DBDocument>>() {
+            @Override
+            public void onSuccess(List<? extends DBDocument> documents) {
+                super.onSuccess(documents);
+
+                List<DBDocument> missing = new ArrayList<>();
+                for (DBDocument document : documents) {
+                    Object lat = document.get("coord_lat"), lon = document.get("coord_lon");
+                    if (document.get(GeoHash.FIELD) != null || !(lat instanceof Number) || !(lon instanceof Number)) continue;
+
+                    document.touch();
+                    missing.add(document);
+                }
+
+                saveInBatches(missing, 0, listener);
+            }
+
+            @Override
+            public void onComplete(List<? extends DBDocument> documents) {
+                super.onComplete(documents);
+                listener.onComplete(0);
+            }
+
+            @Override
+            public void onFailure(List<? extends DBDocument> documents) {
+                super.onFailure(documents);
+                listener.onFailure(0);
+            }
+        });
+    }
+
+    /**
+     * saves the given documents from the given index on, in batches of BATCH_SIZE writes since a
+     * Firestore batch has at most 500. the batches are committed one at a time, the next one when
+     * the previous one has succeeded. the listener is called with the number of saved documents:
+     * with onSuccess when all of them are saved, or with onFailure at the first batch that fails,
+     * after which no more batches are committed. the batches before it are saved, so a migration
+     * that fails can be run again to finish the rest
+     * @param documents the documents to save
+     * @param from the index of the first document of the next batch
+     * @param listener the listener of the request
+     */
+    private void saveInBatches(List<DBDocument> documents, int from, RequestListener<Integer> listener) {
+        if (from >= documents.size()) {
+            listener.onSuccess(from);
+            return;
+        }
+
+        int to = Math.min(from + BATCH_SIZE, documents.size());
+        DBBatch batch = batch();
+        for (DBDocument document : documents.subList(from, to)) {
+            batch.save(document);
+        }
+
+        batch.commit(new RequestListener<DBBatch>() {
+            @Override
+            public void onSuccess(DBBatch object) {
+                super.onSuccess(object);
+                saveInBatches(documents, to, listener);
+            }
+
+            @Override
+            public void onFailure(DBBatch object) {
+                super.onFailure(object);
+                listener.onFailure(from);
+            }
+        });
+    }
+
     /**
      * creates and returns a reference to the databases collection of groups
      * @return the DBCollection object
      */
     public DBCollection groups() {
-        return new Collection(GROUPS);
+        return provider.collection(GROUPS);
     }
 
     public boolean hasUser() {
@@ -92,18 +363,27 @@ public class Database {
      * @return the DBDocument or null
      */
     public DBDocument user(@NonNull RequestListener<DBDocument> listener) {
+        return user(ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * returns the currently logged in user like user(listener), read with the given read policy
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the DBDocument or null
+     */
+    public DBDocument user(@NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
         FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
 
         if (user == null) {
             return null;
         }
 
-        users().get(user.getUid(), new RequestListener<DBDocument>() {
+        users().get(user.getUid(), policy, new RequestListener<DBDocument>() {
                 @Override
                 public void onSuccess(DBDocument object) {
                     super.onSuccess(object);
-                    object.init(listener);
-                    //listener.onSuccess(object);
+                    listener.onSuccess(object);
                 }
 
                 @Override
@@ -192,12 +472,16 @@ public class Database {
      */
     public void logout() {
         FirebaseAuth.getInstance().signOut();
+
+        if (provider instanceof CachingProvider) {
+            ((CachingProvider) provider).cache().clear();
+        }
     }
 
     public void testIt() {
         System.out.println("\n---------- DATABASE TEST STARTED ----------\n");
 
-        DBCollection test = new Collection("test");
+        DBCollection test = provider.collection("test");
         test.get("test-document", new RequestListener<DBDocument>() {
             @Override
             public void onSuccess(DBDocument object) {
@@ -2,13 +2,18 @@ package com.bulbasaur.dat256.services.firebase;
 
 import android.support.annotation.NonNull;
 
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.SetOptions;
 
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
 
 /**
  * @author ludwighultqvist
@@ -16,8 +21,12 @@ import java.util.Map;
  */
 class Document implements DBDocument {
 
+    static final String LAST_SAVE = "last-save";
+
     private DocumentReference document;
     private Map<String, Object> data = new HashMap<>();
+    private FieldChanges changes = new FieldChanges();
+    private boolean loaded;
 
     /**
      * package private constructor which creates a new empty document with no reference to a
@@ -30,13 +39,42 @@ class Document implements DBDocument {
     Document() {}
 
     /**
-     * initializes the document by fetching its content from the database using the given reference
-     * @param document the given reference
-     * @param listener the listener of the request
+     * package private constructor which creates a document that is already loaded with the content
+     * of the given snapshot, e.g. a result of a query, so that no extra fetch is needed
+     * @param snapshot the given snapshot
      */
-    void init(DocumentReference document, @NonNull RequestListener<DBDocument> listener) {
-        this.document = document;
-        init(listener);
+    Document(@NonNull DocumentSnapshot snapshot) {
+        this(snapshot.getReference());
+        load(snapshot);
+    }
+
+    /**
+     * package private constructor which creates a document that is already loaded with the given
+     * fields, e.g. a copy of a cached document. the maps and lists of the fields are copied, so
+     * the document does not share them with the given map
+     * @param document the reference to the document
+     * @param fields the fields of the document
+     */
+    Document(@NonNull DocumentReference document, @NonNull Map<String, Object> fields) {
+        this(document);
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            data.put(field.getKey(), DocumentCache.copy(field.getValue(), false));
+        }
+        loaded = true;
+    }
+
+    /**
+     * loads the content of the given snapshot into the document
+     * @param snapshot the given snapshot
+     */
+    private void load(DocumentSnapshot snapshot) {
+        Map<String, Object> data = snapshot.getData();
+        this.data.clear();
+        if (data != null) {
+            this.data.putAll(data);
+        }
+        changes = new FieldChanges();
+        loaded = true;
     }
 
     /**
@@ -45,26 +83,42 @@ class Document implements DBDocument {
      */
     @Override
     public void init(@NonNull RequestListener<DBDocument> listener) {
-        this.document.get()
+        init(ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * initializes the document by fetching its content from the Firestore source of the given read
+     * policy. a document that is not in the offline cache is not found by a CACHE_ONLY read
+     * @param policy the read policy
+     * @param listener the listener of the request
+     */
+    @Override
+    public void init(@NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read(this::init, document -> true, listener);
+            return;
+        }
+
+        this.document.get(Collection.source(policy))
                 .addOnCompleteListener(task -> {
                     if (task.isSuccessful()) {
                         DocumentSnapshot snapshot = task.getResult();
                         if (snapshot != null && snapshot.exists()) {
-                            Map<String, Object> data = snapshot.getData();
-                            if (data != null) {
-                                this.data.putAll(data);
-                            }
+                            load(snapshot);
                             listener.onSuccess(this);
                         }
                         else {
                             listener.onComplete(this);
                         }
                     }
-                    else {
+                    else if (policy == ReadPolicy.CACHE_ONLY) {
+                        // a document that is not in the offline cache is not found
                         listener.onComplete(this);
                     }
-                })
-                .addOnFailureListener(e -> listener.onFailure(this));
+                    else {
+                        listener.onFailure(this);
+                    }
+                });
     }
 
     /**
@@ -87,43 +141,212 @@ class Document implements DBDocument {
         return data.get(field.toLowerCase());
     }
 
+    @Override
+    public void forEach(@NonNull BiConsumer<String, Object> action) {
+        data.forEach(action);
+    }
+
     /**
-     * gets the object of the given field.
+     * gets the object of the given field. the field is marked as changed
      * @param field the field string
      * @param object the object to be saved on the field
      */
     @Override
     public void set(String field, Object object) {
         data.put(field.toLowerCase(), object);
+        changes.set(field.toLowerCase());
+    }
+
+    /**
+     * marks the document as changed, the fields that are derived on save are written by the
+     * next save even if no other field is changed
+     */
+    @Override
+    public void touch() {
+        changes.set(LAST_SAVE);
     }
 
     /**
-     * removes the local object of the given field
+     * removes the local object of the given field. the field is marked as changed
      * @param field the field string
      */
     @Override
     public void remove(String field) {
-        data.remove(field);
+        data.remove(field.toLowerCase());
+        changes.set(field.toLowerCase());
+    }
+
+    /**
+     * adds the given values to the array of the given field, unless they are already in it.
+     * the values are sent as an arrayUnion when the document is saved
+     * @param field the field string
+     * @param values the values to add
+     */
+    @Override
+    public void arrayUnion(String field, Object... values) {
+        changes.arrayUnion(data, field.toLowerCase(), values);
+    }
+
+    /**
+     * removes the given values from the array of the given field. the values are sent as an
+     * arrayRemove when the document is saved
+     * @param field the field string
+     * @param values the values to remove
+     */
+    @Override
+    public void arrayRemove(String field, Object... values) {
+        changes.arrayRemove(data, field.toLowerCase(), values);
+    }
+
+    /**
+     * increments the number of the given field. the amount is sent as an increment when the
+     * document is saved
+     * @param field the field string
+     * @param amount the amount, may be negative
+     */
+    @Override
+    public void increment(String field, long amount) {
+        changes.increment(data, field.toLowerCase(), amount);
     }
 
     /**
-     * saves the stored objects of the fields in the Firestore database
+     * saves the fields that have changed since the document was loaded or last saved in the
+     * Firestore database. a loaded document is updated, other documents are merged so that
+     * fields that are not known locally are kept. a document with only array and counter
+     * operations is always updated, so that a deleted document is not created again.
+     * if no field has changed, nothing is written
      * @param listener the listener of the request
      */
     @Override
     public void save(@NonNull RequestListener<DBDocument> listener) {
-        set("last-save", DateFormat.getDateTimeInstance().format(new Date()));
+        Write write = stage(false);
+        if (write == null) {
+            listener.onSuccess(this);
+            return;
+        }
 
-        document.set(data)
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
+        Task<Void> task;
+        switch (write.mode) {
+            case Write.UPDATE:
+                task = document.update(write.data);
+                break;
+            case Write.MERGE:
+                task = document.set(write.data, SetOptions.merge());
+                break;
+            default:
+                task = document.set(write.data);
+        }
+
+        task.addOnCompleteListener(result -> {
+                    if (result.isSuccessful()) {
                         listener.onSuccess(this);
                     }
                     else {
-                        listener.onComplete(this);
+                        unstage(write);
+                        listener.onFailure(this);
                     }
-                })
-                .addOnFailureListener(e -> listener.onFailure(this));
+                });
+    }
+
+    /**
+     * saves all local fields in the Firestore database, replacing the stored document
+     * @param listener the listener of the request
+     */
+    @Override
+    public void overwrite(@NonNull RequestListener<DBDocument> listener) {
+        Write write = stage(true);
+
+        document.set(write.data)
+                .addOnCompleteListener(result -> {
+                    if (result.isSuccessful()) {
+                        listener.onSuccess(this);
+                    }
+                    else {
+                        unstage(write);
+                        listener.onFailure(this);
+                    }
+                });
+    }
+
+    /**
+     * takes the changes of the document as a write, e.g. to be part of a batch or transaction.
+     * the changes are no longer pending, if the write fails they are put back with unstage.
+     * a loaded document or a document with only operations is updated, other documents are merged
+     * @param overwrite true if all local fields should replace the stored document
+     * @return the write, or null if there are no changes to save
+     */
+    Write stage(boolean overwrite) {
+        if (!overwrite && changes.isEmpty()) {
+            return null;
+        }
+
+        boolean update = loaded || changes.onlyOperations();
+        prepare();
+
+        Map<String, Object> written = new HashMap<>();
+        if (overwrite) {
+            written.putAll(data);
+        }
+        else {
+            for (Map.Entry<String, Object> entry : changes.collect(data, FieldValue.delete()).entrySet()) {
+                written.put(entry.getKey(), toFirestore(entry.getValue()));
+            }
+        }
+
+        Write write = new Write(document, written, overwrite ? Write.SET : update ? Write.UPDATE : Write.MERGE, changes);
+        changes = new FieldChanges();
+        if (overwrite) {
+            loaded = true;
+        }
+        return write;
+    }
+
+    /**
+     * returns the reference to the Firestore document
+     * @return the DocumentReference object
+     */
+    DocumentReference reference() {
+        return document;
+    }
+
+    /**
+     * puts back the changes of a failed write, unless the fields were changed again since
+     * @param write the failed write
+     */
+    void unstage(Write write) {
+        changes.restore(write.changes);
+    }
+
+    /**
+     * sets the fields that are derived when the document is saved
+     */
+    private void prepare() {
+        set(LAST_SAVE, DateFormat.getDateTimeInstance().format(new Date()));
+
+        Object geohash = data.get(GeoHash.FIELD);
+        GeoHash.update(data);
+        if (!Objects.equals(geohash, data.get(GeoHash.FIELD))) {
+            changes.set(GeoHash.FIELD);
+        }
+    }
+
+    /**
+     * converts an array or counter operation into the FieldValue that performs it on Firestore
+     */
+    private static Object toFirestore(Object value) {
+        if (!(value instanceof FieldChanges.Operation)) {
+            return value;
+        }
+
+        FieldChanges.Operation operation = (FieldChanges.Operation) value;
+        switch (operation.kind) {
+            case FieldChanges.Operation.ARRAY_UNION:
+                return FieldValue.arrayUnion(operation.values.toArray());
+            case FieldChanges.Operation.ARRAY_REMOVE:
+                return FieldValue.arrayRemove(operation.values.toArray());
+            default:
+                return FieldValue.increment(operation.amount);
+        }
     }
 
     /**
@@ -137,10 +360,9 @@ class Document implements DBDocument {
                     if (task.isSuccessful()) {
                         listener.onSuccess(this);
                     } else {
-                        listener.onComplete(this);
+                        listener.onFailure(this);
                     }
-                })
-                .addOnFailureListener(e -> listener.onFailure(this));
+                });
     }
 
     /**
@@ -158,6 +380,15 @@ class Document implements DBDocument {
         return document == null;
     }
 
+    /**
+     * returns true if the content of the document has been fetched from the database
+     * @return true if loaded
+     */
+    @Override
+    public boolean isLoaded() {
+        return loaded;
+    }
+
     /**
      * creates and returns a runnable tester of the document.
      * @return the runnable object
@@ -188,6 +419,27 @@ class Document implements DBDocument {
                 "]";
     }
 
+    /**
+     * package private class that describes the changes of a document that are written to Firestore
+     */
+    static class Write {
+        static final int UPDATE = 0;
+        static final int MERGE = 1;
+        static final int SET = 2;
+
+        final DocumentReference reference;
+        final Map<String, Object> data;
+        final int mode;
+        private final FieldChanges changes;
+
+        private Write(DocumentReference reference, Map<String, Object> data, int mode, FieldChanges changes) {
+            this.reference = reference;
+            this.data = data;
+            this.mode = mode;
+            this.changes = changes;
+        }
+    }
+
     /**
      * private class used for running tests
      */
@@ -207,7 +459,7 @@ class Document implements DBDocument {
             if (data == null) return;
             document.data = data;
 
-            document.save(new RequestListener<DBDocument>(DEBUG) {
+            document.overwrite(new RequestListener<DBDocument>(DEBUG) {
                 @Override
                 public void onSuccess(DBDocument object) {
                     super.onSuccess(object);
@@ -0,0 +1,224 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * @author ludwighultqvist
+ * class that acts as a bounded cache of loaded documents, keyed by the path of their collection
+ * and their id. every collection has its own time to live, and when the cache is full the least
+ * recently used document is evicted. the cache counts its hits, misses and evictions
+ *
+ * the cache keeps an immutable copy of the fields of every document, never the document itself,
+ * so that a change that a holder of a document has not saved is not seen by anyone else. the
+ * CachedCollection creates a new document from the copy for every caller
+ */
+public class DocumentCache {
+
+    public static final int DEFAULT_MAX_SIZE = 500;
+    public static final long DEFAULT_TTL = 60_000;
+
+    private final int maxSize;
+    private final long defaultTtl;
+    private final Map<String, Long> ttls = new HashMap<>();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private LongSupplier clock = () -> System.nanoTime() / 1_000_000;
+
+    private long hits, misses, evictions;
+
+    /**
+     * creates a new empty cache with the default size and time to live
+     */
+    public DocumentCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * creates a new empty cache
+     * @param maxSize the max number of documents in the cache
+     * @param defaultTtl the time to live in milliseconds of collections without their own
+     */
+    public DocumentCache(int maxSize, long defaultTtl) {
+        this.maxSize = maxSize;
+        this.defaultTtl = defaultTtl;
+    }
+
+    /**
+     * sets the time to live of the documents of the given collection, 0 disables the cache for
+     * the collection
+     * @param collection the name (or path) of the collection
+     * @param millis the time to live in milliseconds
+     */
+    public synchronized void setTtl(String collection, long millis) {
+        ttls.put(collection, millis);
+    }
+
+    /**
+     * returns the fields of the cached document with the given id, or null if it is not cached or
+     * has expired. the map and its maps and lists can not be changed
+     * @param collection the path of the collection
+     * @param id the id string
+     * @return the fields or null
+     */
+    synchronized Map<String, Object> get(String collection, String id) {
+        String key = key(collection, id);
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.expires <= clock.getAsLong()) {
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.fields;
+    }
+
+    /**
+     * stores a copy of the fields of a loaded document in the cache, the least recently used
+     * document is evicted if the cache is full. later changes of the document are not seen by
+     * the cache
+     * @param collection the path of the collection
+     * @param id the id string
+     * @param document the DBDocument object
+     */
+    synchronized void put(String collection, String id, DBDocument document) {
+        long ttl = ttl(collection);
+        if (ttl <= 0 || id == null) {
+            return;
+        }
+
+        entries.put(key(collection, id), new Entry(snapshot(document), clock.getAsLong() + ttl));
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * removes the document with the given id from the cache
+     * @param collection the path of the collection
+     * @param id the id string
+     */
+    synchronized void invalidate(String collection, String id) {
+        entries.remove(key(collection, id));
+    }
+
+    /**
+     * removes all documents of the given collection from the cache, e.g. after a bulk change
+     * @param collection the path of the collection
+     */
+    public synchronized void invalidate(String collection) {
+        String prefix = collection + "/";
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * removes all documents from the cache, e.g. when the user logs out
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * resets the hit, miss and eviction counters
+     */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * replaces the clock of the cache, used by the unit tests to let documents expire
+     * @param clock the clock in milliseconds
+     */
+    synchronized void setClock(@NonNull LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    private long ttl(String collection) {
+        Long ttl = ttls.get(collection);
+        return ttl != null ? ttl : defaultTtl;
+    }
+
+    private static String key(String collection, String id) {
+        return collection + "/" + id;
+    }
+
+    /**
+     * returns an immutable copy of the fields of the given document
+     */
+    private static Map<String, Object> snapshot(DBDocument document) {
+        Map<String, Object> fields = new HashMap<>();
+        document.forEach((field, value) -> fields.put(field, copy(value, true)));
+        return Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * copies the maps and lists of the given field value, the other values (strings, numbers,
+     * timestamps and so on) can not be changed and are shared
+     * @param value the field value
+     * @param frozen true if the copied maps and lists should not be changeable
+     * @return the copy
+     */
+    static Object copy(Object value, boolean frozen) {
+        if (value instanceof Map) {
+            Map<Object, Object> map = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                map.put(entry.getKey(), copy(entry.getValue(), frozen));
+            }
+            return frozen ? Collections.unmodifiableMap(map) : map;
+        }
+
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                list.add(copy(element, frozen));
+            }
+            return frozen ? Collections.unmodifiableList(list) : list;
+        }
+
+        return value;
+    }
+
+    private static class Entry {
+        private final Map<String, Object> fields;
+        private final long expires;
+
+        private Entry(Map<String, Object> fields, long expires) {
+            this.fields = fields;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author ludwighultqvist
+ * package private class that keeps track of the changes of a document that have not been saved:
+ * the fields that have been set or removed, and the array and counter operations on fields.
+ * the operations are applied to the local data directly and sent as operations when the document
+ * is saved, so that concurrent changes of the same field are not lost
+ */
+final class FieldChanges {
+
+    private final Set<String> fields = new HashSet<>();
+    private final Map<String, Operation> operations = new HashMap<>();
+
+    /**
+     * marks the given field as set or removed, this replaces any operation on the field
+     * @param field the field string
+     */
+    void set(String field) {
+        operations.remove(field);
+        fields.add(field);
+    }
+
+    /**
+     * adds the given values to the array of the field, unless they are already in it
+     * @param data the local data of the document
+     * @param field the field string
+     * @param values the values to add
+     */
+    void arrayUnion(Map<String, Object> data, String field, Object... values) {
+        Operation operation = operation(field, Operation.ARRAY_UNION);
+        if (operation != null) {
+            operation.values.addAll(Arrays.asList(values));
+        }
+
+        List<Object> list = list(data.get(field));
+        for (Object value : values) {
+            if (!list.contains(value)) {
+                list.add(value);
+            }
+        }
+        data.put(field, list);
+    }
+
+    /**
+     * removes all instances of the given values from the array of the field
+     * @param data the local data of the document
+     * @param field the field string
+     * @param values the values to remove
+     */
+    void arrayRemove(Map<String, Object> data, String field, Object... values) {
+        Operation operation = operation(field, Operation.ARRAY_REMOVE);
+        if (operation != null) {
+            operation.values.addAll(Arrays.asList(values));
+        }
+
+        List<Object> list = list(data.get(field));
+        list.removeAll(Arrays.asList(values));
+        data.put(field, list);
+    }
+
+    /**
+     * increments the number of the field by the given amount, a missing field counts as 0
+     * @param data the local data of the document
+     * @param field the field string
+     * @param amount the amount, may be negative
+     */
+    void increment(Map<String, Object> data, String field, long amount) {
+        Operation operation = operation(field, Operation.INCREMENT);
+        if (operation != null) {
+            operation.amount += amount;
+        }
+
+        data.put(field, Operation.add(data.get(field), amount));
+    }
+
+    /**
+     * returns true if there are no unsaved changes
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return fields.isEmpty() && operations.isEmpty();
+    }
+
+    /**
+     * returns true if all unsaved changes are operations, i.e. they change the stored values
+     * instead of replacing them, so the stored document must already exist
+     * @return true if only operations
+     */
+    boolean onlyOperations() {
+        return fields.isEmpty() && !operations.isEmpty();
+    }
+
+    /**
+     * returns true if the given field has been set or removed since the last save
+     * @param field the field string
+     * @return true if changed
+     */
+    boolean contains(String field) {
+        return fields.contains(field) || operations.containsKey(field);
+    }
+
+    /**
+     * collects the changes into the map that is written to the database. a set field has its
+     * local value, a removed field has the given delete marker and an operation is itself
+     * @param data the local data of the document
+     * @param delete the marker of a removed field
+     * @return the map of changes
+     */
+    Map<String, Object> collect(Map<String, Object> data, Object delete) {
+        Map<String, Object> changes = new HashMap<>(operations);
+        for (String field : fields) {
+            changes.put(field, data.containsKey(field) ? data.get(field) : delete);
+        }
+        return changes;
+    }
+
+    /**
+     * puts back the changes of a failed save that have not been changed again since
+     * @param failed the changes of the failed save
+     */
+    void restore(FieldChanges failed) {
+        for (String field : failed.fields) {
+            if (!contains(field)) {
+                fields.add(field);
+            }
+        }
+
+        for (Map.Entry<String, Operation> entry : failed.operations.entrySet()) {
+            if (!contains(entry.getKey())) {
+                operations.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * returns the pending operation of the given kind on the field, or null if the field has been
+     * set since the last save, since it is then sent with its local value which includes the
+     * operation
+     */
+    private Operation operation(String field, int kind) {
+        if (fields.contains(field)) {
+            return null;
+        }
+
+        Operation operation = operations.get(field);
+        if (operation == null) {
+            operation = new Operation(kind);
+            operations.put(field, operation);
+        }
+        else if (operation.kind != kind) {
+            throw new IllegalStateException("the field '" + field + "' already has an unsaved operation, save the document first");
+        }
+
+        return operation;
+    }
+
+    private static List<Object> list(Object value) {
+        return value instanceof List ? new ArrayList<>((List<?>) value) : new ArrayList<>();
+    }
+
+    /**
+     * package private class that describes an array or counter operation on a field
+     */
+    static class Operation {
+        static final int ARRAY_UNION = 0;
+        static final int ARRAY_REMOVE = 1;
+        static final int INCREMENT = 2;
+
+        final int kind;
+        final List<Object> values = new ArrayList<>();
+        long amount;
+
+        private Operation(int kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * applies the operation to the given stored value
+         * @param stored the stored value, may be null
+         * @return the new value
+         */
+        Object apply(Object stored) {
+            switch (kind) {
+                case ARRAY_UNION:
+                    List<Object> union = list(stored);
+                    for (Object value : values) {
+                        if (!union.contains(value)) {
+                            union.add(value);
+                        }
+                    }
+                    return union;
+                case ARRAY_REMOVE:
+                    List<Object> removed = list(stored);
+                    removed.removeAll(values);
+                    return removed;
+                default:
+                    return add(stored, amount);
+            }
+        }
+
+        private static Object add(Object stored, long amount) {
+            if (stored instanceof Double || stored instanceof Float) {
+                return ((Number) stored).doubleValue() + amount;
+            }
+
+            return (stored instanceof Number ? ((Number) stored).longValue() : 0) + amount;
+        }
+    }
+}
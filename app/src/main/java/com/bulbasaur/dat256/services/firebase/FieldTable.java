@@ -0,0 +1,46 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * package private helper class of the codecs. the table gives each field a slot, so that the
+ * fields of a document are read in one pass over the document instead of one lookup per field
+ */
+final class FieldTable {
+
+    private final Map<String, Integer> slots;
+    private final int size;
+
+    /**
+     * creates a table of the given fields, the slot of a field is its index among the arguments
+     * @param fields the lowercase names of the fields
+     */
+    FieldTable(@NonNull String... fields) {
+        slots = new HashMap<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++) {
+            slots.put(fields[i], i);
+        }
+        size = fields.length;
+    }
+
+    /**
+     * reads the fields of the table from the given document, fields that are not in the table
+     * are skipped
+     * @param document the document
+     * @return the objects of the fields, by slot. a missing field is null
+     */
+    Object[] read(@NonNull DBDocument document) {
+        Object[] values = new Object[size];
+        document.forEach((field, value) -> {
+            Integer slot = slots.get(field);
+            if (slot != null) {
+                values[slot] = value;
+            }
+        });
+        return values;
+    }
+}
@@ -0,0 +1,106 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBBatch interface with a Firestore WriteBatch
+ */
+class FirestoreBatch implements DBBatch {
+
+    private final WriteBatch batch = FirebaseFirestore.getInstance().batch();
+    private final List<Document> documents = new ArrayList<>();
+    private final List<Document.Write> writes = new ArrayList<>();
+    private boolean committed;
+
+    @Override
+    public DBBatch save(@NonNull DBDocument document) {
+        Document firestoreDocument = document(document);
+        add(firestoreDocument, firestoreDocument.stage(false));
+        return this;
+    }
+
+    @Override
+    public DBBatch overwrite(@NonNull DBDocument document) {
+        Document firestoreDocument = document(document);
+        add(firestoreDocument, firestoreDocument.stage(true));
+        return this;
+    }
+
+    @Override
+    public DBBatch delete(@NonNull DBDocument document) {
+        checkNotCommitted();
+        batch.delete(document(document).reference());
+        return this;
+    }
+
+    /**
+     * commits all writes of the batch in one request. if it fails, the changes are put back
+     * on the documents
+     * @param listener the listener of the request
+     */
+    @Override
+    public void commit(@NonNull RequestListener<DBBatch> listener) {
+        checkNotCommitted();
+        committed = true;
+
+        batch.commit()
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful()) {
+                        listener.onSuccess(this);
+                    }
+                    else {
+                        for (int i = 0; i < writes.size(); i++) {
+                            documents.get(i).unstage(writes.get(i));
+                        }
+                        listener.onFailure(this);
+                    }
+                });
+    }
+
+    private void add(Document document, Document.Write write) {
+        checkNotCommitted();
+        if (write == null) {
+            return;
+        }
+
+        switch (write.mode) {
+            case Document.Write.UPDATE:
+                batch.update(write.reference, write.data);
+                break;
+            case Document.Write.MERGE:
+                batch.set(write.reference, write.data, SetOptions.merge());
+                break;
+            default:
+                batch.set(write.reference, write.data);
+        }
+
+        documents.add(document);
+        writes.add(write);
+    }
+
+    private void checkNotCommitted() {
+        if (committed) {
+            throw new IllegalStateException("the batch has already been committed");
+        }
+    }
+
+    /**
+     * returns the given document as a Firestore document
+     * @param document the document
+     * @return the Document object
+     */
+    static Document document(DBDocument document) {
+        if (!(document instanceof Document)) {
+            throw new IllegalArgumentException("the document is not a Firestore document: " + document);
+        }
+        return (Document) document;
+    }
+}
@@ -0,0 +1,76 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.gms.tasks.TaskExecutors;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+
+import java.util.concurrent.Executor;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBProvider interface with the Firestore database as the storage backend.
+ * it is the default provider of the Database object
+ *
+ * the offline persistence of Firestore is turned on, so the documents that have been read or
+ * written are kept on the device between runs of the app, and can be read with
+ * ReadPolicy.CACHE_ONLY or CACHE_THEN_SERVER without a connection
+ */
+class FirestoreProvider implements DBProvider {
+
+    private static boolean configured;
+
+    /**
+     * creates the provider and turns on the offline persistence. the settings can only be set
+     * before Firestore is first used, so they are only set by the first provider
+     */
+    FirestoreProvider() {
+        synchronized (FirestoreProvider.class) {
+            if (!configured) {
+                configured = true;
+                FirebaseFirestore.getInstance().setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                        .setPersistenceEnabled(true)
+                        .build());
+            }
+        }
+    }
+
+    /**
+     * returns a reference to the Firestore collection with the given name
+     * @param name the name string
+     * @return the DBCollection object
+     */
+    @Override
+    public DBCollection collection(String name) {
+        return new Collection(name);
+    }
+
+    /**
+     * creates a new empty Firestore write batch
+     * @return the DBBatch object
+     */
+    @Override
+    public DBBatch batch() {
+        return new FirestoreBatch();
+    }
+
+    /**
+     * runs the given function in a Firestore transaction
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    @Override
+    public void runTransaction(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener) {
+        FirestoreTransaction.run(function, listener);
+    }
+
+    /**
+     * returns the main thread, which the listeners of the Firestore tasks are called on
+     * @return the Executor object
+     */
+    @Override
+    public Executor executor() {
+        return TaskExecutors.MAIN_THREAD;
+    }
+}
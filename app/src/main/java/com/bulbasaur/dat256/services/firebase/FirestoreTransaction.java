@@ -0,0 +1,141 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBTransaction interface with a Firestore Transaction.
+ * Firestore runs the function again if a document that was read is changed before the commit,
+ * the changes of the documents from the previous attempt are then put back first
+ */
+class FirestoreTransaction implements DBTransaction {
+
+    private final Transaction transaction;
+    private final List<Document> documents = new ArrayList<>();
+    private final List<Document.Write> writes = new ArrayList<>();
+
+    private FirestoreTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * runs the given function in a Firestore transaction
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    static void run(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener) {
+        AtomicReference<FirestoreTransaction> attempt = new AtomicReference<>();
+
+        FirebaseFirestore.getInstance()
+                .runTransaction((Transaction.Function<DBTransaction>) firestoreTransaction -> {
+                    FirestoreTransaction previous = attempt.getAndSet(new FirestoreTransaction(firestoreTransaction));
+                    if (previous != null) {
+                        previous.unstage();
+                    }
+
+                    try {
+                        function.run(attempt.get());
+                    } catch (ReadFailure e) {
+                        throw e.exception;
+                    } catch (Exception e) {
+                        throw new FirebaseFirestoreException(String.valueOf(e.getMessage()), FirebaseFirestoreException.Code.ABORTED, e);
+                    }
+
+                    return attempt.get();
+                })
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful()) {
+                        listener.onSuccess(task.getResult());
+                    }
+                    else {
+                        if (attempt.get() != null) {
+                            attempt.get().unstage();
+                        }
+                        listener.onFailure(attempt.get());
+                    }
+                });
+    }
+
+    @Override
+    public DBDocument get(@NonNull DBCollection collection, @NonNull String id) {
+        if (!(collection instanceof Collection)) {
+            throw new IllegalArgumentException("the collection is not a Firestore collection: " + collection);
+        }
+
+        DocumentReference reference = ((Collection) collection).reference().document(id);
+        try {
+            DocumentSnapshot snapshot = transaction.get(reference);
+            return snapshot.exists() ? new Document(snapshot) : new Document(reference);
+        } catch (FirebaseFirestoreException e) {
+            throw new ReadFailure(e);
+        }
+    }
+
+    @Override
+    public void save(@NonNull DBDocument document) {
+        Document firestoreDocument = FirestoreBatch.document(document);
+        add(firestoreDocument, firestoreDocument.stage(false));
+    }
+
+    @Override
+    public void overwrite(@NonNull DBDocument document) {
+        Document firestoreDocument = FirestoreBatch.document(document);
+        add(firestoreDocument, firestoreDocument.stage(true));
+    }
+
+    @Override
+    public void delete(@NonNull DBDocument document) {
+        transaction.delete(FirestoreBatch.document(document).reference());
+    }
+
+    private void add(Document document, Document.Write write) {
+        if (write == null) {
+            return;
+        }
+
+        switch (write.mode) {
+            case Document.Write.UPDATE:
+                transaction.update(write.reference, write.data);
+                break;
+            case Document.Write.MERGE:
+                transaction.set(write.reference, write.data, SetOptions.merge());
+                break;
+            default:
+                transaction.set(write.reference, write.data);
+        }
+
+        documents.add(document);
+        writes.add(write);
+    }
+
+    private void unstage() {
+        for (int i = 0; i < writes.size(); i++) {
+            documents.get(i).unstage(writes.get(i));
+        }
+        writes.clear();
+        documents.clear();
+    }
+
+    /**
+     * unchecked exception that carries a failed read out of the function of the transaction
+     */
+    private static class ReadFailure extends RuntimeException {
+        private final FirebaseFirestoreException exception;
+
+        private ReadFailure(FirebaseFirestoreException exception) {
+            super(exception);
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author ludwighultqvist
+ * package private helper class that encodes coordinates into geohash strings and computes the
+ * set of geohash prefixes that covers a bounding box, so that a rectangle can be queried as a
+ * small number of prefix-range queries on a single indexed field
+ */
+final class GeoHash {
+
+    static final String FIELD = "geohash";
+    static final int PRECISION = 9;
+    static final int MAX_CELLS = 9;
+
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    private GeoHash() {}
+
+    /**
+     * encodes the given coordinates into a geohash string of the given length
+     * @param lat the latitude
+     * @param lon the longitude
+     * @param precision the number of characters of the geohash
+     * @return the geohash string
+     */
+    static String encode(double lat, double lon, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+
+        StringBuilder hash = new StringBuilder(precision);
+        boolean even = true;
+        int bit = 0, ch = 0;
+
+        while (hash.length() < precision) {
+            if (even) {
+                double mid = (minLon + maxLon) / 2;
+                if (lon >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                }
+                else {
+                    ch = ch << 1;
+                    maxLon = mid;
+                }
+            }
+            else {
+                double mid = (minLat + maxLat) / 2;
+                if (lat >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                }
+                else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+
+            even = !even;
+            if (++bit == 5) {
+                hash.append(BASE32.charAt(ch));
+                bit = 0;
+                ch = 0;
+            }
+        }
+
+        return hash.toString();
+    }
+
+    /**
+     * encodes the given coordinates into a geohash string with the default precision
+     * @param lat the latitude
+     * @param lon the longitude
+     * @return the geohash string
+     */
+    static String encode(double lat, double lon) {
+        return encode(lat, lon, PRECISION);
+    }
+
+    /**
+     * updates the geohash field of the given document data from its coordinate fields, if the
+     * document has coordinates
+     * @param data the field map of a document
+     */
+    static void update(Map<String, Object> data) {
+        Object lat = data.get("coord_lat");
+        Object lon = data.get("coord_lon");
+
+        if (lat instanceof Number && lon instanceof Number) {
+            data.put(FIELD, encode(((Number) lat).doubleValue(), ((Number) lon).doubleValue()));
+        }
+    }
+
+    /**
+     * computes the geohash prefixes whose cells together cover the given bounding box. the longest
+     * prefixes that need at most MAX_CELLS cells are used. a box that crosses the antimeridian
+     * (minLon > maxLon) is split in two
+     * @param minLat the southern latitude
+     * @param minLon the western longitude
+     * @param maxLat the northern latitude
+     * @param maxLon the eastern longitude
+     * @return the list of prefixes, never empty
+     */
+    static List<String> cover(double minLat, double minLon, double maxLat, double maxLon) {
+        minLat = clamp(minLat, -90, 90);
+        maxLat = clamp(maxLat, -90, 90);
+
+        if (minLon > maxLon) {
+            Set<String> prefixes = new LinkedHashSet<>();
+            prefixes.addAll(cover(minLat, minLon, maxLat, 180));
+            prefixes.addAll(cover(minLat, -180, maxLat, maxLon));
+            return new ArrayList<>(prefixes);
+        }
+
+        minLon = clamp(minLon, -180, 180);
+        maxLon = clamp(maxLon, -180, 180);
+
+        int precision = 0;
+        for (int p = PRECISION; p >= 1; p--) {
+            if (cellCount(minLat, minLon, maxLat, maxLon, p) <= MAX_CELLS) {
+                precision = p;
+                break;
+            }
+        }
+
+        if (precision == 0) {
+            List<String> all = new ArrayList<>(1);
+            all.add("");
+            return all;
+        }
+
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+        long firstRow = index(minLat, -90, cellHeight), lastRow = index(maxLat, -90, cellHeight);
+        long firstCol = index(minLon, -180, cellWidth), lastCol = index(maxLon, -180, cellWidth);
+
+        Set<String> prefixes = new LinkedHashSet<>();
+        for (long row = firstRow; row <= lastRow; row++) {
+            for (long col = firstCol; col <= lastCol; col++) {
+                double lat = -90 + (row + 0.5) * cellHeight;
+                double lon = -180 + (col + 0.5) * cellWidth;
+                prefixes.add(encode(lat, lon, precision));
+            }
+        }
+
+        return new ArrayList<>(prefixes);
+    }
+
+    /**
+     * checks if the given coordinates lie within the given bounding box, borders included
+     */
+    static boolean contains(double minLat, double minLon, double maxLat, double maxLon, double lat, double lon) {
+        if (lat < minLat || lat > maxLat) {
+            return false;
+        }
+
+        if (minLon > maxLon) {
+            return lon >= minLon || lon <= maxLon;
+        }
+
+        return lon >= minLon && lon <= maxLon;
+    }
+
+    private static long cellCount(double minLat, double minLon, double maxLat, double maxLon, int precision) {
+        double cellHeight = cellHeight(precision);
+        double cellWidth = cellWidth(precision);
+
+        long rows = index(maxLat, -90, cellHeight) - index(minLat, -90, cellHeight) + 1;
+        long cols = index(maxLon, -180, cellWidth) - index(minLon, -180, cellWidth) + 1;
+
+        return rows * cols;
+    }
+
+    private static double cellHeight(int precision) {
+        return 180.0 / (1L << ((5 * precision) / 2));
+    }
+
+    private static double cellWidth(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    private static long index(double value, double origin, double cellSize) {
+        long cells = Math.round(-2 * origin / cellSize);
+        long index = (long) Math.floor((value - origin) / cellSize);
+        return Math.min(index, cells - 1);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,98 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ludwighultqvist
+ * package private class that coalesces identical requests: while a request with a given key is
+ * in flight, a new request with the same key is not made, its listener is instead called with
+ * the result of the request in flight
+ * @param <E> the result of the requests
+ */
+final class InFlight<E> {
+
+    private final Map<String, List<RequestListener<E>>> waiting = new HashMap<>();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    /**
+     * a request that delivers its result to the given listener once
+     * @param <E> the result of the request
+     */
+    interface Request<E> {
+        void run(RequestListener<E> listener);
+    }
+
+    /**
+     * runs the request, unless a request with the same key is in flight, in which case the
+     * listener is called when that request finishes
+     * @param key the key of the request, identical requests must have the same key
+     * @param listener the listener of the request
+     * @param request the request to run
+     */
+    void run(@NonNull String key, @NonNull RequestListener<E> listener, @NonNull Request<E> request) {
+        synchronized (this) {
+            List<RequestListener<E>> listeners = waiting.get(key);
+            if (listeners != null) {
+                listeners.add(listener);
+                deduplicated.incrementAndGet();
+                return;
+            }
+
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            waiting.put(key, listeners);
+        }
+
+        request.run(new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                for (RequestListener<E> waiter : finish(key)) {
+                    waiter.onSuccess(object);
+                }
+            }
+
+            @Override
+            public void onComplete(E object) {
+                super.onComplete(object);
+                for (RequestListener<E> waiter : finish(key)) {
+                    waiter.onComplete(object);
+                }
+            }
+
+            @Override
+            public void onFailure(E object) {
+                super.onFailure(object);
+                for (RequestListener<E> waiter : finish(key)) {
+                    waiter.onFailure(object);
+                }
+            }
+        });
+    }
+
+    /**
+     * returns the number of requests that were not made since an identical request was in flight
+     * @return the number of deduplicated requests
+     */
+    long deduplicated() {
+        return deduplicated.get();
+    }
+
+    void resetCounter() {
+        deduplicated.set(0);
+    }
+
+    /**
+     * removes the request with the given key from the requests in flight and returns its listeners
+     */
+    private synchronized List<RequestListener<E>> finish(String key) {
+        List<RequestListener<E>> listeners = waiting.remove(key);
+        return listeners == null ? new ArrayList<>() : listeners;
+    }
+}
@@ -0,0 +1,147 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * class that converts meetups to and from documents of the meetups collection. the class is a
+ * singleton since it has no state
+ */
+public class MeetUpCodec implements DBCodec<MeetUp> {
+
+    private static final int CREATOR = 0, NAME = 1, LAT = 2, LON = 3, DESCRIPTION = 4, CATEGORY = 5,
+            MAX_ATTENDEES = 6, START = 7, END = 8, VISIBILITY = 9, JOINED = 10, ATTENDING = 11;
+
+    private static final FieldTable FIELDS = new FieldTable("creator", "name", "coord_lat", "coord_lon",
+            "description", "category", "maxattendees", "startdate", "enddate", "visibility", "joinedusers",
+            "attendingusers");
+
+    private static final Map<String, MeetUp.Categories> CATEGORIES = new HashMap<>();
+    private static final Map<String, MeetUp.Visibility> VISIBILITIES = new HashMap<>();
+    private static final MeetUpCodec instance = new MeetUpCodec();
+
+    static {
+        for (MeetUp.Categories category : MeetUp.Categories.values()) {
+            CATEGORIES.put(category.name(), category);
+            CATEGORIES.put(category.categoryName, category);
+        }
+        for (MeetUp.Visibility visibility : MeetUp.Visibility.values()) {
+            VISIBILITIES.put(visibility.name(), visibility);
+        }
+    }
+
+    /**
+     * returns the singleton MeetUpCodec object
+     * @return the singleton object
+     */
+    public static MeetUpCodec getInstance() {
+        return instance;
+    }
+
+    /**
+     * private constructor, needed for the class to be a singleton
+     */
+    private MeetUpCodec() {}
+
+    /**
+     * creates a meetup from the given document. the creator, visibility and the lists of users
+     * are optional, the other fields are required
+     * @param document the loaded document
+     * @return the meetup, or null if the document is missing a required field
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public MeetUp decode(@NonNull DBDocument document) {
+        String id = document.id();
+        Object[] values = FIELDS.read(document);
+
+        Object lat = values[LAT], lon = values[LON], maxAttendees = values[MAX_ATTENDEES];
+        String name = (String) values[NAME];
+        String description = (String) values[DESCRIPTION];
+        MeetUp.Categories category = category(values[CATEGORY]);
+        Calendar start = date(values[START]);
+        Calendar end = date(values[END]);
+
+        if (id == null || name == null || !(lat instanceof Number) || !(lon instanceof Number) || description == null
+                || category == null || !(maxAttendees instanceof Number) || start == null || end == null) {
+            return null;
+        }
+
+        String creator = (String) values[CREATOR];
+        List<String> joined = (List<String>) values[JOINED];
+        List<String> attending = (List<String>) values[ATTENDING];
+
+        return new MeetUp(id, creator == null ? "null" : creator, name,
+                new Coordinates(((Number) lat).doubleValue(), ((Number) lon).doubleValue()), description, category,
+                ((Number) maxAttendees).longValue(), start, end, visibility(values[VISIBILITY]),
+                joined == null ? new ArrayList<>() : joined, attending == null ? new ArrayList<>() : attending);
+    }
+
+    /**
+     * sets the fields of the given document from the given meetup. the dates are stored as their
+     * "timeInMillis", and the joined users are left out since they are added with arrayUnion
+     * @param meetUp the meetup
+     * @param document the document
+     */
+    @Override
+    public void encode(@NonNull MeetUp meetUp, @NonNull DBDocument document) {
+        document.set("creator", meetUp.getCreatorID());
+        document.set("name", meetUp.getName());
+        document.set("description", meetUp.getDescription());
+        document.set("coord_lat", meetUp.getCoordinates().lat);
+        document.set("coord_lon", meetUp.getCoordinates().lon);
+        document.set("maxattendees", meetUp.getMaxAttendees());
+        document.set("startdate", date(meetUp.getStart()));
+        document.set("enddate", date(meetUp.getEnd()));
+        document.set("category", meetUp.getCategory() == null ? null : meetUp.getCategory().name());
+        document.set("visibility", meetUp.getVisibility() == null ? null : meetUp.getVisibility().name());
+        document.set("attendingusers", meetUp.getAttendingUsers());
+    }
+
+    static MeetUp.Categories category(Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        MeetUp.Categories category = CATEGORIES.get(value);
+        return category != null ? category : MeetUp.getCategoryFromString((String) value);
+    }
+
+    static MeetUp.Visibility visibility(Object value) {
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        MeetUp.Visibility visibility = VISIBILITIES.get(value);
+        return visibility != null ? visibility : MeetUp.getVisibilityFromString((String) value);
+    }
+
+    private static Calendar date(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+
+        Object millis = ((Map<?, ?>) value).get("timeInMillis");
+        if (!(millis instanceof Number)) {
+            return null;
+        }
+
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(((Number) millis).longValue());
+        return date;
+    }
+
+    private static Map<String, Object> date(Calendar date) {
+        return date == null ? null : Collections.singletonMap("timeInMillis", date.getTimeInMillis());
+    }
+}
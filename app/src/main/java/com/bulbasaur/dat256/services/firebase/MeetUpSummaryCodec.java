@@ -0,0 +1,102 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+
+/**
+ * @author ludwighultqvist
+ * class that converts meetups to and from documents of the meetup summaries collection. a
+ * summary has the same id as its meetup and only the fields that the map and the list of
+ * meetups show, so that a viewport does not download descriptions and lists of users. the
+ * decoded meetups are marked as summaries, see MeetUp.isSummary
+ */
+public class MeetUpSummaryCodec implements DBCodec<MeetUp> {
+
+    /**
+     * the max length of the shortened description of a summary
+     */
+    public static final int PREVIEW_LENGTH = 100;
+
+    private static final int CREATOR = 0, NAME = 1, LAT = 2, LON = 3, CATEGORY = 4, VISIBILITY = 5, START = 6,
+            END = 7, PREVIEW = 8;
+
+    private static final FieldTable FIELDS = new FieldTable("creator", "name", "coord_lat", "coord_lon",
+            "category", "visibility", "start", "end", "preview");
+
+    private static final MeetUpSummaryCodec instance = new MeetUpSummaryCodec();
+
+    /**
+     * returns the singleton MeetUpSummaryCodec object
+     * @return the singleton object
+     */
+    public static MeetUpSummaryCodec getInstance() {
+        return instance;
+    }
+
+    /**
+     * private constructor, needed for the class to be a singleton
+     */
+    private MeetUpSummaryCodec() {}
+
+    /**
+     * creates a summary meetup from the given summary document
+     * @param document the loaded document
+     * @return the meetup, or null if the document is missing a required field
+     */
+    @Override
+    public MeetUp decode(@NonNull DBDocument document) {
+        String id = document.id();
+        Object[] values = FIELDS.read(document);
+
+        Object lat = values[LAT], lon = values[LON], start = values[START], end = values[END];
+        String name = (String) values[NAME];
+        MeetUp.Categories category = MeetUpCodec.category(values[CATEGORY]);
+
+        if (id == null || name == null || !(lat instanceof Number) || !(lon instanceof Number) || category == null
+                || !(start instanceof Number) || !(end instanceof Number)) {
+            return null;
+        }
+
+        String creator = (String) values[CREATOR];
+        String preview = (String) values[PREVIEW];
+
+        MeetUp meetUp = new MeetUp(id, creator == null ? "null" : creator, name,
+                new Coordinates(((Number) lat).doubleValue(), ((Number) lon).doubleValue()), preview == null ? "" : preview,
+                category, 0, date(((Number) start).longValue()), date(((Number) end).longValue()),
+                MeetUpCodec.visibility(values[VISIBILITY]), new ArrayList<>(), new ArrayList<>());
+        meetUp.setSummary(true);
+        return meetUp;
+    }
+
+    /**
+     * sets the fields of the given summary document from the given meetup
+     * @param meetUp the meetup
+     * @param document the summary document, with the same id as the meetup
+     */
+    @Override
+    public void encode(@NonNull MeetUp meetUp, @NonNull DBDocument document) {
+        String description = meetUp.getDescription();
+
+        document.set("creator", meetUp.getCreatorID());
+        document.set("name", meetUp.getName());
+        document.set("coord_lat", meetUp.getCoordinates().lat);
+        document.set("coord_lon", meetUp.getCoordinates().lon);
+        document.set("category", meetUp.getCategory() == null ? null : meetUp.getCategory().name());
+        document.set("visibility", meetUp.getVisibility() == null ? null : meetUp.getVisibility().name());
+        document.set("start", meetUp.getStart() == null ? null : meetUp.getStart().getTimeInMillis());
+        document.set("end", meetUp.getEnd() == null ? null : meetUp.getEnd().getTimeInMillis());
+        document.set("preview", description == null || description.length() <= PREVIEW_LENGTH
+                ? description : description.substring(0, PREVIEW_LENGTH));
+    }
+
+    private static Calendar date(long millis) {
+        Calendar date = Calendar.getInstance();
+        date.setTimeInMillis(millis);
+        return date;
+    }
+}
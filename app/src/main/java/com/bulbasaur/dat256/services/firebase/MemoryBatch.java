@@ -0,0 +1,107 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBBatch interface for the in-memory database. the writes are
+ * committed with MemoryProvider.commit, so either all of them are made or none of them
+ */
+class MemoryBatch implements DBBatch {
+
+    private final MemoryProvider provider;
+    private final List<MemoryDocument> documents = new ArrayList<>();
+    private final List<MemoryDocument.Write> writes = new ArrayList<>();
+    private boolean committed;
+
+    /**
+     * package private constructor, batches are only created by the MemoryProvider
+     * @param provider the in-memory database
+     */
+    MemoryBatch(@NonNull MemoryProvider provider) {
+        this.provider = provider;
+    }
+
+    @Override
+    public DBBatch save(@NonNull DBDocument document) {
+        MemoryDocument memoryDocument = document(document);
+        add(memoryDocument, memoryDocument.stage(false));
+        return this;
+    }
+
+    @Override
+    public DBBatch overwrite(@NonNull DBDocument document) {
+        MemoryDocument memoryDocument = document(document);
+        add(memoryDocument, memoryDocument.stage(true));
+        return this;
+    }
+
+    @Override
+    public DBBatch delete(@NonNull DBDocument document) {
+        MemoryDocument memoryDocument = document(document);
+        add(memoryDocument, memoryDocument.stageDelete());
+        return this;
+    }
+
+    private void add(MemoryDocument document, MemoryDocument.Write write) {
+        if (committed) {
+            throw new IllegalStateException("the batch has already been committed");
+        }
+
+        if (write != null) {
+            documents.add(document);
+            writes.add(write);
+        }
+    }
+
+    /**
+     * commits all writes of the batch in one request
+     * @param listener the listener of the request
+     */
+    @Override
+    public void commit(@NonNull RequestListener<DBBatch> listener) {
+        if (commit()) {
+            provider.deliver(() -> listener.onSuccess(this));
+        }
+        else {
+            provider.deliver(() -> listener.onFailure(this));
+        }
+    }
+
+    /**
+     * commits all writes of the batch, the changes of the documents are put back if it fails
+     * @return true if the writes were made
+     */
+    boolean commit() {
+        if (committed) {
+            throw new IllegalStateException("a batch can only be committed once");
+        }
+        committed = true;
+
+        if (provider.commit(writes)) {
+            return true;
+        }
+
+        unstage();
+        return false;
+    }
+
+    /**
+     * puts back the changes of the documents of the batch
+     */
+    void unstage() {
+        for (int i = 0; i < writes.size(); i++) {
+            documents.get(i).unstage(writes.get(i));
+        }
+    }
+
+    private MemoryDocument document(DBDocument document) {
+        if (!(document instanceof MemoryDocument)) {
+            throw new IllegalArgumentException("the document is not a document of the in-memory database: " + document);
+        }
+        return (MemoryDocument) document;
+    }
+}
@@ -0,0 +1,842 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.bulbasaur.dat256.model.MapBounds;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBCollection interface for a collection in the in-memory database.
+ * the documents are kept ordered by id, and a geohash index makes searchWithin as cheap as it
+ * is on Firestore, so that large synthetic collections can be queried on a laptop
+ */
+class MemoryCollection implements DBCollection, Restorable {
+
+    private static final String ID_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int ID_LENGTH = 20;
+    private static final Random random = new Random();
+
+    private final MemoryProvider provider;
+    private final String path;
+
+    private final TreeMap<String, Map<String, Object>> documents = new TreeMap<>();
+    private final TreeMap<String, String> geoIndex = new TreeMap<>();
+    private final Map<String, String> geoKeys = new HashMap<>();
+
+    private final List<Watcher> watchers = new ArrayList<>();
+    private final List<Runnable> pending = new ArrayList<>();
+    private final Object publishing = new Object();
+
+    /**
+     * package private constructor, collections are only created by the MemoryProvider
+     * @param provider the in-memory database of the collection
+     * @param path the path of the collection
+     */
+    MemoryCollection(@NonNull MemoryProvider provider, @NonNull String path) {
+        this.provider = provider;
+        this.path = path;
+    }
+
+    MemoryProvider provider() {
+        return provider;
+    }
+
+    String path() {
+        return path;
+    }
+
+    /**
+     * creates a new document in the collection with a given id (should be generated)
+     * @param id the given id string
+     * @return a new DBDocument object
+     */
+    @Override
+    public DBDocument create(String id) {
+        return new MemoryDocument(this, id);
+    }
+
+    /**
+     * creates a new document in the collection with an autogenerated id
+     * @return a new DBDocument object
+     */
+    @Override
+    public DBDocument create() {
+        StringBuilder id = new StringBuilder(ID_LENGTH);
+        for (int i = 0; i < ID_LENGTH; i++) {
+            id.append(ID_CHARACTERS.charAt(random.nextInt(ID_CHARACTERS.length())));
+        }
+        return create(id.toString());
+    }
+
+    /**
+     * creates a loaded document with the given id and fields, e.g. a copy of a cached document.
+     * nothing is read, so no request is counted
+     * @param id the id string
+     * @param fields the fields of the document, which are copied
+     * @return a new DBDocument object
+     */
+    @Override
+    public DBDocument restore(@NonNull String id, @NonNull Map<String, Object> fields) {
+        return new MemoryDocument(this, id, fields);
+    }
+
+    /**
+     * fetches a document with the given id from the collection. the document is already loaded
+     * with its content. if no document is found, listener.onComplete is called with an empty document
+     * @param id the given id string
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    @Override
+    public DBDocument get(String id, @NonNull RequestListener<DBDocument> listener) {
+        return get(id, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches a document with the given id from the collection. the in-memory database is its own
+     * local copy, so every read policy finds the same documents, but a CACHE_ONLY read is not
+     * counted as a request or a read, like a read of the offline cache of Firestore
+     * @param id the given id string
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the DBDocument found
+     */
+    @Override
+    public DBDocument get(String id, @NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> get(id, from, read), document -> true, listener);
+            return listener.getObject();
+        }
+
+        if (policy != ReadPolicy.CACHE_ONLY && provider.failRead()) {
+            MemoryDocument document = new MemoryDocument(this, id);
+            provider.failed(listener, document);
+            return listener.getObject();
+        }
+
+        Map<String, Object> data = policy == ReadPolicy.CACHE_ONLY ? peek(id) : read(id);
+
+        if (data != null) {
+            MemoryDocument document = new MemoryDocument(this, id, data);
+            provider.deliver(() -> listener.onSuccess(document));
+        }
+        else {
+            MemoryDocument document = new MemoryDocument(this, null);
+            provider.deliver(() -> listener.onComplete(document));
+        }
+
+        return listener.getObject();
+    }
+
+    /**
+     * fetches the documents with the given ids from the collection, in the same order as the ids.
+     * documents that were not found are in the list but are not loaded. like on Firestore, every
+     * id is a get of its own, so one request is counted per id and one read per found document
+     * @param ids the list of id strings
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return getAll(ids, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * fetches the documents with the given ids from the collection, a CACHE_ONLY read is not
+     * counted
+     * @param ids the list of id strings
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> getAll(List<String> ids, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> getAll(ids, from, read), Collection::anyLoaded, listener);
+            return listener.getObject();
+        }
+
+        if (policy != ReadPolicy.CACHE_ONLY && provider.failRead()) {
+            return failed(listener);
+        }
+
+        List<MemoryDocument> result = new ArrayList<>(ids.size());
+
+        synchronized (this) {
+            for (String id : ids) {
+                Map<String, Object> data = documents.get(id);
+                result.add(data != null ? new MemoryDocument(this, id, data) : new MemoryDocument(this, id));
+            }
+
+            if (policy != ReadPolicy.CACHE_ONLY) {
+                for (String id : new LinkedHashSet<>(ids)) {
+                    provider.countRequest(documents.containsKey(id) ? 1 : 0);
+                }
+            }
+        }
+
+        provider.deliver(() -> listener.onSuccess(result));
+        return result;
+    }
+
+    /**
+     * fetches all documents from the collection. the documents are already loaded with their content
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> all(@NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (provider.failRead()) {
+            return failed(listener);
+        }
+
+        List<MemoryDocument> result = run(null);
+        provider.countRequest(result.size());
+
+        provider.deliver(() -> listener.onSuccess(result));
+        return result;
+    }
+
+    /**
+     * searches the documents of the collection according to given filter. the filter is evaluated
+     * with the same semantics as a Firestore query, an "in" condition is a single query here
+     * @param queryFilter the filter object
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return search(queryFilter, ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * searches the documents of the collection according to given filter, a CACHE_ONLY search is
+     * not counted
+     * @param queryFilter the filter object
+     * @param policy the read policy
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> search(QueryFilter queryFilter, @NonNull ReadPolicy policy, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read((from, read) -> search(queryFilter, from, read), documents -> !documents.isEmpty(), listener);
+            return listener.getObject();
+        }
+
+        if (policy != ReadPolicy.CACHE_ONLY && provider.failRead()) {
+            return failed(listener);
+        }
+
+        List<MemoryDocument> result = run(queryFilter);
+        if (policy != ReadPolicy.CACHE_ONLY) {
+            provider.countRequest(result.size());
+        }
+
+        provider.deliver(() -> listener.onSuccess(result));
+        return result;
+    }
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds.
+     * @param bounds the bounds of the rectangle
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        return searchWithin(bounds, null, listener);
+    }
+
+    /**
+     * searches the documents of the collection whose coordinates lie within the given bounds and
+     * that matches the given filter. like on Firestore, one request is made per geohash cell and
+     * every document of a cell that matches the filter is counted as read, also the ones that are
+     * then filtered out since they are outside of the bounds
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the request
+     * @return the list of documents
+     */
+    @Override
+    public List<? extends DBDocument> searchWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull RequestListener<List<? extends DBDocument>> listener) {
+        if (provider.failRead()) {
+            return failed(listener);
+        }
+
+        List<MemoryDocument> result = within(bounds, queryFilter);
+
+        provider.deliver(() -> listener.onSuccess(result));
+        return result;
+    }
+
+    /**
+     * fails a read of a list of documents, like a query that could not reach the server
+     */
+    private List<? extends DBDocument> failed(RequestListener<List<? extends DBDocument>> listener) {
+        List<MemoryDocument> result = new ArrayList<>();
+        provider.failed(listener, result);
+        return result;
+    }
+
+    /**
+     * reads the documents whose coordinates lie within the given bounds and that matches the
+     * given filter, with one request per geohash cell. like the cell queries of the Firestore
+     * collection, the documents of a cell are ordered by their geohash and then by the orders of
+     * the filter, and the limit of the filter is applied to every cell before the documents
+     * outside of the bounds are filtered out. the results of several cells are merged by the
+     * orders of the filter and then by id, see Collection.merge
+     */
+    private List<MemoryDocument> within(MapBounds bounds, QueryFilter queryFilter) {
+        double minLat = bounds.getBottomLeft().lat, minLon = bounds.getBottomLeft().lon;
+        double maxLat = bounds.getTopRight().lat, maxLon = bounds.getTopRight().lon;
+
+        List<QueryFilter.Order> orders = queryFilter == null ? Collections.emptyList() : queryFilter.getOrders();
+        long limit = queryFilter == null ? -1 : queryFilter.getLimit();
+        List<String> cells = GeoHash.cover(minLat, minLon, maxLat, maxLon);
+        List<Map.Entry<String, Map<String, Object>>> result = new ArrayList<>();
+
+        for (String prefix : cells) {
+            List<Map.Entry<String, Map<String, Object>>> cell = new ArrayList<>();
+
+            synchronized (this) {
+                // the index is ordered by geohash and then by id
+                for (String id : geoIndex.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                    Map<String, Object> data = documents.get(id);
+                    if (queryFilter == null || matches(data, queryFilter)) {
+                        cell.add(new AbstractMap.SimpleImmutableEntry<>(id, data));
+                    }
+                }
+            }
+
+            if (!orders.isEmpty()) {
+                Collections.sort(cell, (a, b) -> {
+                    int c = MemoryValues.compare(a.getValue().get(GeoHash.FIELD), b.getValue().get(GeoHash.FIELD));
+                    return c != 0 ? c : compareOrdered(a.getValue(), orders, b.getValue());
+                });
+            }
+            if (limit >= 0 && cell.size() > limit) {
+                cell = cell.subList(0, (int) limit);
+            }
+
+            for (Map.Entry<String, Map<String, Object>> entry : cell) {
+                Object lat = entry.getValue().get("coord_lat"), lon = entry.getValue().get("coord_lon");
+                if (GeoHash.contains(minLat, minLon, maxLat, maxLon, ((Number) lat).doubleValue(), ((Number) lon).doubleValue())) {
+                    result.add(entry);
+                }
+            }
+
+            provider.countRequest(cell.size());
+        }
+
+        if (cells.size() > 1) {
+            boolean descending = !orders.isEmpty() && orders.get(orders.size() - 1).descending;
+            Collections.sort(result, (a, b) -> {
+                int c = compareOrdered(a.getValue(), orders, b.getValue());
+                if (c != 0) {
+                    return c;
+                }
+                c = a.getKey().compareTo(b.getKey());
+                return descending ? -c : c;
+            });
+        }
+
+        List<MemoryDocument> documents = new ArrayList<>(result.size());
+        for (Map.Entry<String, Map<String, Object>> entry : result) {
+            documents.add(new MemoryDocument(this, entry.getKey(), entry.getValue()));
+        }
+        return documents;
+    }
+
+    /**
+     * fetches one page of the documents of the collection that matches the given filter, with the
+     * same restrictions, ordering and tokens as the Firestore collection
+     * @param queryFilter the filter object, may be null to page through all documents
+     * @param pageSize the max number of documents of the page
+     * @param token the token of the previous page, or null for the first page
+     * @param listener the listener of the request
+     * @return the page
+     */
+    @Override
+    public DBPage page(QueryFilter queryFilter, int pageSize, String token, @NonNull RequestListener<DBPage> listener) {
+        if (provider.failRead()) {
+            DBPage page = new DBPage(new ArrayList<>(), token);
+            provider.failed(listener, page);
+            return page;
+        }
+
+        DBPage page = readPage(queryFilter, pageSize, token);
+
+        provider.deliver(() -> listener.onSuccess(page));
+        return page;
+    }
+
+    /**
+     * fetches all documents of the collection that matches the given filter, one page at a time.
+     * a failed read of a page is delivered to listener.onFailure and ends the stream
+     * @param queryFilter the filter object, may be null to read all documents
+     * @param pageSize the max number of documents of each page
+     * @param listener the listener of the request
+     */
+    @Override
+    public void stream(QueryFilter queryFilter, int pageSize, @NonNull RequestListener<DBPage> listener) {
+        String token = null;
+
+        do {
+            if (provider.failRead()) {
+                DBPage failed = new DBPage(new ArrayList<>(), token);
+                provider.failed(listener, failed);
+                return;
+            }
+
+            DBPage page = readPage(queryFilter, pageSize, token);
+            provider.deliver(() -> listener.onSuccess(page));
+            token = page.token();
+        } while (token != null);
+    }
+
+    /**
+     * starts a live query of the documents of the collection that matches the given filter.
+     * the matching documents are read once, and after that every committed write of a matching
+     * document is delivered and counted as one read
+     * @param queryFilter the filter object, may be null to listen to all documents
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    @Override
+    public DBSubscription listen(QueryFilter queryFilter, @NonNull DBListener listener) {
+        Subscription.check(queryFilter);
+
+        return watch(data -> queryFilter == null || matches(data, queryFilter), () -> {
+            List<MemoryDocument> result = run(queryFilter);
+            provider.countRequest(result.size());
+            return result;
+        }, listener);
+    }
+
+    /**
+     * starts a live query of the documents of the collection whose coordinates lie within the
+     * given bounds and that matches the given filter
+     * @param bounds the bounds of the rectangle
+     * @param queryFilter the filter object, may be null
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    @Override
+    public DBSubscription listenWithin(MapBounds bounds, QueryFilter queryFilter, @NonNull DBListener listener) {
+        Subscription.check(queryFilter);
+
+        double minLat = bounds.getBottomLeft().lat, minLon = bounds.getBottomLeft().lon;
+        double maxLat = bounds.getTopRight().lat, maxLon = bounds.getTopRight().lon;
+
+        return watch(data -> {
+            Object lat = data.get("coord_lat"), lon = data.get("coord_lon");
+            return lat instanceof Number && lon instanceof Number
+                    && GeoHash.contains(minLat, minLon, maxLat, maxLon, ((Number) lat).doubleValue(), ((Number) lon).doubleValue())
+                    && (queryFilter == null || matches(data, queryFilter));
+        }, () -> within(bounds, queryFilter), listener);
+    }
+
+    /**
+     * registers a watcher of the writes of the collection and delivers the initial documents.
+     * the watcher is registered before the documents are read and the initial documents are
+     * delivered before any pending change, so no change is missed
+     * @param matches a test of which stored documents match the live query
+     * @param initial the read of the initial documents
+     * @param listener the listener of the live query
+     * @return the subscription
+     */
+    private DBSubscription watch(Predicate<Map<String, Object>> matches, Supplier<List<MemoryDocument>> initial, DBListener listener) {
+        Subscription subscription = new Subscription(listener);
+        Watcher watcher = new Watcher(subscription, matches);
+
+        synchronized (publishing) {
+            synchronized (this) {
+                watchers.add(watcher);
+            }
+
+            subscription.add(() -> {
+                synchronized (this) {
+                    watchers.remove(watcher);
+                }
+            });
+
+            List<MemoryDocument> documents = initial.get();
+            provider.deliver(() -> {
+                for (MemoryDocument document : documents) {
+                    subscription.changed(0, document, true);
+                }
+                subscription.update();
+            });
+        }
+
+        return subscription;
+    }
+
+    /**
+     * delivers the changes of the committed writes to the watchers, in the order of the writes.
+     * it is called by the MemoryProvider after a commit, when the database is no longer locked
+     */
+    void publish() {
+        synchronized (publishing) {
+            List<Runnable> changes;
+
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+
+                changes = new ArrayList<>(pending);
+                pending.clear();
+            }
+
+            for (Runnable change : changes) {
+                provider.deliver(change);
+            }
+        }
+    }
+
+    /**
+     * the in-memory collection has no runnable tester, the in-memory database is itself used by
+     * the unit tests
+     * @return a runnable that does nothing
+     */
+    @Override
+    public Runnable tester() {
+        return () -> {};
+    }
+
+    /**
+     * returns a copy of the stored data of the document with the given id and counts the read
+     * @param id the id string
+     * @return the data, or null if the document does not exist
+     */
+    Map<String, Object> read(String id) {
+        Map<String, Object> data = peek(id);
+
+        provider.countRequest(1);
+        return data;
+    }
+
+    /**
+     * returns a copy of the stored data of the document with the given id without counting a read
+     * @param id the id string
+     * @return the data, or null if the document does not exist
+     */
+    synchronized Map<String, Object> peek(String id) {
+        Map<String, Object> data = documents.get(id);
+        return data == null ? null : MemoryValues.copy(data);
+    }
+
+    /**
+     * returns true if a document with the given id exists
+     * @param id the id string
+     * @return true if it exists
+     */
+    synchronized boolean exists(String id) {
+        return documents.containsKey(id);
+    }
+
+    /**
+     * applies the given write to the stored document. the changed fields of an update or merge
+     * are written over the stored fields, a field with the value MemoryValues.DELETE is removed,
+     * and an operation is applied to the stored value while the collection is locked, so
+     * concurrent operations are not lost. the write is not counted, see MemoryProvider.commit
+     * @param write the write
+     */
+    synchronized void apply(MemoryDocument.Write write) {
+        Map<String, Object> before = documents.get(write.id);
+
+        if (write.mode == MemoryDocument.Write.DELETE) {
+            documents.remove(write.id);
+            String key = geoKeys.remove(write.id);
+            if (key != null) {
+                geoIndex.remove(key);
+            }
+            changed(write.id, before, null);
+            return;
+        }
+
+        if (write.mode == MemoryDocument.Write.SET) {
+            store(write.id, MemoryValues.copy(write.data));
+            changed(write.id, before, documents.get(write.id));
+            return;
+        }
+
+        Map<String, Object> stored = documents.get(write.id);
+        stored = stored == null ? new HashMap<>() : new HashMap<>(stored);
+
+        for (Map.Entry<String, Object> entry : write.data.entrySet()) {
+            if (entry.getValue() == MemoryValues.DELETE) {
+                stored.remove(entry.getKey());
+            }
+            else if (entry.getValue() instanceof FieldChanges.Operation) {
+                Object value = ((FieldChanges.Operation) entry.getValue()).apply(stored.get(entry.getKey()));
+                stored.put(entry.getKey(), MemoryValues.normalize(value));
+            }
+            else {
+                stored.put(entry.getKey(), MemoryValues.normalize(entry.getValue()));
+            }
+        }
+
+        store(write.id, stored);
+        changed(write.id, before, stored);
+    }
+
+    /**
+     * queues the change of a document for the watchers it matches before or after the change,
+     * each delivered change is counted as one read. the caller must hold the lock
+     */
+    private void changed(String id, Map<String, Object> before, Map<String, Object> after) {
+        for (Watcher watcher : watchers) {
+            boolean matched = before != null && watcher.matches.test(before);
+            boolean matches = after != null && watcher.matches.test(after);
+
+            if (matched || matches) {
+                MemoryDocument document = new MemoryDocument(this, id, matches ? after : before);
+                pending.add(() -> watcher.subscription.changed(0, document, matches));
+                pending.add(watcher.subscription::update);
+                provider.countReads(1);
+            }
+        }
+    }
+
+    /**
+     * stores the given data and updates the geohash index. the caller must hold the lock
+     */
+    private void store(String id, Map<String, Object> data) {
+        documents.put(id, data);
+
+        String oldKey = geoKeys.remove(id);
+        if (oldKey != null) {
+            geoIndex.remove(oldKey);
+        }
+
+        Object geohash = data.get(GeoHash.FIELD);
+        Object lat = data.get("coord_lat"), lon = data.get("coord_lon");
+        if (geohash instanceof String && lat instanceof Number && lon instanceof Number) {
+            String key = geohash + "\u0000" + id;
+            geoIndex.put(key, id);
+            geoKeys.put(id, key);
+        }
+    }
+
+    private DBPage readPage(QueryFilter queryFilter, int pageSize, String token) {
+        List<QueryFilter.Order> orders = Collection.checkPaged(queryFilter, pageSize);
+        PageToken previous = token == null ? null : PageToken.decode(token, orders);
+        boolean descending = !orders.isEmpty() && orders.get(orders.size() - 1).descending;
+
+        Map<String, Object> last = null;
+        if (previous != null) {
+            last = new HashMap<>();
+            for (int i = 0; i < orders.size(); i++) {
+                last.put(orders.get(i).field.toLowerCase(), MemoryValues.normalize(previous.values().get(i)));
+            }
+        }
+
+        List<Map.Entry<String, Map<String, Object>>> matched = new ArrayList<>();
+
+        synchronized (this) {
+            for (Map.Entry<String, Map<String, Object>> entry : documents.entrySet()) {
+                if (queryFilter != null && !matches(entry.getValue(), queryFilter)) {
+                    continue;
+                }
+
+                if (last != null) {
+                    int c = compareOrdered(entry.getValue(), orders, last);
+                    if (c == 0) {
+                        c = descending ? previous.id().compareTo(entry.getKey()) : entry.getKey().compareTo(previous.id());
+                    }
+                    if (c <= 0) {
+                        continue;
+                    }
+                }
+
+                matched.add(entry);
+            }
+        }
+
+        // like Firestore, documents with the same ordered values are ordered by id in the direction of the last ordering
+        Collections.sort(matched, (a, b) -> {
+            int c = compareOrdered(a.getValue(), orders, b.getValue());
+            if (c != 0) {
+                return c;
+            }
+            c = a.getKey().compareTo(b.getKey());
+            return descending ? -c : c;
+        });
+
+        boolean more = matched.size() > pageSize;
+        List<MemoryDocument> page = new ArrayList<>(Math.min(matched.size(), pageSize));
+        for (Map.Entry<String, Map<String, Object>> entry : matched.subList(0, Math.min(matched.size(), pageSize))) {
+            page.add(new MemoryDocument(this, entry.getKey(), entry.getValue()));
+        }
+
+        provider.countRequest(page.size() + (more ? 1 : 0));
+        return new DBPage(page, more ? PageToken.encode(page.get(pageSize - 1), orders) : null);
+    }
+
+    /**
+     * runs the given filter over all documents: conditions, ordering, cursor and limit
+     * @param queryFilter the filter object, or null for all documents
+     * @return the documents that matches
+     */
+    private List<MemoryDocument> run(QueryFilter queryFilter) {
+        List<Map.Entry<String, Map<String, Object>>> matched = new ArrayList<>();
+
+        synchronized (this) {
+            for (Map.Entry<String, Map<String, Object>> entry : documents.entrySet()) {
+                if (queryFilter == null || matches(entry.getValue(), queryFilter)) {
+                    matched.add(entry);
+                }
+            }
+
+            if (queryFilter != null) {
+                List<QueryFilter.Order> orders = queryFilter.getOrders();
+
+                if (!orders.isEmpty()) {
+                    Collections.sort(matched, (a, b) -> {
+                        int c = compareOrdered(a.getValue(), orders, b.getValue());
+                        return c != 0 ? c : a.getKey().compareTo(b.getKey());
+                    });
+                }
+
+                List<Object> cursor = queryFilter.getStartAfter();
+                if (cursor != null) {
+                    List<Map.Entry<String, Map<String, Object>>> after = new ArrayList<>();
+                    for (Map.Entry<String, Map<String, Object>> entry : matched) {
+                        if (isAfter(entry, orders, cursor)) {
+                            after.add(entry);
+                        }
+                    }
+                    matched = after;
+                }
+
+                if (queryFilter.getLimit() >= 0 && matched.size() > queryFilter.getLimit()) {
+                    matched = matched.subList(0, (int) queryFilter.getLimit());
+                }
+            }
+
+            List<MemoryDocument> result = new ArrayList<>(matched.size());
+            for (Map.Entry<String, Map<String, Object>> entry : matched) {
+                result.add(new MemoryDocument(this, entry.getKey(), entry.getValue()));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * checks if the given stored data matches the conditions of the filter. like on Firestore,
+     * a document without an ordered field does not match
+     */
+    static boolean matches(Map<String, Object> data, QueryFilter queryFilter) {
+        for (QueryFilter.Condition condition : queryFilter.getConditions()) {
+            Object stored = data.get(condition.field.toLowerCase());
+            Object value = MemoryValues.normalize(condition.value);
+
+            switch (condition.comparison) {
+                case QueryFilter.EQUAL:
+                    if (stored == null || !MemoryValues.equal(stored, value)) return false;
+                    break;
+                case QueryFilter.LESS:
+                    if (!MemoryValues.comparable(stored, value) || MemoryValues.compare(stored, value) >= 0) return false;
+                    break;
+                case QueryFilter.LESS_OR_EQUAL:
+                    if (!MemoryValues.comparable(stored, value) || MemoryValues.compare(stored, value) > 0) return false;
+                    break;
+                case QueryFilter.GREATER:
+                    if (!MemoryValues.comparable(stored, value) || MemoryValues.compare(stored, value) <= 0) return false;
+                    break;
+                case QueryFilter.GREATER_OR_EQUAL:
+                    if (!MemoryValues.comparable(stored, value) || MemoryValues.compare(stored, value) < 0) return false;
+                    break;
+                case QueryFilter.ARRAY_CONTAINS:
+                    if (!containsEqual(stored, value)) return false;
+                    break;
+                case QueryFilter.IN:
+                    if (stored == null || !containsEqual(value, stored)) return false;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown comparison: " + condition.comparison);
+            }
+        }
+
+        for (QueryFilter.Order order : queryFilter.getOrders()) {
+            if (!data.containsKey(order.field.toLowerCase())) return false;
+        }
+
+        return true;
+    }
+
+    private static boolean containsEqual(Object list, Object value) {
+        if (!(list instanceof List)) {
+            return false;
+        }
+
+        for (Object element : (List<?>) list) {
+            if (MemoryValues.equal(element, value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int compareOrdered(Map<String, Object> a, List<QueryFilter.Order> orders, Map<String, Object> b) {
+        for (QueryFilter.Order order : orders) {
+            String field = order.field.toLowerCase();
+            int c = MemoryValues.compare(a.get(field), b.get(field));
+            if (c != 0) {
+                return order.descending ? -c : c;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isAfter(Map.Entry<String, Map<String, Object>> entry, List<QueryFilter.Order> orders, List<Object> cursor) {
+        if (orders.isEmpty()) {
+            return !cursor.isEmpty() && entry.getKey().compareTo(String.valueOf(cursor.get(0))) > 0;
+        }
+
+        for (int i = 0; i < orders.size() && i < cursor.size(); i++) {
+            QueryFilter.Order order = orders.get(i);
+            int c = MemoryValues.compare(entry.getValue().get(order.field.toLowerCase()), MemoryValues.normalize(cursor.get(i)));
+            if (c != 0) {
+                return order.descending ? c < 0 : c > 0;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * private class that holds a live query of the collection
+     */
+    private static class Watcher {
+        final Subscription subscription;
+        final Predicate<Map<String, Object>> matches;
+
+        Watcher(Subscription subscription, Predicate<Map<String, Object>> matches) {
+            this.subscription = subscription;
+            this.matches = matches;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "MemoryCollection: [" + "path: " + path + ", " + "size: " + documents.size() + "]";
+    }
+}
@@ -0,0 +1,359 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBDocument interface for a document in the in-memory database
+ */
+class MemoryDocument implements DBDocument {
+
+    private final MemoryCollection collection;
+    private final String id;
+    private Map<String, Object> data = new HashMap<>();
+    private FieldChanges changes = new FieldChanges();
+    private boolean loaded;
+
+    /**
+     * package private constructor which creates a document that is not loaded
+     * @param collection the collection of the document
+     * @param id the id of the document, null for a document that does not exist
+     */
+    MemoryDocument(@NonNull MemoryCollection collection, String id) {
+        this.collection = collection;
+        this.id = id;
+    }
+
+    /**
+     * package private constructor which creates a document that is loaded with the given data
+     * @param collection the collection of the document
+     * @param id the id of the document
+     * @param data the stored data of the document, which is copied
+     */
+    MemoryDocument(@NonNull MemoryCollection collection, @NonNull String id, @NonNull Map<String, Object> data) {
+        this(collection, id);
+        this.data.putAll(MemoryValues.copy(data));
+        this.loaded = true;
+    }
+
+    /**
+     * initializes the document by fetching its content from the in-memory database
+     * @param listener the listener of the request
+     */
+    @Override
+    public void init(@NonNull RequestListener<DBDocument> listener) {
+        init(ReadPolicy.DEFAULT, listener);
+    }
+
+    /**
+     * initializes the document by fetching its content from the in-memory database, a CACHE_ONLY
+     * read is not counted
+     * @param policy the read policy
+     * @param listener the listener of the request
+     */
+    @Override
+    public void init(@NonNull ReadPolicy policy, @NonNull RequestListener<DBDocument> listener) {
+        if (policy == ReadPolicy.CACHE_THEN_SERVER) {
+            CacheThenServer.read(this::init, document -> true, listener);
+            return;
+        }
+
+        if (policy != ReadPolicy.CACHE_ONLY && collection.provider().failRead()) {
+            collection.provider().failed(listener, this);
+            return;
+        }
+
+        Map<String, Object> stored = id == null ? null : policy == ReadPolicy.CACHE_ONLY ? collection.peek(id) : collection.read(id);
+
+        if (stored != null) {
+            data.clear();
+            data.putAll(stored);
+            changes = new FieldChanges();
+            loaded = true;
+            collection.provider().deliver(() -> listener.onSuccess(this));
+        }
+        else {
+            collection.provider().deliver(() -> listener.onComplete(this));
+        }
+    }
+
+    /**
+     * returns the id of the document
+     * @return the id string
+     */
+    @Override
+    public String id() {
+        return id;
+    }
+
+    /**
+     * gets the local object of the given field. if that field or object does not exist, null
+     * is returned
+     * @param field the field string
+     * @return the object of the field
+     */
+    @Override
+    public Object get(String field) {
+        return data.get(field.toLowerCase());
+    }
+
+    @Override
+    public void forEach(@NonNull BiConsumer<String, Object> action) {
+        data.forEach(action);
+    }
+
+    /**
+     * sets the local object of the given field. the field is marked as changed
+     * @param field the field string
+     * @param object the object to be saved on the field
+     */
+    @Override
+    public void set(String field, Object object) {
+        data.put(field.toLowerCase(), object);
+        changes.set(field.toLowerCase());
+    }
+
+    /**
+     * marks the document as changed, the fields that are derived on save are written by the
+     * next save even if no other field is changed
+     */
+    @Override
+    public void touch() {
+        changes.set(Document.LAST_SAVE);
+    }
+
+    /**
+     * removes the local object of the given field. the field is marked as changed
+     * @param field the field string
+     */
+    @Override
+    public void remove(String field) {
+        data.remove(field.toLowerCase());
+        changes.set(field.toLowerCase());
+    }
+
+    /**
+     * adds the given values to the array of the given field, they are added to the stored array
+     * when the document is saved
+     * @param field the field string
+     * @param values the values to add
+     */
+    @Override
+    public void arrayUnion(String field, Object... values) {
+        changes.arrayUnion(data, field.toLowerCase(), values);
+    }
+
+    /**
+     * removes the given values from the array of the given field, they are removed from the
+     * stored array when the document is saved
+     * @param field the field string
+     * @param values the values to remove
+     */
+    @Override
+    public void arrayRemove(String field, Object... values) {
+        changes.arrayRemove(data, field.toLowerCase(), values);
+    }
+
+    /**
+     * increments the number of the given field, the stored number is incremented when the
+     * document is saved
+     * @param field the field string
+     * @param amount the amount, may be negative
+     */
+    @Override
+    public void increment(String field, long amount) {
+        changes.increment(data, field.toLowerCase(), amount);
+    }
+
+    /**
+     * saves the fields that have changed since the document was loaded or last saved in the
+     * in-memory database, in the same way as the Firestore document
+     * @param listener the listener of the request
+     */
+    @Override
+    public void save(@NonNull RequestListener<DBDocument> listener) {
+        Write write = stage(false);
+        if (write == null) {
+            collection.provider().deliver(() -> listener.onSuccess(this));
+            return;
+        }
+
+        commit(write, listener);
+    }
+
+    /**
+     * saves all local fields in the in-memory database, replacing the stored document
+     * @param listener the listener of the request
+     */
+    @Override
+    public void overwrite(@NonNull RequestListener<DBDocument> listener) {
+        commit(stage(true), listener);
+    }
+
+    /**
+     * takes the changes of the document as a write, e.g. to be part of a batch or transaction.
+     * the changes are no longer pending, if the write fails they are put back with unstage.
+     * a loaded document or a document with only operations is updated, other documents are merged
+     * @param overwrite true if all local fields should replace the stored document
+     * @return the write, or null if there are no changes to save
+     */
+    Write stage(boolean overwrite) {
+        if (!overwrite && changes.isEmpty()) {
+            return null;
+        }
+
+        boolean update = loaded || changes.onlyOperations();
+        prepare();
+
+        Write write = overwrite
+                ? new Write(collection, id, new HashMap<>(data), Write.SET, changes)
+                : new Write(collection, id, changes.collect(data, MemoryValues.DELETE), update ? Write.UPDATE : Write.MERGE, changes);
+
+        changes = new FieldChanges();
+        if (overwrite) {
+            loaded = true;
+        }
+        return write;
+    }
+
+    /**
+     * takes a delete of the document as a write
+     * @return the write
+     */
+    Write stageDelete() {
+        return new Write(collection, id, new HashMap<>(), Write.DELETE, new FieldChanges());
+    }
+
+    /**
+     * puts back the changes of a failed write, unless the fields were changed again since
+     * @param write the failed write
+     */
+    void unstage(Write write) {
+        changes.restore(write.changes);
+    }
+
+    private void commit(Write write, RequestListener<DBDocument> listener) {
+        if (collection.provider().commit(Collections.singletonList(write))) {
+            collection.provider().deliver(() -> listener.onSuccess(this));
+        }
+        else {
+            unstage(write);
+            collection.provider().deliver(() -> listener.onFailure(this));
+        }
+    }
+
+    /**
+     * sets the fields that are derived when the document is saved
+     */
+    private void prepare() {
+        set(Document.LAST_SAVE, DateFormat.getDateTimeInstance().format(new Date()));
+
+        Object geohash = data.get(GeoHash.FIELD);
+        GeoHash.update(data);
+        if (!Objects.equals(geohash, data.get(GeoHash.FIELD))) {
+            changes.set(GeoHash.FIELD);
+        }
+    }
+
+    /**
+     * deletes the document from the in-memory database
+     * @param listener the listener of the request
+     */
+    @Override
+    public void delete(@NonNull RequestListener<DBDocument> listener) {
+        commit(stageDelete(), listener);
+    }
+
+    /**
+     * fetches a subCollection of the document with the name, e.g. the groups of a user etc.
+     * @param name the name string
+     * @return the DBCollection object
+     */
+    @Override
+    public DBCollection subCollection(String name) {
+        return collection.provider().collection(collection.path() + "/" + id + "/" + name);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return id == null;
+    }
+
+    /**
+     * returns true if the content of the document has been fetched from the database
+     * @return true if loaded
+     */
+    @Override
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * the in-memory document has no runnable tester, the in-memory database is itself used by the
+     * unit tests
+     * @return a runnable that does nothing
+     */
+    @Override
+    public Runnable tester() {
+        return () -> {};
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MemoryDocument)) {
+            return false;
+        }
+
+        return id != null && id.equals(((MemoryDocument) obj).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id == null ? 0 : id.hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (id == null) return "MemoryDocument: [null]";
+
+        return "MemoryDocument: [" +
+                "id: " + id + ", " +
+                "path: " + collection.path() + "/" + id + ", " +
+                "data: " + data.toString() +
+                "]";
+    }
+
+    /**
+     * package private class that describes the changes of a document that are written to the
+     * in-memory database
+     */
+    static class Write {
+        static final int UPDATE = 0;
+        static final int MERGE = 1;
+        static final int SET = 2;
+        static final int DELETE = 3;
+
+        final MemoryCollection collection;
+        final String id;
+        final Map<String, Object> data;
+        final int mode;
+        private final FieldChanges changes;
+
+        private Write(MemoryCollection collection, String id, Map<String, Object> data, int mode, FieldChanges changes) {
+            this.collection = collection;
+            this.id = id;
+            this.data = data;
+            this.mode = mode;
+            this.changes = changes;
+        }
+    }
+}
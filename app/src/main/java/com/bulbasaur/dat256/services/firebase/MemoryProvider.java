@@ -0,0 +1,248 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBProvider interface with an in-memory database, so that the data
+ * layer can be run, tested and benchmarked without a Firestore project, e.g.
+ * Database.getInstance().setProvider(new MemoryProvider());
+ *
+ * the collections have the same query semantics as the Firestore collections. the provider
+ * counts the requests, document reads and document writes made against it. it can also be made
+ * to fail its server reads, e.g. to test how the app behaves on a bad connection
+ */
+public class MemoryProvider implements DBProvider {
+
+    private final Map<String, MemoryCollection> collections = new HashMap<>();
+    private final Executor executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong fieldsWritten = new AtomicLong();
+    private final AtomicLong failing = new AtomicLong();
+    private volatile boolean unavailable;
+    private volatile boolean completeBeforeFailure;
+
+    /**
+     * creates a new empty in-memory database where the listeners are called directly on the
+     * thread that made the request
+     */
+    public MemoryProvider() {
+        this(Runnable::run);
+    }
+
+    /**
+     * creates a new empty in-memory database where the listeners are called on the given executor,
+     * e.g. to simulate the asynchronous callbacks of Firestore
+     * @param executor the executor of the listeners
+     */
+    public MemoryProvider(@NonNull Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * returns the collection with the given name (or path), it is created if it does not exist
+     * @param name the name string
+     * @return the DBCollection object
+     */
+    @Override
+    public synchronized DBCollection collection(String name) {
+        MemoryCollection collection = collections.get(name);
+        if (collection == null) {
+            collection = new MemoryCollection(this, name);
+            collections.put(name, collection);
+        }
+        return collection;
+    }
+
+    /**
+     * creates a new empty batch of writes to the in-memory database
+     * @return the DBBatch object
+     */
+    @Override
+    public DBBatch batch() {
+        return new MemoryBatch(this);
+    }
+
+    /**
+     * runs the given function in a transaction. no other write can be made while it runs
+     * @param function the function of the transaction
+     * @param listener the listener of the request
+     */
+    @Override
+    public void runTransaction(@NonNull DBTransaction.Function function, @NonNull RequestListener<DBTransaction> listener) {
+        MemoryTransaction transaction = new MemoryTransaction(this);
+        boolean committed;
+
+        synchronized (this) {
+            committed = transaction.run(function);
+        }
+
+        if (committed) {
+            deliver(() -> listener.onSuccess(transaction));
+        }
+        else {
+            deliver(() -> listener.onFailure(transaction));
+        }
+    }
+
+    /**
+     * returns the number of requests made to the database, e.g. one for each get, query or save
+     * @return the number of requests
+     */
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * returns the number of documents that have been read from the database
+     * @return the number of reads
+     */
+    public long reads() {
+        return reads.get();
+    }
+
+    /**
+     * returns the number of documents that have been written to or deleted from the database
+     * @return the number of writes
+     */
+    public long writes() {
+        return writes.get();
+    }
+
+    /**
+     * returns the number of fields that have been sent in writes to the database, i.e. the size
+     * of the write payloads
+     * @return the number of fields written
+     */
+    public long fieldsWritten() {
+        return fieldsWritten.get();
+    }
+
+    /**
+     * resets the request, read and write counters
+     */
+    public void resetCounters() {
+        requests.set(0);
+        reads.set(0);
+        writes.set(0);
+        fieldsWritten.set(0);
+    }
+
+    /**
+     * makes the given number of server reads fail, after which the reads succeed again. reads of
+     * the offline cache only (ReadPolicy.CACHE_ONLY) do not fail
+     * @param count the number of reads that fail
+     */
+    public void failReads(long count) {
+        failing.set(count);
+    }
+
+    /**
+     * makes all server reads fail until the provider is made available again, like a backend
+     * that is down. reads of the offline cache only (ReadPolicy.CACHE_ONLY) do not fail
+     * @param unavailable true if the server reads fail
+     */
+    public void setUnavailable(boolean unavailable) {
+        this.unavailable = unavailable;
+    }
+
+    /**
+     * makes a failed read call listener.onComplete right before listener.onFailure, like the
+     * complete and failure listeners of a failed Firestore task, to test that a failure is not
+     * taken as a document that was not found
+     * @param completeBeforeFailure true if a failed read also calls onComplete
+     */
+    public void setCompleteBeforeFailure(boolean completeBeforeFailure) {
+        this.completeBeforeFailure = completeBeforeFailure;
+    }
+
+    /**
+     * returns true if the next server read should fail, see failReads and setUnavailable. a
+     * failed read is counted as a request
+     * @return true if the read fails
+     */
+    boolean failRead() {
+        if (!unavailable && failing.getAndUpdate(count -> count > 0 ? count - 1 : 0) == 0) {
+            return false;
+        }
+
+        requests.incrementAndGet();
+        return true;
+    }
+
+    void countRequest(int documentsRead) {
+        requests.incrementAndGet();
+        reads.addAndGet(documentsRead);
+    }
+
+    void countReads(int documentsRead) {
+        reads.addAndGet(documentsRead);
+    }
+
+    /**
+     * commits the given writes atomically as one request: if a document that is updated does not
+     * exist, none of the writes are made. the commits are made one at a time
+     * @param writes the writes of the commit
+     * @return true if the writes were made
+     */
+    boolean commit(List<MemoryDocument.Write> writes) {
+        int fields = 0;
+
+        synchronized (this) {
+            for (MemoryDocument.Write write : writes) {
+                if (write.mode == MemoryDocument.Write.UPDATE && !write.collection.exists(write.id)) {
+                    return false;
+                }
+            }
+
+            for (MemoryDocument.Write write : writes) {
+                write.collection.apply(write);
+                fields += write.data.size();
+            }
+        }
+
+        requests.incrementAndGet();
+        this.writes.addAndGet(writes.size());
+        fieldsWritten.addAndGet(fields);
+
+        for (MemoryDocument.Write write : writes) {
+            write.collection.publish();
+        }
+        return true;
+    }
+
+    @Override
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * calls a listener of a request on the executor of the provider
+     * @param callback the call of the listener
+     */
+    void deliver(Runnable callback) {
+        executor.execute(callback);
+    }
+
+    /**
+     * calls listener.onFailure of a failed read on the executor of the provider, preceded by
+     * listener.onComplete if setCompleteBeforeFailure is set
+     * @param listener the listener of the read
+     * @param object the result of the failed read
+     */
+    <E> void failed(RequestListener<E> listener, E object) {
+        if (completeBeforeFailure) {
+            deliver(() -> listener.onComplete(object));
+        }
+        deliver(() -> listener.onFailure(object));
+    }
+}
@@ -0,0 +1,74 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * class that implements the DBTransaction interface for the in-memory database. the provider is
+ * locked while the function of the transaction runs, so no other write can be made between the
+ * reads and the commit of the transaction and it never has to be run again
+ */
+class MemoryTransaction implements DBTransaction {
+
+    private final MemoryBatch batch;
+    private boolean written;
+
+    /**
+     * package private constructor, transactions are only created by the MemoryProvider
+     * @param provider the in-memory database
+     */
+    MemoryTransaction(@NonNull MemoryProvider provider) {
+        this.batch = new MemoryBatch(provider);
+    }
+
+    @Override
+    public DBDocument get(@NonNull DBCollection collection, @NonNull String id) {
+        if (written) {
+            throw new IllegalStateException("all reads of a transaction must be made before the first write");
+        }
+
+        if (!(collection instanceof MemoryCollection)) {
+            throw new IllegalArgumentException("the collection is not a collection of the in-memory database: " + collection);
+        }
+
+        MemoryCollection memoryCollection = (MemoryCollection) collection;
+        Map<String, Object> data = memoryCollection.read(id);
+        return data != null ? new MemoryDocument(memoryCollection, id, data) : new MemoryDocument(memoryCollection, id);
+    }
+
+    @Override
+    public void save(@NonNull DBDocument document) {
+        written = true;
+        batch.save(document);
+    }
+
+    @Override
+    public void overwrite(@NonNull DBDocument document) {
+        written = true;
+        batch.overwrite(document);
+    }
+
+    @Override
+    public void delete(@NonNull DBDocument document) {
+        written = true;
+        batch.delete(document);
+    }
+
+    /**
+     * runs the given function and commits its writes, the caller must hold the lock of the provider
+     * @param function the function of the transaction
+     * @return true if the writes were made
+     */
+    boolean run(DBTransaction.Function function) {
+        try {
+            function.run(this);
+        } catch (Exception e) {
+            batch.unstage();
+            return false;
+        }
+
+        return batch.commit();
+    }
+}
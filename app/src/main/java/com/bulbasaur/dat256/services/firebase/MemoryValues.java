@@ -0,0 +1,184 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author ludwighultqvist
+ * package private helper class of the in-memory database that stores and compares field values
+ * the same way as Firestore does, e.g. integers are read back as Long, enums as their name and
+ * a Calendar as a map with its "timeInMillis". the Firestore collection also uses it to merge the
+ * results of several queries
+ */
+final class MemoryValues {
+
+    /**
+     * marker value of a field that is removed by an update, like FieldValue.delete() on Firestore
+     */
+    static final Object DELETE = new Object();
+
+    private MemoryValues() {}
+
+    /**
+     * converts the given value into the form it would have after a round trip to Firestore.
+     * maps and lists are copied, so the stored value is not shared with the caller
+     * @param value the value to convert
+     * @return the converted value
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        }
+
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+
+        if (value instanceof Calendar) {
+            HashMap<String, Object> calendar = new HashMap<>();
+            calendar.put("timeInMillis", ((Calendar) value).getTimeInMillis());
+            return calendar;
+        }
+
+        if (value instanceof Map) {
+            return copy((Map<?, ?>) value);
+        }
+
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                list.add(normalize(element));
+            }
+            return list;
+        }
+
+        return value;
+    }
+
+    /**
+     * copies the given field map, converting all values
+     * @param data the field map
+     * @return the copy
+     */
+    static HashMap<String, Object> copy(Map<?, ?> data) {
+        HashMap<String, Object> copy = new HashMap<>(data.size() * 2);
+        for (Map.Entry<?, ?> entry : data.entrySet()) {
+            copy.put(String.valueOf(entry.getKey()), normalize(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * checks if two stored values are equal, numbers are compared by their value
+     * @param a the first value
+     * @param b the second value
+     * @return true if equal
+     */
+    static boolean equal(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+
+        return a == null ? b == null : a.equals(normalize(b));
+    }
+
+    /**
+     * checks if two stored values can be compared with each other, i.e. they are of the same type
+     * @param a the first value
+     * @param b the second value
+     * @return true if comparable
+     */
+    static boolean comparable(Object a, Object b) {
+        return rank(a) == rank(b) && rank(a) > 0 && rank(a) < 4;
+    }
+
+    /**
+     * compares two stored values. values of different types are ordered by their type in the
+     * same way as Firestore: null, booleans, numbers, strings, other values, lists and maps.
+     * lists are compared element by element and maps by their sorted keys and then their values
+     * @param a the first value
+     * @param b the second value
+     * @return a negative number, zero or a positive number
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(Object a, Object b) {
+        int rankA = rank(a), rankB = rank(b);
+        if (rankA != rankB) {
+            return Integer.compare(rankA, rankB);
+        }
+
+        switch (rankA) {
+            case 1:
+                return Boolean.compare((Boolean) a, (Boolean) b);
+            case 2:
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            case 3:
+                return ((String) a).compareTo((String) b);
+            case 4:
+                if (a instanceof Comparable && a.getClass() == b.getClass()) {
+                    return ((Comparable<Object>) a).compareTo(b);
+                }
+                return 0;
+            case 5:
+                return compareLists((List<?>) a, (List<?>) b);
+            case 6:
+                return compareMaps((Map<?, ?>) a, (Map<?, ?>) b);
+            default:
+                return 0;
+        }
+    }
+
+    private static int rank(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Boolean) return 1;
+        if (value instanceof Number) return 2;
+        if (value instanceof String) return 3;
+        if (value instanceof List) return 5;
+        if (value instanceof Map) return 6;
+        return 4;
+    }
+
+    private static int compareLists(List<?> a, List<?> b) {
+        for (int i = 0; i < a.size() && i < b.size(); i++) {
+            int c = compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    private static int compareMaps(Map<?, ?> a, Map<?, ?> b) {
+        Iterator<? extends Map.Entry<?, ?>> first = sorted(a).entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> second = sorted(b).entrySet().iterator();
+
+        while (first.hasNext() && second.hasNext()) {
+            Map.Entry<?, ?> x = first.next(), y = second.next();
+            int c = String.valueOf(x.getKey()).compareTo(String.valueOf(y.getKey()));
+            if (c == 0) {
+                c = compare(x.getValue(), y.getValue());
+            }
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Boolean.compare(first.hasNext(), second.hasNext());
+    }
+
+    private static TreeMap<String, Object> sorted(Map<?, ?> map) {
+        TreeMap<String, Object> sorted = new TreeMap<>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return sorted;
+    }
+}
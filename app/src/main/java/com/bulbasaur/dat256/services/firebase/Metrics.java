@@ -0,0 +1,461 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * @author ludwighultqvist
+ * class that records the requests of the data layer per collection and operation, e.g. "users"
+ * and "get": the number of calls and how they finished, a histogram of their latencies, the
+ * number of documents they returned and the approximate size of those documents. the latency is
+ * measured from the call until the listener is called, so a document served from the cache is
+ * recorded with (almost) no latency. a CACHE_THEN_SERVER read is recorded as its two reads
+ *
+ * the metrics of the CachingProvider are recorded by its collections and documents, see
+ * CachingProvider.metrics. they can be read in the app, e.g.
+ * metrics.operation("users", "get").latency().percentile(95)
+ * or written to a file with dump, to compare the reads and latencies of two releases
+ *
+ * the app can also record the durations of its own stages as timers, e.g. the time from a
+ * refresh of the map until its markers are placed
+ * metrics.time("map.meetUpMarkers", System.nanoTime() - started)
+ */
+public class Metrics {
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<?>> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+    /**
+     * returns the metrics of the given operation of the given collection, they are created if
+     * they do not exist
+     * @param collection the name (or path) of the collection
+     * @param operation the name of the operation, e.g. "get"
+     * @return the Operation object
+     */
+    public Operation operation(@NonNull String collection, @NonNull String operation) {
+        String key = collection + " " + operation;
+        Operation metrics = operations.get(key);
+
+        if (metrics == null) {
+            operations.putIfAbsent(key, new Operation(collection, operation));
+            metrics = operations.get(key);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * returns the metrics of all operations that have been recorded, sorted by collection and
+     * operation
+     * @return the collection of Operation objects
+     */
+    public Collection<Operation> operations() {
+        return new TreeMap<>(operations).values();
+    }
+
+    /**
+     * adds a value that is read when the metrics are dumped, e.g. the state of a circuit breaker
+     * @param name the name of the value
+     * @param gauge the function that reads the value
+     */
+    public void gauge(@NonNull String name, @NonNull Supplier<?> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * returns the current values of the gauges, sorted by name
+     * @return the map of names to values
+     */
+    public Map<String, Object> gauges() {
+        Map<String, Object> values = new TreeMap<>();
+        for (Map.Entry<String, Supplier<?>> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * records the given duration in the timer with the given name
+     * @param name the name of the timer
+     * @param nanos the duration in nanoseconds
+     */
+    public void time(@NonNull String name, long nanos) {
+        timer(name).record(nanos);
+    }
+
+    /**
+     * returns the histogram of the durations of the given timer, it is created if it does not
+     * exist
+     * @param name the name of the timer
+     * @return the Histogram object
+     */
+    public Histogram timer(@NonNull String name) {
+        Histogram timer = timers.get(name);
+
+        if (timer == null) {
+            timers.putIfAbsent(name, new Histogram());
+            timer = timers.get(name);
+        }
+
+        return timer;
+    }
+
+    /**
+     * returns the timers that have been recorded, sorted by name
+     * @return the map of names to histograms
+     */
+    public Map<String, Histogram> timers() {
+        return new TreeMap<>(timers);
+    }
+
+    /**
+     * removes the recorded operations and timers, the gauges are kept
+     */
+    public void reset() {
+        operations.clear();
+        timers.clear();
+    }
+
+    /**
+     * returns a listener that records the given operation when it is first called, and then
+     * passes the result on to the given listener
+     * @param collection the name (or path) of the collection
+     * @param operation the name of the operation
+     * @param listener the listener of the caller
+     * @param <E> the result of the operation
+     * @return the recording listener
+     */
+    <E> RequestListener<E> record(@NonNull String collection, @NonNull String operation, @NonNull RequestListener<E> listener) {
+        Operation metrics = operation(collection, operation);
+        long started = System.nanoTime();
+        AtomicBoolean recorded = new AtomicBoolean();
+        metrics.calls.incrementAndGet();
+
+        return new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                if (recorded.compareAndSet(false, true)) {
+                    metrics.finished(metrics.successes, started, object);
+                }
+                listener.onSuccess(object);
+            }
+
+            @Override
+            public void onComplete(E object) {
+                super.onComplete(object);
+                if (recorded.compareAndSet(false, true)) {
+                    metrics.finished(metrics.completes, started, object);
+                }
+                listener.onComplete(object);
+            }
+
+            @Override
+            public void onFailure(E object) {
+                super.onFailure(object);
+                if (recorded.compareAndSet(false, true)) {
+                    metrics.finished(metrics.failures, started, null);
+                }
+                listener.onFailure(object);
+            }
+        };
+    }
+
+    /**
+     * returns the metrics as text, one line per operation, then one line per timer and one line
+     * per gauge
+     * @return the text
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+
+        for (Operation operation : operations()) {
+            builder.append(operation).append('\n');
+        }
+        for (Map.Entry<String, Histogram> timer : timers().entrySet()) {
+            builder.append(timer.getKey()).append(' ').append(timer.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Object> gauge : gauges().entrySet()) {
+            builder.append(gauge.getKey()).append('=').append(gauge.getValue()).append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * writes the metrics as text to the given file, see dump()
+     * @param file the file, it is overwritten
+     * @throws IOException if the file can not be written
+     */
+    public void dump(@NonNull File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(dump());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dump();
+    }
+
+    /**
+     * returns the approximate size in bytes of the given document, following the way Firestore
+     * counts the size of a document: the id, and for each field its name and its value
+     * @param document the document
+     * @return the size in bytes, 0 if the document is not loaded
+     */
+    static long size(DBDocument document) {
+        if (document == null || !document.isLoaded()) {
+            return 0;
+        }
+
+        long[] size = {document.id() == null ? 0 : document.id().length() + 1 + 16};
+        document.forEach((field, value) -> size[0] += field.length() + 1 + size(value));
+        return size[0];
+    }
+
+    private static long size(Object value) {
+        if (value instanceof String) {
+            return ((String) value).length() + 1;
+        }
+        if (value instanceof Boolean || value == null) {
+            return 1;
+        }
+        if (value instanceof List) {
+            long size = 0;
+            for (Object element : (List<?>) value) {
+                size += size(element);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 1 + size(entry.getValue());
+            }
+            return size;
+        }
+        return 8;
+    }
+
+    /**
+     * the metrics of one operation of one collection
+     */
+    public static class Operation {
+
+        private final String collection;
+        private final String operation;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong successes = new AtomicLong();
+        private final AtomicLong completes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong documents = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final Histogram latency = new Histogram();
+
+        private Operation(String collection, String operation) {
+            this.collection = collection;
+            this.operation = operation;
+        }
+
+        private void finished(AtomicLong outcome, long started, Object result) {
+            latency.record(System.nanoTime() - started);
+            outcome.incrementAndGet();
+
+            if (result instanceof DBDocument) {
+                add((DBDocument) result);
+            }
+            else if (result instanceof List) {
+                for (Object document : (List<?>) result) {
+                    if (document instanceof DBDocument) {
+                        add((DBDocument) document);
+                    }
+                }
+            }
+            else if (result instanceof DBPage) {
+                for (DBDocument document : ((DBPage) result).documents()) {
+                    add(document);
+                }
+            }
+        }
+
+        private void add(DBDocument document) {
+            long size = size(document);
+            if (size > 0) {
+                documents.incrementAndGet();
+                bytes.addAndGet(size);
+            }
+        }
+
+        public String collection() {
+            return collection;
+        }
+
+        public String operation() {
+            return operation;
+        }
+
+        /**
+         * returns the number of calls, including the ones that have not finished
+         * @return the number of calls
+         */
+        public long calls() {
+            return calls.get();
+        }
+
+        /**
+         * returns the number of calls that finished with onSuccess
+         * @return the number of calls
+         */
+        public long successes() {
+            return successes.get();
+        }
+
+        /**
+         * returns the number of calls that finished with onComplete, e.g. a document that was
+         * not found
+         * @return the number of calls
+         */
+        public long completes() {
+            return completes.get();
+        }
+
+        /**
+         * returns the number of calls that finished with onFailure
+         * @return the number of calls
+         */
+        public long failures() {
+            return failures.get();
+        }
+
+        /**
+         * returns the number of loaded documents that the calls returned
+         * @return the number of documents
+         */
+        public long documents() {
+            return documents.get();
+        }
+
+        /**
+         * returns the approximate size in bytes of the documents that the calls returned
+         * @return the number of bytes
+         */
+        public long bytes() {
+            return bytes.get();
+        }
+
+        /**
+         * returns the histogram of the latencies of the calls that have finished
+         * @return the Histogram object
+         */
+        public Histogram latency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return collection + " " + operation
+                    + " calls=" + calls() + " success=" + successes() + " complete=" + completes() + " failure=" + failures()
+                    + " documents=" + documents() + " bytes=" + bytes()
+                    + " p50=" + latency.percentile(50) + "ms p95=" + latency.percentile(95) + "ms p99=" + latency.percentile(99)
+                    + "ms max=" + latency.maxMillis() + "ms";
+        }
+    }
+
+    /**
+     * histogram of latencies with fixed buckets, from 1 ms to 10 s. a percentile is the upper
+     * bound of the bucket it falls in, or the max latency for the last bucket
+     */
+    public static class Histogram {
+
+        private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+                bucket++;
+            }
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * returns the number of latencies in the histogram
+         * @return the count
+         */
+        public long count() {
+            return count.get();
+        }
+
+        /**
+         * returns the mean latency
+         * @return the mean in milliseconds
+         */
+        public double meanMillis() {
+            long count = count();
+            return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+        }
+
+        /**
+         * returns the max latency
+         * @return the max in milliseconds
+         */
+        public long maxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        /**
+         * returns the given percentile of the latencies, e.g. 95 for p95
+         * @param percentile the percentile, from 0 to 100
+         * @return the latency in milliseconds, 0 if the histogram is empty
+         */
+        public long percentile(double percentile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+
+            for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(BOUNDS[bucket], Math.max(maxMillis(), 1));
+                }
+            }
+
+            return maxMillis();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count() + " p50=" + percentile(50) + "ms p95=" + percentile(95) + "ms p99=" + percentile(99)
+                    + "ms max=" + maxMillis() + "ms";
+        }
+    }
+}
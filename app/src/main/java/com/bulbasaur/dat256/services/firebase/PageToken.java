@@ -0,0 +1,233 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.GeoPoint;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * package private helper class that encodes the continuation token of a paginated read. the
+ * token holds the values of the ordered fields and the id of the last document of a page, so
+ * the next page starts after that document even when several documents have the same values.
+ * the values can be null, booleans, numbers, strings, dates, Firestore timestamps and geopoints
+ * and maps and lists of those
+ */
+final class PageToken {
+
+    private static final String VERSION = "p1";
+    private static final String SEPARATOR = ",";
+    private static final String CHARSET = "UTF-8";
+
+    private final List<Object> values;
+    private final String id;
+
+    private PageToken(List<Object> values, String id) {
+        this.values = values;
+        this.id = id;
+    }
+
+    /**
+     * returns the values of the ordered fields of the last document of the previous page
+     * @return the list of values, in the order of the orderings of the filter
+     */
+    List<Object> values() {
+        return values;
+    }
+
+    /**
+     * returns the id of the last document of the previous page
+     * @return the id string
+     */
+    String id() {
+        return id;
+    }
+
+    /**
+     * returns the values and then the id, i.e. the cursor of a query that is ordered by the
+     * ordered fields and then by the document id
+     * @return the array of values
+     */
+    Object[] cursor() {
+        Object[] cursor = values.toArray(new Object[values.size() + 1]);
+        cursor[values.size()] = id;
+        return cursor;
+    }
+
+    /**
+     * encodes the token of the page that ends with the given document
+     * @param document the last document of the page
+     * @param orders the orderings of the filter of the read
+     * @return the token string
+     */
+    static String encode(DBDocument document, List<QueryFilter.Order> orders) {
+        StringBuilder token = new StringBuilder(VERSION);
+        append(token, document.id());
+        append(token, (long) orders.size());
+
+        for (QueryFilter.Order order : orders) {
+            append(token, document.get(order.field));
+        }
+
+        return token.toString();
+    }
+
+    /**
+     * decodes the given token of a read with the given orderings
+     * @param token the token string
+     * @param orders the orderings of the filter of the read
+     * @return the decoded token
+     * @throws IllegalArgumentException if the token is not the token of a page of a read with
+     * the same orderings
+     */
+    static PageToken decode(String token, List<QueryFilter.Order> orders) {
+        try {
+            Iterator<String> parts = Arrays.asList(token.split(SEPARATOR, -1)).iterator();
+            if (!VERSION.equals(parts.next())) {
+                throw new IllegalArgumentException("unknown page token: " + token);
+            }
+
+            Object id = read(parts);
+            Object size = read(parts);
+            if (!(id instanceof String) || !(size instanceof Long) || (Long) size != orders.size()) {
+                throw new IllegalArgumentException("the token is not of a page of this filter: " + token);
+            }
+
+            List<Object> values = new ArrayList<>(orders.size());
+            for (int i = 0; i < orders.size(); i++) {
+                values.add(read(parts));
+            }
+
+            if (parts.hasNext()) {
+                throw new IllegalArgumentException("the token is not of a page of this filter: " + token);
+            }
+
+            return new PageToken(values, (String) id);
+        }
+        catch (IllegalArgumentException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed page token: " + token, e);
+        }
+    }
+
+    private static void append(StringBuilder token, Object value) {
+        token.append(SEPARATOR);
+
+        if (value == null) {
+            token.append('n');
+        }
+        else if (value instanceof Boolean) {
+            token.append((Boolean) value ? "b1" : "b0");
+        }
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            token.append('l').append(((Number) value).longValue());
+        }
+        else if (value instanceof Double || value instanceof Float) {
+            token.append('d').append(((Number) value).doubleValue());
+        }
+        else if (value instanceof String) {
+            token.append('s').append(escape((String) value));
+        }
+        else if (value instanceof Enum) {
+            token.append('s').append(escape(((Enum<?>) value).name()));
+        }
+        else if (value instanceof Date) {
+            token.append('t').append(((Date) value).getTime());
+        }
+        else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            token.append('T').append(timestamp.getSeconds()).append(':').append(timestamp.getNanoseconds());
+        }
+        else if (value instanceof GeoPoint) {
+            GeoPoint point = (GeoPoint) value;
+            token.append('g').append(point.getLatitude()).append(':').append(point.getLongitude());
+        }
+        else if (value instanceof List) {
+            token.append('a').append(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                append(token, element);
+            }
+        }
+        else if (value instanceof Map) {
+            token.append('m').append(((Map<?, ?>) value).size());
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                append(token, String.valueOf(entry.getKey()));
+                append(token, entry.getValue());
+            }
+        }
+        else {
+            throw new IllegalArgumentException("a page can not be ordered by a value of type " + value.getClass().getSimpleName());
+        }
+    }
+
+    private static Object read(Iterator<String> parts) {
+        String part = parts.next();
+        String rest = part.substring(1);
+
+        switch (part.charAt(0)) {
+            case 'n':
+                return null;
+            case 'b':
+                return "1".equals(rest);
+            case 'l':
+                return Long.parseLong(rest);
+            case 'd':
+                return Double.parseDouble(rest);
+            case 's':
+                return unescape(rest);
+            case 't':
+                return new Date(Long.parseLong(rest));
+            case 'T':
+                String[] timestamp = rest.split(":");
+                return new Timestamp(Long.parseLong(timestamp[0]), Integer.parseInt(timestamp[1]));
+            case 'g':
+                String[] point = rest.split(":");
+                return new GeoPoint(Double.parseDouble(point[0]), Double.parseDouble(point[1]));
+            case 'a':
+                int length = Integer.parseInt(rest);
+                List<Object> list = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    list.add(read(parts));
+                }
+                return list;
+            case 'm':
+                int size = Integer.parseInt(rest);
+                Map<String, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put((String) read(parts), read(parts));
+                }
+                return map;
+            default:
+                throw new IllegalArgumentException("unknown value in page token: " + part);
+        }
+    }
+
+    private static String escape(String value) {
+        try {
+            return URLEncoder.encode(value, CHARSET);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String unescape(String value) {
+        try {
+            return URLDecoder.decode(value, CHARSET);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,12 +1,36 @@
 package com.bulbasaur.dat256.services.firebase;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * @author ludwighultqvist
+ * class that describes a query on a collection, which is compiled into one query to the database.
+ * a filter consists of conditions on one or more fields, an optional ordering, a limit and a
+ * cursor to start after, e.g.
+ * new QueryFilter("visibility", "=", "FRIENDS").where("creator", "in", friends).limit(20)
+ *
+ * supported comparisons are "=", "<", "<=", ">", ">=", "array-contains" and "in"
+ */
 public class QueryFilter {
 
+    public static final String EQUAL = "=";
+    public static final String LESS = "<";
+    public static final String LESS_OR_EQUAL = "<=";
+    public static final String GREATER = ">";
+    public static final String GREATER_OR_EQUAL = ">=";
+    public static final String ARRAY_CONTAINS = "array-contains";
+    public static final String IN = "in";
+
     private String field;
-    private Map<String, Object> filters = new HashMap<>();
+    private List<Condition> conditions = new ArrayList<>();
+    private List<Order> orders = new ArrayList<>();
+    private long limit = -1;
+    private List<Object> startAfter;
+
+    public QueryFilter() {}
 
     public QueryFilter(String field) {
         this.field = field;
@@ -14,19 +38,165 @@ public class QueryFilter {
 
     public QueryFilter(String field, String comparison, Object value) {
         this(field);
-        filters.put(comparison, value);
+        addFilter(comparison, value);
     }
 
+    /**
+     * adds a condition on the field given in the constructor
+     * @param comparison the comparison string
+     * @param value the value to compare with
+     */
     public void addFilter(String comparison, Object value) {
-        filters.put(comparison, value);
+        where(field, comparison, value);
+    }
+
+    /**
+     * adds a condition on the given field. conditions with a null value are ignored
+     * @param field the field string
+     * @param comparison the comparison string
+     * @param value the value to compare with, a list of values for "in"
+     * @return the filter itself
+     */
+    public QueryFilter where(String field, String comparison, Object value) {
+        if (field == null || value == null) {
+            return this;
+        }
+
+        if (IN.equals(comparison) && !(value instanceof List)) {
+            throw new IllegalArgumentException("the value of an 'in' condition must be a list");
+        }
+
+        conditions.add(new Condition(field, comparison, value));
+        return this;
+    }
+
+    /**
+     * orders the result by the given field in ascending order
+     * @param field the field string
+     * @return the filter itself
+     */
+    public QueryFilter orderBy(String field) {
+        return orderBy(field, false);
+    }
+
+    /**
+     * orders the result by the given field
+     * @param field the field string
+     * @param descending true if the order should be descending
+     * @return the filter itself
+     */
+    public QueryFilter orderBy(String field, boolean descending) {
+        orders.add(new Order(field, descending));
+        return this;
+    }
+
+    /**
+     * limits the number of documents in the result
+     * @param limit the max number of documents
+     * @return the filter itself
+     */
+    public QueryFilter limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * makes the result start after the document with the given values of the ordered fields,
+     * e.g. the values of the last document of the previous page
+     * @param values the values of the ordered fields
+     * @return the filter itself
+     */
+    public QueryFilter startAfter(Object... values) {
+        this.startAfter = Arrays.asList(values);
+        return this;
     }
 
     String getField() {
         return field;
     }
 
-    Map<String, Object> getFilters() {
-        return filters;
+    List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    List<Order> getOrders() {
+        return Collections.unmodifiableList(orders);
     }
 
+    long getLimit() {
+        return limit;
+    }
+
+    List<Object> getStartAfter() {
+        return startAfter;
+    }
+
+    /**
+     * returns a string that is the same for two filters with the same conditions, ordering,
+     * cursor and limit, e.g. to recognize identical searches
+     * @return the key string
+     */
+    String key() {
+        StringBuilder key = new StringBuilder();
+
+        for (Condition condition : conditions) {
+            key.append(condition.field.toLowerCase()).append(' ').append(condition.comparison).append(' ');
+            append(key, condition.value);
+            key.append(';');
+        }
+
+        for (Order order : orders) {
+            key.append(order.descending ? "desc " : "asc ").append(order.field.toLowerCase()).append(';');
+        }
+
+        if (startAfter != null) {
+            key.append("after ");
+            append(key, startAfter);
+            key.append(';');
+        }
+
+        return key.append("limit ").append(limit).toString();
+    }
+
+    private static void append(StringBuilder key, Object value) {
+        if (value instanceof List) {
+            key.append('[');
+            for (Object element : (List<?>) value) {
+                append(key, element);
+                key.append(',');
+            }
+            key.append(']');
+        }
+        else {
+            key.append(value == null ? "null" : value.getClass().getSimpleName() + ":" + value);
+        }
+    }
+
+    /**
+     * package private class that describes one condition of the filter
+     */
+    static class Condition {
+        final String field;
+        final String comparison;
+        final Object value;
+
+        private Condition(String field, String comparison, Object value) {
+            this.field = field;
+            this.comparison = comparison;
+            this.value = value;
+        }
+    }
+
+    /**
+     * package private class that describes the ordering of one field
+     */
+    static class Order {
+        final String field;
+        final boolean descending;
+
+        private Order(String field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+    }
 }
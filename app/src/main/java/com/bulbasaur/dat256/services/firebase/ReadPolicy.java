@@ -0,0 +1,37 @@
+package com.bulbasaur.dat256.services.firebase;
+
+/**
+ * @author ludwighultqvist
+ * enum that describes where a read fetches its documents from, e.g.
+ * collection.get(id, ReadPolicy.CACHE_THEN_SERVER, listener)
+ *
+ * the local copy is the offline cache of the provider, which keeps the documents that have been
+ * read or written before, also between runs of the app
+ */
+public enum ReadPolicy {
+
+    /**
+     * reads from the server, and from the local copy only if the server can not be reached.
+     * this is what the reads without a read policy do
+     */
+    DEFAULT,
+
+    /**
+     * reads only the local copy, without contacting the server. a document that has no local copy
+     * is not found, and a search only returns the documents that have a local copy
+     */
+    CACHE_ONLY,
+
+    /**
+     * reads the local copy and then the server. listener.onSuccess is first called with the local
+     * copy, if there is one, and then a second time with the result of the server, so a view can
+     * be drawn directly and then reconciled. the local copy is not delivered if the result of the
+     * server has already arrived
+     */
+    CACHE_THEN_SERVER,
+
+    /**
+     * reads only from the server, the read fails if the server can not be reached
+     */
+    SERVER_ONLY
+}
@@ -0,0 +1,304 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author ludwighultqvist
+ * class that limits the number of requests to the database that are in flight at the same time.
+ * requests that can not be started directly wait in one queue per priority. the queues are
+ * served by weighted round robin, e.g. out of seven requests that are started while all queues
+ * are full, four are VIEWPORT requests, two are DETAIL requests and one is a PREFETCH request,
+ * so a higher priority goes first but a lower one is never starved
+ *
+ * the scheduler is used by the CachingProvider for the reads that are not served by its cache,
+ * see CachingProvider.withPriority
+ */
+public class RequestScheduler {
+
+    /**
+     * the default max number of requests in flight
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 6;
+
+    /**
+     * the priority classes of the requests, from the highest to the lowest
+     */
+    public enum Priority {
+
+        /**
+         * reads of the part of the map that the user is looking at
+         */
+        VIEWPORT(4),
+
+        /**
+         * reads of a screen that the user has opened, e.g. a meetup or a profile
+         */
+        DETAIL(2),
+
+        /**
+         * reads of content that the user may look at later, e.g. tabs that are not shown
+         */
+        PREFETCH(1);
+
+        private final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * a request that calls done once when it has finished, whether it succeeded or not
+     */
+    public interface Request {
+        void run(@NonNull Runnable done);
+    }
+
+    private final int maxInFlight;
+    private final Map<Priority, ArrayDeque<Queued>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> credits = new EnumMap<>(Priority.class);
+    private final Map<Priority, Counters> counters = new EnumMap<>(Priority.class);
+    private int inFlight;
+    private boolean dispatching;
+
+    /**
+     * creates a scheduler with the default max number of requests in flight
+     */
+    public RequestScheduler() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * creates a scheduler with the given max number of requests in flight
+     * @param maxInFlight the max number of requests in flight, at least 1
+     */
+    public RequestScheduler(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        this.maxInFlight = maxInFlight;
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            credits.put(priority, priority.weight);
+            counters.put(priority, new Counters());
+        }
+    }
+
+    /**
+     * starts the given request when there is room for it. the request is started on the thread
+     * that submits it or on the thread that finishes the request before it
+     * @param priority the priority of the request
+     * @param request the request
+     */
+    public void submit(@NonNull Priority priority, @NonNull Request request) {
+        synchronized (this) {
+            queues.get(priority).add(new Queued(request, System.nanoTime()));
+            counters.get(priority).submitted++;
+        }
+
+        dispatch();
+    }
+
+    /**
+     * returns the number of requests in flight
+     * @return the number of requests
+     */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * returns the number of requests of the given priority that wait to be started
+     * @param priority the priority
+     * @return the number of requests
+     */
+    public synchronized int queueDepth(@NonNull Priority priority) {
+        return queues.get(priority).size();
+    }
+
+    /**
+     * returns the counters of the requests of the given priority since the scheduler was created
+     * or the stats were reset
+     * @param priority the priority
+     * @return a snapshot of the counters
+     */
+    public synchronized Stats stats(@NonNull Priority priority) {
+        Counters c = counters.get(priority);
+        return new Stats(c.submitted, c.started, queues.get(priority).size(), c.totalWait, c.maxWait);
+    }
+
+    /**
+     * resets the counters of all priorities
+     */
+    public synchronized void resetStats() {
+        for (Counters c : counters.values()) {
+            c.submitted = 0;
+            c.started = 0;
+            c.totalWait = 0;
+            c.maxWait = 0;
+        }
+    }
+
+    /**
+     * starts queued requests until the max number is in flight. a request that finishes while it
+     * is started, e.g. by a cache hit, leaves the loop of the thread that started it to start the
+     * next one, instead of starting it recursively
+     */
+    private void dispatch() {
+        while (true) {
+            Queued next;
+
+            synchronized (this) {
+                if (dispatching || inFlight >= maxInFlight) {
+                    return;
+                }
+
+                next = poll();
+                if (next == null) {
+                    return;
+                }
+
+                inFlight++;
+                dispatching = true;
+            }
+
+            AtomicBoolean finished = new AtomicBoolean();
+            Runnable done = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    dispatch();
+                }
+            };
+
+            try {
+                next.request.run(done);
+            } catch (RuntimeException e) {
+                done.run();
+                throw e;
+            } finally {
+                synchronized (this) {
+                    dispatching = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * takes the next request from the queues by weighted round robin, the credits of the queues
+     * are refilled when no queue that has requests has credits left
+     */
+    private Queued poll() {
+        for (int round = 0; round < 2; round++) {
+            for (Priority priority : Priority.values()) {
+                ArrayDeque<Queued> queue = queues.get(priority);
+                int credit = credits.get(priority);
+
+                if (!queue.isEmpty() && credit > 0) {
+                    credits.put(priority, credit - 1);
+
+                    Queued next = queue.poll();
+                    long wait = System.nanoTime() - next.submitted;
+                    Counters c = counters.get(priority);
+                    c.started++;
+                    c.totalWait += wait;
+                    c.maxWait = Math.max(c.maxWait, wait);
+                    return next;
+                }
+            }
+
+            for (Priority priority : Priority.values()) {
+                credits.put(priority, priority.weight);
+            }
+        }
+
+        return null;
+    }
+
+    private static class Queued {
+        private final Request request;
+        private final long submitted;
+
+        private Queued(Request request, long submitted) {
+            this.request = request;
+            this.submitted = submitted;
+        }
+    }
+
+    private static class Counters {
+        private long submitted, started, totalWait, maxWait;
+    }
+
+    /**
+     * class that holds a snapshot of the counters of one priority
+     */
+    public static class Stats {
+
+        private final long submitted, started, totalWait, maxWait;
+        private final int queueDepth;
+
+        private Stats(long submitted, long started, int queueDepth, long totalWait, long maxWait) {
+            this.submitted = submitted;
+            this.started = started;
+            this.queueDepth = queueDepth;
+            this.totalWait = totalWait;
+            this.maxWait = maxWait;
+        }
+
+        /**
+         * returns the number of submitted requests
+         * @return the number of requests
+         */
+        public long submitted() {
+            return submitted;
+        }
+
+        /**
+         * returns the number of started requests
+         * @return the number of requests
+         */
+        public long started() {
+            return started;
+        }
+
+        /**
+         * returns the number of requests that waited to be started when the snapshot was taken
+         * @return the number of requests
+         */
+        public int queueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * returns the mean time that the started requests waited in the queue
+         * @return the time in milliseconds
+         */
+        public double averageWaitMillis() {
+            return started == 0 ? 0 : (double) totalWait / started / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * returns the longest time that a started request waited in the queue
+         * @return the time in milliseconds
+         */
+        public double maxWaitMillis() {
+            return (double) maxWait / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats: [" + "submitted: " + submitted + ", " + "started: " + started + ", "
+                    + "queueDepth: " + queueDepth + ", " + "averageWaitMillis: " + averageWaitMillis() + ", "
+                    + "maxWaitMillis: " + maxWaitMillis() + "]";
+        }
+    }
+}
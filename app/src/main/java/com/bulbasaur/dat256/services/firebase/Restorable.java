@@ -0,0 +1,22 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * @author ludwighultqvist
+ * package private interface of the collections whose documents can be created from a copy of
+ * their fields, e.g. a document in the DocumentCache, without reading them again
+ */
+interface Restorable {
+
+    /**
+     * creates a loaded document with the given id and fields. the fields are copied, so the
+     * document can be changed without changing the given map
+     * @param id the id string
+     * @param fields the fields of the document
+     * @return the DBDocument object
+     */
+    DBDocument restore(@NonNull String id, @NonNull Map<String, Object> fields);
+}
@@ -0,0 +1,131 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ludwighultqvist
+ * class that decides how the reads of a CachingProvider are retried when they fail. a failed
+ * read is retried after a random delay between 0 and base * 2^(attempt - 1) (at most the max
+ * delay), so that the retries of many reads that failed at the same time are spread out. an
+ * attempt that has not finished within the attempt timeout fails, and a read is not retried
+ * after its deadline, which counts from when the read was made. only reads are retried, since
+ * a read can be made again without changing the database
+ *
+ * the policy counts the retries and the attempts that timed out
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 2_000;
+    public static final long DEFAULT_ATTEMPT_TIMEOUT_MILLIS = 5_000;
+    public static final long DEFAULT_DEADLINE_MILLIS = 10_000;
+
+    static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RetryPolicy-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long attemptTimeoutMillis;
+    private final long deadlineMillis;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * creates a retry policy with the default attempts, delays, timeout and deadline
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_ATTEMPT_TIMEOUT_MILLIS, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    /**
+     * creates a retry policy
+     * @param maxAttempts the max number of attempts of a read, 1 means that it is not retried
+     * @param baseDelayMillis the max delay before the first retry
+     * @param maxDelayMillis the max delay before any retry
+     * @param attemptTimeoutMillis the time an attempt may take, 0 for no timeout
+     * @param deadlineMillis the time a read may take with all its attempts, 0 for no deadline
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long attemptTimeoutMillis, long deadlineMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("a read must have at least one attempt");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * returns a policy where the reads are not retried and have no timeout
+     * @return the RetryPolicy object
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, 0, 0, 0, 0);
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public long attemptTimeoutMillis() {
+        return attemptTimeoutMillis;
+    }
+
+    public long deadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * returns the number of reads that have been retried
+     * @return the number of retries
+     */
+    public long retries() {
+        return retries.get();
+    }
+
+    /**
+     * returns the number of attempts that did not finish within the attempt timeout or the
+     * deadline of their read
+     * @return the number of timeouts
+     */
+    public long timeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * resets the retry and timeout counters
+     */
+    public void resetCounters() {
+        retries.set(0);
+        timeouts.set(0);
+    }
+
+    /**
+     * returns the delay before the retry that follows the given attempt
+     * @param attempt the attempt that failed, from 1
+     * @return the delay in milliseconds
+     */
+    long delay(int attempt) {
+        long max = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        return max <= 0 ? 0 : ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    void timedOut() {
+        timeouts.incrementAndGet();
+    }
+}
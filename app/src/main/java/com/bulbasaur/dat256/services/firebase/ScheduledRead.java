@@ -0,0 +1,242 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author ludwighultqvist
+ * package private class of a read of a CachingProvider that is sent to the backend. each attempt
+ * of the read is started by the scheduler of the provider and holds its place until it has
+ * finished or timed out. a failed attempt is retried according to the RetryPolicy of the
+ * provider, and while its CircuitBreaker is open the read is served from the offline cache
+ * (ReadPolicy.CACHE_ONLY) if it can be, otherwise it fails directly. a read whose
+ * CancellationToken is cancelled is not started again
+ *
+ * the listener is called once, with the result of the first attempt that succeeds or with the
+ * last failure
+ * @param <E> the result of the read
+ */
+final class ScheduledRead<E> {
+
+    private final CachingProvider provider;
+    private final ReadPolicy policy;
+    private final RequestListener<E> listener;
+    private final CacheThenServer.Read<E> read;
+    private final boolean cacheable;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private long deadline;
+    private int attempt;
+
+    /**
+     * creates a read
+     * @param provider the provider of the read
+     * @param policy the read policy, not CACHE_ONLY
+     * @param listener the listener of the read
+     * @param read the read, with the policy it should be made with
+     * @param cacheable true if the read can be made with ReadPolicy.CACHE_ONLY
+     */
+    ScheduledRead(@NonNull CachingProvider provider, @NonNull ReadPolicy policy, @NonNull RequestListener<E> listener,
+                  @NonNull CacheThenServer.Read<E> read, boolean cacheable) {
+        this.provider = provider;
+        this.policy = policy;
+        this.listener = listener;
+        this.read = read;
+        this.cacheable = cacheable;
+    }
+
+    /**
+     * starts the first attempt of the read
+     */
+    void start() {
+        long deadlineMillis = provider.retryPolicy().deadlineMillis();
+        deadline = deadlineMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : Long.MAX_VALUE;
+        submit();
+    }
+
+    private void submit() {
+        provider.scheduler().submit(provider.priority(), this::attempt);
+    }
+
+    private boolean cancelled() {
+        CancellationToken token = provider.token();
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * makes one attempt of the read, in the place that the scheduler has given it
+     */
+    private void attempt(Runnable done) {
+        attempt++;
+
+        if (cancelled()) {
+            try {
+                fail(listener.getObject());
+            } finally {
+                done.run();
+            }
+            return;
+        }
+
+        if (!provider.circuitBreaker().allow()) {
+            done.run();
+            fallBack();
+            return;
+        }
+
+        AtomicBoolean over = new AtomicBoolean();
+        ScheduledFuture<?> timeout = timeout(over, done);
+
+        read.run(policy, new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                if (end(over, timeout)) {
+                    provider.circuitBreaker().success();
+                    try {
+                        succeed(object);
+                    } finally {
+                        done.run();
+                    }
+                }
+            }
+
+            @Override
+            public void onComplete(E object) {
+                super.onComplete(object);
+                // the complete and failure listeners of a failed task are called one after the
+                // other on the executor, so a read is only taken as not found if no failure
+                // has been delivered before the executor gets to it
+                provider.executor().execute(() -> {
+                    if (end(over, timeout)) {
+                        provider.circuitBreaker().success();
+                        try {
+                            complete(object);
+                        } finally {
+                            done.run();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(E object) {
+                super.onFailure(object);
+                if (end(over, timeout)) {
+                    provider.circuitBreaker().failure();
+                    done.run();
+                    failed(object);
+                }
+            }
+        });
+    }
+
+    /**
+     * starts the timer that fails the attempt when it has taken longer than the attempt timeout
+     * or has passed the deadline, a late result of the attempt is then ignored
+     */
+    private ScheduledFuture<?> timeout(AtomicBoolean over, Runnable done) {
+        long attemptTimeout = provider.retryPolicy().attemptTimeoutMillis();
+        long left = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        long delay = Math.min(attemptTimeout > 0 ? attemptTimeout : Long.MAX_VALUE, Math.max(left, 0));
+
+        if (delay == Long.MAX_VALUE) {
+            return null;
+        }
+
+        return RetryPolicy.timer.schedule(() -> {
+            if (over.compareAndSet(false, true)) {
+                provider.retryPolicy().timedOut();
+                provider.circuitBreaker().failure();
+                done.run();
+                failed(listener.getObject());
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean end(AtomicBoolean over, ScheduledFuture<?> timeout) {
+        if (!over.compareAndSet(false, true)) {
+            return false;
+        }
+
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * retries the read after a failed attempt if it has attempts and time left, otherwise the
+     * listener fails with the given object
+     */
+    private void failed(E object) {
+        RetryPolicy retryPolicy = provider.retryPolicy();
+        long delay = retryPolicy.delay(attempt);
+
+        if (attempt >= retryPolicy.maxAttempts() || cancelled()
+                || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+            fail(object);
+            return;
+        }
+
+        retryPolicy.retried();
+        if (delay == 0) {
+            submit();
+        }
+        else {
+            RetryPolicy.timer.schedule(this::submit, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * serves the read from the offline cache while the circuit breaker is open, a document that
+     * is not in the offline cache is a failure rather than a document that does not exist
+     */
+    private void fallBack() {
+        if (!cacheable) {
+            fail(listener.getObject());
+            return;
+        }
+
+        provider.circuitBreaker().fellBack();
+        read.run(ReadPolicy.CACHE_ONLY, new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                super.onSuccess(object);
+                succeed(object);
+            }
+
+            @Override
+            public void onComplete(E object) {
+                super.onComplete(object);
+                fail(object);
+            }
+
+            @Override
+            public void onFailure(E object) {
+                super.onFailure(object);
+                fail(object);
+            }
+        });
+    }
+
+    private void succeed(E object) {
+        if (finished.compareAndSet(false, true)) {
+            listener.onSuccess(object);
+        }
+    }
+
+    private void complete(E object) {
+        if (finished.compareAndSet(false, true)) {
+            listener.onComplete(object);
+        }
+    }
+
+    private void fail(E object) {
+        if (finished.compareAndSet(false, true)) {
+            listener.onFailure(object);
+        }
+    }
+}
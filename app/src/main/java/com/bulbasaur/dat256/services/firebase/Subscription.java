@@ -0,0 +1,145 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author ludwighultqvist
+ * package private class that implements the DBSubscription interface for the live queries of the
+ * providers. a live query may be made of several queries (sources), e.g. one per geohash cell,
+ * so the subscription keeps track of which sources a document matches and turns the changes of
+ * the sources into added, modified and removed calls of the listener. a document that moves
+ * from one source to another is modified, whatever the order of the changes of the sources
+ */
+class Subscription implements DBSubscription {
+
+    private final DBListener listener;
+    private final Map<String, Set<Integer>> sources = new HashMap<>();
+    private final List<Runnable> removers = new ArrayList<>();
+    private boolean removed;
+    private boolean failed;
+
+    /**
+     * package private constructor, subscriptions are only created by the collections
+     * @param listener the listener of the live query
+     */
+    Subscription(@NonNull DBListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * adds a callback that stops one of the sources when the subscription is removed. if it is
+     * already removed the callback is run directly
+     * @param remover the callback
+     */
+    void add(@NonNull Runnable remover) {
+        synchronized (this) {
+            if (!removed) {
+                removers.add(remover);
+                return;
+            }
+        }
+
+        remover.run();
+    }
+
+    /**
+     * delivers a change of a document in the given source to the listener
+     * @param source the index of the source
+     * @param document the document with its new (or last known) content
+     * @param matches true if the document matches the source after the change
+     */
+    synchronized void changed(int source, @NonNull DBDocument document, boolean matches) {
+        if (removed || failed) {
+            return;
+        }
+
+        Set<Integer> current = sources.get(document.id());
+        boolean before = current != null;
+
+        if (matches) {
+            if (current == null) {
+                current = new HashSet<>();
+                sources.put(document.id(), current);
+            }
+            current.add(source);
+        }
+        else if (current != null) {
+            current.remove(source);
+            if (current.isEmpty()) {
+                sources.remove(document.id());
+            }
+        }
+
+        boolean after = sources.containsKey(document.id());
+
+        if (!before && after) {
+            listener.onAdded(document);
+        }
+        else if (before && after) {
+            listener.onModified(document);
+        }
+        else if (before) {
+            listener.onRemoved(document);
+        }
+    }
+
+    /**
+     * tells the listener that a set of changes has been delivered
+     */
+    synchronized void update() {
+        if (!removed && !failed) {
+            listener.update();
+        }
+    }
+
+    /**
+     * tells the listener that the live query failed, only the first failure is delivered
+     */
+    synchronized void fail() {
+        if (!removed && !failed) {
+            failed = true;
+            listener.onFailure();
+        }
+    }
+
+    /**
+     * stops all sources of the live query
+     */
+    @Override
+    public void remove() {
+        List<Runnable> stopped;
+
+        synchronized (this) {
+            if (removed) {
+                return;
+            }
+
+            removed = true;
+            stopped = new ArrayList<>(removers);
+            removers.clear();
+            sources.clear();
+        }
+
+        for (Runnable remover : stopped) {
+            remover.run();
+        }
+    }
+
+    /**
+     * checks that the given filter can be used by a live query, i.e. that it has no limit or
+     * cursor, since the changes of a limited result depend on the documents outside of it
+     * @param queryFilter the filter object, may be null
+     */
+    static void check(QueryFilter queryFilter) {
+        if (queryFilter != null && (queryFilter.getLimit() >= 0 || queryFilter.getStartAfter() != null)) {
+            throw new IllegalArgumentException("a live query can not have a limit or a cursor");
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author ludwighultqvist
+ * class that records spans of work that belong together, e.g. the queries, conversions and
+ * marker updates that follow from one refresh of the map. a trace is started with begin and
+ * the stages of it are child spans, which may be started and ended on any thread, e.g.
+ * Tracer.Span trace = Tracer.getInstance().begin("refreshMapItems");
+ * Tracer.Span search = trace.child("users.searchWithin");
+ * ... search.end(); ... trace.end();
+ *
+ * the spans are written in the Chrome trace event format (JSON), which can be opened offline in
+ * Perfetto (ui.perfetto.dev) or chrome://tracing. each trace is shown as a process, and spans
+ * that overlap without being nested, e.g. queries that run at the same time, are put on
+ * separate threads of it, so the queries that run one after the other stand out
+ *
+ * the tracer is disabled by default, a disabled tracer returns spans that record nothing. at
+ * most MAX_TRACES traces are kept, the oldest ones are dropped first
+ */
+public class Tracer {
+
+    public static final int MAX_TRACES = 200;
+
+    private static Tracer instance;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final long origin = System.nanoTime();
+    private final ArrayDeque<Span> traces = new ArrayDeque<>();
+    private volatile boolean enabled;
+
+    /**
+     * initializes, if necessary, the singleton Tracer object and returns it
+     * @return the singleton object
+     */
+    public static Tracer getInstance() {
+        if (instance == null) {
+            instance = new Tracer();
+        }
+
+        return instance;
+    }
+
+    /**
+     * constructor of a tracer of its own, e.g. in tests. the app uses getInstance
+     */
+    public Tracer() {}
+
+    /**
+     * enables or disables the tracer, the traces that are already recorded are kept
+     * @param enabled true if spans should be recorded
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * starts a new trace with the given name
+     * @param name the name of the trace, e.g. the name of the method that started it
+     * @return the root span of the trace, which records nothing if the tracer is disabled
+     */
+    public Span begin(@NonNull String name) {
+        if (!enabled) {
+            return Span.NONE;
+        }
+
+        Span root = new Span(this, null, ids.incrementAndGet(), name);
+
+        synchronized (this) {
+            traces.addLast(root);
+            while (traces.size() > MAX_TRACES) {
+                traces.removeFirst();
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * removes all recorded traces
+     */
+    public synchronized void clear() {
+        traces.clear();
+    }
+
+    /**
+     * returns the number of recorded traces
+     * @return the number of traces
+     */
+    public synchronized int size() {
+        return traces.size();
+    }
+
+    /**
+     * returns the recorded traces in the Chrome trace event format. spans that have not ended
+     * are left out
+     * @return the JSON string
+     */
+    public String toJson() {
+        List<Span> roots;
+        synchronized (this) {
+            roots = new ArrayList<>(traces);
+        }
+
+        StringBuilder json = new StringBuilder("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+
+        for (Span root : roots) {
+            List<Span> spans = root.ended();
+            if (spans.isEmpty()) {
+                continue;
+            }
+
+            first = event(json, first, "{\"ph\":\"M\",\"name\":\"process_name\",\"pid\":" + root.trace
+                    + ",\"args\":{\"name\":" + quote(root.name + " #" + root.trace) + "}}");
+
+            List<Span> lanes = lanes(spans);
+            for (int i = 0; i < spans.size(); i++) {
+                Span span = spans.get(i);
+                StringBuilder event = new StringBuilder()
+                        .append("{\"ph\":\"X\",\"cat\":\"dat256\",\"name\":").append(quote(span.name))
+                        .append(",\"pid\":").append(root.trace)
+                        .append(",\"tid\":").append(lanes.indexOf(span.lane))
+                        .append(",\"ts\":").append(micros(span.start))
+                        .append(",\"dur\":").append(micros(span.end) - micros(span.start));
+
+                if (!span.args.isEmpty()) {
+                    event.append(",\"args\":{");
+                    boolean firstArg = true;
+                    for (Map.Entry<String, Object> arg : span.args.entrySet()) {
+                        event.append(firstArg ? "" : ",").append(quote(arg.getKey())).append(':').append(quote(String.valueOf(arg.getValue())));
+                        firstArg = false;
+                    }
+                    event.append('}');
+                }
+
+                first = event(json, first, event.append('}').toString());
+            }
+        }
+
+        return json.append("]}").toString();
+    }
+
+    /**
+     * writes the recorded traces to the given file, see toJson
+     * @param file the file, it is overwritten
+     * @throws IOException if the file can not be written
+     */
+    public void dump(@NonNull File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(toJson());
+        }
+    }
+
+    /**
+     * puts each span on a lane (a thread of the trace) where it is nested in, or comes after, the
+     * spans before it. the spans are sorted by their start, and the first span of each lane is
+     * returned in the order of the lanes
+     */
+    private static List<Span> lanes(List<Span> spans) {
+        Collections.sort(spans, Comparator.comparingLong((Span span) -> span.start).thenComparingLong(span -> -span.end));
+
+        List<Span> lanes = new ArrayList<>();
+        List<ArrayDeque<Span>> open = new ArrayList<>();
+
+        for (Span span : spans) {
+            int lane = 0;
+            for (; lane < lanes.size(); lane++) {
+                ArrayDeque<Span> stack = open.get(lane);
+                while (!stack.isEmpty() && stack.peekLast().end <= span.start) {
+                    stack.removeLast();
+                }
+                if (stack.isEmpty() || span.end <= stack.peekLast().end) {
+                    break;
+                }
+            }
+
+            if (lane == lanes.size()) {
+                lanes.add(span);
+                open.add(new ArrayDeque<>());
+            }
+
+            span.lane = lanes.get(lane);
+            open.get(lane).addLast(span);
+        }
+
+        return lanes;
+    }
+
+    private static boolean event(StringBuilder json, boolean first, String event) {
+        json.append(first ? "\n" : ",\n").append(event);
+        return false;
+    }
+
+    private long micros(long nanos) {
+        return (nanos - origin) / 1_000;
+    }
+
+    private static String quote(String string) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * a span of work in a trace, from when it was started until end is called. a span that ends
+     * before its children is extended to the end of its last child when it is written
+     */
+    public static class Span {
+
+        /**
+         * the span of a disabled tracer, it records nothing
+         */
+        static final Span NONE = new Span(null, null, 0, "");
+
+        private final Tracer tracer;
+        private final Span root;
+        private final long trace;
+        private final String name;
+        private final long start = System.nanoTime();
+        private final Map<String, Object> args = new LinkedHashMap<>();
+        private final List<Span> children = new ArrayList<>();
+        private long end = -1;
+        private Span lane;
+
+        private Span(Tracer tracer, Span root, long trace, String name) {
+            this.tracer = tracer;
+            this.root = root == null ? this : root;
+            this.trace = trace;
+            this.name = name;
+        }
+
+        /**
+         * starts a span of a stage of this span
+         * @param name the name of the stage, e.g. the query that it makes
+         * @return the child span
+         */
+        public Span child(@NonNull String name) {
+            if (tracer == null) {
+                return NONE;
+            }
+
+            Span child = new Span(tracer, root, trace, name);
+            synchronized (root) {
+                children.add(child);
+            }
+            return child;
+        }
+
+        /**
+         * adds an argument that is shown with the span, e.g. the number of documents of a query
+         * @param key the name of the argument
+         * @param value the value
+         * @return this span
+         */
+        public Span arg(@NonNull String key, Object value) {
+            if (tracer != null) {
+                synchronized (root) {
+                    args.put(key, value);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * ends the span, only the first call has an effect
+         */
+        public void end() {
+            if (tracer != null) {
+                synchronized (root) {
+                    if (end < 0) {
+                        end = System.nanoTime();
+                    }
+                }
+            }
+        }
+
+        /**
+         * returns the spans of the trace of this root span that have ended, with the ends of the
+         * parents extended to their last child
+         */
+        private List<Span> ended() {
+            List<Span> spans = new ArrayList<>();
+            synchronized (root) {
+                collect(spans);
+            }
+            return spans;
+        }
+
+        private long collect(List<Span> spans) {
+            if (end < 0) {
+                return -1;
+            }
+
+            long last = end;
+            for (Span child : children) {
+                last = Math.max(last, child.collect(spans));
+            }
+
+            end = last;
+            spans.add(this);
+            return last;
+        }
+    }
+}
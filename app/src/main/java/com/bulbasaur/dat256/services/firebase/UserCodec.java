@@ -0,0 +1,114 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import android.support.annotation.NonNull;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.User;
+
+import java.util.List;
+
+/**
+ * @author ludwighultqvist
+ * class that converts users to and from documents of the users collection. the class is a
+ * singleton since it has no state
+ */
+public class UserCodec implements DBCodec<User> {
+
+    private static final int FIRST_NAME = 0, LAST_NAME = 1, PHONE = 2, LAT = 3, LON = 4, SCORE = 5,
+            FRIENDS = 6, CREATED = 7, JOINED = 8;
+
+    private static final FieldTable FIELDS = new FieldTable("firstname", "lastname", "phone", "coord_lat",
+            "coord_lon", "score", "friends", "created meetups", "joined meetups");
+
+    private static final UserCodec instance = new UserCodec();
+
+    /**
+     * returns the singleton UserCodec object
+     * @return the singleton object
+     */
+    public static UserCodec getInstance() {
+        return instance;
+    }
+
+    /**
+     * private constructor, needed for the class to be a singleton
+     */
+    private UserCodec() {}
+
+    /**
+     * creates a user from the given document. the names, the phone number and the coordinates
+     * are required, the score and the lists are optional
+     * @param document the loaded document
+     * @return the user, or null if the document is missing a required field
+     */
+    @Override
+    public User decode(@NonNull DBDocument document) {
+        String id = document.id();
+        Object[] values = FIELDS.read(document);
+
+        String firstName = (String) values[FIRST_NAME];
+        String lastName = (String) values[LAST_NAME];
+        String phone = (String) values[PHONE];
+        Object lat = values[LAT], lon = values[LON], score = values[SCORE];
+
+        if (id == null || firstName == null || lastName == null || phone == null
+                || !(lat instanceof Number) || !(lon instanceof Number)) {
+            return null;
+        }
+
+        User user = new User(id);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setPhoneNumber(phone);
+        user.setCoordinates(new Coordinates(((Number) lat).doubleValue(), ((Number) lon).doubleValue()));
+        user.setScore(score instanceof Number ? ((Number) score).intValue() : 0);
+
+        List<?> friends = (List<?>) values[FRIENDS];
+        if (friends != null) {
+            for (Object friend : friends) {
+                if (friend != null) {
+                    user.addFriend((String) friend);
+                }
+            }
+        }
+
+        List<?> created = (List<?>) values[CREATED];
+        if (created != null) {
+            for (Object meetUp : created) {
+                if (meetUp != null) {
+                    user.addCreatedMeetUp((String) meetUp);
+                }
+            }
+        }
+
+        List<?> joined = (List<?>) values[JOINED];
+        if (joined != null) {
+            for (Object meetUp : joined) {
+                if (meetUp != null) {
+                    user.addJoinedMeetUp((String) meetUp);
+                }
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * sets the profile fields of the given document from the given user. the score and the lists
+     * are left out since they are changed with increment and arrayUnion
+     * @param user the user
+     * @param document the document
+     */
+    @Override
+    public void encode(@NonNull User user, @NonNull DBDocument document) {
+        document.set("firstname", user.getFirstName());
+        document.set("lastname", user.getLastName());
+        document.set("phone", user.getPhoneNumber());
+
+        Coordinates coordinates = user.getCoordinates();
+        if (coordinates != null) {
+            document.set("coord_lat", coordinates.lat);
+            document.set("coord_lon", coordinates.lon);
+        }
+    }
+}
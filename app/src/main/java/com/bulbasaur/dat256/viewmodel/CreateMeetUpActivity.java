@@ -18,6 +18,7 @@ import com.bulbasaur.dat256.R;
 import com.bulbasaur.dat256.model.Coordinates;
 import com.bulbasaur.dat256.model.Main;
 import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.services.firebase.DBBatch;
 import com.bulbasaur.dat256.services.firebase.DBCollection;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
 import com.bulbasaur.dat256.services.firebase.Database;
@@ -169,36 +170,32 @@ public class CreateMeetUpActivity extends AppCompatActivity {
     }
 
     private void setMeetUpAttributesAndSave(DBDocument document) {
-        document.set("creator", meetUp.getCreatorID());
-        document.set("name", meetUp.getName());
-        document.set("description", meetUp.getDescription());
-        document.set("coord_lat", meetUp.getCoordinates().lat);
-        document.set("coord_lon", meetUp.getCoordinates().lon);
-        document.set("maxAttendees", meetUp.getMaxAttendees());
-        document.set("startDate", meetUp.getStart());
-        document.set("endDate", meetUp.getEnd());
-        document.set("category", meetUp.getCategory());
-        document.set("visibility", meetUp.getVisibility());
-        document.set("attendingusers", meetUp.getAttendingUsers());
-
-        System.out.println("set fields");
-
-        document.save(new RequestListener<DBDocument>() {
+        //the meetup is saved together with the summary that the map reads
+        DBBatch batch = Database.getInstance().saveMeetUp(meetUp, document, Database.getInstance().batch());
+
+        if (Helpers.isLoggedIn()) {
+            DBDocument creatorDoc = Database.getInstance().users().create(meetUp.getCreatorID());
+            creatorDoc.arrayUnion("created meetups", document.id());
+            batch.save(creatorDoc);
+        }
+
+        batch.commit(new RequestListener<DBBatch>() {
             @Override
-            public void onSuccess(DBDocument meetUpDoc) {
-                super.onSuccess(meetUpDoc);
+            public void onSuccess(DBBatch object) {
+                super.onSuccess(object);
 
                 Toast.makeText(CreateMeetUpActivity.this, "Created MeetUp!", Toast.LENGTH_SHORT).show();
-                Main.getInstance().getCurrentUser().addCreatedMeetUp(meetUpDoc.id());
-                //TODO update user in db
+                if (Helpers.isLoggedIn()) {
+                    Main.getInstance().getCurrentUser().addCreatedMeetUp(document.id());
+                }
 
                 setResult(RESULT_OK);
                 finish();
             }
 
             @Override
-            public void onFailure(DBDocument meetUpDoc) {
-                super.onFailure(meetUpDoc);
+            public void onFailure(DBBatch object) {
+                super.onFailure(object);
 
                 showNetworkError();
             }
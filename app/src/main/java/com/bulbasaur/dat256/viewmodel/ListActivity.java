@@ -16,12 +16,9 @@ import com.bulbasaur.dat256.model.MeetUp;
 import com.bulbasaur.dat256.model.MeetupListAdapter;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.List;
 
 
@@ -122,13 +119,7 @@ public class ListActivity extends AppCompatActivity {
     */
 }
     protected void nameSorter() {
-        Comparator<MeetUp> c = new Comparator<MeetUp>() {
-            @Override
-            public int compare(MeetUp o1, MeetUp o2) {
-
-                return o1.getName().compareToIgnoreCase(o2.getName());
-            }
-        };
+        Comparator<MeetUp> c = MeetUp.NAME_ORDER;
         ArrayList<MeetUp> a = new ArrayList<MeetUp>();
         for(MeetUp i: meetUps)
         System.out.println("original list " + i.getName());
@@ -137,18 +128,7 @@ public class ListActivity extends AppCompatActivity {
         System.out.println("sorted list " + k.getName());
     }
     protected void dateSorter() {
-        Comparator<MeetUp> c = new Comparator<MeetUp>() {
-            @Override
-            public int compare(MeetUp o1, MeetUp o2) {
-                Date date1 = o1.getStart().getTime();
-                DateFormat format1 = new SimpleDateFormat("MM-dd HH:mm");
-                String strDate1 = format1.format(date1);
-                Date date2 = o2.getStart().getTime();
-                DateFormat format2 = new SimpleDateFormat("MM-dd HH:mm");
-                String strDate2 = format2.format(date2);
-                return strDate1.compareToIgnoreCase(strDate2);
-            }
-        };
+        Comparator<MeetUp> c = MeetUp.START_ORDER;
         ArrayList<MeetUp> a = new ArrayList<MeetUp>();
         for(MeetUp i: meetUps)
             System.out.println("dateUnsorted list " + i.getName());
@@ -17,10 +17,14 @@ import android.widget.Toast;
 import com.bulbasaur.dat256.R;
 import com.bulbasaur.dat256.model.Main;
 import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.services.firebase.DBDocument;
 import com.bulbasaur.dat256.services.firebase.Database;
+import com.bulbasaur.dat256.services.firebase.RequestListener;
 import com.bulbasaur.dat256.viewmodel.utilities.Helpers;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 public class MeetUpActivity extends AppCompatActivity {
@@ -44,10 +48,56 @@ public class MeetUpActivity extends AppCompatActivity {
             meetUp = Main.getInstance().getMeetUpsWithinMapView().get(getIntent().getIntExtra("MeetUpIndex", -1));//(MeetUp) getIntent().getSerializableExtra("MeetUp");
         }
 
-
         TextView titleView = findViewById(R.id.titleView);
         titleView.setText(meetUp.getName());
 
+        if (meetUp.isSummary()) {
+            //the map only has the summary of the meetup, so the full meetup is fetched before it is shown
+            fetchMeetUp();
+        } else {
+            showMeetUp();
+        }
+    }
+
+    private void fetchMeetUp() {
+        Database.getInstance().meetups().get(meetUp.getId(), new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument document) {
+                super.onSuccess(document);
+                if (isDestroyed()) return;
+
+                MeetUp fullMeetUp = Helpers.convertDocToMeetUp(document);
+                if (fullMeetUp == null) {
+                    onComplete(document);
+                    return;
+                }
+
+                meetUp = fullMeetUp;
+                Main.getInstance().getSearchIndex().add(fullMeetUp);
+                showMeetUp();
+            }
+
+            @Override
+            public void onComplete(DBDocument document) {
+                super.onComplete(document);
+                if (isDestroyed()) return;
+
+                Toast.makeText(MeetUpActivity.this, "MeetUp is corrupt or can't be found!", Toast.LENGTH_LONG).show();
+                finish();
+            }
+
+            @Override
+            public void onFailure(DBDocument document) {
+                super.onFailure(document);
+                if (isDestroyed()) return;
+
+                Toast.makeText(MeetUpActivity.this, "Could not load the MeetUp, check your network connection", Toast.LENGTH_LONG).show();
+                finish();
+            }
+        });
+    }
+
+    private void showMeetUp() {
         TextView descriptionView = findViewById(R.id.DescriptionView);
         descriptionView.setText(meetUp.getDescription());
 
@@ -135,18 +185,34 @@ public class MeetUpActivity extends AppCompatActivity {
         ConstraintLayout meetUpConstraintLayout = findViewById(R.id.meetUpConstraintLayout);
 
         if (Helpers.isLoggedIn()) {
+            List<String> friendsGoing = new ArrayList<>();
             for (String friendID : Main.getInstance().getCurrentUser().getFriends()) {
                 if (meetUp.getJoinedUsers().contains(friendID)) {
-                    friendsGoingLabel.setText(getString(R.string.of_your_friends_are_going, String.valueOf(++friendsGoingCounter)));
+                    friendsGoing.add(friendID);
+                }
+            }
 
-                    Helpers.retrieveDocumentAndPerformAction(Database.getInstance().users(), friendID, document -> {
-                        String name = document.get("firstname") + " " + document.get("lastname");
+            friendsGoingCounter = friendsGoing.size();
+            friendsGoingLabel.setText(getString(R.string.of_your_friends_are_going, String.valueOf(friendsGoingCounter)));
 
-                        View friendView = getLayoutInflater().inflate(R.layout.friends_list_item, null);
-                        ((TextView) friendView.findViewById(R.id.friendLabel)).setText(name);
-                        meetUpLinearLayout.addView(friendView);
-                    });
-                }
+            if (!friendsGoing.isEmpty()) {
+                //fetch all friends that are going in one batched request
+                Database.getInstance().users().getAll(friendsGoing, new RequestListener<List<? extends DBDocument>>() {
+                    @Override
+                    public void onSuccess(List<? extends DBDocument> documents) {
+                        super.onSuccess(documents);
+
+                        for (DBDocument document : documents) {
+                            if (!document.isLoaded()) continue;
+
+                            String name = document.get("firstname") + " " + document.get("lastname");
+
+                            View friendView = getLayoutInflater().inflate(R.layout.friends_list_item, null);
+                            ((TextView) friendView.findViewById(R.id.friendLabel)).setText(name);
+                            meetUpLinearLayout.addView(friendView);
+                        }
+                    }
+                });
             }
         }
 
@@ -2,9 +2,12 @@ package com.bulbasaur.dat256.viewmodel;
 
 import android.Manifest;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.database.MatrixCursor;
 import android.graphics.Bitmap;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.NavigationView;
 import android.support.v4.app.ActivityCompat;
@@ -16,19 +19,29 @@ import android.support.v7.widget.Toolbar;
 import android.view.MenuItem;
 import android.widget.ImageView;
 import android.widget.SearchView;
+import android.widget.SimpleCursorAdapter;
 import android.widget.Toast;
 
+import com.bulbasaur.dat256.BuildConfig;
 import com.bulbasaur.dat256.R;
 import com.bulbasaur.dat256.model.Coordinates;
 import com.bulbasaur.dat256.model.Main;
 import com.bulbasaur.dat256.model.MapBounds;
 import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.model.SearchIndex;
 import com.bulbasaur.dat256.model.User;
+import com.bulbasaur.dat256.services.firebase.CancellationToken;
 import com.bulbasaur.dat256.services.firebase.DBCollection;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
+import com.bulbasaur.dat256.services.firebase.DBFuture;
+import com.bulbasaur.dat256.services.firebase.DBListener;
+import com.bulbasaur.dat256.services.firebase.DBSubscription;
 import com.bulbasaur.dat256.services.firebase.Database;
+import com.bulbasaur.dat256.services.firebase.MeetUpSummaryCodec;
+import com.bulbasaur.dat256.services.firebase.Metrics;
 import com.bulbasaur.dat256.services.firebase.QueryFilter;
 import com.bulbasaur.dat256.services.firebase.RequestListener;
+import com.bulbasaur.dat256.services.firebase.Tracer;
 import com.bulbasaur.dat256.viewmodel.discover.DiscoverTestActivity;
 import com.bulbasaur.dat256.viewmodel.uielements.CustomInfoWindowAdapter;
 import com.bulbasaur.dat256.viewmodel.uielements.MarkerData;
@@ -46,11 +59,19 @@ import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.gson.Gson;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.VIEWPORT;
 import static com.bulbasaur.dat256.viewmodel.utilities.Helpers.getBitmapFromVectorDrawable;
 
 public class MenuActivity extends AppCompatActivity implements OnMapReadyCallback {
@@ -75,6 +96,24 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
 
     private Marker currentlyOpenMarker;
 
+    private static final String TAG = "MenuActivity";
+    private static final String MIGRATIONS_DONE = "migrations-done";
+
+    private static final double SUBSCRIBED_AREA_MARGIN = 0.5;
+    private final List<DBSubscription> meetUpSubscriptions = new ArrayList<>();
+    private final HashMap<String, Integer> meetUpHolds = new HashMap<>();
+    private final Set<String> staleMeetUps = new HashSet<>();
+    private MapBounds subscribedArea;
+    private boolean subscribedLoggedIn;
+    private int pendingFirstUpdates;
+    private long subscribeStarted;
+    private int viewportGeneration;
+    private CancellationToken viewportToken;
+    private Tracer.Span subscribeSpan;
+
+    private static final int MAX_SEARCH_HITS = 8;
+    private List<SearchIndex.Hit> searchHits = new ArrayList<>();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -82,6 +121,14 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
 
         main = Main.getInstance();
 
+        //the map refreshes are traced in debug builds, see dumpTrace
+        Tracer.getInstance().setEnabled(BuildConfig.DEBUG);
+
+        //the existing users and meetups are migrated from debug builds, see runMigrations
+        if (BuildConfig.DEBUG) {
+            runMigrations();
+        }
+
         meetUpMarkerMap = new HashMap<>();
         friendMarkerMap = new HashMap<>();
 
@@ -92,6 +139,7 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
         searchView = findViewById(R.id.search_bar);
         searchView.setIconifiedByDefault(false);
         searchView.setQueryHint("Search for users or meet ups");
+        setUpSearch();
 
         drawer = findViewById(R.id.drawer_layout);
         ActionBarDrawerToggle toggle = new ActionBarDrawerToggle(this, drawer, toolbar, R.string.navigation_drawer_open, R.string.navigation_drawer_close);
@@ -183,6 +231,78 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
         });
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        if (map != null) {
+            refreshMapItems(getCurrentMapBounds());
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        //the live queries are stopped while the map is not visible, and the last refresh is dropped
+        unsubscribeMeetUps();
+        cancelRefresh();
+        dumpTrace();
+    }
+
+    /**
+     * writes the traces of the map refreshes to map-trace.json in the files of the app, it can be
+     * opened in Perfetto (ui.perfetto.dev) or chrome://tracing
+     */
+    private void dumpTrace() {
+        if (!Tracer.getInstance().isEnabled()) return;
+
+        try {
+            Tracer.getInstance().dump(new File(getFilesDir(), "map-trace.json"));
+        } catch (IOException e) {
+            Log.w(TAG, "failed to write the map trace", e);
+        }
+    }
+
+    /**
+     * writes the geohashes of the existing users and then the summaries of the existing meetups,
+     * without which the map shows no friends or meetups saved before them. the migrations read
+     * whole collections, so they are only run from debug builds and only until they have
+     * succeeded once on the device, see "Migrating existing data" in the README
+     */
+    private void runMigrations() {
+        SharedPreferences preferences = getPreferences(MODE_PRIVATE);
+        if (preferences.getBoolean(MIGRATIONS_DONE, false)) return;
+
+        Database database = Database.getInstance();
+        database.writeUserGeoHashes(migration("user geohashes", () ->
+                database.writeMeetUpSummaries(migration("meetup summaries", () ->
+                        preferences.edit().putBoolean(MIGRATIONS_DONE, true).apply()))));
+    }
+
+    private static RequestListener<Integer> migration(String name, Runnable next) {
+        return new RequestListener<Integer>() {
+            @Override
+            public void onSuccess(Integer written) {
+                super.onSuccess(written);
+                Log.i(TAG, "migration of " + name + ": " + written + " documents written");
+                next.run();
+            }
+
+            @Override
+            public void onComplete(Integer written) {
+                super.onComplete(written);
+                Log.w(TAG, "migration of " + name + ": the collection could not be read");
+            }
+
+            @Override
+            public void onFailure(Integer written) {
+                super.onFailure(written);
+                Log.w(TAG, "migration of " + name + ": stopped after " + written + " documents, it is run again on the next start");
+            }
+        };
+    }
+
     @Override
     public void onBackPressed() {
         if (drawer.isDrawerOpen(GravityCompat.START)) {
@@ -338,6 +458,76 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
         }
     }
 
+    /**
+     * shows the meetups and users that match the text of the search bar as suggestions, while it
+     * is typed. the search is made in the index of the meetups and users that have been loaded,
+     * so it makes no request, and the ones closest to the map view are shown first
+     */
+    private void setUpSearch() {
+        SimpleCursorAdapter suggestions = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_2, null,
+                new String[] {"title", "subtitle"}, new int[] {android.R.id.text1, android.R.id.text2}, 0);
+        searchView.setSuggestionsAdapter(suggestions);
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                if (!searchHits.isEmpty()) {
+                    showSearchHit(searchHits.get(0));
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                searchHits = main.getSearchIndex().search(query, map == null ? null : getCurrentMapBounds(), MAX_SEARCH_HITS);
+
+                MatrixCursor cursor = new MatrixCursor(new String[] {"_id", "title", "subtitle"});
+                for (int i = 0; i < searchHits.size(); i++) {
+                    SearchIndex.Hit hit = searchHits.get(i);
+                    String kind = hit.getUser() != null ? "User"
+                            : hit.getMeetUp().getCategory() == null ? "Meet up" : hit.getMeetUp().getCategory().categoryName;
+                    String distance = hit.getDistanceKm() == 0 ? "on the map"
+                            : hit.getDistanceKm() == Double.MAX_VALUE ? "" : String.format(Locale.getDefault(), "%.1f km away", hit.getDistanceKm());
+                    cursor.addRow(new Object[] {i, hit.getTitle(), distance.isEmpty() ? kind : kind + ", " + distance});
+                }
+
+                suggestions.changeCursor(cursor);
+                return true;
+            }
+        });
+
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                if (position < searchHits.size()) {
+                    showSearchHit(searchHits.get(position));
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * moves the map to the given meetup, or opens the profile of the given user
+     */
+    private void showSearchHit(SearchIndex.Hit hit) {
+        searchView.setQuery(hit.getTitle(), false);
+        searchView.clearFocus();
+
+        if (hit.getUser() != null) {
+            Intent userIntent = new Intent(this, UserActivity.class);
+            userIntent.putExtra("User", hit.getUser());
+            startActivityForResult(userIntent, SHOW_FRIEND_ON_MAP_CODE);
+        } else if (map != null && hit.getCoordinates() != null) {
+            map.moveCamera(CameraUpdateFactory.newLatLngZoom(new LatLng(hit.getCoordinates().lat, hit.getCoordinates().lon), DEFAULT_MEET_UP_ZOOM_LEVEL));
+        }
+    }
+
     private MapBounds getCurrentMapBounds() {
         LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
 
@@ -345,244 +535,353 @@ public class MenuActivity extends AppCompatActivity implements OnMapReadyCallbac
     }
 
     private void refreshMapItems(MapBounds bounds) {
-        // remove markers and meetups that are out of bounds of the map view
-        main.removeOldMeetUps(bounds);
+        long started = System.nanoTime();
+
+        // a refresh supersedes the previous one: the reads of the previous one that have not been
+        // started are dropped and its results are ignored, so a map that is panned quickly does
+        // not queue up reads or place markers of a view that is no longer shown
+        cancelRefresh();
+        int generation = viewportGeneration;
+        CancellationToken token = viewportToken;
+
+        // every stage of the refresh is a span of its trace, see dumpTrace
+        Tracer.Span trace = Tracer.getInstance().begin("refreshMapItems").arg("generation", generation).arg("bounds", bounds);
+
+        // remove friends that are out of bounds of the map view
+        Tracer.Span removeFriends = trace.child("removeFriends");
         main.removeFriends(bounds);
-        removeOldMeetUpMarkers();
         removeOldFriendMarkers();
+        removeFriends.end();
+
+        // the meetups are kept up to date by live queries of an area around the map view, which
+        // only have to be moved when the map view leaves the area. a map that is not moved makes
+        // no reads, but still shows the meetups that are created, changed or deleted
+        boolean resubscribe = !contains(subscribedArea, bounds) || subscribedLoggedIn != Helpers.isLoggedIn();
+
+        // the current user's document is needed both for the friends on the map and for the live
+        // query of the friends' meetups, so it is fetched once, at the same time as the other queries.
+        // when the live queries are moved they outlive this refresh, so the document is not cancelled
+        DBCollection usersCollection = resubscribe ? Database.getInstance().users(VIEWPORT) : Database.getInstance().users(VIEWPORT, token);
+        CompletableFuture<DBDocument> currentUser = Helpers.isLoggedIn()
+                ? traced(trace.child("users.get"), DBFuture.of(listener -> usersCollection.get(main.getCurrentUser().getId(), listener)))
+                : null;
+
+        if (resubscribe) {
+            subscribeMeetUps(expand(bounds), currentUser, trace);
+        }
 
-        //get a reference to the meetup list in the database
-        DBCollection allMeetUpsCollection = Database.getInstance().meetups();
+        if (currentUser != null) {
+            //search the database for the users within the view boundaries while the current user is fetched,
+            // and show the friends among them when both have arrived
+            CompletableFuture<List<? extends DBDocument>> usersWithinView = traced(trace.child("users.searchWithin"),
+                    DBFuture.of(listener -> Database.getInstance().users(VIEWPORT, token).searchWithin(bounds, listener)));
+
+            currentUser.thenAcceptBothAsync(usersWithinView, (user, users) -> {
+                //a later refresh may have started while the results were on their way
+                if (generation != viewportGeneration) {
+                    trace.arg("superseded", true);
+                    return;
+                }
 
-        //if (allMeetUpsCollection == null) return;
+                Tracer.Span render = trace.child("showFriendsOnMap").arg("users", users.size());
+                showFriendsOnMap(user, users);
+                render.end();
+                time("map.friendMarkers", started);
+            }, this::runOnUiThread).exceptionally(e -> {
+                Log.w(TAG, "failed to show the friends on the map", e);
+                return null;
+            });
+        }
 
-        //create query filters for the coordinates of the boundaries of the view
-        QueryFilter latitudeFilter = new QueryFilter("coord_lat");
-        latitudeFilter.addFilter(">", bounds.getBottomLeft().lat);
-        latitudeFilter.addFilter("<", bounds.getTopRight().lat);
+        trace.end();
+    }
 
-        QueryFilter longitudeFilter = new QueryFilter("coord_lon");
-        longitudeFilter.addFilter(">", bounds.getBottomLeft().lon);
-        longitudeFilter.addFilter("<", bounds.getTopRight().lon);
+    /**
+     * ends the given span when the given future has completed, with the number of documents it
+     * returned or the error it failed with
+     */
+    private static <E> CompletableFuture<E> traced(Tracer.Span span, CompletableFuture<E> future) {
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                span.arg("error", error);
+            }
+            else if (result instanceof List) {
+                span.arg("documents", ((List<?>) result).size());
+            }
+            span.end();
+        });
+        return future;
+    }
 
-        //search the database for meetups that lie within the view boundaries
-        searchLatLon(allMeetUpsCollection, latitudeFilter, longitudeFilter);
+    /**
+     * records the time since the given start in the timer with the given name, e.g. the time
+     * from a refresh until its markers are placed, see Metrics
+     */
+    private static void time(String timer, long started) {
+        Metrics metrics = Database.getInstance().metrics();
+        if (metrics != null) {
+            metrics.time(timer, System.nanoTime() - started);
+        }
+    }
 
-        //search the database for friends that lie within the view boundaries
-        if (Helpers.isLoggedIn()) {
-            DBCollection usersCollection = Database.getInstance().users();
-            searchLatLonUsers(usersCollection, latitudeFilter, longitudeFilter);
+    private void cancelRefresh() {
+        if (viewportToken != null) {
+            viewportToken.cancel();
         }
 
+        viewportGeneration++;
+        viewportToken = new CancellationToken();
     }
 
-    private void searchLatLon(DBCollection allMeetUpsCollection, QueryFilter latFilter, QueryFilter lonFilter) {
-        //search by latitude
-        allMeetUpsCollection.search(latFilter, new RequestListener<List<? extends DBDocument>>() {
-            @Override
-            public void onSuccess(List<? extends DBDocument> latFilteredDocs) {
-                super.onSuccess(latFilteredDocs);
+    private void showFriendsOnMap(DBDocument currentUser, List<? extends DBDocument> userDocsWithinView) {
+        List<String> friends = (List<String>) currentUser.get("friends");
 
-                //search by longitude
-                allMeetUpsCollection.search(lonFilter, new RequestListener<List<? extends DBDocument>>() {
-                    @Override
-                    public void onSuccess(List<? extends DBDocument> lonFilteredDocs) {
-                        super.onSuccess(lonFilteredDocs);
+        if (friends == null) return;
 
-                        //get the intersection of the set of latitude- and set of longitude-filtered events, since
-                        // the map boundaries are of course within a rectangle
-                        List<DBDocument> docsWithinView = Helpers.intersection((List<DBDocument>) latFilteredDocs, (List<DBDocument>) lonFilteredDocs);
+        //the users within view are already loaded by the search, so only the friends among them are kept
+        for (DBDocument userDoc : userDocsWithinView) {
+            if (friends.contains(userDoc.id())) {
+                User friend = Helpers.convertDocToUser(userDoc);
+                if (friend != null) {
+                    main.getSearchIndex().add(friend);
+                    main.updateMapFriends(friend);
+                    showUpdatedFriend(friend);
+                }
+            }
+        }
+    }
 
-                        //search for public events and the current user's events
-                        searchVisibilityPublic(allMeetUpsCollection, docsWithinView);
+    private void subscribeMeetUps(MapBounds area, CompletableFuture<DBDocument> currentUser, Tracer.Span trace) {
+        unsubscribeMeetUps();
+        subscribeSpan = trace.child("subscribeMeetUps").arg("area", area);
+        subscribedArea = area;
+        subscribeStarted = System.nanoTime();
+        subscribedLoggedIn = Helpers.isLoggedIn();
 
-                        if (Helpers.isLoggedIn()) {
-                            //search for events that are available for friends
-                            searchVisibilityFriends(allMeetUpsCollection, docsWithinView);
-                        }
-                    }
-                });
-            }
-        });
+        // the meetups that are already shown are kept until every live query has delivered its
+        // first result, then the ones that no live query has delivered are removed
+        staleMeetUps.clear();
+        for (MeetUp m : main.getMeetUpsWithinMapView()) {
+            staleMeetUps.add(m.getId());
+        }
+        pendingFirstUpdates = Helpers.isLoggedIn() ? 3 : 1;
+
+        //the map only reads the summaries of the meetups, the full meetup is fetched when it is opened
+        DBCollection allMeetUpsCollection = Database.getInstance().meetupSummaries(VIEWPORT);
+
+        //listen to public events within the area
+        QueryFilter publicFilter = new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC");
+        listenWithin(allMeetUpsCollection, area, publicFilter, null);
+
+        if (Helpers.isLoggedIn()) {
+            //listen to the current user's events within the area, whatever their visibility
+            QueryFilter currentUserFilter = new QueryFilter("creator", QueryFilter.EQUAL, main.getCurrentUser().getId());
+            listenWithin(allMeetUpsCollection, area, currentUserFilter, null);
+
+            //listen to the events of friends within the area
+            listenVisibilityFriends(allMeetUpsCollection, area, currentUser);
+        }
     }
 
-    private void searchLatLonUsers(DBCollection usersCollection, QueryFilter latFilter, QueryFilter lonFilter) {
-        usersCollection.search(latFilter, new RequestListener<List<? extends DBDocument>>() {
-            @Override
-            public void onSuccess(List<? extends DBDocument> latFilteredDocs) {
-                super.onSuccess(latFilteredDocs);
-
-                usersCollection.search(lonFilter, new RequestListener<List<? extends DBDocument>>() {
-                    @Override
-                    public void onSuccess(List<? extends DBDocument> lonFilteredDocs) {
-                        super.onSuccess(lonFilteredDocs);
-
-                        //get the intersection of the set of latitude- and set of longitude-filtered users, since
-                        // the map boundaries are of course within a rectangle
-                        List<DBDocument> docsWithinView = Helpers.intersection((List<DBDocument>) latFilteredDocs, (List<DBDocument>) lonFilteredDocs);
-                        showFriendsOnMap(docsWithinView);
-                    }
-                });
-            }
-        });
+    private void unsubscribeMeetUps() {
+        for (DBSubscription subscription : meetUpSubscriptions) {
+            subscription.remove();
+        }
+
+        meetUpSubscriptions.clear();
+        meetUpHolds.clear();
+        subscribedArea = null;
+
+        if (subscribeSpan != null) {
+            subscribeSpan.arg("removed", pendingFirstUpdates > 0).end();
+            subscribeSpan = null;
+        }
     }
 
-    private void showFriendsOnMap(List<DBDocument> friendDocsWithinView) {
-        Database.getInstance().user(new RequestListener<DBDocument>() {
-            @Override
-            public void onSuccess(DBDocument object) {
-                super.onSuccess(object);
-
-                List<String> friends = (List<String>) object.get("friends");
-
-                DBCollection usersCollection = Database.getInstance().users();
-                for (String friendID : friends) {
-                    //hämta varje user i listan från databasen, gör sedan om dessa till User
-                    usersCollection.get(friendID, new RequestListener<DBDocument>(true) {
-                        @Override
-                        public void onSuccess(DBDocument object) {
-                            super.onSuccess(object);
-                            if (friendDocsWithinView.contains(object)) {
-                                User friend = Helpers.convertDocToUser(object);
-                                main.updateMapFriends(friend);
-                                showUpdatedFriend(friend);
-                            }
-                        }
-                    });
-                }
+    private void listenVisibilityFriends(DBCollection allMeetUpsCollection, MapBounds area, CompletableFuture<DBDocument> currentUser) {
+        //the live query is started when the current user's document has arrived, on the ui thread
+        currentUser.whenCompleteAsync((document, error) -> {
+            //the area may have been moved while the document was fetched
+            if (area != subscribedArea) return;
+
+            //get the list of friends of the current user
+            List<String> friendIDStrings = error == null && document.isLoaded() ? (List<String>) document.get("friends") : null;
+
+            if (friendIDStrings == null || friendIDStrings.isEmpty()) {
+                firstUpdateDelivered();
+                return;
             }
-        });
+
+            //listen to the events within the area that are visible to friends. the creator is
+            // checked by the listener rather than with an "in" condition, since that would be
+            // one live query per friend and geohash cell
+            QueryFilter friendsVisibilityFilter = new QueryFilter("visibility", QueryFilter.EQUAL, "FRIENDS");
+            listenWithin(allMeetUpsCollection, area, friendsVisibilityFilter, new HashSet<>(friendIDStrings));
+        }, this::runOnUiThread);
     }
 
-    private void searchVisibilityPublic(DBCollection allMeetUpsCollection, List<DBDocument> docsWithinView) {
-        //create a filter for public events
-        QueryFilter publicFilter = new QueryFilter("visibility");
-        publicFilter.addFilter("=", "PUBLIC");
+    private void listenWithin(DBCollection allMeetUpsCollection, MapBounds area, QueryFilter filter, Set<String> creators) {
+        Tracer.Span span = subscribeSpan.child("meetupSummaries.listenWithin").arg("filter", filter.key());
+        meetUpSubscriptions.add(allMeetUpsCollection.listenWithin(area, filter, new MeetUpListener(creators, span)));
+    }
 
-        //search for public events
-        allMeetUpsCollection.search(publicFilter, new RequestListener<List<? extends DBDocument>>() {
-            @Override
-            public void onSuccess(List<? extends DBDocument> publicDocs) {
-                super.onSuccess(publicDocs);
+    private void firstUpdateDelivered() {
+        if (--pendingFirstUpdates != 0) return;
 
-                //search for the current user's events
-                if (Helpers.isLoggedIn()) {
-                    searchCurrentUserDocs(allMeetUpsCollection, docsWithinView, (List<DBDocument>) publicDocs);
-                } else {
-                    finishUpdatingMapMeetUps(Helpers.intersection((List<DBDocument>) publicDocs, docsWithinView));
-                }
+        time("map.meetUpMarkers", subscribeStarted);
+        Tracer.Span removeStale = subscribeSpan.child("removeStaleMeetUps").arg("stale", staleMeetUps.size());
+
+        for (int i = main.getMeetUpsWithinMapView().size() - 1; i >= 0; i--) {
+            MeetUp m = main.getMeetUpsWithinMapView().get(i);
+
+            if (staleMeetUps.contains(m.getId()) && !meetUpHolds.containsKey(m.getId())) {
+                main.removeMapMeetUp(m);
             }
-        });
+        }
+
+        staleMeetUps.clear();
+        removeOldMeetUpMarkers();
+        removeStale.end();
+        subscribeSpan.end();
     }
 
-    private void searchCurrentUserDocs(DBCollection allMeetUpsCollection, List<DBDocument> docsWithinView, List<DBDocument> publicDocs) {
-        //create a filter for the current user's events
-        QueryFilter currentUserFilter = new QueryFilter("creator");
-        currentUserFilter.addFilter("=", Main.getInstance().getCurrentUser().getId());
+    /**
+     * applies the changes of one live query to the meetups on the map. a meetup can be delivered
+     * by more than one live query (e.g. a public event of the current user), so it is only
+     * removed from the map when no live query has it
+     */
+    private class MeetUpListener extends DBListener {
+        private final Set<String> creators;
+        private final Set<String> held = new HashSet<>();
+        private final Tracer.Span span;
+        private boolean first = true;
+        private int decoded;
+        private long decodeNanos;
+
+        MeetUpListener(Set<String> creators, Tracer.Span span) {
+            this.creators = creators;
+            this.span = span;
+        }
 
-        //search for the current user's events
-        allMeetUpsCollection.search(currentUserFilter, new RequestListener<List<? extends DBDocument>>() {
-            @Override
-            public void onSuccess(List<? extends DBDocument> currentUserDocs) {
-                super.onSuccess(currentUserDocs);
+        @Override
+        public void onAdded(DBDocument document) {
+            onModified(document);
+        }
 
-                //get the union between the set of public events and current user events as both should be visible to the current user
-                List<DBDocument> accessibleDocs = Helpers.union(publicDocs, (List<DBDocument>) currentUserDocs);
+        @Override
+        public void onModified(DBDocument document) {
+            if (creators != null && !creators.contains((String) document.get("creator"))) {
+                onRemoved(document);
+                return;
+            }
+
+            //the summary is already loaded by the live query, so it can be converted directly
+            long started = System.nanoTime();
+            MeetUp meetUp = MeetUpSummaryCodec.getInstance().decode(document);
+            decodeNanos += System.nanoTime() - started;
+            decoded++;
+            if (meetUp == null) return;
+
+            //the meetups on the map can be found with the search bar
+            main.getSearchIndex().add(meetUp);
 
-                //place the new public and private events on the map
-                finishUpdatingMapMeetUps(Helpers.intersection(accessibleDocs, docsWithinView));
+            if (held.add(document.id())) {
+                Integer holds = meetUpHolds.get(document.id());
+                meetUpHolds.put(document.id(), holds == null ? 1 : holds + 1);
             }
-        });
-    }
 
-    private void searchVisibilityFriends(DBCollection allMeetUpsCollection, List<DBDocument> docsWithinView) {
-        //create a filter for events that are visible to friends (not necessarily the current user's friends)
-        QueryFilter friendsVisibilityFilter = new QueryFilter("visibility");
-        friendsVisibilityFilter.addFilter("=", "FRIENDS");
+            //the marker is recreated, since the position or the content of the meetup may have changed
+            removeMeetUpMarker(meetUp.getId());
+            main.updateMapMeetUp(meetUp);
+        }
 
-        //search for the events that are visible to friends (not necessarily the current user's friends)
-        allMeetUpsCollection.search(friendsVisibilityFilter, new RequestListener<List<? extends DBDocument>>() {
-            @Override
-            public void onSuccess(List<? extends DBDocument> friendsVisibleDocs) {
-                super.onSuccess(friendsVisibleDocs);
+        @Override
+        public void onRemoved(DBDocument document) {
+            if (!held.remove(document.id())) return;
 
-                //search for events that the current user's friends own
-                searchFriendsMeetUps(allMeetUpsCollection, docsWithinView, (List<DBDocument>) friendsVisibleDocs);
+            Integer holds = meetUpHolds.get(document.id());
+            if (holds != null && holds > 1) {
+                meetUpHolds.put(document.id(), holds - 1);
+                return;
             }
-        });
-    }
 
-    public void searchFriendsMeetUps(DBCollection allMeetUpsCollection, List<DBDocument> docsWithinView, List<DBDocument> friendsVisibleDocs) {
-        //get a reference to the user list in the database
-        DBCollection usersCollection = Database.getInstance().users();
+            meetUpHolds.remove(document.id());
+            removeMeetUpMarker(document.id());
 
-        if (usersCollection == null) return;
+            for (MeetUp m : main.getMeetUpsWithinMapView()) {
+                if (m.getId().equals(document.id())) {
+                    main.removeMapMeetUp(m);
+                    break;
+                }
+            }
+        }
 
-        //get the current user's document
-        usersCollection.get(Main.getInstance().getCurrentUser().getId(), new RequestListener<DBDocument>() {
-            @Override
-            public void onSuccess(DBDocument emptyDoc) {
-                super.onSuccess(emptyDoc);
-
-                //initialize the current user's document to read its values
-                emptyDoc.init(new RequestListener<DBDocument>() {
-                    @Override
-                    public void onSuccess(DBDocument document) {
-                        super.onSuccess(document);
-
-                        //get the list of friends of the current user
-                        List<String> friendIDStrings = (List<String>) document.get("friends");
-
-                        //for every friend of the current user...
-                        for (String s : friendIDStrings) {
-                            //create a filter for all events whose creator is the current friend
-                            QueryFilter friendFilter = new QueryFilter("creator");
-                            friendFilter.addFilter("=", s);
-
-                            //search for these events
-                            allMeetUpsCollection.search(friendFilter, new RequestListener<List<? extends DBDocument>>() {
-                                @Override
-                                public void onSuccess(List<? extends DBDocument> docsOfFriends) {
-                                    super.onSuccess(docsOfFriends);
-
-                                    //get the intersection of the events that are physically within
-                                    // view, the events that this current friend owns, and the events
-                                    // marked "for friends", as these are the ones that the current
-                                    // user should be able to see
-                                    docsOfFriends = Helpers.intersection((List<DBDocument>) docsOfFriends, docsWithinView);
-                                    docsOfFriends = Helpers.intersection((List<DBDocument>) docsOfFriends, friendsVisibleDocs);
-
-                                    //place the new friend events on the map
-                                    finishUpdatingMapMeetUps((List<DBDocument>) docsOfFriends);
-                                }
-                            });
-                        }
-                    }
-                });
+        @Override
+        public void update() {
+            //the first result of the live query is traced, with the time spent converting it
+            Tracer.Span render = first ? span.arg("decoded", decoded).arg("decodeMillis", decodeNanos / 1_000_000.0).child("refreshMapFilters") : null;
+
+            //place the markers of the changed meetups that pass the category filters
+            refreshMapFilters();
+
+            if (first) {
+                render.end();
+                span.end();
+                first = false;
+                firstUpdateDelivered();
             }
-        });
+        }
+
+        @Override
+        public void onFailure() {
+            if (first) {
+                span.arg("failed", true).end();
+                first = false;
+                firstUpdateDelivered();
+            }
+
+            Toast.makeText(MenuActivity.this, "Failed to update the meet ups on the map", Toast.LENGTH_LONG).show();
+        }
     }
 
-    public void finishUpdatingMapMeetUps(List<DBDocument> documents) {
-        for (DBDocument doc : documents) {
-            doc.init(new RequestListener<DBDocument>() {
-                @Override
-                public void onSuccess(DBDocument document) {
-                    super.onSuccess(document);
-                    MeetUp newMeetUp = Helpers.convertDocToMeetUp(document);
-                    main.updateMapMeetUp(newMeetUp);
-                    showUpdatedMeetUp(newMeetUp);
+    private void removeMeetUpMarker(String meetUpID) {
+        Iterator<Marker> markerIterator = meetUpMarkerMap.keySet().iterator();
+        while (markerIterator.hasNext()) {
+            Marker m = markerIterator.next();
+
+            if (meetUpID.equals(meetUpMarkerMap.get(m).getId())) {
+                if (m.equals(currentlyOpenMarker)) {
+                    currentlyOpenMarker = null;
                 }
-            });
+
+                m.remove();
+                markerIterator.remove();
+                break;
+            }
         }
     }
 
-    private void showUpdatedMeetUp(MeetUp meetUp) {
-        if (!meetUpMarkerMap.values().contains(meetUp)) {
-            Marker marker = map.addMarker(createMarkerOptions(meetUp));
+    /**
+     * returns true if the inner bounds lie within the outer bounds
+     */
+    private static boolean contains(MapBounds outer, MapBounds inner) {
+        return outer != null
+                && inner.getBottomLeft().lat >= outer.getBottomLeft().lat
+                && inner.getBottomLeft().lon >= outer.getBottomLeft().lon
+                && inner.getTopRight().lat <= outer.getTopRight().lat
+                && inner.getTopRight().lon <= outer.getTopRight().lon;
+    }
+
+    /**
+     * returns the given bounds expanded by half of their size on every side, so that the map can
+     * be moved a bit without moving the live queries
+     */
+    private static MapBounds expand(MapBounds bounds) {
+        double lat = (bounds.getTopRight().lat - bounds.getBottomLeft().lat) * SUBSCRIBED_AREA_MARGIN;
+        double lon = (bounds.getTopRight().lon - bounds.getBottomLeft().lon) * SUBSCRIBED_AREA_MARGIN;
 
-            meetUpMarkerMap.put(marker, meetUp);
-        }
+        return new MapBounds(Math.max(-90, bounds.getBottomLeft().lat - lat), Math.max(-180, bounds.getBottomLeft().lon - lon),
+                Math.min(90, bounds.getTopRight().lat + lat), Math.min(180, bounds.getTopRight().lon + lon));
     }
 
     private void showUpdatedFriend(User friend) {
@@ -20,6 +20,7 @@ import com.bulbasaur.dat256.services.firebase.DBCollection;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
 import com.bulbasaur.dat256.services.firebase.Database;
 import com.bulbasaur.dat256.services.firebase.QueryFilter;
+import com.bulbasaur.dat256.services.firebase.ReadPolicy;
 import com.bulbasaur.dat256.services.firebase.RequestListener;
 import com.bulbasaur.dat256.viewmodel.utilities.Helpers;
 
@@ -29,6 +30,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.PREFETCH;
+
 /**
  * A simple {@link Fragment} subclass.
  */
@@ -101,32 +104,20 @@ public class DiscoverFragment extends Fragment {
         Database database = Database.getInstance();
         QueryFilter filter = new QueryFilter("featured", "=", true);
 
-        database.meetups().search(filter, new RequestListener<List<? extends DBDocument>>() {
+        // the sections are drawn from the local copy first and then replaced by the server result
+        database.meetups(PREFETCH).search(filter, ReadPolicy.CACHE_THEN_SERVER, new RequestListener<List<? extends DBDocument>>() {
             @Override
             public void onSuccess(List<? extends DBDocument> documents) {
                 super.onSuccess(documents);
-
-                List<String> ids = new ArrayList<>(documents.size());
-
-                for (DBDocument document : documents) {
-                    ids.add(document.id());
-                }
-
-                meetUpSectionFactory(fragment).createSection("Featured Meetups", ids);
+                meetUpSectionFactory(fragment).createSectionFromDocuments("Featured Meetups", documents);
             }
         });
 
-        database.users().search(filter, new RequestListener<List<? extends DBDocument>>() {
+        database.users(PREFETCH).search(filter, ReadPolicy.CACHE_THEN_SERVER, new RequestListener<List<? extends DBDocument>>() {
             @Override
             public void onSuccess(List<? extends DBDocument> documents) {
                 super.onSuccess(documents);
-                List<String> ids = new ArrayList<>(documents.size());
-
-                for (DBDocument document : documents) {
-                    ids.add(document.id());
-                }
-
-                userSectionFactory(fragment).createSection("Featured Users", ids);
+                userSectionFactory(fragment).createSectionFromDocuments("Featured Users", documents);
             }
         });
     }
@@ -139,7 +130,7 @@ public class DiscoverFragment extends Fragment {
         Database database = Database.getInstance();
 
         if (database.hasUser()) {
-            database.user(new RequestListener<DBDocument>() {
+            database.user(ReadPolicy.CACHE_THEN_SERVER, new RequestListener<DBDocument>() {
                 @Override
                 public void onSuccess(DBDocument object) {
                     super.onSuccess(object);
@@ -169,32 +160,39 @@ public class DiscoverFragment extends Fragment {
                 return;
             }
 
-            List<E> items = new ArrayList<>(ids.size());
-
-            for (String id: ids) {
-                collection.get(id, new RequestListener<DBDocument>() {
-                    @Override
-                    public void onSuccess(DBDocument document) {
-                        super.onSuccess(document);
-                        E item = convert(document);
-
-                        if (item != null) {
-                            items.add(item);
-                        }
-                        else {
-                            ids.remove(id);
-                        }
-
-                        if (items.isEmpty()) {
-                            // show error or do nothing
-                        }
-                        else if (items.size() == ids.size()) {
-                            addSection(fragment, title, items);
-                            fragment.refresh();
-                        }
-                    }
-                });
+            collection.getAll(ids, ReadPolicy.CACHE_THEN_SERVER, new RequestListener<List<? extends DBDocument>>() {
+                @Override
+                public void onSuccess(List<? extends DBDocument> documents) {
+                    super.onSuccess(documents);
+                    createSectionFromDocuments(title, documents);
+                }
+            });
+        }
+
+        // the documents are already loaded, e.g. the result of a search, so they are not fetched again
+        void createSectionFromDocuments(String title, List<? extends DBDocument> documents) {
+            if (title == null || documents == null) {
+                return;
+            }
+
+            List<E> items = new ArrayList<>(documents.size());
+
+            for (DBDocument document : documents) {
+                E item = document.isLoaded() ? convert(document) : null;
+
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+
+            // a section that is delivered again, e.g. by the server after the local copy, replaces
+            // the one that is shown
+            if (!items.isEmpty()) {
+                addSection(fragment, title, items);
+            } else {
+                fragment.removeSection(title);
             }
+            fragment.refresh();
         }
 
         abstract E convert(DBDocument document);
@@ -203,10 +201,12 @@ public class DiscoverFragment extends Fragment {
     }
 
     private SectionFactory<User> userSectionFactory(TabFragment fragment) {
-        return new SectionFactory<User>(Database.getInstance().users(), fragment) {
+        return new SectionFactory<User>(Database.getInstance().users(PREFETCH), fragment) {
             @Override
             User convert(DBDocument document) {
-                return Helpers.convertDocToUser(document);
+                User user = Helpers.convertDocToUser(document);
+                Main.getInstance().getSearchIndex().add(user);
+                return user;
             }
 
             @Override
@@ -217,10 +217,12 @@ public class DiscoverFragment extends Fragment {
     }
 
     private SectionFactory<MeetUp> meetUpSectionFactory(TabFragment fragment) {
-        return new SectionFactory<MeetUp>(Database.getInstance().meetups(), fragment) {
+        return new SectionFactory<MeetUp>(Database.getInstance().meetups(PREFETCH), fragment) {
             @Override
             MeetUp convert(DBDocument document) {
-                return Helpers.convertDocToMeetUp(document);
+                MeetUp meetUp = Helpers.convertDocToMeetUp(document);
+                Main.getInstance().getSearchIndex().add(meetUp);
+                return meetUp;
             }
 
             @Override
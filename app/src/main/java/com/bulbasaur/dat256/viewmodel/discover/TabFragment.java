@@ -50,7 +50,7 @@ public class TabFragment extends Fragment {
     }
 
     void meetUpSection(@NonNull String title, @NonNull List<MeetUp> meetUps) {
-        adapter.add(new Section<MeetUp>(title, meetUps) {
+        putSection(new Section<MeetUp>(title, meetUps) {
             @Override
             View inflate(MeetUp item) {
                 View view = getLayoutInflater().inflate(R.layout.activity_meetuplistobject, null);
@@ -75,7 +75,7 @@ public class TabFragment extends Fragment {
     }
 
     void userSection(@NonNull String title, @NonNull List<User> users) {
-        adapter.add(new Section<User>(title, users) {
+        putSection(new Section<User>(title, users) {
             @Override
             View inflate(User item) {
                 View view = getLayoutInflater().inflate(R.layout.activity_meetuplistobject, null);
@@ -99,6 +99,28 @@ public class TabFragment extends Fragment {
         });
     }
 
+    void removeSection(@NonNull String title) {
+        for (int i = 0; i < adapter.getCount(); i++) {
+            if (title.equals(adapter.getItem(i).getTitle())) {
+                adapter.remove(adapter.getItem(i));
+                return;
+            }
+        }
+    }
+
+    // a section replaces the section with the same title, in the same place
+    private void putSection(Section<?> section) {
+        for (int i = 0; i < adapter.getCount(); i++) {
+            if (section.getTitle().equals(adapter.getItem(i).getTitle())) {
+                adapter.remove(adapter.getItem(i));
+                adapter.insert(section, i);
+                return;
+            }
+        }
+
+        adapter.add(section);
+    }
+
     public void setOnUpdateListener(OnUpdateListener onUpdateListener) {
         this.onUpdateListener = onUpdateListener;
     }
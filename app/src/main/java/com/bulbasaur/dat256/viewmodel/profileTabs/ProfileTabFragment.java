@@ -14,6 +14,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.bulbasaur.dat256.R;
+import com.bulbasaur.dat256.model.Main;
 import com.bulbasaur.dat256.model.MeetUp;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
 import com.bulbasaur.dat256.services.firebase.Database;
@@ -46,21 +47,20 @@ public class ProfileTabFragment extends Fragment {
         adapter = new ProfileListAdapter(getContext(), muList);
         list.setAdapter(adapter);
 
-        for (String id : meetups) {
-            Database.getInstance().meetups().get(id, new RequestListener<DBDocument>(true) {
-                @Override
-                public void onSuccess(DBDocument object) {
-                    super.onSuccess(object);
-                    MeetUp mu = Helpers.convertDocToMeetUp(object);
-                    muList.add(mu);
-                    System.out.println("" + muList.size());
-                    System.out.println("" + meetups.size());
-                    if(muList.size() == meetups.size()){
-                        adapter.notifyDataSetInvalidated();
+        Database.getInstance().meetups().getAll(meetups, new RequestListener<List<? extends DBDocument>>(true) {
+            @Override
+            public void onSuccess(List<? extends DBDocument> documents) {
+                super.onSuccess(documents);
+                for (DBDocument document : documents) {
+                    MeetUp mu = document.isLoaded() ? Helpers.convertDocToMeetUp(document) : null;
+                    if (mu != null) {
+                        muList.add(mu);
+                        Main.getInstance().getSearchIndex().add(mu);
                     }
                 }
-            });
-        }
+                adapter.notifyDataSetChanged();
+            }
+        });
 
         return view;
     }
@@ -13,22 +13,21 @@ import android.view.MenuItem;
 import android.widget.Toast;
 
 import com.bulbasaur.dat256.R;
-import com.bulbasaur.dat256.model.Coordinates;
 import com.bulbasaur.dat256.model.Main;
 import com.bulbasaur.dat256.model.MeetUp;
 import com.bulbasaur.dat256.model.User;
+import com.bulbasaur.dat256.services.firebase.DBBatch;
 import com.bulbasaur.dat256.services.firebase.DBCollection;
 import com.bulbasaur.dat256.services.firebase.DBDocument;
 import com.bulbasaur.dat256.services.firebase.Database;
+import com.bulbasaur.dat256.services.firebase.MeetUpCodec;
 import com.bulbasaur.dat256.services.firebase.RequestListener;
+import com.bulbasaur.dat256.services.firebase.UserCodec;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -55,89 +54,11 @@ public class Helpers {
     }
 
     public static MeetUp convertDocToMeetUp(DBDocument meetUpDoc) {
-        String id = meetUpDoc.id();
-        String creatorID = (String) meetUpDoc.get("creator");
-        if (creatorID == null) creatorID = "null";
-        String name = (String) meetUpDoc.get("name");
-        Double coord_lat = (Double) meetUpDoc.get("coord_lat");
-        Double coord_lon = (Double) meetUpDoc.get("coord_lon");
-        String description = (String) meetUpDoc.get("description");
-        MeetUp.Categories category = MeetUp.getCategoryFromString((String) meetUpDoc.get("category"));
-        Long maxAttendees = (Long) meetUpDoc.get("maxattendees");
-        Calendar startDate = MeetUp.getDateFromHashMap((HashMap<String, Object>) meetUpDoc.get("startdate"));
-        Calendar endDate = MeetUp.getDateFromHashMap((HashMap<String, Object>) meetUpDoc.get("enddate"));
-        List<String> joinedUsers = (List<String>) meetUpDoc.get("joinedusers");
-        if (joinedUsers == null) joinedUsers = new ArrayList<>();
-
-        List<String> attendingUsers = (List<String>) meetUpDoc.get("attendingusers");
-        if (attendingUsers == null) attendingUsers = new ArrayList<>();
-
-        MeetUp.Visibility visibility = MeetUp.getVisibilityFromString((String) meetUpDoc.get("visibility"));
-
-        if (id == null || name == null || coord_lat == null || coord_lon == null
-                || description == null || category == null || maxAttendees == null || startDate == null || endDate == null) {
-            return null;
-        }
-
-        return new MeetUp(id, creatorID, name, new Coordinates(coord_lat, coord_lon), description, category,
-                maxAttendees, startDate, endDate, visibility, joinedUsers, attendingUsers);
+        return MeetUpCodec.getInstance().decode(meetUpDoc);
     }
 
-
-    public static User convertDocToUser(DBDocument userDoc){
-        String id = userDoc.id();
-        String firstName = (String)userDoc.get("firstname");
-        String lastName = (String)userDoc.get("lastname");
-        String phoneNmbr = (String)userDoc.get("phone");
-        Number score = (Number) userDoc.get("score");
-        List<String> friends = (List<String>) userDoc.get("friends");
-        List<String> createdMeetUps =  (List<String>)userDoc.get("created meetups");
-        List<String> joinedMeetUps =  (List<String>)userDoc.get("joined meetups");
-
-        Number coord_lat = (Number) userDoc.get("coord_lat");
-        Number coord_lon = (Number) userDoc.get("coord_lon");
-
-        Coordinates coord = (coord_lat == null || coord_lon == null) ? null : new Coordinates(coord_lat.doubleValue(), coord_lon.doubleValue());
-
-        //Coordinates coord = new Coordinates(coord_lat.doubleValue(), coord_lon.doubleValue());
-        if(id == null || firstName == null || lastName == null || phoneNmbr == null || coord == null){
-            return  null;
-        }
-
-        User friend = new User(id);
-        friend.setFirstName(firstName);
-        friend.setLastName(lastName);
-        friend.setPhoneNumber(phoneNmbr);
-        friend.setCoordinates(coord);
-        for (String f : friends) {
-            friend.addFriend(f);
-        }
-        if(score == null) {
-            friend.setScore(0);
-        } else {
-            friend.setScore(score.intValue());
-        }
-
-        if(joinedMeetUps != null) {
-            if (!joinedMeetUps.isEmpty()) {
-                for (String joinedMUID : joinedMeetUps) {
-                    if (!joinedMUID.equals(null)) {
-                        friend.addJoinedMeetUp(joinedMUID);
-                    }
-                }
-            }
-        }
-
-        if(createdMeetUps != null){
-            if(!createdMeetUps.isEmpty()) {
-                for (String createdMUID : createdMeetUps) {
-                    if (!createdMUID.equals(null)) {
-                        friend.addCreatedMeetUp(createdMUID);
-                    }
-                }
-            }
-        }
-        return friend;
+    public static User convertDocToUser(DBDocument userDoc) {
+        return UserCodec.getInstance().decode(userDoc);
     }
 
     /**
@@ -163,17 +84,10 @@ public class Helpers {
 
         collection.get(id, new RequestListener<DBDocument>() {
             @Override
-            public void onSuccess(DBDocument emptyDoc) {
-                super.onSuccess(emptyDoc);
-
-                emptyDoc.init(new RequestListener<DBDocument>() {
-                    @Override
-                    public void onSuccess(DBDocument document) {
-                        super.onSuccess(document);
+            public void onSuccess(DBDocument document) {
+                super.onSuccess(document);
 
-                        action.perform(document);
-                    }
-                });
+                action.perform(document);
             }
         });
     }
@@ -200,6 +114,22 @@ public class Helpers {
         });
     }
 
+    public static void addToArrayField(DBCollection collection, String id, String field, Object value, DocumentAction action) {
+        if (collection == null) return;
+
+        DBDocument document = collection.create(id);
+        document.arrayUnion(field, value);
+
+        document.save(new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument document) {
+                super.onSuccess(document);
+
+                action.perform(document);
+            }
+        });
+    }
+
     public static void logIn(Activity activity, DBDocument document) {
         Main.getInstance().logIn(convertDocToUser(document));//todo set other user attributes from database here
 
@@ -230,7 +160,7 @@ public class Helpers {
     public static void joinMeetUp(Context context, MeetUp meetUp, String userID, SimpleAction successCallback) {
         if (!meetUp.alreadyJoined(userID)) {
             meetUp.joinMeetup(userID);
-            Helpers.saveField(Database.getInstance().meetups(), meetUp.getId(), "joinedusers", meetUp.getJoinedUsers(), document -> {
+            Helpers.addToArrayField(Database.getInstance().meetups(), meetUp.getId(), "joinedusers", userID, document -> {
                 Toast.makeText(context, "Joined " + meetUp.getName(), Toast.LENGTH_LONG).show();
                 successCallback.perform();
             });
@@ -256,9 +186,7 @@ public class Helpers {
 
     private static void attendMeetUp(Context context, MeetUp meetUp, User user) {
         if (!meetUp.alreadyAttendedBy(user.getId())) {
-            List<String> tempAttending = new ArrayList<>(meetUp.getAttendingUsers());
-            tempAttending.add(user.getId());
-            Helpers.saveField(Database.getInstance().meetups(), meetUp.getId(), "attendingusers", tempAttending, document -> {
+            Helpers.addToArrayField(Database.getInstance().meetups(), meetUp.getId(), "attendingusers", user.getId(), document -> {
                 Toast.makeText(context, "You are now on the attendance list for " + meetUp.getName(), Toast.LENGTH_LONG).show();
                 int meetUpIndexInMain = Main.getInstance().getMeetUpsWithinMapView().indexOf(meetUp);
                 if (meetUpIndexInMain != -1) {
@@ -271,27 +199,25 @@ public class Helpers {
 
     public static void addFriend(Context context, User currentUser, String friendToAddID, SimpleAction callback) {
         if (!currentUser.hasFriend(friendToAddID)) {
-            List<String> tempFriends = new ArrayList<>(currentUser.getFriends());
-            tempFriends.add(friendToAddID);
-            Helpers.saveField(Database.getInstance().users(), currentUser.getId(), "friends", tempFriends, document -> {
-                addBack(context, currentUser, friendToAddID, callback);
-            });
-        }
-    }
+            DBCollection users = Database.getInstance().users();
+
+            DBDocument currentUserDoc = users.create(currentUser.getId());
+            currentUserDoc.arrayUnion("friends", friendToAddID);
+
+            DBDocument friendDoc = users.create(friendToAddID);
+            friendDoc.arrayUnion("friends", currentUser.getId());
 
-    private static void addBack(Context context, User currentUser, String friendToAddID, SimpleAction callback) {
-        retrieveDocumentAndPerformAction(Database.getInstance().users(), friendToAddID, document -> {
-            List<String> newFriendFriends = (List<String>) document.get("friends");
+            Database.getInstance().batch().save(currentUserDoc).save(friendDoc).commit(new RequestListener<DBBatch>() {
+                @Override
+                public void onSuccess(DBBatch batch) {
+                    super.onSuccess(batch);
 
-            if (newFriendFriends != null) {
-                newFriendFriends.add(currentUser.getId());
-                Helpers.saveField(Database.getInstance().users(), friendToAddID, "friends", newFriendFriends, document1 -> {
                     Toast.makeText(context, "Added friend with ID " + friendToAddID, Toast.LENGTH_LONG).show();
                     currentUser.addFriend(friendToAddID);
                     callback.perform();
-                });
-            }
-        });
+                }
+            });
+        }
     }
 
     public static boolean isLoggedIn() {
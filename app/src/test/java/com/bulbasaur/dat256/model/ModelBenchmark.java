@@ -0,0 +1,132 @@
+package com.bulbasaur.dat256.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of the model code that runs on every pan of the map (Main.removeOldMeetUps and
+ * removeFriends, Coordinates.convertToNSEW) and of the sorting of the list of meetups, with
+ * the given number of meetups and friends on the map. the methods that change their list work
+ * on a fresh copy each time, copyOnly measures the copy. run with ./gradlew :app:benchmark,
+ * which also reports the allocation rate, it is not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private List<MeetUp> meetUps;
+    private List<User> friends;
+    private MapBounds bounds;
+    private double[] coordinates;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        meetUps = new ArrayList<>(size);
+        friends = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            // spread over twice the map view, so about a quarter of them stay on the map
+            Coordinates coordinates = new Coordinates(57.6 + random.nextDouble() * 0.2, 11.9 + random.nextDouble() * 0.2);
+
+            Calendar start = Calendar.getInstance();
+            start.add(Calendar.MINUTE, random.nextInt(60 * 24 * 30));
+            Calendar end = (Calendar) start.clone();
+            end.add(Calendar.HOUR, 2);
+
+            meetUps.add(new MeetUp("meetup" + i, "user" + i, "Meetup " + random.nextInt(size), coordinates,
+                    "description " + i, MeetUp.Categories.values()[i % MeetUp.Categories.values().length], 20,
+                    start, end, MeetUp.Visibility.PUBLIC, new ArrayList<>(), new ArrayList<>()));
+
+            User friend = new User("user" + i);
+            friend.setCoordinates(coordinates);
+            friends.add(friend);
+        }
+
+        bounds = new MapBounds(57.65, 11.95, 57.75, 12.05);
+
+        coordinates = new double[size];
+        for (int i = 0; i < size; i++) {
+            coordinates[i] = (random.nextDouble() - 0.5) * 360;
+        }
+    }
+
+    private Main mainWithCopies() {
+        Main main = new Main();
+        main.getMeetUpsWithinMapView().addAll(meetUps);
+        main.getFriendsWithinMapView().addAll(friends);
+        return main;
+    }
+
+    @Benchmark
+    public Main copyOnly() {
+        return mainWithCopies();
+    }
+
+    @Benchmark
+    public Main removeOldMeetUps() {
+        Main main = mainWithCopies();
+        main.removeOldMeetUps(bounds);
+        return main;
+    }
+
+    @Benchmark
+    public Main removeFriends() {
+        Main main = mainWithCopies();
+        main.removeFriends(bounds);
+        return main;
+    }
+
+    @Benchmark
+    public void convertToNSEW(Blackhole blackhole) {
+        for (int i = 0; i < coordinates.length; i++) {
+            blackhole.consume(Coordinates.convertToNSEW((i & 1) == 0, coordinates[i], (char) 2));
+        }
+    }
+
+    @Benchmark
+    public List<MeetUp> sortByName() {
+        List<MeetUp> sorted = new ArrayList<>(meetUps);
+        Collections.sort(sorted, MeetUp.NAME_ORDER);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<MeetUp> sortByStart() {
+        List<MeetUp> sorted = new ArrayList<>(meetUps);
+        Collections.sort(sorted, MeetUp.START_ORDER);
+        return sorted;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ModelBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,66 @@
+package com.bulbasaur.dat256.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * time of one keystroke in the search bar of the map, i.e. one SearchIndex.search, on a full
+ * index of SearchIndex.MAX_ENTRIES meetups. the queries are a short prefix that matches many
+ * entries, a longer one, two words, and a typo that is matched by trigrams. a keystroke should
+ * take well under 10 ms to keep up with typing. run with ./gradlew :app:benchmark, it is not a
+ * unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchIndexBenchmark {
+
+    private static final String[] WORDS = {"padel", "football", "fika", "brunch", "chess", "quiz", "party", "study", "running", "climbing"};
+    private static final MapBounds GOTHENBURG = new MapBounds(57.69, 11.95, 57.72, 12.00);
+
+    @Param({"f", "footb", "football pad", "fotball"})
+    public String query;
+
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        index = new SearchIndex();
+
+        for (int i = 0; i < SearchIndex.MAX_ENTRIES; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i;
+            Coordinates coordinates = new Coordinates(57 + random.nextDouble() * 3, 11 + random.nextDouble() * 7);
+            index.add(new MeetUp("m" + i, "creator", name, coordinates, "bring a friend and " + WORDS[random.nextInt(WORDS.length)]));
+        }
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> keystroke() {
+        return index.search(query, GOTHENBURG, 8);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchIndexBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,89 @@
+package com.bulbasaur.dat256.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SearchIndexTest {
+
+    private static final MapBounds GOTHENBURG = new MapBounds(57.69, 11.95, 57.72, 12.00);
+
+    private SearchIndex index;
+
+    private static MeetUp meetUp(String id, String name, String description, double lat, double lon) {
+        return new MeetUp(id, "creator", name, new Coordinates(lat, lon), description);
+    }
+
+    private static User user(String id, String firstName, String lastName, double lat, double lon) {
+        User user = new User(id);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setCoordinates(new Coordinates(lat, lon));
+        return user;
+    }
+
+    @Before
+    public void setUp() {
+        index = new SearchIndex();
+        index.add(meetUp("stockholm", "Padel at the harbour", "bring a racket", 59.33, 18.07));
+        index.add(meetUp("gothenburg", "Padel in Gbg", "bring a racket", 57.70, 11.97));
+        index.add(meetUp("football", "Sunday football", "at Heden", 57.70, 11.98));
+        index.add(meetUp("fika", "Fika på Café", "with a paddle boat tour", 57.71, 11.96));
+        index.add(user("anna", "Anna", "Padelsson", 55.60, 13.00));
+    }
+
+    @Test
+    public void wordsMatchTheStartOfWords() {
+        List<SearchIndex.Hit> hits = index.search("pad gbg", GOTHENBURG, 10);
+        assertEquals(1, hits.size());
+        assertEquals("Padel in Gbg", hits.get(0).getTitle());
+
+        assertEquals(1, index.search("CAFE", GOTHENBURG, 10).size());
+        assertEquals(0, index.search("", GOTHENBURG, 10).size());
+    }
+
+    @Test
+    public void hitsWithinTheViewComeFirstThenTheClosest() {
+        List<SearchIndex.Hit> hits = index.search("pad", GOTHENBURG, 10);
+
+        // the names within the view before the description within it, then by distance
+        assertEquals("Padel in Gbg", hits.get(0).getTitle());
+        assertEquals("Fika på Café", hits.get(1).getTitle());
+        assertEquals("Anna Padelsson", hits.get(2).getTitle());
+        assertEquals("Padel at the harbour", hits.get(3).getTitle());
+        assertEquals(0, hits.get(0).getDistanceKm(), 0);
+        assertTrue(hits.get(2).getDistanceKm() < hits.get(3).getDistanceKm());
+        assertNull(hits.get(2).getMeetUp());
+    }
+
+    @Test
+    public void wordsWithinWordsAndTyposMatchByTrigrams() {
+        assertEquals("Sunday football", index.search("ball", GOTHENBURG, 10).get(0).getTitle());
+        assertEquals("Sunday football", index.search("fotball", GOTHENBURG, 10).get(0).getTitle());
+    }
+
+    @Test
+    public void updatedEntriesAreReindexed() {
+        index.add(meetUp("football", "Sunday frisbee", "at Heden", 57.70, 11.98));
+
+        assertEquals(0, index.search("football", GOTHENBURG, 10).size());
+        assertEquals(1, index.search("frisbee", GOTHENBURG, 10).size());
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void theOldestEntriesAreDroppedWhenFull() {
+        for (int i = 0; i < SearchIndex.MAX_ENTRIES; i++) {
+            index.add(meetUp("m" + i, "Quiz " + i, null, 57.70, 11.97));
+        }
+
+        assertEquals(SearchIndex.MAX_ENTRIES, index.size());
+        assertEquals(0, index.search("padel", GOTHENBURG, 10).size());
+        assertEquals("Quiz 0", index.search("quiz 0", GOTHENBURG, 10).get(0).getTitle());
+    }
+}
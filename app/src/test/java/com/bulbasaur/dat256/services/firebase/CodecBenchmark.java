@@ -0,0 +1,201 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.model.User;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * decode throughput of the codecs compared to the field-by-field conversion that Helpers used
+ * before them, on documents of the in-memory database. run with the main method or the jmh
+ * runner, it is not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final int DOCUMENTS = 200;
+
+    private List<DBDocument> meetUps;
+    private List<DBDocument> users;
+
+    @Setup
+    public void setUp() {
+        MemoryProvider memory = new MemoryProvider();
+        DBCollection meetUpCollection = memory.collection("meetups");
+        DBCollection userCollection = memory.collection("users");
+        meetUps = new ArrayList<>();
+        users = new ArrayList<>();
+
+        for (int i = 0; i < DOCUMENTS; i++) {
+            List<String> members = new ArrayList<>();
+            for (int j = 0; j < i % 50; j++) {
+                members.add("user" + j);
+            }
+
+            Calendar start = Calendar.getInstance();
+            Calendar end = Calendar.getInstance();
+            end.add(Calendar.HOUR, 2);
+
+            DBDocument meetUp = meetUpCollection.create("meetup" + i);
+            MeetUpCodec.getInstance().encode(new MeetUp("meetup" + i, "user" + i, "meetup " + i,
+                    new Coordinates(57.7 + i * 1e-4, 11.97 - i * 1e-4), "description of meetup " + i,
+                    MeetUp.Categories.values()[i % MeetUp.Categories.values().length], 20, start, end,
+                    i % 2 == 0 ? MeetUp.Visibility.PUBLIC : MeetUp.Visibility.FRIENDS,
+                    new ArrayList<>(), new ArrayList<>()), meetUp);
+            meetUp.set("joinedusers", members);
+            meetUp.save(new RequestListener<>());
+            meetUps.add(meetUpCollection.get(meetUp.id(), new RequestListener<>()));
+
+            DBDocument user = userCollection.create("user" + i);
+            user.set("firstname", "first" + i);
+            user.set("lastname", "last" + i);
+            user.set("phone", "+4670000" + i);
+            user.set("coord_lat", 57.7 + i * 1e-4);
+            user.set("coord_lon", 11.97);
+            user.set("score", i);
+            user.set("friends", members);
+            user.set("created meetups", Arrays.asList("meetup" + i));
+            user.set("joined meetups", Arrays.asList("meetup" + (i + 1)));
+            user.save(new RequestListener<>());
+            users.add(userCollection.get(user.id(), new RequestListener<>()));
+        }
+    }
+
+    @Benchmark
+    public void meetUpCodec(Blackhole blackhole) {
+        for (DBDocument document : meetUps) {
+            blackhole.consume(MeetUpCodec.getInstance().decode(document));
+        }
+    }
+
+    @Benchmark
+    public void meetUpFieldByField(Blackhole blackhole) {
+        for (DBDocument document : meetUps) {
+            blackhole.consume(fieldByFieldMeetUp(document));
+        }
+    }
+
+    @Benchmark
+    public void userCodec(Blackhole blackhole) {
+        for (DBDocument document : users) {
+            blackhole.consume(UserCodec.getInstance().decode(document));
+        }
+    }
+
+    @Benchmark
+    public void userFieldByField(Blackhole blackhole) {
+        for (DBDocument document : users) {
+            blackhole.consume(fieldByFieldUser(document));
+        }
+    }
+
+    /**
+     * the conversion of Helpers.convertDocToMeetUp before the codecs, kept as the baseline
+     */
+    @SuppressWarnings("unchecked")
+    static MeetUp fieldByFieldMeetUp(DBDocument meetUpDoc) {
+        String id = meetUpDoc.id();
+        String creatorID = (String) meetUpDoc.get("creator");
+        if (creatorID == null) creatorID = "null";
+        String name = (String) meetUpDoc.get("name");
+        Double coord_lat = (Double) meetUpDoc.get("coord_lat");
+        Double coord_lon = (Double) meetUpDoc.get("coord_lon");
+        String description = (String) meetUpDoc.get("description");
+        MeetUp.Categories category = MeetUp.getCategoryFromString((String) meetUpDoc.get("category"));
+        Long maxAttendees = (Long) meetUpDoc.get("maxattendees");
+        Calendar startDate = MeetUp.getDateFromHashMap((HashMap<String, Object>) meetUpDoc.get("startdate"));
+        Calendar endDate = MeetUp.getDateFromHashMap((HashMap<String, Object>) meetUpDoc.get("enddate"));
+        List<String> joinedUsers = (List<String>) meetUpDoc.get("joinedusers");
+        if (joinedUsers == null) joinedUsers = new ArrayList<>();
+
+        List<String> attendingUsers = (List<String>) meetUpDoc.get("attendingusers");
+        if (attendingUsers == null) attendingUsers = new ArrayList<>();
+
+        MeetUp.Visibility visibility = MeetUp.getVisibilityFromString((String) meetUpDoc.get("visibility"));
+
+        if (id == null || name == null || coord_lat == null || coord_lon == null
+                || description == null || category == null || maxAttendees == null || startDate == null || endDate == null) {
+            return null;
+        }
+
+        return new MeetUp(id, creatorID, name, new Coordinates(coord_lat, coord_lon), description, category,
+                maxAttendees, startDate, endDate, visibility, joinedUsers, attendingUsers);
+    }
+
+    /**
+     * the conversion of Helpers.convertDocToUser before the codecs, kept as the baseline
+     */
+    @SuppressWarnings("unchecked")
+    static User fieldByFieldUser(DBDocument userDoc) {
+        String id = userDoc.id();
+        String firstName = (String) userDoc.get("firstname");
+        String lastName = (String) userDoc.get("lastname");
+        String phoneNmbr = (String) userDoc.get("phone");
+        Number score = (Number) userDoc.get("score");
+        List<String> friends = (List<String>) userDoc.get("friends");
+        List<String> createdMeetUps = (List<String>) userDoc.get("created meetups");
+        List<String> joinedMeetUps = (List<String>) userDoc.get("joined meetups");
+
+        Number coord_lat = (Number) userDoc.get("coord_lat");
+        Number coord_lon = (Number) userDoc.get("coord_lon");
+
+        Coordinates coord = (coord_lat == null || coord_lon == null) ? null : new Coordinates(coord_lat.doubleValue(), coord_lon.doubleValue());
+
+        if (id == null || firstName == null || lastName == null || phoneNmbr == null || coord == null) {
+            return null;
+        }
+
+        User friend = new User(id);
+        friend.setFirstName(firstName);
+        friend.setLastName(lastName);
+        friend.setPhoneNumber(phoneNmbr);
+        friend.setCoordinates(coord);
+        for (String f : friends) {
+            friend.addFriend(f);
+        }
+        friend.setScore(score == null ? 0 : score.intValue());
+
+        if (joinedMeetUps != null) {
+            for (String joinedMUID : joinedMeetUps) {
+                friend.addJoinedMeetUp(joinedMUID);
+            }
+        }
+
+        if (createdMeetUps != null) {
+            for (String createdMUID : createdMeetUps) {
+                friend.addCreatedMeetUp(createdMUID);
+            }
+        }
+        return friend;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DBBatchTest {
+
+    private MemoryProvider memory;
+    private CachingProvider provider;
+    private DBCollection users;
+
+    @Before
+    public void setUp() {
+        memory = new MemoryProvider();
+        provider = new CachingProvider(memory);
+        users = provider.collection("users");
+
+        for (String id : Arrays.asList("anna", "bert")) {
+            DBDocument user = users.create(id);
+            user.set("friends", Collections.emptyList());
+            user.save(new RequestListener<>());
+        }
+
+        memory.resetCounters();
+    }
+
+    private static List<?> friends(DBDocument user) {
+        return (List<?>) user.get("friends");
+    }
+
+    @Test
+    public void commitsAllWritesInOneRequest() {
+        DBDocument anna = users.create("anna");
+        anna.arrayUnion("friends", "bert");
+        DBDocument bert = users.create("bert");
+        bert.arrayUnion("friends", "anna");
+
+        provider.batch().save(anna).save(bert).commit(new RequestListener<>());
+
+        assertEquals(1, memory.requests());
+        assertEquals(2, memory.writes());
+        assertEquals(Collections.singletonList("bert"), friends(users.get("anna", new RequestListener<>())));
+        assertEquals(Collections.singletonList("anna"), friends(users.get("bert", new RequestListener<>())));
+    }
+
+    @Test
+    public void failedBatchWritesNothing() {
+        DBDocument anna = users.create("anna");
+        anna.arrayUnion("friends", "missing");
+        DBDocument missing = users.create("missing");
+        missing.arrayUnion("friends", "anna");
+
+        boolean[] failed = new boolean[1];
+        provider.batch().save(anna).save(missing).commit(new RequestListener<DBBatch>() {
+            @Override
+            public void onFailure(DBBatch object) {
+                failed[0] = true;
+            }
+        });
+
+        assertTrue(failed[0]);
+        assertEquals(0, memory.writes());
+        assertTrue(friends(users.get("anna", new RequestListener<>())).isEmpty());
+
+        users.create("missing").overwrite(new RequestListener<>());
+        provider.batch().save(anna).save(missing).commit(new RequestListener<>());
+        assertEquals(Collections.singletonList("missing"), friends(users.get("anna", new RequestListener<>())));
+    }
+
+    @Test
+    public void transactionReadsAndWrites() {
+        for (int i = 0; i < 3; i++) {
+            provider.runTransaction(transaction -> {
+                DBDocument anna = transaction.get(users, "anna");
+                Object count = anna.get("count");
+                anna.set("count", count == null ? 1L : (Long) count + 1);
+                transaction.save(anna);
+            }, new RequestListener<>());
+        }
+
+        assertEquals(3L, users.get("anna", new RequestListener<>()).get("count"));
+
+        boolean[] failed = new boolean[1];
+        provider.runTransaction(transaction -> {
+            DBDocument anna = transaction.get(users, "anna");
+            anna.set("count", 0L);
+            transaction.save(anna);
+            throw new IllegalStateException("abort");
+        }, new RequestListener<DBTransaction>() {
+            @Override
+            public void onFailure(DBTransaction object) {
+                failed[0] = true;
+            }
+        });
+
+        assertTrue(failed[0]);
+        assertEquals(3L, users.get("anna", new RequestListener<>()).get("count"));
+    }
+}
@@ -0,0 +1,117 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.model.User;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DBCodecTest {
+
+    private final DBCollection meetUps = new MemoryProvider().collection("meetups");
+
+    @Test
+    public void meetUpRoundTrip() {
+        Calendar start = Calendar.getInstance();
+        Calendar end = Calendar.getInstance();
+        end.add(Calendar.HOUR, 2);
+
+        DBDocument document = meetUps.create("fika");
+        MeetUpCodec.getInstance().encode(new MeetUp("fika", "anna", "fika", new Coordinates(57.7, 11.97), "coffee",
+                MeetUp.Categories.FOOD, 5, start, end, MeetUp.Visibility.FRIENDS, new ArrayList<>(),
+                Collections.singletonList("bert")), document);
+        document.save(new RequestListener<>());
+
+        DBDocument loaded = meetUps.get("fika", new RequestListener<>());
+        MeetUp meetUp = MeetUpCodec.getInstance().decode(loaded);
+
+        assertEquals("anna", meetUp.getCreatorID());
+        assertEquals(57.7, meetUp.getLatitude(), 0);
+        assertEquals(MeetUp.Categories.FOOD, meetUp.getCategory());
+        assertEquals(MeetUp.Visibility.FRIENDS, meetUp.getVisibility());
+        assertEquals(5, meetUp.getMaxAttendees());
+        assertEquals(end.getTimeInMillis(), meetUp.getEnd().getTimeInMillis());
+        assertEquals(Collections.singletonList("bert"), meetUp.getAttendingUsers());
+        assertEquals(0, meetUp.getJoinedUsers().size());
+
+        // the conversion of the old helpers reads the same document
+        MeetUp old = CodecBenchmark.fieldByFieldMeetUp(loaded);
+        assertEquals(old.getName(), meetUp.getName());
+        assertEquals(old.getStart().getTimeInMillis(), meetUp.getStart().getTimeInMillis());
+
+        loaded.remove("startdate");
+        assertNull(MeetUpCodec.getInstance().decode(loaded));
+    }
+
+    @Test
+    public void summaryOfPopularMeetUp() {
+        DBCollection summaries = new MemoryProvider().collection("meetup-summaries");
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            description.append("a long description ");
+        }
+        Calendar start = Calendar.getInstance();
+
+        MeetUp popular = new MeetUp("party", "anna", "party", new Coordinates(57.7, 11.97), description.toString(),
+                MeetUp.Categories.PARTY, 1000, start, start, MeetUp.Visibility.PUBLIC, new ArrayList<>(), new ArrayList<>());
+        for (int i = 0; i < 500; i++) {
+            popular.joinMeetup("user" + i);
+            popular.attendMeetUp("user" + i);
+        }
+
+        DBDocument full = meetUps.create("party");
+        MeetUpCodec.getInstance().encode(popular, full);
+        full.set("joinedusers", popular.getJoinedUsers());
+        full.save(new RequestListener<>());
+
+        DBDocument summary = summaries.create("party");
+        MeetUpSummaryCodec.getInstance().encode(popular, summary);
+        summary.save(new RequestListener<>());
+
+        MeetUp decoded = MeetUpSummaryCodec.getInstance().decode(summaries.get("party", new RequestListener<>()));
+        assertTrue(decoded.isSummary());
+        assertEquals(MeetUp.Visibility.PUBLIC, decoded.getVisibility());
+        assertEquals(start.getTimeInMillis(), decoded.getStart().getTimeInMillis());
+        assertEquals(MeetUpSummaryCodec.PREVIEW_LENGTH, decoded.getDescription().length());
+
+        int fullSize = size(meetUps.get("party", new RequestListener<>()));
+        int summarySize = size(summaries.get("party", new RequestListener<>()));
+        assertTrue(fullSize + " vs " + summarySize, summarySize * 10 < fullSize);
+    }
+
+    private static int size(DBDocument document) {
+        int[] size = new int[1];
+        document.forEach((field, value) -> size[0] += field.length() + String.valueOf(value).length());
+        return size[0];
+    }
+
+    @Test
+    public void userWithoutFriends() {
+        DBCollection users = new MemoryProvider().collection("users");
+        DBDocument document = users.create("anna");
+        User anna = new User("anna");
+        anna.setFirstName("Anna");
+        anna.setLastName("Svensson");
+        anna.setPhoneNumber("+46700000000");
+        anna.setCoordinates(new Coordinates(57.7, 11.97));
+        UserCodec.getInstance().encode(anna, document);
+        document.set("joined meetups", Arrays.asList("fika"));
+        document.save(new RequestListener<>());
+
+        User user = UserCodec.getInstance().decode(users.get("anna", new RequestListener<>()));
+
+        assertEquals("Svensson", user.getLastName());
+        assertEquals("0", user.getScore());
+        assertEquals(0, user.getFriends().size());
+        assertEquals(Collections.singletonList("fika"), user.getJoinedMeetUps());
+    }
+}
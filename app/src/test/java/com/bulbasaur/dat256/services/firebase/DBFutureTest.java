@@ -0,0 +1,70 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DBFutureTest {
+
+    @Test
+    public void independentRequestsRunConcurrently() throws Exception {
+        List<Runnable> callbacks = new ArrayList<>();
+        MemoryProvider memory = new MemoryProvider(callbacks::add);
+        DBCollection users = memory.collection("users");
+        for (String id : Arrays.asList("anna", "bert")) {
+            DBDocument user = users.create(id);
+            user.set("name", id);
+            user.save(new RequestListener<>());
+        }
+        callbacks.clear();
+
+        List<CompletableFuture<DBDocument>> futures = new ArrayList<>();
+        for (String id : Arrays.asList("bert", "missing", "anna")) {
+            futures.add(DBFuture.of(listener -> users.get(id, listener)));
+        }
+        CompletableFuture<List<DBDocument>> all = DBFuture.all(futures);
+
+        // all requests have been made before any of them has delivered its result
+        assertEquals(3, callbacks.size());
+        assertFalse(all.isDone());
+
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+
+        List<DBDocument> documents = all.get();
+        assertEquals("bert", documents.get(0).get("name"));
+        assertFalse(documents.get(1).isLoaded());
+        assertEquals("anna", documents.get(2).get("name"));
+    }
+
+    @Test
+    public void failureAndTimeout() throws Exception {
+        CompletableFuture<String> failed = DBFuture.of(listener -> listener.onFailure("x"));
+        try {
+            failed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DBFuture.FailureException);
+        }
+
+        CompletableFuture<String> never = DBFuture.of(listener -> {});
+        try {
+            DBFuture.timeout(never, 20, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * @author ludwighultqvist
+ * class that fills a database with synthetic users and meetups of the same shape as the ones of
+ * the app, so that the map can be loaded with 10k, 100k or 1M documents without the shared
+ * Firestore project, e.g.
+ * DatasetGenerator.Dataset dataset = new DatasetGenerator(1).generate(new MemoryProvider(), 100_000, 100_000);
+ *
+ * the users live in clusters around a set of cities, with a few of them spread out over the
+ * countryside. the number of friends of a user follows a power law, so most users have a
+ * handful of friends and a few have hundreds, and most friends live in the same city. the
+ * meetups are created by the users near where they live, a part of them is only visible to
+ * friends, and they are joined mostly by the friends of their creator. the documents are written
+ * with the codecs of the app: users, meetups and meetup summaries. the same seed gives the same
+ * users, friends and meetups, only the dates are relative to the time of the generation
+ */
+public class DatasetGenerator {
+
+    public static final String USERS = "users";
+    public static final String MEETUPS = "meetups";
+    public static final String MEETUP_SUMMARIES = "meetup-summaries";
+
+    /**
+     * the share of the meetups that are only visible to the friends of the creator
+     */
+    public static final double FRIENDS_VISIBILITY = 0.3;
+
+    /**
+     * the exponent of the power law of the number of friends, and the least and the most friends
+     * that a user is given
+     */
+    public static final double FRIENDS_EXPONENT = 2.5;
+    public static final int MIN_FRIENDS = 2;
+    public static final int MAX_FRIENDS = 1000;
+
+    /**
+     * the share of the friends of a user that live in the same city
+     */
+    public static final double LOCAL_FRIENDS = 0.8;
+
+    private static final int BATCH_SIZE = 400;
+    private static final long HOUR = 3_600_000;
+
+    static final City[] CITIES = {
+            new City("Gothenburg", 57.7089, 11.9746, 8, 0.30),
+            new City("Stockholm", 59.3293, 18.0686, 12, 0.25),
+            new City("Malmo", 55.6050, 13.0038, 6, 0.10),
+            new City("Uppsala", 59.8586, 17.6389, 5, 0.05),
+            new City("Copenhagen", 55.6761, 12.5683, 10, 0.10),
+            new City("Oslo", 59.9139, 10.7522, 9, 0.08),
+            new City("Helsinki", 60.1699, 24.9384, 9, 0.07),
+            new City("Countryside", 58.5, 14.5, 150, 0.05)
+    };
+
+    private static final String[] FIRST_NAMES = {"Anna", "Erik", "Maja", "Lars", "Elsa", "Karl", "Alice", "Johan",
+            "Ebba", "Nils", "Saga", "Oskar", "Wilma", "Axel", "Freja", "Hugo", "Astrid", "Emil", "Linnea", "Olof",
+            "Ida", "Viktor", "Tove", "Gustav", "Klara", "Anton", "Selma", "Ludwig", "Vera", "Isak"};
+    private static final String[] LAST_NAMES = {"Andersson", "Johansson", "Karlsson", "Nilsson", "Eriksson",
+            "Larsson", "Olsson", "Persson", "Svensson", "Gustafsson", "Pettersson", "Jonsson", "Jansson", "Hansen",
+            "Lindberg", "Lindqvist", "Berg", "Holm", "Virtanen", "Korhonen", "Nielsen", "Jensen", "Hultqvist",
+            "Lundgren", "Engstrom", "Dahl", "Sandberg", "Axelsson", "Ek", "Strand"};
+    private static final String[] ADJECTIVES = {"Friendly", "Casual", "Weekly", "Late night", "Early morning",
+            "Beginner", "Competitive", "Outdoor", "Cozy", "Spontaneous"};
+    private static final String[][] ACTIVITIES = {
+            {"football", "padel", "running", "climbing", "frisbee golf"},
+            {"pizza night", "fika", "brunch", "taco tuesday", "barbecue"},
+            {"study group", "coding session", "language cafe", "lecture", "book circle"},
+            {"house party", "pub crawl", "karaoke", "disco", "afterwork"},
+            {"board games", "chess", "LAN party", "pub quiz", "card games"}};
+    private static final String[] PLACES = {"the park", "the campus", "the harbour", "the square", "the library",
+            "the beach", "the old town", "the stadium", "the student union", "the lake"};
+    private static final String[] WORDS = ("bring a friend and something to drink we meet at the entrance and "
+            + "go together everyone is welcome no experience needed it is free but we share the costs of the "
+            + "place let us know if you can not come so that someone else can take your spot").split(" ");
+
+    private final long seed;
+    private final Random random;
+
+    /**
+     * creates a new generator
+     * @param seed the seed of the random numbers
+     */
+    public DatasetGenerator(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * generates the given number of users and meetups and writes them to the given provider. the
+     * documents are written in batches, the method returns when all batches are committed
+     * @param provider the provider, e.g. a MemoryProvider
+     * @param users the number of users
+     * @param meetups the number of meetups
+     * @return the Dataset object, that describes what was generated
+     */
+    public Dataset generate(DBProvider provider, int users, int meetups) {
+        Dataset dataset = new Dataset(seed, users, meetups);
+
+        placeUsers(dataset);
+        connectFriends(dataset);
+
+        Writer writer = new Writer(provider);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < meetups; i++) {
+            writeMeetUp(dataset, writer, i, now);
+        }
+        for (int i = 0; i < users; i++) {
+            writeUser(dataset, writer, i);
+        }
+
+        writer.flush();
+        return dataset;
+    }
+
+    /**
+     * puts each user in a city, chosen by the weights of the cities, at a normally distributed
+     * distance from its center
+     */
+    private void placeUsers(Dataset dataset) {
+        double total = 0;
+        for (City city : CITIES) {
+            total += city.weight;
+        }
+
+        for (int i = 0; i < dataset.users; i++) {
+            double pick = random.nextDouble() * total;
+            int city = 0;
+            while (city < CITIES.length - 1 && (pick -= CITIES[city].weight) > 0) {
+                city++;
+            }
+
+            Coordinates position = CITIES[city].around(random);
+            dataset.city[i] = city;
+            dataset.lat[i] = position.lat;
+            dataset.lon[i] = position.lon;
+        }
+    }
+
+    /**
+     * gives each user a number of friends drawn from a power law, and connects the users with
+     * friends chosen in proportion to their own number of friends (a Chung-Lu graph). a user
+     * starts half of its friendships and is expected to be chosen for the other half. the
+     * friendships are mutual, like the ones made by Helpers.addFriend
+     */
+    private void connectFriends(Dataset dataset) {
+        int users = dataset.users;
+        if (users < 2) {
+            return;
+        }
+
+        int[] target = new int[users];
+        long stubs = 0;
+        for (int i = 0; i < users; i++) {
+            double degree = MIN_FRIENDS * Math.pow(1 - random.nextDouble(), -1 / (FRIENDS_EXPONENT - 1));
+            target[i] = (int) Math.min(Math.min(degree, MAX_FRIENDS), users - 1);
+            stubs += target[i];
+        }
+
+        // the users are repeated once per friend they should have, grouped by city, so that a
+        // friend is picked in proportion to its number of friends by picking a random stub
+        int[] byCity = new int[(int) stubs];
+        int[] cityStart = new int[CITIES.length + 1];
+        for (int i = 0; i < users; i++) {
+            cityStart[dataset.city[i] + 1] += target[i];
+        }
+        for (int city = 0; city < CITIES.length; city++) {
+            cityStart[city + 1] += cityStart[city];
+        }
+        int[] next = Arrays.copyOf(cityStart, CITIES.length);
+        for (int i = 0; i < users; i++) {
+            for (int k = 0; k < target[i]; k++) {
+                byCity[next[dataset.city[i]]++] = i;
+            }
+        }
+
+        for (int i = 0; i < users; i++) {
+            int start = (target[i] + 1) / 2;
+            int from = cityStart[dataset.city[i]], to = cityStart[dataset.city[i] + 1];
+
+            for (int attempt = 0, started = 0; attempt < 2 * start && started < start && dataset.friends.size(i) < target[i]; attempt++) {
+                int friend = random.nextDouble() < LOCAL_FRIENDS && to - from > target[i]
+                        ? byCity[from + random.nextInt(to - from)]
+                        : byCity[random.nextInt(byCity.length)];
+
+                if (friend != i && !dataset.friends.contains(i, friend)) {
+                    dataset.friends.add(i, friend);
+                    dataset.friends.add(friend, i);
+                    started++;
+                }
+            }
+        }
+    }
+
+    /**
+     * generates one meetup near the home of a random creator, with its joined and attending users,
+     * and adds it and its summary to the writer
+     */
+    private void writeMeetUp(Dataset dataset, Writer writer, int index, long now) {
+        int creator = random.nextInt(dataset.users);
+        City city = CITIES[dataset.city[creator]];
+        Coordinates position = random.nextDouble() < 0.7
+                ? city.around(random)
+                : new Coordinates(dataset.lat[creator] + random.nextGaussian() * 0.005, dataset.lon[creator] + random.nextGaussian() * 0.01);
+
+        int category = random.nextInt(MeetUp.Categories.values().length);
+        String activity = ACTIVITIES[category][random.nextInt(ACTIVITIES[category].length)];
+        String name = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " " + activity + " at " + PLACES[random.nextInt(PLACES.length)];
+
+        // most meetups are in the coming weeks, some have started or ended in the last days
+        Calendar start = Calendar.getInstance();
+        start.setTimeInMillis(now + (long) ((random.nextDouble() * 32 - 2) * 24) * HOUR);
+        Calendar end = Calendar.getInstance();
+        end.setTimeInMillis(start.getTimeInMillis() + (1 + random.nextInt(4)) * HOUR);
+
+        int maxAttendees = 5 + random.nextInt(96);
+        MeetUp.Visibility visibility = random.nextDouble() < FRIENDS_VISIBILITY ? MeetUp.Visibility.FRIENDS : MeetUp.Visibility.PUBLIC;
+
+        // the meetup is joined mostly by friends of the creator, and by strangers if it is public
+        List<String> joined = new ArrayList<>();
+        List<String> attending = new ArrayList<>();
+        int wanted = Math.min(maxAttendees, (int) (-Math.log(1 - random.nextDouble()) * 4));
+        for (int k = 0; k < 2 * wanted && joined.size() < wanted; k++) {
+            int user = dataset.friends.size(creator) > 0 && (visibility == MeetUp.Visibility.FRIENDS || random.nextDouble() < 0.7)
+                    ? dataset.friends.get(creator, random.nextInt(dataset.friends.size(creator)))
+                    : random.nextInt(dataset.users);
+
+            String id = dataset.userId(user);
+            if (user != creator && !joined.contains(id)) {
+                joined.add(id);
+                dataset.joined.add(user, index);
+
+                if (start.getTimeInMillis() < now && random.nextDouble() < 0.6) {
+                    attending.add(id);
+                }
+            }
+        }
+
+        MeetUp meetUp = new MeetUp(dataset.meetUpId(index), dataset.userId(creator), name, position, description(),
+                MeetUp.Categories.values()[category], maxAttendees, start, end, visibility, joined, attending);
+        dataset.created.add(creator, index);
+        if (visibility == MeetUp.Visibility.FRIENDS) {
+            dataset.friendsOnly++;
+        }
+
+        DBDocument document = writer.create(MEETUPS, meetUp.getId());
+        MeetUpCodec.getInstance().encode(meetUp, document);
+        document.set("joinedusers", joined);
+        writer.save(document);
+
+        DBDocument summary = writer.create(MEETUP_SUMMARIES, meetUp.getId());
+        MeetUpSummaryCodec.getInstance().encode(meetUp, summary);
+        writer.save(summary);
+    }
+
+    /**
+     * adds the document of one user, with its friends and meetups, to the writer
+     */
+    private void writeUser(Dataset dataset, Writer writer, int index) {
+        User user = new User(dataset.userId(index));
+        user.setFirstName(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+        user.setLastName(LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+        user.setPhoneNumber(String.format("+4670%07d", index % 10_000_000));
+        user.setCoordinates(new Coordinates(dataset.lat[index], dataset.lon[index]));
+
+        DBDocument document = writer.create(USERS, user.getId());
+        UserCodec.getInstance().encode(user, document);
+        document.set("score", random.nextInt(100));
+        document.set("friends", dataset.friends.ids(index, dataset::userId));
+        document.set("created meetups", dataset.created.ids(index, dataset::meetUpId));
+        document.set("joined meetups", dataset.joined.ids(index, dataset::meetUpId));
+        writer.save(document);
+    }
+
+    private String description() {
+        StringBuilder description = new StringBuilder();
+        int length = 20 + random.nextInt(380);
+
+        while (description.length() < length) {
+            description.append(description.length() == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return description.toString();
+    }
+
+    /**
+     * a city around which users and meetups are placed
+     */
+    static class City {
+
+        final String name;
+        final double lat;
+        final double lon;
+        final double radiusKm;
+        final double weight;
+
+        City(String name, double lat, double lon, double radiusKm, double weight) {
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+            this.radiusKm = radiusKm;
+            this.weight = weight;
+        }
+
+        /**
+         * returns a position at a normally distributed distance from the center of the city, with
+         * the radius as the standard deviation
+         */
+        Coordinates around(Random random) {
+            double lat = this.lat + random.nextGaussian() * radiusKm / 111;
+            double lon = this.lon + random.nextGaussian() * radiusKm / (111 * Math.cos(Math.toRadians(this.lat)));
+            return new Coordinates(Math.max(-89, Math.min(89, lat)), Math.max(-179, Math.min(179, lon)));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * description of a generated dataset: where the users live, who their friends are and which
+     * meetups they have created and joined. the users and meetups are numbered from 0, and their
+     * ids are "user-" and "meetup-" followed by the number
+     */
+    public static class Dataset {
+
+        public final long seed;
+        public final int users;
+        public final int meetups;
+        final int[] city;
+        final double[] lat;
+        final double[] lon;
+        final Lists friends;
+        final Lists created;
+        final Lists joined;
+        int friendsOnly;
+
+        private Dataset(long seed, int users, int meetups) {
+            this.seed = seed;
+            this.users = users;
+            this.meetups = meetups;
+            this.city = new int[users];
+            this.lat = new double[users];
+            this.lon = new double[users];
+            this.friends = new Lists(users);
+            this.created = new Lists(users);
+            this.joined = new Lists(users);
+        }
+
+        public String userId(int user) {
+            return String.format("user-%07d", user);
+        }
+
+        public String meetUpId(int meetUp) {
+            return String.format("meetup-%07d", meetUp);
+        }
+
+        public City city(int user) {
+            return CITIES[city[user]];
+        }
+
+        public Coordinates home(int user) {
+            return new Coordinates(lat[user], lon[user]);
+        }
+
+        public int friends(int user) {
+            return friends.size(user);
+        }
+
+        /**
+         * returns the user whose number of friends is at the given percentile, e.g. 50 for a
+         * typical user and 99 for one of the users with the most friends
+         * @param percentile the percentile, from 0 to 100
+         * @return the number of the user
+         */
+        public int userAtPercentile(double percentile) {
+            Integer[] order = new Integer[users];
+            for (int i = 0; i < users; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingInt((Integer user) -> friends(user)).thenComparingInt(user -> user));
+
+            return order[(int) Math.min(users - 1, Math.floor(percentile / 100 * users))];
+        }
+
+        @Override
+        public String toString() {
+            long friendships = 0;
+            int most = 0;
+            for (int i = 0; i < users; i++) {
+                friendships += friends(i);
+                most = Math.max(most, friends(i));
+            }
+
+            return "users=" + users + " meetups=" + meetups + " friendsOnly=" + friendsOnly
+                    + " meanFriends=" + String.format("%.1f", users == 0 ? 0 : (double) friendships / users)
+                    + " maxFriends=" + most + " seed=" + seed;
+        }
+    }
+
+    /**
+     * one growing list of ints per user, e.g. the friends of each user, kept as arrays since a
+     * million users with boxed lists would not fit in the heap
+     */
+    static class Lists {
+
+        private final int[][] values;
+        private final int[] sizes;
+
+        Lists(int count) {
+            values = new int[count][];
+            sizes = new int[count];
+        }
+
+        void add(int list, int value) {
+            int[] array = values[list];
+            if (array == null) {
+                array = values[list] = new int[4];
+            }
+            else if (sizes[list] == array.length) {
+                array = values[list] = Arrays.copyOf(array, array.length * 2);
+            }
+            array[sizes[list]++] = value;
+        }
+
+        int size(int list) {
+            return sizes[list];
+        }
+
+        int get(int list, int index) {
+            return values[list][index];
+        }
+
+        boolean contains(int list, int value) {
+            for (int i = 0; i < sizes[list]; i++) {
+                if (values[list][i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<String> ids(int list, IntFunction<String> id) {
+            List<String> ids = new ArrayList<>(sizes[list]);
+            for (int i = 0; i < sizes[list]; i++) {
+                ids.add(id.apply(values[list][i]));
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * writes the documents in batches and waits for the commits when it is flushed
+     */
+    private static class Writer {
+
+        private final DBProvider provider;
+        private final List<CompletableFuture<DBBatch>> commits = new ArrayList<>();
+        private DBBatch batch;
+        private int size;
+
+        Writer(DBProvider provider) {
+            this.provider = provider;
+        }
+
+        DBDocument create(String collection, String id) {
+            return provider.collection(collection).create(id);
+        }
+
+        void save(DBDocument document) {
+            if (batch == null) {
+                batch = provider.batch();
+            }
+
+            batch.save(document);
+            if (++size == BATCH_SIZE) {
+                commit();
+            }
+        }
+
+        void flush() {
+            if (batch != null) {
+                commit();
+            }
+
+            DBFuture.all(commits).join();
+            commits.clear();
+        }
+
+        private void commit() {
+            DBBatch committed = batch;
+            commits.add(DBFuture.of(committed::commit));
+            batch = null;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatasetGeneratorTest {
+
+    private static List<? extends DBDocument> all(MemoryProvider memory, String collection) {
+        return DBFuture.<List<? extends DBDocument>>of(listener -> memory.collection(collection).all(listener)).join();
+    }
+
+    @Test
+    public void documentsDecodeWithTheCodecsOfTheApp() {
+        MemoryProvider memory = new MemoryProvider();
+        DatasetGenerator.Dataset dataset = new DatasetGenerator(1).generate(memory, 500, 300);
+
+        List<? extends DBDocument> users = all(memory, DatasetGenerator.USERS);
+        List<? extends DBDocument> meetUps = all(memory, DatasetGenerator.MEETUPS);
+        List<? extends DBDocument> summaries = all(memory, DatasetGenerator.MEETUP_SUMMARIES);
+        assertEquals(500, users.size());
+        assertEquals(300, meetUps.size());
+        assertEquals(300, summaries.size());
+
+        for (DBDocument user : users) {
+            assertNotNull(UserCodec.getInstance().decode(user));
+        }
+        for (DBDocument meetUp : meetUps) {
+            assertNotNull(MeetUpCodec.getInstance().decode(meetUp));
+        }
+        for (DBDocument summary : summaries) {
+            assertNotNull(MeetUpSummaryCodec.getInstance().decode(summary));
+            assertNotNull(summary.get(GeoHash.FIELD));
+        }
+        assertTrue(dataset.friendsOnly > 0 && dataset.friendsOnly < 300);
+    }
+
+    @Test
+    public void friendshipsAreMutualAndHeavyTailed() {
+        MemoryProvider memory = new MemoryProvider();
+        DatasetGenerator.Dataset dataset = new DatasetGenerator(2).generate(memory, 5_000, 0);
+
+        long total = 0;
+        int most = 0;
+        for (int i = 0; i < dataset.users; i++) {
+            for (int k = 0; k < dataset.friends.size(i); k++) {
+                assertTrue(dataset.friends.contains(dataset.friends.get(i, k), i));
+            }
+            total += dataset.friends(i);
+            most = Math.max(most, dataset.friends(i));
+        }
+
+        // most users have a few friends, and a few users have many times more
+        double mean = (double) total / dataset.users;
+        assertTrue(mean >= DatasetGenerator.MIN_FRIENDS);
+        assertTrue(most > 10 * mean);
+        assertTrue(dataset.friends(dataset.userAtPercentile(50)) <= mean);
+    }
+
+    @Test
+    public void sameSeedGivesSameFriends() {
+        DatasetGenerator.Dataset first = new DatasetGenerator(3).generate(new MemoryProvider(), 1_000, 100);
+        DatasetGenerator.Dataset second = new DatasetGenerator(3).generate(new MemoryProvider(), 1_000, 100);
+
+        for (int i = 0; i < first.users; i++) {
+            assertEquals(first.friends(i), second.friends(i));
+            assertEquals(first.home(i).lat, second.home(i).lat, 0);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DocumentCacheTest {
+
+    private MemoryProvider memory;
+    private DocumentCache cache;
+    private DBCollection users;
+    private long now;
+
+    @Before
+    public void setUp() {
+        memory = new MemoryProvider();
+        cache = new DocumentCache(3, 1_000);
+        cache.setClock(() -> now);
+        users = new CachingProvider(memory, cache).collection("users");
+
+        for (String id : Arrays.asList("anna", "bert", "cecilia", "david")) {
+            DBDocument user = memory.collection("users").create(id);
+            user.set("name", id);
+            user.save(new RequestListener<>());
+        }
+
+        memory.resetCounters();
+    }
+
+    @Test
+    public void repeatedGetIsServedFromCache() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals("anna", users.get("anna", new RequestListener<>()).get("name"));
+        }
+
+        assertEquals(1, memory.reads());
+        assertEquals(4, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void concurrentIdenticalRequestsShareOneRequest() {
+        List<Runnable> callbacks = new ArrayList<>();
+        MemoryProvider delayed = new MemoryProvider(callbacks::add);
+        DBDocument anna = delayed.collection("users").create("anna");
+        anna.set("name", "anna");
+        anna.save(new RequestListener<>());
+        callbacks.clear();
+        delayed.resetCounters();
+
+        CachingProvider provider = new CachingProvider(delayed);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            provider.collection("users").get("anna", new RequestListener<DBDocument>() {
+                @Override
+                public void onSuccess(DBDocument user) {
+                    names.add((String) user.get("name"));
+                }
+            });
+            provider.collection("users").search(new QueryFilter("name", QueryFilter.EQUAL, "anna"), new RequestListener<>());
+        }
+
+        assertEquals(2, delayed.requests());
+        assertEquals(4, provider.deduplicated());
+
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+        assertEquals(Arrays.asList("anna", "anna", "anna"), names);
+    }
+
+    @Test
+    public void hitsAreCopiesDeliveredOnTheExecutor() {
+        List<Runnable> callbacks = new ArrayList<>();
+        MemoryProvider delayed = new MemoryProvider(callbacks::add);
+        DBDocument anna = delayed.collection("users").create("anna");
+        anna.set("name", "anna");
+        anna.save(new RequestListener<>());
+
+        DBCollection cached = new CachingProvider(delayed).collection("users");
+        cached.get("anna", new RequestListener<>());
+        callbacks.forEach(Runnable::run);
+        callbacks.clear();
+
+        List<DBDocument> delivered = new ArrayList<>();
+        RequestListener<DBDocument> listener = new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument user) {
+                delivered.add(user);
+            }
+        };
+        DBDocument first = cached.get("anna", listener);
+        DBDocument second = cached.get("anna", listener);
+
+        assertTrue(delivered.isEmpty());
+        callbacks.forEach(Runnable::run);
+        assertEquals(Arrays.asList(first, second), delivered);
+        assertFalse(first == second);
+
+        first.set("name", "Anna");
+        assertEquals("anna", second.get("name"));
+    }
+
+    @Test
+    public void expiresAfterTtl() {
+        users.get("anna", new RequestListener<>());
+        now += 999;
+        users.get("anna", new RequestListener<>());
+        assertEquals(1, memory.reads());
+
+        now += 1;
+        users.get("anna", new RequestListener<>());
+        assertEquals(2, memory.reads());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        users.get("anna", new RequestListener<>());
+        users.get("bert", new RequestListener<>());
+        users.get("cecilia", new RequestListener<>());
+        users.get("anna", new RequestListener<>());
+        users.get("david", new RequestListener<>());
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.evictions());
+
+        memory.resetCounters();
+        users.get("anna", new RequestListener<>());
+        users.get("bert", new RequestListener<>());
+        assertEquals(1, memory.reads());
+    }
+
+    @Test
+    public void invalidatesOnLocalChanges() {
+        DBDocument anna = users.get("anna", new RequestListener<>());
+        anna.set("name", "Anna");
+        assertEquals(0, cache.size());
+
+        anna.save(new RequestListener<>());
+        memory.resetCounters();
+        assertEquals("Anna", users.get("anna", new RequestListener<>()).get("name"));
+        assertEquals(0, memory.reads());
+
+        anna.delete(new RequestListener<>());
+        assertTrue(users.get("anna", new RequestListener<>()).isEmpty());
+    }
+
+    @Test
+    public void getAllOnlyFetchesMissingDocuments() {
+        users.get("bert", new RequestListener<>());
+        memory.resetCounters();
+
+        List<? extends DBDocument> documents = users.getAll(Arrays.asList("anna", "bert", "missing"), new RequestListener<>());
+
+        assertEquals("anna", documents.get(0).id());
+        assertEquals("bert", documents.get(1).id());
+        assertFalse(documents.get(2).isLoaded());
+        assertEquals(1, memory.reads());
+    }
+}
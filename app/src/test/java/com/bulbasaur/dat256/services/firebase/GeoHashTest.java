@@ -0,0 +1,76 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeoHashTest {
+
+    @Test
+    public void encode() {
+        assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+        assertEquals("ezs42", GeoHash.encode(42.605, -5.603, 5));
+        assertEquals(GeoHash.PRECISION, GeoHash.encode(0, 0).length());
+    }
+
+    @Test
+    public void coverIsSmall() {
+        List<String> prefixes = GeoHash.cover(57.68, 11.95, 57.70, 11.99);
+        assertTrue(prefixes.size() <= GeoHash.MAX_CELLS);
+        assertFalse(prefixes.isEmpty());
+        assertTrue(prefixes.get(0).length() >= 4);
+    }
+
+    @Test
+    public void coverContainsEveryPointInBounds() {
+        Random random = new Random(256);
+
+        for (int i = 0; i < 200; i++) {
+            double minLat = random.nextDouble() * 160 - 80;
+            double minLon = random.nextDouble() * 340 - 170;
+            double maxLat = minLat + random.nextDouble() * 2;
+            double maxLon = minLon + random.nextDouble() * 2;
+
+            List<String> prefixes = GeoHash.cover(minLat, minLon, maxLat, maxLon);
+            assertTrue(prefixes.size() <= 2 * GeoHash.MAX_CELLS);
+
+            for (int j = 0; j < 50; j++) {
+                double lat = minLat + random.nextDouble() * (maxLat - minLat);
+                double lon = minLon + random.nextDouble() * (maxLon - minLon);
+                assertTrue(covered(prefixes, GeoHash.encode(lat, lon)));
+            }
+        }
+    }
+
+    @Test
+    public void coverAcrossAntimeridian() {
+        List<String> prefixes = GeoHash.cover(-10, 179, 10, -179);
+
+        assertTrue(covered(prefixes, GeoHash.encode(0, 179.5)));
+        assertTrue(covered(prefixes, GeoHash.encode(0, -179.5)));
+        assertFalse(covered(prefixes, GeoHash.encode(0, 0)));
+    }
+
+    @Test
+    public void contains() {
+        assertTrue(GeoHash.contains(0, 0, 1, 1, 0.5, 0.5));
+        assertFalse(GeoHash.contains(0, 0, 1, 1, 1.5, 0.5));
+        assertTrue(GeoHash.contains(0, 179, 1, -179, 0.5, -179.5));
+        assertFalse(GeoHash.contains(0, 179, 1, -179, 0.5, 0));
+    }
+
+    private static boolean covered(List<String> prefixes, String hash) {
+        for (String prefix : prefixes) {
+            if (hash.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,478 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MapBounds;
+import com.bulbasaur.dat256.model.MeetUp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.VIEWPORT;
+
+/**
+ * @author ludwighultqvist
+ * class that replays a sequence of map views through the queries that MenuActivity makes when
+ * the map is moved, against a MemoryProvider filled by the DatasetGenerator, and reports the
+ * reads, bytes and latency of each refresh. it is run from the command line with
+ * ./gradlew :app:mapLoad -Pusers=100000 -Pmeetups=100000
+ * and takes the arguments: users, meetups, refreshes, latency of a request in ms, and seed
+ *
+ * a refresh is made like MenuActivity.refreshMapItems: it supersedes the previous refresh, gets
+ * the current user and searches the users within the view at the same time, and moves the live
+ * queries of the meetup summaries (public, created by the current user, and visible to friends)
+ * only when the view leaves the area around the previous view. the callbacks are run on a
+ * single thread, like on the ui thread of the app, after the given latency. a refresh is done
+ * when the friends are shown and every moved live query has delivered its first result, and
+ * its reads are the documents read from the MemoryProvider in the meantime, so documents served
+ * by the cache are not counted. its bytes are the approximate size of the documents delivered to
+ * it (see Metrics.size)
+ *
+ * the refreshes are made one at a time, so that the reads of each refresh can be told apart
+ */
+public class MapLoadHarness {
+
+    private static final double SUBSCRIBED_AREA_MARGIN = 0.5;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private final MemoryProvider memory;
+    private final CachingProvider provider;
+    private final ExecutorService ui;
+    private final String currentUser;
+
+    // the state of the map, like in MenuActivity, only touched on the ui thread
+    private final List<DBSubscription> meetUpSubscriptions = new ArrayList<>();
+    private final Map<String, Integer> meetUpHolds = new HashMap<>();
+    private MapBounds subscribedArea;
+    private CancellationToken viewportToken;
+
+    /**
+     * creates a harness that refreshes the map of the given user
+     * @param memory the in-memory database with the dataset
+     * @param provider the caching provider in front of it, e.g. Database.cached(memory)
+     * @param ui the executor of the callbacks, the same as the one of the MemoryProvider
+     * @param currentUser the id of the logged in user
+     */
+    public MapLoadHarness(MemoryProvider memory, CachingProvider provider, ExecutorService ui, String currentUser) {
+        this.memory = memory;
+        this.provider = provider;
+        this.ui = ui;
+        this.currentUser = currentUser;
+    }
+
+    /**
+     * refreshes the map for each of the given views, one at a time
+     * @param views the views
+     * @return the Refresh objects, one per view
+     */
+    public List<Refresh> replay(List<MapBounds> views) {
+        List<Refresh> refreshes = new ArrayList<>();
+        for (MapBounds view : views) {
+            refreshes.add(refresh(view));
+        }
+        return refreshes;
+    }
+
+    /**
+     * refreshes the map for the given view and waits until the refresh is done
+     * @param bounds the view
+     * @return the Refresh object
+     */
+    public Refresh refresh(MapBounds bounds) {
+        long reads = memory.reads(), requests = memory.requests();
+
+        CompletableFuture<Refresh> started = CompletableFuture.supplyAsync(() -> start(bounds), ui).thenCompose(future -> future);
+        Refresh refresh = DBFuture.timeout(started, TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .exceptionally(e -> {
+                    Refresh failed = new Refresh(bounds, false);
+                    failed.error = e;
+                    return failed;
+                })
+                .join();
+
+        refresh.reads = memory.reads() - reads;
+        refresh.requests = memory.requests() - requests;
+        return refresh;
+    }
+
+    /**
+     * removes the live queries, like when the map is closed
+     */
+    public void stop() {
+        CompletableFuture.runAsync(this::unsubscribeMeetUps, ui).join();
+    }
+
+    private CompletableFuture<Refresh> start(MapBounds bounds) {
+        long started = System.nanoTime();
+
+        if (viewportToken != null) {
+            viewportToken.cancel();
+        }
+        CancellationToken token = viewportToken = new CancellationToken();
+
+        boolean resubscribe = !contains(subscribedArea, bounds);
+        Refresh refresh = new Refresh(bounds, resubscribe);
+
+        CachingProvider viewport = provider.withPriority(VIEWPORT);
+        DBCollection users = resubscribe ? viewport.collection(DatasetGenerator.USERS) : viewport.withCancellation(token).collection(DatasetGenerator.USERS);
+        CompletableFuture<DBDocument> user = DBFuture.of(listener -> users.get(currentUser, listener));
+
+        CompletableFuture<Void> meetUps = resubscribe
+                ? subscribeMeetUps(expand(bounds), user, refresh).thenRun(() -> refresh.meetUpNanos = System.nanoTime() - started)
+                : CompletableFuture.completedFuture(null);
+
+        CompletableFuture<List<? extends DBDocument>> usersWithinView =
+                DBFuture.of(listener -> viewport.withCancellation(token).collection(DatasetGenerator.USERS).searchWithin(bounds, listener));
+
+        CompletableFuture<Void> friends = user.thenAcceptBothAsync(usersWithinView, (document, within) -> {
+            refresh.delivered(document);
+            List<?> friendIds = (List<?>) document.get("friends");
+
+            for (DBDocument userDoc : within) {
+                refresh.delivered(userDoc);
+                if (friendIds != null && friendIds.contains(userDoc.id()) && UserCodec.getInstance().decode(userDoc) != null) {
+                    refresh.friends++;
+                }
+            }
+            refresh.friendNanos = System.nanoTime() - started;
+        }, ui);
+
+        return CompletableFuture.allOf(meetUps, friends).thenApplyAsync(done -> {
+            refresh.nanos = System.nanoTime() - started;
+            refresh.meetUps = meetUpHolds.size();
+            return refresh;
+        }, ui);
+    }
+
+    /**
+     * moves the live queries to the given area, and returns a future that completes when each of
+     * them has delivered its first result
+     */
+    private CompletableFuture<Void> subscribeMeetUps(MapBounds area, CompletableFuture<DBDocument> user, Refresh refresh) {
+        unsubscribeMeetUps();
+        subscribedArea = area;
+
+        DBCollection summaries = provider.withPriority(VIEWPORT).collection(DatasetGenerator.MEETUP_SUMMARIES);
+
+        CompletableFuture<Void> publicMeetUps = listenWithin(summaries, area, new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC"), null, refresh);
+        CompletableFuture<Void> ownMeetUps = listenWithin(summaries, area, new QueryFilter("creator", QueryFilter.EQUAL, currentUser), null, refresh);
+
+        CompletableFuture<Void> friendsMeetUps = user.thenComposeAsync(document -> {
+            List<?> friendIds = document.isLoaded() ? (List<?>) document.get("friends") : null;
+            if (area != subscribedArea || friendIds == null || friendIds.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            Set<Object> creators = new HashSet<>(friendIds);
+            return listenWithin(summaries, area, new QueryFilter("visibility", QueryFilter.EQUAL, "FRIENDS"), creators, refresh);
+        }, ui);
+
+        return CompletableFuture.allOf(publicMeetUps, ownMeetUps, friendsMeetUps);
+    }
+
+    private CompletableFuture<Void> listenWithin(DBCollection summaries, MapBounds area, QueryFilter filter, Set<Object> creators, Refresh refresh) {
+        MeetUpListener listener = new MeetUpListener(creators, refresh);
+        meetUpSubscriptions.add(summaries.listenWithin(area, filter, listener));
+        return listener.first;
+    }
+
+    private void unsubscribeMeetUps() {
+        for (DBSubscription subscription : meetUpSubscriptions) {
+            subscription.remove();
+        }
+
+        meetUpSubscriptions.clear();
+        meetUpHolds.clear();
+        subscribedArea = null;
+    }
+
+    /**
+     * keeps track of the meetups of one live query, like the MeetUpListener of MenuActivity
+     */
+    private class MeetUpListener extends DBListener {
+        private final Set<Object> creators;
+        private final Refresh refresh;
+        private final Set<String> held = new HashSet<>();
+        private final CompletableFuture<Void> first = new CompletableFuture<>();
+
+        MeetUpListener(Set<Object> creators, Refresh refresh) {
+            this.creators = creators;
+            this.refresh = refresh;
+        }
+
+        @Override
+        public void onAdded(DBDocument document) {
+            onModified(document);
+        }
+
+        @Override
+        public void onModified(DBDocument document) {
+            refresh.delivered(document);
+            if (creators != null && !creators.contains(document.get("creator"))) {
+                onRemoved(document);
+                return;
+            }
+
+            MeetUp meetUp = MeetUpSummaryCodec.getInstance().decode(document);
+            if (meetUp != null && held.add(document.id())) {
+                Integer holds = meetUpHolds.get(document.id());
+                meetUpHolds.put(document.id(), holds == null ? 1 : holds + 1);
+            }
+        }
+
+        @Override
+        public void onRemoved(DBDocument document) {
+            if (!held.remove(document.id())) return;
+
+            Integer holds = meetUpHolds.get(document.id());
+            if (holds != null && holds > 1) {
+                meetUpHolds.put(document.id(), holds - 1);
+            }
+            else {
+                meetUpHolds.remove(document.id());
+            }
+        }
+
+        @Override
+        public void update() {
+            first.complete(null);
+        }
+
+        @Override
+        public void onFailure() {
+            first.completeExceptionally(new IllegalStateException("the live query failed"));
+        }
+    }
+
+    /**
+     * returns true if the inner bounds lie within the outer bounds, see MenuActivity.contains
+     */
+    static boolean contains(MapBounds outer, MapBounds inner) {
+        return outer != null
+                && inner.getBottomLeft().lat >= outer.getBottomLeft().lat
+                && inner.getBottomLeft().lon >= outer.getBottomLeft().lon
+                && inner.getTopRight().lat <= outer.getTopRight().lat
+                && inner.getTopRight().lon <= outer.getTopRight().lon;
+    }
+
+    /**
+     * returns the given bounds expanded by half of their size on every side, see
+     * MenuActivity.expand
+     */
+    static MapBounds expand(MapBounds bounds) {
+        double lat = (bounds.getTopRight().lat - bounds.getBottomLeft().lat) * SUBSCRIBED_AREA_MARGIN;
+        double lon = (bounds.getTopRight().lon - bounds.getBottomLeft().lon) * SUBSCRIBED_AREA_MARGIN;
+
+        return new MapBounds(Math.max(-90, bounds.getBottomLeft().lat - lat), Math.max(-180, bounds.getBottomLeft().lon - lon),
+                Math.min(90, bounds.getTopRight().lat + lat), Math.min(180, bounds.getTopRight().lon + lon));
+    }
+
+    /**
+     * returns a sequence of map views of a user who starts at home and then mostly pans a little,
+     * sometimes zooms in or out or pans further, and sometimes jumps to another city
+     * @param dataset the dataset
+     * @param user the number of the user
+     * @param count the number of views
+     * @param random the random numbers
+     * @return the views
+     */
+    public static List<MapBounds> views(DatasetGenerator.Dataset dataset, int user, int count, Random random) {
+        List<MapBounds> views = new ArrayList<>();
+        Coordinates center = dataset.home(user);
+        // a view of about 2 by 2 km, like the map at zoom level 15 on a phone
+        double height = 0.018, width = 0.035;
+
+        for (int i = 0; i < count; i++) {
+            views.add(new MapBounds(center.lat - height / 2, center.lon - width / 2, center.lat + height / 2, center.lon + width / 2));
+
+            double step = random.nextDouble();
+            if (step < 0.70) {
+                center = new Coordinates(center.lat + (random.nextDouble() - 0.5) * 0.6 * height, center.lon + (random.nextDouble() - 0.5) * 0.6 * width);
+            }
+            else if (step < 0.85) {
+                double zoom = random.nextBoolean() ? 0.5 : 2;
+                height = Math.max(0.002, Math.min(2, height * zoom));
+                width = Math.max(0.004, Math.min(4, width * zoom));
+            }
+            else if (step < 0.95) {
+                center = new Coordinates(center.lat + (random.nextDouble() - 0.5) * 4 * height, center.lon + (random.nextDouble() - 0.5) * 4 * width);
+            }
+            else {
+                DatasetGenerator.City city = DatasetGenerator.CITIES[random.nextInt(DatasetGenerator.CITIES.length)];
+                center = city.around(random);
+            }
+        }
+
+        return views;
+    }
+
+    /**
+     * returns an executor that runs the callbacks on one thread after the given latency, like a
+     * request to a server whose result is delivered on the ui thread
+     * @param ui the executor of the ui thread
+     * @param latencyMillis the latency of each request
+     * @return the executor
+     */
+    static Executor delayed(ExecutorService ui, long latencyMillis) {
+        if (latencyMillis <= 0) {
+            return ui;
+        }
+
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(MapLoadHarness::daemon);
+        return callback -> timer.schedule(() -> ui.execute(callback), latencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Thread daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable, "MapLoadHarness");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * generates a dataset and replays a sequence of views of a typical user, then of one of the
+     * users with the most friends, and prints a line per refresh and a summary of each
+     * @param args users, meetups, refreshes, latency in ms and seed, all optional
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int meetUps = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int refreshes = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 20;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+
+        ExecutorService ui = Executors.newSingleThreadExecutor(MapLoadHarness::daemon);
+        MemoryProvider memory = new MemoryProvider(delayed(ui, latency));
+
+        long generating = System.nanoTime();
+        DatasetGenerator.Dataset dataset = new DatasetGenerator(seed).generate(memory, users, meetUps);
+        System.out.println("generated " + dataset + " in " + (System.nanoTime() - generating) / 1_000_000 + " ms");
+
+        for (double percentile : new double[] {50, 99}) {
+            int user = dataset.userAtPercentile(percentile);
+            CachingProvider provider = Database.cached(memory);
+            MapLoadHarness harness = new MapLoadHarness(memory, provider, ui, dataset.userId(user));
+
+            System.out.println();
+            System.out.println("user " + dataset.userId(user) + " at p" + (int) percentile + " of friends: friends="
+                    + dataset.friends(user) + " city=" + dataset.city(user) + " latency=" + latency + "ms");
+
+            List<Refresh> replayed = harness.replay(views(dataset, user, refreshes, new Random(seed + user)));
+            harness.stop();
+
+            for (int i = 0; i < replayed.size(); i++) {
+                System.out.println("#" + i + " " + replayed.get(i));
+            }
+            System.out.println(summary(replayed));
+            System.out.println(provider.metrics().gauges());
+        }
+    }
+
+    /**
+     * returns the totals and the latency percentiles of the given refreshes
+     * @param refreshes the refreshes
+     * @return the summary
+     */
+    public static String summary(List<Refresh> refreshes) {
+        Metrics.Histogram latency = new Metrics.Histogram();
+        long reads = 0, requests = 0, bytes = 0, failed = 0, resubscribed = 0;
+
+        for (Refresh refresh : refreshes) {
+            latency.record(refresh.nanos);
+            reads += refresh.reads;
+            requests += refresh.requests;
+            bytes += refresh.bytes;
+            failed += refresh.error != null ? 1 : 0;
+            resubscribed += refresh.resubscribed ? 1 : 0;
+        }
+
+        int count = Math.max(1, refreshes.size());
+        return "refreshes=" + refreshes.size() + " resubscribed=" + resubscribed + " failed=" + failed
+                + " reads=" + reads + " (" + reads / count + "/refresh) requests=" + requests
+                + " bytes=" + bytes + " (" + bytes / count + "/refresh)"
+                + " p50=" + latency.percentile(50) + "ms p95=" + latency.percentile(95) + "ms max=" + latency.maxMillis() + "ms";
+    }
+
+    /**
+     * the result of one refresh of the map
+     */
+    public static class Refresh {
+
+        final MapBounds bounds;
+        final boolean resubscribed;
+        long documents;
+        long bytes;
+        long reads;
+        long requests;
+        int friends;
+        int meetUps;
+        long friendNanos;
+        long meetUpNanos;
+        long nanos;
+        Throwable error;
+
+        Refresh(MapBounds bounds, boolean resubscribed) {
+            this.bounds = bounds;
+            this.resubscribed = resubscribed;
+        }
+
+        private void delivered(DBDocument document) {
+            documents++;
+            bytes += Metrics.size(document);
+        }
+
+        public boolean resubscribed() {
+            return resubscribed;
+        }
+
+        public long reads() {
+            return reads;
+        }
+
+        public long requests() {
+            return requests;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public int friends() {
+            return friends;
+        }
+
+        public int meetUps() {
+            return meetUps;
+        }
+
+        public long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        public Throwable error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return "failed: " + error;
+            }
+
+            return "resubscribe=" + resubscribed + " reads=" + reads + " requests=" + requests + " documents=" + documents
+                    + " bytes=" + bytes + " friends=" + friends + " meetups=" + meetUps
+                    + " friendsShown=" + TimeUnit.NANOSECONDS.toMillis(friendNanos) + "ms"
+                    + (resubscribed ? " meetupsShown=" + TimeUnit.NANOSECONDS.toMillis(meetUpNanos) + "ms" : "")
+                    + " latency=" + millis() + "ms";
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.MapBounds;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MapLoadHarnessTest {
+
+    @Test
+    public void refreshesWithinTheSubscribedAreaOnlyReadTheUsers() {
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        MemoryProvider memory = new MemoryProvider(ui);
+        DatasetGenerator.Dataset dataset = new DatasetGenerator(1).generate(memory, 2_000, 2_000);
+
+        int user = dataset.userAtPercentile(99);
+        MapLoadHarness harness = new MapLoadHarness(memory, Database.cached(memory), ui, dataset.userId(user));
+        List<MapLoadHarness.Refresh> refreshes = harness.replay(MapLoadHarness.views(dataset, user, 30, new Random(1)));
+
+        MapLoadHarness.Refresh first = refreshes.get(0);
+        assertTrue(first.resubscribed());
+        assertTrue(first.reads() > 0 && first.bytes() > 0);
+        assertTrue(first.friends() <= dataset.friends(user));
+
+        for (MapLoadHarness.Refresh refresh : refreshes) {
+            assertNull(refresh.error());
+        }
+
+        // a view within the area around the previous one moves no live query, so the meetups
+        // on the map are the same and only the users within the view are read
+        MapLoadHarness.Refresh last = refreshes.get(refreshes.size() - 1);
+        MapBounds view = last.bounds;
+        double lat = (view.getTopRight().lat - view.getBottomLeft().lat) / 4;
+        MapBounds pannedView = new MapBounds(view.getBottomLeft().lat + lat, view.getBottomLeft().lon, view.getTopRight().lat + lat, view.getTopRight().lon);
+        MapLoadHarness.Refresh panned = harness.refresh(pannedView);
+        harness.stop();
+
+        assertFalse(panned.resubscribed());
+        assertEquals(last.meetUps(), panned.meetUps());
+        assertEquals(GeoHash.cover(pannedView.getBottomLeft().lat, pannedView.getBottomLeft().lon,
+                pannedView.getTopRight().lat, pannedView.getTopRight().lon).size(), panned.requests());
+        ui.shutdown();
+    }
+}
@@ -0,0 +1,384 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.MapBounds;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryCollectionTest {
+
+    private enum Visibility { PUBLIC, FRIENDS }
+
+    private MemoryProvider provider;
+    private DBCollection meetups;
+
+    @Before
+    public void setUp() {
+        provider = new MemoryProvider();
+        meetups = provider.collection("meetups");
+
+        save("a", 57.70, 11.97, Visibility.PUBLIC, "anna", 5);
+        save("b", 57.69, 11.96, Visibility.FRIENDS, "bert", 10);
+        save("c", 57.71, 11.98, Visibility.FRIENDS, "cecilia", 3);
+        save("d", 59.33, 18.07, Visibility.PUBLIC, "anna", 8);
+        save("e", 57.70, 11.99, Visibility.PUBLIC, "bert", 12);
+
+        provider.resetCounters();
+    }
+
+    private void save(String id, double lat, double lon, Visibility visibility, String creator, int maxAttendees) {
+        DBDocument document = meetups.create(id);
+        document.set("coord_lat", lat);
+        document.set("coord_lon", lon);
+        document.set("visibility", visibility);
+        document.set("creator", creator);
+        document.set("maxAttendees", maxAttendees);
+        document.set("joinedUsers", Arrays.asList(creator));
+        document.save(new RequestListener<>());
+    }
+
+    private static List<String> ids(List<? extends DBDocument> documents) {
+        List<String> ids = new ArrayList<>();
+        for (DBDocument document : documents) {
+            ids.add(document.id());
+        }
+        return ids;
+    }
+
+    @Test
+    public void valuesRoundTripLikeFirestore() {
+        DBDocument document = meetups.create("typed");
+        Calendar start = Calendar.getInstance();
+        document.set("startDate", start);
+        document.set("maxAttendees", 4);
+        document.set("visibility", Visibility.FRIENDS);
+        document.save(new RequestListener<>());
+
+        DBDocument read = meetups.get("typed", new RequestListener<>());
+        assertTrue(read.isLoaded());
+        assertEquals(4L, read.get("maxattendees"));
+        assertEquals("FRIENDS", read.get("visibility"));
+        assertEquals(start.getTimeInMillis(), ((Map<?, ?>) read.get("startdate")).get("timeInMillis"));
+    }
+
+    @Test
+    public void getCostsOneRequestAndOneRead() {
+        for (String id : Arrays.asList("a", "b", "c")) {
+            assertTrue(meetups.get(id, new RequestListener<>()).isLoaded());
+        }
+
+        assertEquals(3, provider.requests());
+        assertEquals(3, provider.reads());
+
+        DBDocument missing = meetups.get("missing", new RequestListener<>());
+        assertTrue(missing.isEmpty());
+    }
+
+    @Test
+    public void search() {
+        QueryFilter filter = new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC")
+                .where("maxAttendees", QueryFilter.GREATER_OR_EQUAL, 6)
+                .orderBy("maxAttendees", true);
+        assertEquals(Arrays.asList("e", "d"), ids(meetups.search(filter, new RequestListener<>())));
+
+        filter = new QueryFilter("creator", QueryFilter.IN, Arrays.asList("anna", "cecilia"));
+        assertEquals(Arrays.asList("a", "c", "d"), ids(meetups.search(filter, new RequestListener<>())));
+
+        filter = new QueryFilter("joinedUsers", QueryFilter.ARRAY_CONTAINS, "bert");
+        assertEquals(Arrays.asList("b", "e"), ids(meetups.search(filter, new RequestListener<>())));
+
+        filter = new QueryFilter().orderBy("maxAttendees").startAfter(5).limit(2);
+        assertEquals(Arrays.asList("d", "b"), ids(meetups.search(filter, new RequestListener<>())));
+    }
+
+    @Test
+    public void readPolicies() {
+        List<String> delivered = new ArrayList<>();
+        meetups.get("a", ReadPolicy.CACHE_THEN_SERVER, new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument document) {
+                delivered.add(document.id());
+            }
+        });
+
+        assertEquals(Arrays.asList("a", "a"), delivered);
+        assertEquals(1, provider.requests());
+
+        QueryFilter filter = new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC");
+        assertEquals(3, meetups.search(filter, ReadPolicy.CACHE_ONLY, new RequestListener<>()).size());
+        assertTrue(meetups.get("b", ReadPolicy.CACHE_ONLY, new RequestListener<>()).isLoaded());
+        assertEquals(1, provider.requests());
+    }
+
+    @Test
+    public void searchWithin() {
+        MapBounds gothenburg = new MapBounds(57.68, 11.95, 57.72, 11.985);
+        QueryFilter friends = new QueryFilter("visibility", QueryFilter.EQUAL, "FRIENDS");
+
+        List<String> result = ids(meetups.searchWithin(gothenburg, friends, new RequestListener<>()));
+        result.sort(String::compareTo);
+        assertEquals(Arrays.asList("b", "c"), result);
+
+        result = ids(meetups.searchWithin(gothenburg, new RequestListener<>()));
+        assertFalse(result.contains("d"));
+        assertFalse(result.contains("e"));
+        assertEquals(3, result.size());
+    }
+
+    @Test
+    public void searchWithinLimitsAndOrdersEveryCellLikeFirestore() {
+        MapBounds gothenburg = new MapBounds(57.68, 11.95, 57.72, 12.0);
+        QueryFilter largest = new QueryFilter().orderBy("maxAttendees", true).limit(1);
+
+        List<? extends DBDocument> result = meetups.searchWithin(gothenburg, largest, new RequestListener<>());
+        assertFalse(result.isEmpty());
+        assertTrue(result.size() <= provider.requests());
+        assertTrue(provider.reads() <= provider.requests());
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue((Long) result.get(i - 1).get("maxAttendees") >= (Long) result.get(i).get("maxAttendees"));
+        }
+
+        provider.resetCounters();
+        List<? extends DBDocument> all = meetups.searchWithin(gothenburg, new QueryFilter().orderBy("maxAttendees", true), new RequestListener<>());
+        assertEquals(Arrays.asList("e", "b", "a", "c"), ids(all));
+        // a cell is ordered by geohash first, so its one document is not always the largest one
+        assertTrue(result.size() < all.size());
+        assertTrue(ids(all).containsAll(ids(result)));
+    }
+
+    @Test
+    public void getAllKeepsOrderAndMissingIds() {
+        List<? extends DBDocument> documents = meetups.getAll(Arrays.asList("c", "missing", "a"), new RequestListener<>());
+
+        assertEquals(Arrays.asList("c", "missing", "a"), ids(documents));
+        assertTrue(documents.get(0).isLoaded());
+        assertFalse(documents.get(1).isLoaded());
+        assertEquals(3, provider.requests());
+        assertEquals(2, provider.reads());
+    }
+
+    @Test
+    public void pageAndStream() {
+        DBPage first = meetups.page(null, 2, null, new RequestListener<>());
+        assertEquals(Arrays.asList("a", "b"), ids(first.documents()));
+        assertFalse(first.isLast());
+
+        DBPage second = meetups.page(null, 2, first.token(), new RequestListener<>());
+        assertEquals(Arrays.asList("c", "d"), ids(second.documents()));
+
+        DBPage third = meetups.page(null, 2, second.token(), new RequestListener<>());
+        assertEquals(Arrays.asList("e"), ids(third.documents()));
+        assertTrue(third.isLast());
+        assertNull(third.token());
+
+        List<String> streamed = new ArrayList<>();
+        meetups.stream(new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC"), 1, new RequestListener<DBPage>() {
+            @Override
+            public void onSuccess(DBPage page) {
+                streamed.addAll(ids(page.documents()));
+            }
+        });
+        assertEquals(Arrays.asList("a", "d", "e"), streamed);
+    }
+
+    @Test
+    public void orderedPagesContinueAfterTheTokenOfTheLastDocument() {
+        QueryFilter byCreator = new QueryFilter().orderBy("creator");
+        List<String> paged = new ArrayList<>();
+        String token = null;
+
+        do {
+            DBPage page = meetups.page(byCreator, 1, token, new RequestListener<>());
+            paged.addAll(ids(page.documents()));
+            token = page.token();
+        } while (token != null);
+
+        // anna has a and d, bert has b and e, so the pages continue after ties by the id
+        assertEquals(Arrays.asList("a", "d", "b", "e", "c"), paged);
+
+        DBPage first = meetups.page(new QueryFilter().orderBy("maxAttendees", true), 2, null, new RequestListener<>());
+        assertEquals(Arrays.asList("e", "b"), ids(first.documents()));
+        DBPage second = meetups.page(new QueryFilter().orderBy("maxAttendees", true), 2, first.token(), new RequestListener<>());
+        assertEquals(Arrays.asList("d", "a"), ids(second.documents()));
+    }
+
+    @Test
+    public void pagesOrderedByADateContinueAfterIt() {
+        long now = System.currentTimeMillis();
+        for (String id : Arrays.asList("a", "d", "e")) {
+            DBDocument meetup = meetups.get(id, new RequestListener<>());
+            Calendar start = Calendar.getInstance();
+            start.setTimeInMillis(now - id.charAt(0));
+            meetup.set("startDate", start);
+            meetup.save(new RequestListener<>());
+        }
+
+        QueryFilter publicByStart = new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC").orderBy("startDate");
+        DBPage first = meetups.page(publicByStart, 2, null, new RequestListener<>());
+        DBPage second = meetups.page(publicByStart, 2, first.token(), new RequestListener<>());
+
+        assertEquals(Arrays.asList("e", "d"), ids(first.documents()));
+        assertEquals(Arrays.asList("a"), ids(second.documents()));
+        assertTrue(second.isLast());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aTokenOfAnotherOrderingIsRejected() {
+        DBPage first = meetups.page(new QueryFilter().orderBy("creator"), 2, null, new RequestListener<>());
+        meetups.page(null, 2, first.token(), new RequestListener<>());
+    }
+
+    @Test
+    public void streamEndsAtAFailedRead() {
+        List<String> streamed = new ArrayList<>();
+        List<DBPage> failed = new ArrayList<>();
+
+        meetups.stream(null, 2, new RequestListener<DBPage>() {
+            @Override
+            public void onSuccess(DBPage page) {
+                streamed.addAll(ids(page.documents()));
+                provider.failReads(1);
+            }
+
+            @Override
+            public void onFailure(DBPage page) {
+                failed.add(page);
+            }
+        });
+
+        assertEquals(Arrays.asList("a", "b"), streamed);
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).documents().isEmpty());
+    }
+
+    @Test
+    public void saveWritesOnlyChangedFields() {
+        DBDocument meetup = meetups.get("a", new RequestListener<>());
+        meetup.set("joinedUsers", Arrays.asList("anna", "bert"));
+        meetup.save(new RequestListener<>());
+
+        assertEquals(2, provider.fieldsWritten());
+        assertEquals("anna", meetups.get("a", new RequestListener<>()).get("creator"));
+
+        provider.resetCounters();
+        meetup.save(new RequestListener<>());
+        assertEquals(0, provider.writes());
+
+        // a touched document writes only the fields that are derived on save
+        meetup.touch();
+        meetup.save(new RequestListener<>());
+        assertEquals(1, provider.writes());
+        assertEquals(1, provider.fieldsWritten());
+
+        DBDocument partial = meetups.create("a");
+        partial.set("name", "fika");
+        partial.save(new RequestListener<>());
+        assertEquals("anna", meetups.get("a", new RequestListener<>()).get("creator"));
+
+        partial.overwrite(new RequestListener<>());
+        assertNull(meetups.get("a", new RequestListener<>()).get("creator"));
+    }
+
+    @Test
+    public void liveQueryDeliversOnlyChanges() {
+        MapBounds gothenburg = new MapBounds(57.68, 11.95, 57.72, 11.985);
+        List<String> changes = new ArrayList<>();
+        int[] updates = new int[1];
+
+        DBSubscription subscription = meetups.listenWithin(gothenburg, new QueryFilter("visibility", QueryFilter.EQUAL, "PUBLIC"), new DBListener() {
+            @Override
+            public void onAdded(DBDocument document) {
+                changes.add("+" + document.id());
+            }
+
+            @Override
+            public void onModified(DBDocument document) {
+                changes.add("~" + document.id());
+            }
+
+            @Override
+            public void onRemoved(DBDocument document) {
+                changes.add("-" + document.id());
+            }
+
+            @Override
+            public void update() {
+                updates[0]++;
+            }
+        });
+
+        assertEquals(Arrays.asList("+a"), changes);
+        provider.resetCounters();
+        assertEquals(0, provider.reads());
+
+        save("f", 57.70, 11.96, Visibility.PUBLIC, "bert", 4);
+        save("g", 57.70, 11.96, Visibility.FRIENDS, "bert", 4);
+        DBDocument a = meetups.create("a");
+        a.set("maxAttendees", 6);
+        a.save(new RequestListener<>());
+        a.set("coord_lon", 12.5);
+        a.save(new RequestListener<>());
+        meetups.create("f").delete(new RequestListener<>());
+
+        assertEquals(Arrays.asList("+a", "+f", "~a", "-a", "-f"), changes);
+        assertEquals(4, provider.reads());
+        assertEquals(5, updates[0]);
+
+        subscription.remove();
+        save("h", 57.70, 11.96, Visibility.PUBLIC, "bert", 4);
+        assertEquals(5, changes.size());
+    }
+
+    @Test
+    public void concurrentJoinsAreNotLost() throws InterruptedException {
+        int joiners = 300;
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+
+        for (int i = 0; i < joiners; i++) {
+            String user = "user" + i;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                DBDocument meetup = meetups.create("b");
+                meetup.arrayUnion("joinedUsers", user);
+                meetup.increment("joinCount", 1);
+                meetup.save(new RequestListener<>());
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        DBDocument meetup = meetups.get("b", new RequestListener<>());
+        assertEquals(joiners + 1, ((List<?>) meetup.get("joinedusers")).size());
+        assertEquals((long) joiners, meetup.get("joincount"));
+        assertEquals(joiners, provider.writes());
+        assertEquals(1, provider.reads());
+
+        DBDocument deleted = meetups.create("deleted");
+        deleted.arrayUnion("joinedUsers", "anna");
+        deleted.save(new RequestListener<>());
+        assertTrue(meetups.get("deleted", new RequestListener<>()).isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    private MemoryProvider memory;
+    private CachingProvider provider;
+    private DBCollection users;
+
+    @Before
+    public void setUp() {
+        memory = new MemoryProvider();
+        provider = new CachingProvider(memory, new DocumentCache(), new RequestScheduler(), RetryPolicy.none(), new CircuitBreaker());
+        users = provider.collection("users");
+
+        DBDocument anna = users.create("anna");
+        anna.set("name", "anna");
+        anna.set("friends", java.util.Arrays.asList("bert", "cecilia"));
+        anna.overwrite(new RequestListener<>());
+    }
+
+    @Test
+    public void recordsCallsOutcomesDocumentsAndBytes() {
+        provider.cache().clear();
+        users.get("anna", new RequestListener<>());
+        users.get("anna", new RequestListener<>());
+        users.get("bert", new RequestListener<>());
+        memory.failReads(1);
+        users.get("cecilia", new RequestListener<>());
+        users.search(new QueryFilter("name", QueryFilter.EQUAL, "anna"), new RequestListener<>());
+
+        Metrics.Operation get = provider.metrics().operation("users", "get");
+        assertEquals(4, get.calls());
+        assertEquals(2, get.successes());
+        assertEquals(1, get.completes());
+        assertEquals(1, get.failures());
+        assertEquals(2, get.documents());
+        assertEquals(4, get.latency().count());
+
+        // "anna" + 16, "name" + "anna", "friends" + "bert" + "cecilia", "last-save" + its date,
+        // for the two gets above and the one that reads the date
+        String lastSave = (String) users.get("anna", new RequestListener<>()).get("last-save");
+        assertEquals(3 * (5 + 16 + 5 + 5 + 8 + 5 + 8 + 10 + lastSave.length() + 1), get.bytes());
+        assertEquals(1, provider.metrics().operation("users", "search").documents());
+        assertEquals(1, provider.metrics().operation("users", "overwrite").successes());
+    }
+
+    @Test
+    public void histogramPercentilesAreBucketBounds() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 0; i < 95; i++) {
+            histogram.record(3_000_000);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.record(700_000_000);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(5, histogram.percentile(50));
+        assertEquals(5, histogram.percentile(95));
+        assertEquals(700, histogram.percentile(99));
+        assertEquals(700, histogram.maxMillis());
+    }
+
+    @Test
+    public void dumpsOperationsTimersAndGaugesToAFile() throws IOException {
+        users.get("anna", new RequestListener<>());
+        provider.metrics().time("map.meetUpMarkers", 30_000_000);
+
+        File file = File.createTempFile("metrics", ".txt");
+        file.deleteOnExit();
+        provider.metrics().dump(file);
+        String dump = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+
+        assertTrue(dump.contains("users get calls=1 success=1"));
+        assertTrue(dump.contains("map.meetUpMarkers count=1 p50=30ms"));
+        assertTrue(dump.contains("circuitBreaker.state=CLOSED"));
+        assertTrue(dump.contains("cache.hits=1"));
+    }
+}
@@ -0,0 +1,41 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.GeoPoint;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageTokenTest {
+
+    @Test
+    public void snapshotValuesRoundTrip() {
+        DBDocument document = new MemoryProvider().collection("meetups").create("a,b");
+        document.set("name", "fika, på café");
+        document.set("created", new Timestamp(1_560_000_000L, 123_456_000));
+        document.set("place", new GeoPoint(57.7, 11.97));
+        document.set("start", new Date(1_560_000_000_000L));
+        document.set("tags", Arrays.asList("x", 2L, null, true));
+        document.set("startDate", Collections.singletonMap("timeInMillis", 5L));
+
+        List<QueryFilter.Order> orders = new QueryFilter().orderBy("name").orderBy("created").orderBy("place")
+                .orderBy("start").orderBy("tags").orderBy("startDate", true).getOrders();
+        PageToken token = PageToken.decode(PageToken.encode(document, orders), orders);
+
+        assertEquals("a,b", token.id());
+        assertEquals(Arrays.asList("fika, på café", new Timestamp(1_560_000_000L, 123_456_000), new GeoPoint(57.7, 11.97),
+                new Date(1_560_000_000_000L), Arrays.asList("x", 2L, null, true), Collections.singletonMap("timeInMillis", 5L)),
+                token.values());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aMalformedTokenIsRejected() {
+        PageToken.decode("p1,sa,l1,Tx", new QueryFilter().orderBy("created").getOrders());
+    }
+}
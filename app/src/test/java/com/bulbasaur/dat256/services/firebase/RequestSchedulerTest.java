@@ -0,0 +1,193 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.DETAIL;
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.PREFETCH;
+import static com.bulbasaur.dat256.services.firebase.RequestScheduler.Priority.VIEWPORT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestSchedulerTest {
+
+    private final List<String> started = new ArrayList<>();
+    private final List<Runnable> running = new ArrayList<>();
+
+    private RequestScheduler.Request request(String name) {
+        return done -> {
+            started.add(name);
+            running.add(done);
+        };
+    }
+
+    private void finishFirst() {
+        running.remove(0).run();
+    }
+
+    @Test
+    public void capsAndServesByWeightedPriority() {
+        RequestScheduler scheduler = new RequestScheduler(1);
+
+        scheduler.submit(VIEWPORT, request("busy"));
+        for (int i = 0; i < 8; i++) {
+            scheduler.submit(PREFETCH, request("p"));
+            scheduler.submit(DETAIL, request("d"));
+            scheduler.submit(VIEWPORT, request("v"));
+        }
+
+        assertEquals(1, scheduler.inFlight());
+        assertEquals(8, scheduler.queueDepth(VIEWPORT));
+
+        for (int i = 0; i < 7; i++) {
+            finishFirst();
+            assertEquals(1, scheduler.inFlight());
+        }
+
+        // four viewport requests, two detail requests and one prefetch request per round
+        assertEquals("[busy, v, v, v, d, d, p, v]", started.toString());
+        assertEquals(4, scheduler.queueDepth(VIEWPORT));
+        assertEquals(7, scheduler.stats(PREFETCH).queueDepth());
+        assertEquals(1, scheduler.stats(PREFETCH).started());
+
+        while (!running.isEmpty()) {
+            finishFirst();
+        }
+        assertEquals(25, started.size());
+        assertEquals(0, scheduler.inFlight());
+        assertEquals(9, scheduler.stats(VIEWPORT).submitted());
+    }
+
+    @Test
+    public void requestsThatFinishDirectlyDoNotHoldTheirPlace() {
+        RequestScheduler scheduler = new RequestScheduler(2);
+        int[] count = new int[1];
+
+        for (int i = 0; i < 1000; i++) {
+            scheduler.submit(DETAIL, done -> {
+                count[0]++;
+                done.run();
+                done.run();
+            });
+        }
+
+        assertEquals(1000, count[0]);
+        assertEquals(0, scheduler.inFlight());
+        assertTrue(scheduler.stats(DETAIL).maxWaitMillis() >= 0);
+    }
+
+    @Test
+    public void cachingProviderSchedulesOnlyMisses() {
+        List<Runnable> callbacks = new ArrayList<>();
+        MemoryProvider memory = new MemoryProvider(callbacks::add);
+        RequestScheduler scheduler = new RequestScheduler(1);
+        CachingProvider provider = new CachingProvider(memory, new DocumentCache(), scheduler);
+
+        DBDocument anna = memory.collection("users").create("anna");
+        anna.set("name", "anna");
+        anna.save(new RequestListener<>());
+        callbacks.remove(0).run();
+
+        DBCollection viewport = provider.withPriority(VIEWPORT).collection("users");
+        DBCollection prefetch = provider.withPriority(PREFETCH).collection("users");
+        prefetch.get("bert", new RequestListener<>());
+        viewport.get("anna", new RequestListener<>());
+
+        // the prefetch read holds the only place, so the viewport read waits for it
+        assertEquals(1, callbacks.size());
+        assertEquals(1, scheduler.queueDepth(VIEWPORT));
+
+        // bert is not found, which is only decided one turn of the executor later
+        callbacks.remove(0).run();
+        assertEquals(1, scheduler.queueDepth(VIEWPORT));
+        callbacks.remove(0).run();
+        assertEquals(1, callbacks.size());
+        callbacks.remove(0).run();
+        assertEquals(0, scheduler.inFlight());
+
+        // a cache hit is not scheduled
+        viewport.get("anna", new RequestListener<>());
+        assertEquals(1, scheduler.stats(VIEWPORT).submitted());
+    }
+
+    @Test
+    public void cancelledReadsAreNotStartedOrDelivered() {
+        List<Runnable> callbacks = new ArrayList<>();
+        MemoryProvider memory = new MemoryProvider(callbacks::add);
+        RequestScheduler scheduler = new RequestScheduler(1);
+        CachingProvider provider = new CachingProvider(memory, new DocumentCache(), scheduler);
+
+        for (String id : new String[] {"anna", "bert"}) {
+            DBDocument user = memory.collection("users").create(id);
+            user.set("name", id);
+            user.save(new RequestListener<>());
+            callbacks.remove(0).run();
+        }
+        memory.resetCounters();
+
+        CancellationToken first = new CancellationToken();
+        CancellationToken second = new CancellationToken();
+        DBCollection live = provider.withPriority(VIEWPORT).collection("users");
+        DBCollection stale = provider.withPriority(VIEWPORT).withCancellation(first).collection("users");
+        List<String> delivered = new ArrayList<>();
+
+        live.get("anna", new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                delivered.add("live " + object.id());
+            }
+        });
+        // the same read with a token is not shared with the read without one
+        stale.get("anna", new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                delivered.add("stale " + object.id());
+            }
+        });
+        assertEquals(1, scheduler.queueDepth(VIEWPORT));
+
+        // the queued read is cancelled, so it is never started
+        first.cancel();
+        callbacks.remove(0).run();
+        assertTrue(callbacks.isEmpty());
+        assertEquals(0, scheduler.inFlight());
+        assertEquals(1, memory.requests());
+
+        // a read in flight is cancelled, so its result is cached but not delivered
+        provider.withCancellation(second).collection("users").get("bert", new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                delivered.add("cancelled " + object.id());
+            }
+        });
+        second.cancel();
+        callbacks.remove(0).run();
+
+        assertEquals("[live anna]", delivered.toString());
+        assertTrue(provider.cache().get("users", "bert") != null);
+        assertEquals(0, scheduler.inFlight());
+
+        // a cache hit of a cancelled read is not delivered either
+        provider.withCancellation(second).collection("users").get("bert", new RequestListener<DBDocument>() {
+            @Override
+            public void onSuccess(DBDocument object) {
+                delivered.add("cached " + object.id());
+            }
+        });
+        provider.withCancellation(second).collection("users").getAll(Arrays.asList("anna", "bert"), new RequestListener<List<? extends DBDocument>>() {
+            @Override
+            public void onSuccess(List<? extends DBDocument> object) {
+                delivered.add("cached all");
+            }
+        });
+        while (!callbacks.isEmpty()) {
+            callbacks.remove(0).run();
+        }
+
+        assertEquals("[live anna]", delivered.toString());
+        assertEquals(2, memory.requests());
+    }
+}
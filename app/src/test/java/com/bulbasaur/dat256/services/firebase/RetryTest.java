@@ -0,0 +1,156 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import com.bulbasaur.dat256.model.MapBounds;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryTest {
+
+    private MemoryProvider memory;
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        memory = new MemoryProvider();
+
+        DBDocument anna = memory.collection("users").create("anna");
+        anna.set("name", "anna");
+        anna.save(new RequestListener<>());
+
+        memory.resetCounters();
+    }
+
+    private CachingProvider provider(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+        return new CachingProvider(memory, new DocumentCache(), new RequestScheduler(), retryPolicy, circuitBreaker);
+    }
+
+    private <E> RequestListener<E> record(String name) {
+        return new RequestListener<E>() {
+            @Override
+            public void onSuccess(E object) {
+                results.add(name + " success");
+            }
+
+            @Override
+            public void onComplete(E object) {
+                results.add(name + " complete");
+            }
+
+            @Override
+            public void onFailure(E object) {
+                results.add(name + " failure");
+            }
+        };
+    }
+
+    @Test
+    public void retriesFailedReadsUntilTheySucceed() {
+        CachingProvider provider = provider(new RetryPolicy(3, 0, 0, 0, 0), new CircuitBreaker());
+
+        memory.failReads(2);
+        provider.collection("users").get("anna", record("anna"));
+
+        memory.failReads(3);
+        provider.collection("users").search(new QueryFilter("name", QueryFilter.EQUAL, "anna"), record("search"));
+
+        assertEquals("[anna success, search failure]", results.toString());
+        assertEquals(4, provider.retryPolicy().retries());
+        assertEquals(6, memory.requests());
+    }
+
+    @Test
+    public void openBreakerFailsFastOrServesFromTheOfflineCache() {
+        CachingProvider provider = provider(RetryPolicy.none(), new CircuitBreaker(2, 60_000));
+        DBCollection users = provider.collection("users");
+        MapBounds bounds = new MapBounds(0, 0, 1, 1);
+
+        memory.setUnavailable(true);
+        users.searchWithin(bounds, record("within"));
+        users.searchWithin(bounds, record("within"));
+        assertEquals(CircuitBreaker.State.OPEN, provider.circuitBreaker().state());
+        assertEquals(2, memory.requests());
+
+        // no more requests are made while the breaker is open
+        users.searchWithin(bounds, record("within"));
+        users.get("anna", record("anna"));
+        users.get("bert", record("bert"));
+
+        assertEquals("[within failure, within failure, within failure, anna success, bert failure]", results.toString());
+        assertEquals(2, memory.requests());
+        assertEquals(3, provider.circuitBreaker().rejected());
+        assertEquals(2, provider.circuitBreaker().fallbacks());
+    }
+
+    @Test
+    public void halfOpenBreakerClosesWhenAReadSucceeds() {
+        CachingProvider provider = provider(RetryPolicy.none(), new CircuitBreaker(1, 0));
+        DBCollection users = provider.collection("users");
+
+        memory.failReads(1);
+        users.get("anna", record("first"));
+        assertEquals(CircuitBreaker.State.OPEN, provider.circuitBreaker().state());
+
+        users.get("anna", record("second"));
+        assertEquals(CircuitBreaker.State.CLOSED, provider.circuitBreaker().state());
+        assertEquals("[first failure, second success]", results.toString());
+        assertEquals(2, memory.requests());
+    }
+
+    @Test
+    public void aFailureAfterCompleteIsNotTakenAsNotFound() {
+        Queue<Runnable> callbacks = new ArrayDeque<>();
+        memory = new MemoryProvider(callbacks::add);
+        DBDocument anna = memory.collection("users").create("anna");
+        anna.set("name", "anna");
+        anna.save(new RequestListener<>());
+        memory.setCompleteBeforeFailure(true);
+
+        CachingProvider provider = provider(new RetryPolicy(2, 0, 0, 0, 0), new CircuitBreaker(2, 60_000));
+        memory.failReads(1);
+        provider.collection("users").get("anna", record("retried"));
+        run(callbacks);
+
+        memory.failReads(2);
+        provider.collection("users").get("bert", record("failed"));
+        run(callbacks);
+
+        assertEquals("[retried success, failed failure]", results.toString());
+        assertEquals(2, provider.retryPolicy().retries());
+        assertEquals(CircuitBreaker.State.OPEN, provider.circuitBreaker().state());
+    }
+
+    private static void run(Queue<Runnable> callbacks) {
+        for (Runnable callback = callbacks.poll(); callback != null; callback = callbacks.poll()) {
+            callback.run();
+        }
+    }
+
+    @Test
+    public void attemptsThatHangTimeOut() throws InterruptedException {
+        memory = new MemoryProvider(callback -> {});
+        CachingProvider provider = provider(new RetryPolicy(2, 0, 0, 50, 0), new CircuitBreaker());
+        CountDownLatch failed = new CountDownLatch(1);
+
+        provider.collection("users").get("anna", new RequestListener<DBDocument>() {
+            @Override
+            public void onFailure(DBDocument object) {
+                failed.countDown();
+            }
+        });
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(2, provider.retryPolicy().timeouts());
+        assertEquals(0, provider.scheduler().inFlight());
+    }
+}
@@ -0,0 +1,62 @@
+package com.bulbasaur.dat256.services.firebase;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TracerTest {
+
+    private static String tid(String json, String name) {
+        Matcher matcher = Pattern.compile("\"name\":\"" + Pattern.quote(name) + "\",\"pid\":\\d+,\"tid\":(\\d+)").matcher(json);
+        assertTrue(name, matcher.find());
+        return matcher.group(1);
+    }
+
+    @Test
+    public void overlappingSpansAreOnSeparateLanes() throws InterruptedException {
+        Tracer tracer = new Tracer();
+        tracer.setEnabled(true);
+
+        Tracer.Span trace = tracer.begin("refresh").arg("generation", 1);
+        Tracer.Span get = trace.child("users.get");
+        Tracer.Span search = trace.child("users.searchWithin");
+        Thread.sleep(2);
+        trace.end();
+        get.end();
+        Thread.sleep(2);
+        search.end();
+        Tracer.Span render = trace.child("render");
+        Thread.sleep(2);
+        render.end();
+        trace.child("not ended");
+
+        String json = tracer.toJson();
+
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("\"args\":{\"name\":\"refresh #1\"}"));
+        assertTrue(json.contains("\"args\":{\"generation\":\"1\"}"));
+        assertTrue(!json.contains("not ended"));
+
+        // the two queries run at the same time, the render comes after them
+        assertEquals("0", tid(json, "refresh"));
+        assertEquals("0", tid(json, "users.get"));
+        assertEquals("1", tid(json, "users.searchWithin"));
+        assertEquals("0", tid(json, "render"));
+    }
+
+    @Test
+    public void disabledTracerRecordsNothing() {
+        Tracer tracer = new Tracer();
+
+        Tracer.Span trace = tracer.begin("refresh");
+        trace.child("users.get").end();
+        trace.end();
+
+        assertEquals(0, tracer.size());
+        assertEquals("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[]}", tracer.toJson());
+    }
+}
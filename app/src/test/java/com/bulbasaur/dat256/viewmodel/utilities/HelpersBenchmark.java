@@ -0,0 +1,128 @@
+package com.bulbasaur.dat256.viewmodel.utilities;
+
+import com.bulbasaur.dat256.model.Coordinates;
+import com.bulbasaur.dat256.model.MeetUp;
+import com.bulbasaur.dat256.services.firebase.CachingProvider;
+import com.bulbasaur.dat256.services.firebase.DBCollection;
+import com.bulbasaur.dat256.services.firebase.DBDocument;
+import com.bulbasaur.dat256.services.firebase.MeetUpCodec;
+import com.bulbasaur.dat256.services.firebase.MemoryProvider;
+import com.bulbasaur.dat256.services.firebase.RequestListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of Helpers.intersection and union on search results of the given size, where half
+ * of the documents of the two results are the same, and of convertDocToMeetUp and
+ * convertDocToUser on such results. the documents are the cached documents of a CachingProvider
+ * in front of the in-memory database, like the ones the app gets. intersection and union change
+ * their first list, so they work on a fresh copy each time, copyOnly measures the copy. run
+ * with ./gradlew :app:benchmark, which also reports the allocation rate, it is not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HelpersBenchmark {
+
+    @Param({"50", "500"})
+    public int size;
+
+    private List<DBDocument> first;
+    private List<DBDocument> second;
+    private List<DBDocument> users;
+
+    @Setup
+    public void setUp() {
+        CachingProvider provider = new CachingProvider(new MemoryProvider());
+        DBCollection meetUps = provider.collection("meetups");
+        DBCollection userCollection = provider.collection("users");
+        List<DBDocument> documents = new ArrayList<>();
+        users = new ArrayList<>();
+
+        for (int i = 0; i < size * 3 / 2; i++) {
+            Calendar start = Calendar.getInstance();
+            Calendar end = Calendar.getInstance();
+            end.add(Calendar.HOUR, 2);
+
+            DBDocument meetUp = meetUps.create("meetup" + i);
+            MeetUpCodec.getInstance().encode(new MeetUp("meetup" + i, "user" + i, "meetup " + i,
+                    new Coordinates(57.7 + i * 1e-4, 11.97), "description of meetup " + i,
+                    MeetUp.Categories.values()[i % MeetUp.Categories.values().length], 20, start, end,
+                    MeetUp.Visibility.PUBLIC, new ArrayList<>(), new ArrayList<>()), meetUp);
+            meetUp.save(new RequestListener<>());
+            documents.add(meetUps.get(meetUp.id(), new RequestListener<>()));
+
+            DBDocument user = userCollection.create("user" + i);
+            user.set("firstname", "first" + i);
+            user.set("lastname", "last" + i);
+            user.set("phone", "+4670000" + i);
+            user.set("coord_lat", 57.7 + i * 1e-4);
+            user.set("coord_lon", 11.97);
+            user.set("score", i);
+            user.set("friends", Arrays.asList("user" + (i + 1), "user" + (i + 2)));
+            user.save(new RequestListener<>());
+            users.add(userCollection.get(user.id(), new RequestListener<>()));
+        }
+
+        first = new ArrayList<>(documents.subList(0, size));
+        second = new ArrayList<>(documents.subList(size / 2, size / 2 + size));
+        users = users.subList(0, size);
+    }
+
+    @Benchmark
+    public List<DBDocument> copyOnly() {
+        return new ArrayList<>(first);
+    }
+
+    @Benchmark
+    public List<DBDocument> intersection() {
+        return Helpers.intersection(new ArrayList<>(first), second);
+    }
+
+    @Benchmark
+    public List<DBDocument> union() {
+        return Helpers.union(new ArrayList<>(first), second);
+    }
+
+    @Benchmark
+    public void convertDocToMeetUp(Blackhole blackhole) {
+        for (DBDocument document : first) {
+            blackhole.consume(Helpers.convertDocToMeetUp(document));
+        }
+    }
+
+    @Benchmark
+    public void convertDocToUser(Blackhole blackhole) {
+        for (DBDocument document : users) {
+            blackhole.consume(Helpers.convertDocToUser(document));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HelpersBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+    }
+}
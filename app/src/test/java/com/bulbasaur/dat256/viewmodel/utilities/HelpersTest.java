@@ -0,0 +1,63 @@
+package com.bulbasaur.dat256.viewmodel.utilities;
+
+import com.bulbasaur.dat256.services.firebase.DBCollection;
+import com.bulbasaur.dat256.services.firebase.DBDocument;
+import com.bulbasaur.dat256.services.firebase.MemoryProvider;
+import com.bulbasaur.dat256.services.firebase.RequestListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HelpersTest {
+
+    private MemoryProvider provider;
+    private DBCollection meetups;
+
+    @Before
+    public void setUp() {
+        provider = new MemoryProvider();
+        meetups = provider.collection("meetups");
+
+        for (String id : Arrays.asList("a", "b", "c")) {
+            DBDocument meetup = meetups.create(id);
+            meetup.set("name", id);
+            meetup.save(new RequestListener<>());
+        }
+
+        provider.resetCounters();
+    }
+
+    @Test
+    public void aLookupIsOneRoundTrip() {
+        List<DBDocument> found = new ArrayList<>();
+        for (String id : Arrays.asList("a", "b", "c")) {
+            Helpers.retrieveDocumentAndPerformAction(meetups, id, found::add);
+        }
+
+        assertEquals(3, found.size());
+        for (DBDocument document : found) {
+            assertTrue(document.isLoaded());
+            assertEquals(document.id(), document.get("name"));
+        }
+        assertEquals(3, provider.requests());
+        assertEquals(3, provider.reads());
+    }
+
+    @Test
+    public void savingAFieldReadsTheDocumentOnce() {
+        List<DBDocument> saved = new ArrayList<>();
+        Helpers.saveField(meetups, "a", "name", "fika", saved::add);
+
+        assertEquals(1, saved.size());
+        assertEquals(1, provider.reads());
+        assertEquals(1, provider.writes());
+        assertEquals("fika", meetups.get("a", new RequestListener<>()).get("name"));
+    }
+}